@@ -0,0 +1,189 @@
+package org.webcat.ecommerce.datahandler.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ClassPathResource;
+import org.webcat.ecommerce.datahandler.application.dtos.ETLRequestDTO;
+import org.webcat.ecommerce.datahandler.application.dtos.ETLResponseDTO;
+import org.webcat.ecommerce.datahandler.application.pipeline.ETLPipeline;
+import org.webcat.ecommerce.datahandler.application.use_cases.implementations.ETLMinImp;
+import org.webcat.ecommerce.datahandler.benchmarks.support.InMemoryProcessedDataRepository;
+import org.webcat.ecommerce.datahandler.benchmarks.support.InMemoryRawDataRepository;
+import org.webcat.ecommerce.datahandler.benchmarks.support.Payloads;
+import org.webcat.ecommerce.datahandler.domain.model.entities.RawData;
+import org.webcat.ecommerce.datahandler.domain.service.etl.implementations.ExtractDataImpl;
+import org.webcat.ecommerce.datahandler.domain.service.etl.implementations.LoadDataImpl;
+import org.webcat.ecommerce.datahandler.domain.service.etl.implementations.TransformDataImpl;
+import org.webcat.ecommerce.datahandler.infrastructure.cache.HazelcastContentIndex;
+import org.webcat.ecommerce.datahandler.infrastructure.cache.HazelcastETLCache;
+import org.webcat.ecommerce.datahandler.infrastructure.metrics.ETLMetrics;
+import org.webcat.ecommerce.datahandler.shared.helpers.SnowflakeIDGenerator;
+
+/**
+ * {@link ETLBenchmark}
+ * <p>
+ * {@link ETLMinImp#runETL(ETLRequestDTO)} end to end, with in-memory stand-ins for the raw (MinIO)
+ * and processed (MySQL) repositories and the job status map. Measures the pipeline itself without
+ * network or DB time.
+ * </p>
+ * <p>
+ * With streaming, every file is a json array of orders read record by record into pooled UTF-8
+ * buffers, otherwise a {id, rawContent} document read as a String. Run with -prof gc to compare
+ * the allocation rate and GC time of the two.
+ * </p>
+ * <p>
+ * Every fourth file is a re-upload of a file loaded by an earlier job (25% duplicate volume).
+ * With dedup the re-uploads are linked to the earlier result by their content hash instead of
+ * being transformed and loaded again.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ETLBenchmark
+{
+
+  @Param({"1000"})
+  private Integer fileCount;
+
+  @Param({"4096", "65536"})
+  private Integer payloadSize;
+
+  @Param({"false", "true"})
+  private Boolean streaming;
+
+  @Param({"false", "true"})
+  private Boolean dedup;
+
+  private InMemoryProcessedDataRepository processedDataRepository;
+  private final ConcurrentHashMap<String, Long> contentHashes =
+      new ConcurrentHashMap<>();
+  // The hashes left by the earlier job, every run starts from them.
+  private Map<String, Long> earlierHashes;
+  private ETLMinImp etl;
+  private ETLRequestDTO request;
+
+  @Setup
+  public void setUp()
+  {
+    InMemoryRawDataRepository rawDataRepository =
+        new InMemoryRawDataRepository();
+    this.processedDataRepository =
+        new InMemoryProcessedDataRepository();
+
+    List<String> fileNames =
+        new ArrayList<>(this.fileCount);
+    List<String> earlierFileNames =
+        new ArrayList<>();
+    for (Long id =
+        1L; id <= this.fileCount; id++)
+    {
+      String payload = Payloads.orders(
+          this.payloadSize, id * 100000L);
+      this.store(rawDataRepository, id,
+          payload);
+      fileNames.add(rawDataRepository
+          .generateObjectName(id));
+
+      // The earlier upload of the same export, under another id.
+      if (id % 4 == 0)
+      {
+        Long earlierId =
+            this.fileCount + id;
+        this.store(rawDataRepository,
+            earlierId, payload);
+        earlierFileNames.add(
+            rawDataRepository
+                .generateObjectName(earlierId));
+      }
+    }
+
+    ETLPipeline pipeline = new ETLPipeline(
+        new ExtractDataImpl(rawDataRepository,
+            true, 64, this.streaming),
+        new TransformDataImpl(
+            new ClassPathResource(
+                "transform/orders.json"),
+            ETLMetrics.NONE),
+        new LoadDataImpl(
+            this.processedDataRepository),
+        new HazelcastContentIndex(
+            this.contentHashes),
+        8, 4, 2, 256, 500, this.dedup,
+        8388608L);
+
+    // The data validation service is only used by the webhook. Jobs run
+    // on the calling thread so runETL returns once the job is done.
+    this.etl = new ETLMinImp(null, pipeline, null,
+        new HazelcastETLCache(
+            new ConcurrentHashMap<>()),
+        new SnowflakeIDGenerator(1, 1),
+        Runnable::run, 500L,
+        ETLMetrics.NONE);
+    this.etl.runETL(new ETLRequestDTO(
+        earlierFileNames));
+    this.earlierHashes =
+        Map.copyOf(this.contentHashes);
+    this.request =
+        new ETLRequestDTO(fileNames);
+  }
+
+  // The previous run left the hashes of its own files, which would make
+  // every file a duplicate.
+  @Setup(Level.Invocation)
+  public void resetContentHashes()
+  {
+    this.contentHashes.clear();
+    this.contentHashes
+        .putAll(this.earlierHashes);
+  }
+
+  @TearDown(Level.Iteration)
+  public void clearLoadedRows()
+  {
+    this.processedDataRepository.clear();
+  }
+
+  private void store(
+      InMemoryRawDataRepository rawDataRepository,
+      Long id, String payload)
+  {
+    if (this.streaming)
+    {
+      rawDataRepository.saveRecords(id,
+          payload.getBytes(
+              StandardCharsets.UTF_8));
+    } else
+    {
+      rawDataRepository
+          .save(new RawData(id, payload));
+    }
+  }
+
+  @Benchmark
+  public ETLResponseDTO runETL()
+  {
+    return this.etl.runETL(this.request);
+  }
+}
@@ -0,0 +1,94 @@
+package org.webcat.ecommerce.datahandler.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.webcat.ecommerce.datahandler.benchmarks.support.Payloads;
+import org.webcat.ecommerce.datahandler.domain.model.entities.RawData;
+import org.webcat.ecommerce.datahandler.infrastructure.codec.GzipCodec;
+import org.webcat.ecommerce.datahandler.infrastructure.codec.RawDataCodec;
+import org.webcat.ecommerce.datahandler.infrastructure.codec.RawDataCodecs;
+import org.webcat.ecommerce.datahandler.infrastructure.codec.ZstdCodec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * {@link RawDataSerializationBenchmark}
+ * <p>
+ * Jackson (de)serialization of {@link RawData} the way MinIORawDataRepository does it: written
+ * through the codec into the upload stream on save, and readValue over the decoded object stream
+ * on GET. The codec time is what compression adds to the CPU side of a transfer.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RawDataSerializationBenchmark
+{
+
+  @Param({"1024", "65536", "1048576"})
+  private Integer payloadSize;
+
+  @Param({"identity", "gzip", "zstd"})
+  private String codecName;
+
+  private final ObjectMapper objectMapper =
+      new ObjectMapper();
+
+  private RawDataCodec codec;
+  private RawData rawData;
+  private byte[] serialized;
+
+  @Setup
+  public void setUp() throws IOException
+  {
+    this.codec = new RawDataCodecs(
+        List.of(new GzipCodec(6),
+            new ZstdCodec(3)),
+        this.codecName).getWriteCodec();
+    this.rawData = new RawData(1L,
+        Payloads.orders(this.payloadSize));
+    this.serialized = this.serialize();
+  }
+
+  @Benchmark
+  public byte[] serialize()
+      throws IOException
+  {
+    ByteArrayOutputStream stored =
+        new ByteArrayOutputStream();
+    // Closes the encoder, which finishes the compressed stream.
+    this.objectMapper.writeValue(
+        this.codec.encode(stored),
+        this.rawData);
+    return stored.toByteArray();
+  }
+
+  @Benchmark
+  public RawData deserialize()
+      throws IOException
+  {
+    return this.objectMapper.readValue(
+        this.codec.decode(
+            new ByteArrayInputStream(
+                this.serialized)),
+        RawData.class);
+  }
+}
@@ -0,0 +1,141 @@
+package org.webcat.ecommerce.datahandler.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.webcat.ecommerce.datahandler.shared.helpers.SnowflakeIDGenerator;
+
+/**
+ * {@link SnowflakeIDGeneratorBenchmark}
+ * <p>
+ * Id generation throughput with every thread sharing one generator. The synchronized generator
+ * that {@link SnowflakeIDGenerator} replaced is kept here as the baseline.
+ * </p>
+ * <p>
+ * The main method runs the benchmark with 1 to 64 threads, one JSON result file per thread count:
+ * </p>
+ * <p>
+ * mvn -P benchmark test-compile exec:exec
+ * -Dbenchmark.main=org.webcat.ecommerce.datahandler.benchmarks.SnowflakeIDGeneratorBenchmark
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnowflakeIDGeneratorBenchmark
+{
+
+  private static final int BLOCK_SIZE =
+      1000;
+
+  private static final int[] THREAD_COUNTS =
+      {1, 2, 4, 8, 16, 32, 64};
+
+  // The synchronized, spinning generator, same layout and epoch as the
+  // lock free one so both do the same amount of work per id.
+  static class SynchronizedGenerator
+  {
+    private final long epoch =
+        1741611497000L;
+    private final long nodeBits =
+        (1L << 17) | (1L << 12);
+    private long sequence = 0L;
+    private long previousTimestamp = -1L;
+
+    synchronized Long generateId()
+    {
+      long timestamp =
+          System.currentTimeMillis();
+
+      if (timestamp < this.previousTimestamp)
+      {
+        throw new RuntimeException(
+            "Clock moved backwards");
+      }
+
+      if (timestamp == this.previousTimestamp)
+      {
+        this.sequence =
+            (this.sequence + 1) & 4095L;
+        if (this.sequence == 0L)
+        {
+          while ((timestamp = System
+              .currentTimeMillis()) <= this.previousTimestamp)
+          {
+            // Spinning until the next millisecond.
+          }
+        }
+      } else
+      {
+        this.sequence = 0L;
+      }
+
+      this.previousTimestamp = timestamp;
+
+      return ((timestamp
+          - this.epoch) << 22)
+          | this.nodeBits | this.sequence;
+    }
+  }
+
+  private final SnowflakeIDGenerator lockFree =
+      new SnowflakeIDGenerator(1, 1);
+
+  private final SynchronizedGenerator synchronizedBaseline =
+      new SynchronizedGenerator();
+
+  @Benchmark
+  public long lockFreeGenerateId()
+  {
+    return this.lockFree.generateId();
+  }
+
+  // Ids per millisecond when bulk loaders reserve blocks.
+  @Benchmark
+  @OperationsPerInvocation(BLOCK_SIZE)
+  public long[] lockFreeGenerateIds()
+  {
+    return this.lockFree
+        .generateIds(BLOCK_SIZE);
+  }
+
+  @Benchmark
+  public Long synchronizedGenerateId()
+  {
+    return this.synchronizedBaseline
+        .generateId();
+  }
+
+  public static void main(String[] args)
+      throws RunnerException
+  {
+    for (int threads : THREAD_COUNTS)
+    {
+      new Runner(new OptionsBuilder()
+          .include(
+              SnowflakeIDGeneratorBenchmark.class
+                  .getSimpleName())
+          .threads(threads)
+          .resultFormat(ResultFormatType.JSON)
+          .result("target/jmh-snowflake-"
+              + threads + "-threads.json")
+          .build()).run();
+    }
+  }
+}
@@ -0,0 +1,136 @@
+package org.webcat.ecommerce.datahandler.benchmarks;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ClassPathResource;
+import org.webcat.ecommerce.datahandler.benchmarks.support.Payloads;
+import org.webcat.ecommerce.datahandler.domain.model.entities.ProcessedData;
+import org.webcat.ecommerce.datahandler.domain.model.entities.RawData;
+import org.webcat.ecommerce.datahandler.domain.service.etl.implementations.TransformDataImpl;
+import org.webcat.ecommerce.datahandler.infrastructure.metrics.ETLMetrics;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * {@link TransformDataBenchmark}
+ * <p>
+ * {@link TransformDataImpl#transform(RawData)} over payloads from 1 KB to 4 MB, with the
+ * transform/orders.json spec.
+ * </p>
+ * <p>
+ * <li>transform - the compiled plan, a single pass over the parser tokens.</li>
+ * <li>transformBytes - the same over the UTF-8 bytes of the payload, the way streamed records
+ * are transformed.</li>
+ * <li>jsonNodeBaseline - the same spec written by hand against a {@link JsonNode} tree.</li>
+ * </p>
+ * <p>
+ * Run with -prof gc to see the allocation rate of each.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformDataBenchmark
+{
+
+  @Param({"1024", "65536", "1048576",
+      "4194304"})
+  private Integer payloadSize;
+
+  private final TransformDataImpl transformation =
+      new TransformDataImpl(
+          new ClassPathResource(
+              "transform/orders.json"),
+          ETLMetrics.NONE);
+
+  private final ObjectMapper objectMapper =
+      new ObjectMapper();
+
+  private RawData rawData;
+  private RawData rawBytes;
+
+  @Setup
+  public void setUp()
+  {
+    String payload =
+        Payloads.orders(this.payloadSize);
+    byte[] bytes = payload
+        .getBytes(StandardCharsets.UTF_8);
+    this.rawData = new RawData(1L, payload);
+    this.rawBytes = new RawData(1L, bytes,
+        0, bytes.length, 0, null);
+  }
+
+  @Benchmark
+  public ProcessedData transform()
+  {
+    return this.transformation
+        .transform(this.rawData);
+  }
+
+  @Benchmark
+  public ProcessedData transformBytes()
+  {
+    return this.transformation
+        .transform(this.rawBytes);
+  }
+
+  @Benchmark
+  public String jsonNodeBaseline()
+      throws IOException
+  {
+    JsonNode orders = this.objectMapper
+        .readTree(this.rawData
+            .getRawContent());
+    ArrayNode rows =
+        this.objectMapper.createArrayNode();
+
+    for (JsonNode order : orders)
+    {
+      ObjectNode row = rows.addObject();
+      row.put("order_id",
+          order.at("/orderId").asLong());
+      row.put("customer_name",
+          order.at("/customer/name")
+              .asText().trim());
+      row.put("country",
+          order.at("/customer/country")
+              .asText().trim()
+              .toUpperCase(Locale.ROOT));
+      row.put("currency",
+          order.at("/currency").asText()
+              .trim()
+              .toUpperCase(Locale.ROOT));
+      row.put("total",
+          new BigDecimal(order.at("/total")
+              .asText().trim()).setScale(2,
+                  RoundingMode.HALF_EVEN));
+      row.set("items", order.at("/items"));
+    }
+
+    return this.objectMapper
+        .writeValueAsString(rows);
+  }
+}
@@ -0,0 +1,100 @@
+package org.webcat.ecommerce.datahandler.benchmarks.support;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.webcat.ecommerce.datahandler.domain.model.entities.ProcessedData;
+import org.webcat.ecommerce.datahandler.infrastructure.repository.ProcessedDataRepository;
+import org.webcat.ecommerce.datahandler.shared.helpers.SnowflakeIDGenerator;
+
+/**
+ * {@link InMemoryProcessedDataRepository}
+ * <p>
+ * A stand-in for the MySQL repository, assigns snowflake ids like the real one and keeps the rows
+ * in a map.
+ * </p>
+ */
+public class InMemoryProcessedDataRepository
+    implements ProcessedDataRepository
+{
+
+  private final SnowflakeIDGenerator snowflakeIDGenerator =
+      new SnowflakeIDGenerator(1, 1);
+  private final Map<Long, ProcessedData> rows =
+      new ConcurrentHashMap<>();
+
+  @Override
+  public ProcessedData findById(Long id)
+  {
+    return this.rows.get(id);
+  }
+
+  @Override
+  public Boolean save(
+      ProcessedData processedData)
+  {
+    return this.saveAll(
+        List.of(processedData))[0];
+  }
+
+  @Override
+  public Boolean[] saveAll(
+      List<ProcessedData> processedData)
+  {
+    Boolean[] results =
+        new Boolean[processedData.size()];
+    long[] ids = this.snowflakeIDGenerator
+        .generateIds(processedData.size());
+
+    for (Integer i =
+        0; i < processedData.size(); i++)
+    {
+      ProcessedData row =
+          processedData.get(i);
+      if (row.getReplaceBefore() != null)
+      {
+        this.rows.values().removeIf(
+            old -> old.getRawDataId()
+                .equals(row.getRawDataId())
+                && old.getId() < row
+                    .getReplaceBefore());
+      }
+      row.setId(ids[i]);
+      this.rows.put(ids[i], row);
+      results[i] = true;
+    }
+    return results;
+  }
+
+  @Override
+  public void forEachRawDataId(
+      Consumer<Long> consumer)
+  {
+    this.rows.values().stream()
+        .map(ProcessedData::getRawDataId)
+        .distinct().forEach(consumer);
+  }
+
+  @Override
+  public Set<Long> findLoadedRawDataIds(
+      List<Long> rawDataIds)
+  {
+    Set<Long> loaded = new HashSet<>();
+    this.forEachRawDataId(rawId -> {
+      if (rawDataIds.contains(rawId))
+      {
+        loaded.add(rawId);
+      }
+    });
+    return loaded;
+  }
+
+  public void clear()
+  {
+    this.rows.clear();
+  }
+}
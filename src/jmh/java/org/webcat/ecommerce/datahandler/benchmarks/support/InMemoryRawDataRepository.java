@@ -0,0 +1,188 @@
+package org.webcat.ecommerce.datahandler.benchmarks.support;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.webcat.ecommerce.datahandler.domain.model.entities.RawData;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ObjectScan;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ObjectVersion;
+import org.webcat.ecommerce.datahandler.domain.service.etl.interfaces.RecordSink;
+import org.webcat.ecommerce.datahandler.infrastructure.repository.RawDataRepository;
+import org.webcat.ecommerce.datahandler.shared.helpers.JsonRecordReader;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * {@link InMemoryRawDataRepository}
+ * <p>
+ * A stand-in for the MinIO repository. Objects are kept as serialized JSON bytes and decoded on
+ * every read, the same way they are after a GET.
+ * </p>
+ */
+public class InMemoryRawDataRepository
+    implements RawDataRepository
+{
+
+  private final ObjectMapper objectMapper =
+      new ObjectMapper();
+  private final JsonRecordReader recordReader =
+      new JsonRecordReader(
+          this.objectMapper.getFactory());
+  private final Map<String, byte[]> objects =
+      new ConcurrentHashMap<>();
+
+  @Override
+  public String generateObjectName(
+      Long id)
+  {
+    return "raw-data_" + id + ".json";
+  }
+
+  @Override
+  public RawData findById(Long id)
+  {
+    return this.findByFileName(
+        this.generateObjectName(id));
+  }
+
+  @Override
+  public RawData findByFileName(
+      String fileName)
+  {
+    byte[] object =
+        this.objects.get(fileName);
+    if (object == null)
+    {
+      throw new RuntimeException(
+          "Failed to fetch raw data with name: "
+              + fileName);
+    }
+
+    try
+    {
+      return this.objectMapper.readValue(
+          new ByteArrayInputStream(object),
+          RawData.class);
+    } catch (IOException e)
+    {
+      throw new RuntimeException(
+          "Failed to fetch raw data with name: "
+              + fileName,
+          e);
+    }
+  }
+
+  // Stores an object holding many records (NDJSON or a json array) as is.
+  public void saveRecords(Long id,
+      byte[] records)
+  {
+    this.objects.put(this.generateObjectName(id),
+        records);
+  }
+
+  @Override
+  public Integer streamRecords(
+      String fileName, RecordSink sink)
+      throws InterruptedException
+  {
+    byte[] object =
+        this.objects.get(fileName);
+    if (object == null)
+    {
+      throw new RuntimeException(
+          "Failed to stream raw data with name: "
+              + fileName);
+    }
+
+    try
+    {
+      return this.recordReader.read(
+          new ByteArrayInputStream(object),
+          this.rawIdOf(fileName), sink);
+    } catch (IOException e)
+    {
+      throw new RuntimeException(
+          "Failed to stream raw data with name: "
+              + fileName,
+          e);
+    }
+  }
+
+  @Override
+  public Boolean save(RawData rawData)
+  {
+    try
+    {
+      this.objects.put(
+          this.generateObjectName(rawData.getID()),
+          this.objectMapper
+              .writeValueAsBytes(rawData));
+      return true;
+    } catch (IOException e)
+    {
+      throw new RuntimeException(
+          "Failed to save raw data", e);
+    }
+  }
+
+  // The ETag stands in for MinIO's content hash.
+  @Override
+  public ObjectVersion stat(
+      String fileName)
+  {
+    byte[] object =
+        this.objects.get(fileName);
+    if (object == null)
+    {
+      throw new RuntimeException(
+          "Failed to stat raw data with name: "
+              + fileName);
+    }
+    return new ObjectVersion(
+        Integer.toHexString(
+            Arrays.hashCode(object)),
+        null);
+  }
+
+  // In key order like a bucket listing. Objects have no last modified time,
+  // so only scans without time bounds select them.
+  @Override
+  public Iterator<String> listObjectNames(
+      ObjectScan scan)
+  {
+    return new TreeSet<>(this.objects.keySet())
+        .stream()
+        .filter(name -> name
+            .startsWith(scan.prefix())
+            && scan.includes(null))
+        .iterator();
+  }
+
+  @Override
+  public Boolean renameObject(
+      String oldName, String newName)
+  {
+    byte[] object =
+        this.objects.remove(oldName);
+    if (object == null)
+    {
+      return false;
+    }
+    this.objects.put(newName, object);
+    return true;
+  }
+
+  // Objects are named raw-data_{id}.json.
+  @Override
+  public Long rawIdOf(String fileName)
+  {
+    return Long.parseLong(fileName
+        .substring(9,
+            fileName.length() - 5));
+  }
+}
@@ -0,0 +1,62 @@
+package org.webcat.ecommerce.datahandler.benchmarks.support;
+
+/**
+ * {@link Payloads}
+ * <p>
+ * Builds order-export like JSON documents of a given size for the benchmarks.
+ * </p>
+ */
+public class Payloads
+{
+  private Payloads()
+  {}
+
+  /**
+   * Returns a JSON array of orders that is at least sizeInBytes long.
+   */
+  public static String orders(
+      Integer sizeInBytes)
+  {
+    return orders(sizeInBytes, 100000L);
+  }
+
+  /**
+   * Same as {@link #orders(Integer)}, numbering the orders from firstOrderId so documents of
+   * different exports differ.
+   */
+  public static String orders(
+      Integer sizeInBytes,
+      Long firstOrderId)
+  {
+    StringBuilder json =
+        new StringBuilder(sizeInBytes + 256);
+    json.append('[');
+
+    Integer orderNumber = 0;
+    while (json.length() < sizeInBytes)
+    {
+      if (orderNumber > 0)
+      {
+        json.append(',');
+      }
+      json.append("{\"orderId\":")
+          .append(firstOrderId + orderNumber)
+          .append(
+              ",\"customer\":{\"name\":\"customer ")
+          .append(orderNumber % 977)
+          .append(
+              "\",\"country\":\"de\"},\"currency\":\"eur\",\"total\":\"")
+          .append(orderNumber % 500).append('.')
+          .append(orderNumber % 100)
+          .append(
+              "\",\"items\":[{\"sku\":\"sku-")
+          .append(orderNumber % 313)
+          .append("\",\"quantity\":")
+          .append(1 + orderNumber % 4)
+          .append("}]}");
+      orderNumber++;
+    }
+
+    return json.append(']').toString();
+  }
+}
@@ -1,12 +1,34 @@
 package org.webcat.ecommerce.datahandler.application.dtos;
 
+import java.time.Instant;
 import java.util.List;
 
+/**
+ * {@link ETLRequestDTO}
+ * <p>
+ * Either the files of a run by name, or a scan of the objects under a prefix (for backfills):
+ * </p>
+ * <p>
+ * <li>{@field List<String> fileNames}</li>
+ * <li>{@field String bucket} (optional, only the bucket raw data is read from can be scanned)</li>
+ * <li>{@field String prefix} (empty for the whole bucket)</li>
+ * <li>{@field Instant modifiedAfter}, {@field Instant modifiedBefore} (optional, ISO-8601, the
+ * lower bound is inclusive and the upper one exclusive)</li>
+ * </p>
+ * <p>
+ * fileNames wins when both are given.
+ * </p>
+ */
 public class ETLRequestDTO
 {
   // Currently I assume they're all from the same bucket.
   private List<String> fileNames;
 
+  private String bucket;
+  private String prefix;
+  private Instant modifiedAfter;
+  private Instant modifiedBefore;
+
 
   public ETLRequestDTO()
   {}
@@ -17,6 +39,17 @@ public class ETLRequestDTO
     this.fileNames = fileNames;
   }
 
+  // A scan of the objects under prefix.
+  public ETLRequestDTO(String bucket,
+      String prefix, Instant modifiedAfter,
+      Instant modifiedBefore)
+  {
+    this.bucket = bucket;
+    this.prefix = prefix;
+    this.modifiedAfter = modifiedAfter;
+    this.modifiedBefore = modifiedBefore;
+  }
+
   public List<String> getFileNames()
   {
     return this.fileNames;
@@ -27,4 +60,46 @@ public class ETLRequestDTO
   {
     this.fileNames = newFileNames;
   }
+
+  public String getBucket()
+  {
+    return this.bucket;
+  }
+
+  public void setBucket(String bucket)
+  {
+    this.bucket = bucket;
+  }
+
+  public String getPrefix()
+  {
+    return this.prefix;
+  }
+
+  public void setPrefix(String prefix)
+  {
+    this.prefix = prefix;
+  }
+
+  public Instant getModifiedAfter()
+  {
+    return this.modifiedAfter;
+  }
+
+  public void setModifiedAfter(
+      Instant modifiedAfter)
+  {
+    this.modifiedAfter = modifiedAfter;
+  }
+
+  public Instant getModifiedBefore()
+  {
+    return this.modifiedBefore;
+  }
+
+  public void setModifiedBefore(
+      Instant modifiedBefore)
+  {
+    this.modifiedBefore = modifiedBefore;
+  }
 }
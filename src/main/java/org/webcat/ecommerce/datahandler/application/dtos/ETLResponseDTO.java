@@ -1,5 +1,7 @@
 package org.webcat.ecommerce.datahandler.application.dtos;
 
+import java.io.Serializable;
+
 import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ETLStatus;
 
 /**
@@ -13,13 +15,36 @@ import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ETLStatus;
  * <p>
  * Boolean success
  * </p>
+ * <p>
+ * String processID, Integer totalFiles, Integer loadedFiles, Integer failedFiles (for ETL jobs)
+ * </p>
+ * <p>
+ * Integer skippedFiles (files an incremental run found already loaded and unchanged, their ids
+ * are null)
+ * </p>
+ * <p>
+ * A prefix scan has no processedFilesIDs, and its totalFiles is only known once the listing was
+ * read.
+ * </p>
+ * </p>
+ * <p>
+ * Serializable since the status of ETL jobs is kept in a Hazelcast map.
  * </p>
  */
 public class ETLResponseDTO
+    implements Serializable
 {
+  private static final long serialVersionUID =
+      1L;
+
   private Long[] processedFilesIDs;
   private ETLStatus status;
   private Boolean success;
+  private String processID;
+  private Integer totalFiles;
+  private Integer loadedFiles;
+  private Integer failedFiles;
+  private Integer skippedFiles;
 
   public ETLResponseDTO()
   {}
@@ -74,4 +99,64 @@ public class ETLResponseDTO
     this.success = success;
     return this;
   }
+
+  public String getProcessID()
+  {
+    return this.processID;
+  }
+
+  public ETLResponseDTO setProcessID(
+      String processID)
+  {
+    this.processID = processID;
+    return this;
+  }
+
+  public Integer getTotalFiles()
+  {
+    return this.totalFiles;
+  }
+
+  public ETLResponseDTO setTotalFiles(
+      Integer totalFiles)
+  {
+    this.totalFiles = totalFiles;
+    return this;
+  }
+
+  public Integer getLoadedFiles()
+  {
+    return this.loadedFiles;
+  }
+
+  public ETLResponseDTO setLoadedFiles(
+      Integer loadedFiles)
+  {
+    this.loadedFiles = loadedFiles;
+    return this;
+  }
+
+  public Integer getFailedFiles()
+  {
+    return this.failedFiles;
+  }
+
+  public ETLResponseDTO setFailedFiles(
+      Integer failedFiles)
+  {
+    this.failedFiles = failedFiles;
+    return this;
+  }
+
+  public Integer getSkippedFiles()
+  {
+    return this.skippedFiles;
+  }
+
+  public ETLResponseDTO setSkippedFiles(
+      Integer skippedFiles)
+  {
+    this.skippedFiles = skippedFiles;
+    return this;
+  }
 }
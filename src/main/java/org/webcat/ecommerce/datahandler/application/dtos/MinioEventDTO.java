@@ -0,0 +1,48 @@
+package org.webcat.ecommerce.datahandler.application.dtos;
+
+/**
+ * {@link MinioEventDTO}
+ * <p>
+ * A single record of a MinIO bucket notification, only the fields we act on.
+ * </p>
+ * <h4>Fields:</h4>
+ * <li>{@field String eventName} (e.g. s3:ObjectCreated:Put)</li>
+ * <li>{@field String fileName} (the object key)</li>
+ */
+public class MinioEventDTO
+{
+  private String eventName;
+  private String fileName;
+
+  public MinioEventDTO()
+  {}
+
+  public MinioEventDTO(String eventName,
+      String fileName)
+  {
+    this.eventName = eventName;
+    this.fileName = fileName;
+  }
+
+  public String getEventName()
+  {
+    return this.eventName;
+  }
+
+  public void setEventName(
+      String eventName)
+  {
+    this.eventName = eventName;
+  }
+
+  public String getFileName()
+  {
+    return this.fileName;
+  }
+
+  public void setFileName(
+      String fileName)
+  {
+    this.fileName = fileName;
+  }
+}
@@ -0,0 +1,44 @@
+package org.webcat.ecommerce.datahandler.application.dtos;
+
+import java.time.Instant;
+
+/**
+ * {@link RecordingStatusDTO}
+ * <p>
+ * The state of the on-demand flight recording.
+ * </p>
+ * <h4>Fields:</h4>
+ * <li>{@field Boolean recording}</li>
+ * <li>{@field String settings} (the JFR settings it runs with, "default" or "profile")</li>
+ * <li>{@field Instant startTime}</li>
+ */
+public class RecordingStatusDTO
+{
+  private final Boolean recording;
+  private final String settings;
+  private final Instant startTime;
+
+  public RecordingStatusDTO(
+      Boolean recording, String settings,
+      Instant startTime)
+  {
+    this.recording = recording;
+    this.settings = settings;
+    this.startTime = startTime;
+  }
+
+  public Boolean getRecording()
+  {
+    return this.recording;
+  }
+
+  public String getSettings()
+  {
+    return this.settings;
+  }
+
+  public Instant getStartTime()
+  {
+    return this.startTime;
+  }
+}
@@ -0,0 +1,71 @@
+package org.webcat.ecommerce.datahandler.application.dtos;
+
+/**
+ * {@link WebhookQueueStatsDTO}
+ * <p>
+ * A snapshot of the webhook ingestion queue.
+ * </p>
+ * <h4>Fields:</h4>
+ * <li>{@field Integer depth} (notifications waiting or being handled)</li>
+ * <li>{@field Integer capacity}</li>
+ * <li>{@field Long oldestEventAgeMillis} (age of the oldest waiting notification)</li>
+ * <li>{@field Long lastEventAgeMillis} (age of the last handled notification when it was
+ * handled)</li>
+ * <li>{@field Long handledEvents}, {@field Long failedEvents}</li>
+ */
+public class WebhookQueueStatsDTO
+{
+  private final Integer depth;
+  private final Integer capacity;
+  private final Long oldestEventAgeMillis;
+  private final Long lastEventAgeMillis;
+  private final Long handledEvents;
+  private final Long failedEvents;
+
+  public WebhookQueueStatsDTO(
+      Integer depth, Integer capacity,
+      Long oldestEventAgeMillis,
+      Long lastEventAgeMillis,
+      Long handledEvents,
+      Long failedEvents)
+  {
+    this.depth = depth;
+    this.capacity = capacity;
+    this.oldestEventAgeMillis =
+        oldestEventAgeMillis;
+    this.lastEventAgeMillis =
+        lastEventAgeMillis;
+    this.handledEvents = handledEvents;
+    this.failedEvents = failedEvents;
+  }
+
+  public Integer getDepth()
+  {
+    return this.depth;
+  }
+
+  public Integer getCapacity()
+  {
+    return this.capacity;
+  }
+
+  public Long getOldestEventAgeMillis()
+  {
+    return this.oldestEventAgeMillis;
+  }
+
+  public Long getLastEventAgeMillis()
+  {
+    return this.lastEventAgeMillis;
+  }
+
+  public Long getHandledEvents()
+  {
+    return this.handledEvents;
+  }
+
+  public Long getFailedEvents()
+  {
+    return this.failedEvents;
+  }
+}
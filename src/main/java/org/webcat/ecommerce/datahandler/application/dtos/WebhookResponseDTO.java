@@ -0,0 +1,106 @@
+package org.webcat.ecommerce.datahandler.application.dtos;
+
+import java.util.List;
+
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ETLStatus;
+
+/**
+ * {@link WebhookResponseDTO}
+ * <p>
+ * The outcome of a MinIO notification, one result per record in the order of the payload.
+ * </p>
+ * <h4>Fields:</h4>
+ * <li>{@field ETLStatus status} (FAILED if every record failed, READYWITHWARNING if some did,
+ * READY otherwise)</li>
+ * <li>{@field Boolean success} (no record failed)</li>
+ * <li>{@field List<RecordResult> records}</li>
+ */
+public class WebhookResponseDTO
+{
+
+  /**
+   * The outcome of a single record. sfID is the new id of a normalised upload, null otherwise.
+   */
+  public static class RecordResult
+  {
+    private final String eventName;
+    private final String fileName;
+    private final ETLStatus status;
+    private final Long sfID;
+
+    public RecordResult(String eventName,
+        String fileName, ETLStatus status,
+        Long sfID)
+    {
+      this.eventName = eventName;
+      this.fileName = fileName;
+      this.status = status;
+      this.sfID = sfID;
+    }
+
+    public String getEventName()
+    {
+      return this.eventName;
+    }
+
+    public String getFileName()
+    {
+      return this.fileName;
+    }
+
+    public ETLStatus getStatus()
+    {
+      return this.status;
+    }
+
+    public Long getSfID()
+    {
+      return this.sfID;
+    }
+  }
+
+  private final ETLStatus status;
+  private final Boolean success;
+  private final List<RecordResult> records;
+
+  public WebhookResponseDTO(
+      List<RecordResult> records)
+  {
+    Long failed = records.stream()
+        .filter(record -> record
+            .getStatus() == ETLStatus.FAILED)
+        .count();
+    Boolean warned = records.stream()
+        .anyMatch(record -> record
+            .getStatus() == ETLStatus.READYWITHWARNING);
+
+    this.records = records;
+    this.success = failed == 0;
+    if (failed == records.size())
+    {
+      this.status = ETLStatus.FAILED;
+    } else if (failed > 0 || warned)
+    {
+      this.status =
+          ETLStatus.READYWITHWARNING;
+    } else
+    {
+      this.status = ETLStatus.READY;
+    }
+  }
+
+  public ETLStatus getStatus()
+  {
+    return this.status;
+  }
+
+  public Boolean getSuccess()
+  {
+    return this.success;
+  }
+
+  public List<RecordResult> getRecords()
+  {
+    return this.records;
+  }
+}
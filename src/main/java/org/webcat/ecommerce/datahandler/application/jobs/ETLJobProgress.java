@@ -0,0 +1,221 @@
+package org.webcat.ecommerce.datahandler.application.jobs;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.webcat.ecommerce.datahandler.application.dtos.ETLResponseDTO;
+import org.webcat.ecommerce.datahandler.application.pipeline.PipelineListener;
+import org.webcat.ecommerce.datahandler.application.pipeline.PipelineResult;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ETLStatus;
+import org.webcat.ecommerce.datahandler.infrastructure.cache.HazelcastETLCache;
+
+/**
+ * {@link ETLJobProgress}
+ * <p>
+ * Follows a single ETL job and publishes its status to the {@link HazelcastETLCache}.
+ * </p>
+ * <p>
+ * <li>Status changes (PENDING -> RUNNING -> EXTRACTED -> TRANSFORMED -> LOADED/FAILED) are
+ * published right away.</li>
+ * <li>Per-file progress (counts and the ids loaded so far) is published at most once per
+ * publishInterval, a map write per file would slow the pipeline down.</li>
+ * </p>
+ * <p>
+ * A scan's number of files is only known once its listing was read, until then totalFiles is
+ * null. Its ids aren't collected, so following a scan doesn't grow with its size.
+ * </p>
+ */
+public class ETLJobProgress
+    implements PipelineListener
+{
+
+  private final String processID;
+  // null until a scan is done.
+  private volatile Integer totalFiles;
+  // Whether the ids of the loaded files are published.
+  private final Boolean collectIds;
+  private final HazelcastETLCache etlCache;
+  private final Long publishIntervalMillis;
+
+  private final AtomicInteger loadedFiles =
+      new AtomicInteger(0);
+  private final AtomicInteger failedFiles =
+      new AtomicInteger(0);
+  private final AtomicInteger skippedFiles =
+      new AtomicInteger(0);
+  // In the order the files were loaded.
+  private final ConcurrentLinkedQueue<Long> loadedIds =
+      new ConcurrentLinkedQueue<>();
+  private final AtomicLong lastPublished =
+      new AtomicLong(0L);
+
+  private volatile ETLStatus status =
+      ETLStatus.PENDING;
+
+  // totalFiles is null for scans.
+  public ETLJobProgress(
+      String processID,
+      Integer totalFiles,
+      HazelcastETLCache etlCache,
+      Long publishIntervalMillis)
+  {
+    this.processID = processID;
+    this.totalFiles = totalFiles;
+    this.collectIds = totalFiles != null;
+    this.etlCache = etlCache;
+    this.publishIntervalMillis =
+        publishIntervalMillis;
+  }
+
+  public String getProcessID()
+  {
+    return this.processID;
+  }
+
+  public Integer getTotalFiles()
+  {
+    return this.totalFiles;
+  }
+
+  // The job is waiting for a free executor slot.
+  public ETLResponseDTO queued()
+  {
+    return this.moveTo(ETLStatus.PENDING);
+  }
+
+  public ETLResponseDTO started()
+  {
+    return this.moveTo(ETLStatus.RUNNING);
+  }
+
+  // Files an incremental run doesn't need to process, they're published with
+  // the next status.
+  public void skipped(Integer files)
+  {
+    this.skippedFiles.addAndGet(files);
+  }
+
+  public ETLResponseDTO finished(
+      PipelineResult result)
+  {
+    synchronized (this)
+    {
+      if (this.totalFiles == null)
+      {
+        this.totalFiles =
+            result.getFileCount();
+      }
+      // A scan that found nothing didn't fail.
+      Boolean allFailed = result
+          .getFailCounter() > 0
+          && result.getFailCounter()
+              .equals(this.totalFiles);
+
+      this.status = allFailed
+          ? ETLStatus.FAILED
+          : ETLStatus.LOADED;
+      // The final ids are in the order of the requested files, scans have
+      // none.
+      ETLResponseDTO snapshot =
+          this.snapshot(result
+              .getProcessedFilesIDs())
+              .setSuccess(!allFailed);
+      this.etlCache.putJobStatus(
+          this.processID, snapshot);
+      return snapshot;
+    }
+  }
+
+  public ETLResponseDTO failed()
+  {
+    return this.moveTo(ETLStatus.FAILED);
+  }
+
+  @Override
+  public void onLoaded(Integer index,
+      Long processedDataId)
+  {
+    this.loadedFiles.incrementAndGet();
+    if (this.collectIds)
+    {
+      this.loadedIds.add(processedDataId);
+    }
+    this.publishIfDue();
+  }
+
+  @Override
+  public void onFailed(Integer index,
+      String fileName)
+  {
+    this.failedFiles.incrementAndGet();
+    this.publishIfDue();
+  }
+
+  @Override
+  public void onStageFinished(
+      ETLStatus stage)
+  {
+    // LOADED is set by finished(), together with the final ids.
+    if (stage != ETLStatus.LOADED)
+    {
+      this.moveTo(stage);
+    }
+  }
+
+  private ETLResponseDTO moveTo(
+      ETLStatus status)
+  {
+    synchronized (this)
+    {
+      this.status = status;
+      return this.publish();
+    }
+  }
+
+  private void publishIfDue()
+  {
+    Long now = System.currentTimeMillis();
+    Long last = this.lastPublished.get();
+
+    // Only the thread that wins the CAS publishes.
+    if (now - last >= this.publishIntervalMillis
+        && this.lastPublished
+            .compareAndSet(last, now))
+    {
+      synchronized (this)
+      {
+        this.publish();
+      }
+    }
+  }
+
+  private ETLResponseDTO publish()
+  {
+    ETLResponseDTO snapshot =
+        this.snapshot(this.collectIds
+            ? this.loadedIds
+                .toArray(new Long[0])
+            : null)
+            .setSuccess(this.status
+                != ETLStatus.FAILED);
+    this.etlCache.putJobStatus(
+        this.processID, snapshot);
+    return snapshot;
+  }
+
+  private ETLResponseDTO snapshot(
+      Long[] processedFilesIDs)
+  {
+    return new ETLResponseDTO(
+        processedFilesIDs, this.status)
+            .setProcessID(this.processID)
+            .setTotalFiles(this.totalFiles)
+            .setLoadedFiles(
+                this.loadedFiles.get())
+            .setFailedFiles(
+                this.failedFiles.get())
+            .setSkippedFiles(
+                this.skippedFiles.get());
+  }
+}
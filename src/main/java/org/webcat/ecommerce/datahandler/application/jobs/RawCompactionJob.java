@@ -0,0 +1,151 @@
+package org.webcat.ecommerce.datahandler.application.jobs;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ObjectScan;
+import org.webcat.ecommerce.datahandler.infrastructure.logging.Logger;
+import org.webcat.ecommerce.datahandler.infrastructure.repository.RawDataRepository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * {@link RawCompactionJob}
+ * <p>
+ * Packs the small raw objects into segments in the background, so a full reprocessing run lists
+ * a segment instead of every object in it and reads the objects as ranges of it.
+ * </p>
+ * <p>
+ * <li>Every intervalMinutes the objects under prefix last modified more than minAgeHours ago, of
+ * at most maxObjectBytes, are packed by {@link RawDataRepository#compact}.</li>
+ * <li>Objects keep their names, name mappings and watermarks: reads, stat() and listings resolve
+ * them through the segment index.</li>
+ * <li>Runs don't overlap, a run that fails is logged and the next one starts over.</li>
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method Integer compactOnce()}</li>
+ */
+@Component
+public class RawCompactionJob
+{
+
+  private static final Logger LOG =
+      Logger.get(RawCompactionJob.class);
+
+  private final RawDataRepository rawDataRepo;
+
+  private final Boolean enabled;
+  private final Long intervalMinutes;
+  private final Duration minAge;
+  private final Long maxObjectBytes;
+  private final Integer objectsPerSegment;
+  private final String prefix;
+
+  private ScheduledExecutorService scheduler;
+
+  public RawCompactionJob(
+      RawDataRepository rawDataRepo,
+      @Value("${raw-data.compaction.enabled:false}") Boolean enabled,
+      @Value("${raw-data.compaction.interval-minutes:60}") Long intervalMinutes,
+      @Value("${raw-data.compaction.min-age-hours:24}") Long minAgeHours,
+      @Value("${raw-data.compaction.max-object-bytes:1048576}") Long maxObjectBytes,
+      @Value("${raw-data.compaction.objects-per-segment:10000}") Integer objectsPerSegment,
+      @Value("${raw-data.compaction.prefix:raw-data_}") String prefix)
+  {
+    if (intervalMinutes < 1
+        || minAgeHours < 0
+        || maxObjectBytes < 1
+        || objectsPerSegment < 2)
+    {
+      throw new IllegalArgumentException(
+          "Compaction interval and max object size must be positive, segments must hold at least 2 objects");
+    }
+
+    this.rawDataRepo = rawDataRepo;
+    this.enabled = enabled;
+    this.intervalMinutes = intervalMinutes;
+    this.minAge =
+        Duration.ofHours(minAgeHours);
+    this.maxObjectBytes = maxObjectBytes;
+    this.objectsPerSegment =
+        objectsPerSegment;
+    this.prefix = prefix;
+  }
+
+  @PostConstruct
+  public void start()
+  {
+    if (!this.enabled)
+    {
+      return;
+    }
+
+    this.scheduler = Executors
+        .newSingleThreadScheduledExecutor(
+            task -> new Thread(task,
+                "raw-compaction"));
+    this.scheduler.scheduleWithFixedDelay(
+        this::run, this.intervalMinutes,
+        this.intervalMinutes,
+        TimeUnit.MINUTES);
+  }
+
+  @PreDestroy
+  public void stop()
+  {
+    if (this.scheduler == null)
+    {
+      return;
+    }
+    // A segment being written is aborted, its objects stay where they are.
+    this.scheduler.shutdownNow();
+    try
+    {
+      this.scheduler.awaitTermination(30,
+          TimeUnit.SECONDS);
+    } catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Packs what's old and small enough now, returns the number of objects packed.
+   */
+  public Integer compactOnce()
+  {
+    return this.rawDataRepo.compact(
+        new ObjectScan(null, this.prefix, null,
+            Instant.now().minus(this.minAge)),
+        this.maxObjectBytes,
+        this.objectsPerSegment);
+  }
+
+  private void run()
+  {
+    try
+    {
+      Long start = System.nanoTime();
+      Integer packed = this.compactOnce();
+      if (packed > 0)
+      {
+        LOG.atInfo().stage("compaction")
+            .with("objects", packed)
+            .durationNanos(
+                System.nanoTime() - start)
+            .log("Packed small raw objects into segments");
+      }
+    } catch (RuntimeException e)
+    {
+      LOG.atError().stage("compaction")
+          .cause(e)
+          .log("Compaction failed");
+    }
+  }
+}
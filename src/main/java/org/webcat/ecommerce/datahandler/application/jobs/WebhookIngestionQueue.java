@@ -0,0 +1,329 @@
+package org.webcat.ecommerce.datahandler.application.jobs;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.webcat.ecommerce.datahandler.application.dtos.MinioEventDTO;
+import org.webcat.ecommerce.datahandler.application.dtos.WebhookResponseDTO;
+import org.webcat.ecommerce.datahandler.application.use_cases.interfaces.ETL;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ETLStatus;
+import org.webcat.ecommerce.datahandler.infrastructure.logging.Logger;
+import org.webcat.ecommerce.datahandler.infrastructure.queue.WebhookJournal;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * {@link WebhookIngestionQueue}
+ * <p>
+ * Decouples the MinIO webhook from the normalisation. The controller only journals the events
+ * and answers, drainConcurrency workers hand them to {@link ETL#handleMinioEvents(List)}.
+ * </p>
+ * <p>
+ * <li>At most capacity notifications wait at the same time, enqueue() refuses more (MinIO retries
+ * them later).</li>
+ * <li>Notifications are kept in a {@link WebhookJournal} until they're handled, the ones that
+ * weren't are handled after a restart.</li>
+ * <li>A worker merges what's waiting, up to drainBatchSize notifications, into one batch.</li>
+ * </p>
+ * <h4>Metrics:</h4>
+ * <li>{@method Integer getDepth()} (notifications waiting or being handled)</li>
+ * <li>{@method Long getOldestEventAgeMillis()} (age of the oldest waiting notification)</li>
+ * <li>{@method Long getLastEventAgeMillis()} (age of the last notification when it was
+ * handled)</li>
+ * <li>{@method Long getHandledEvents()}, {@method Long getFailedEvents()}</li>
+ */
+@Component
+public class WebhookIngestionQueue
+{
+
+  private static final Logger LOG =
+      Logger.get(WebhookIngestionQueue.class);
+
+  private final ETL etlUseCase;
+  private final ObjectMapper objectMapper;
+  private final WebhookJournal journal;
+
+  private final Integer capacity;
+  private final Integer drainConcurrency;
+  private final Integer drainBatchSize;
+
+  private final BlockingQueue<WebhookJournal.Entry> waiting =
+      new LinkedBlockingQueue<>();
+  // Counts entries from enqueue() until they're acked, so the bound covers
+  // the ones being handled as well.
+  private final AtomicInteger depth =
+      new AtomicInteger(0);
+
+  private final AtomicLong lastEventAgeMillis =
+      new AtomicLong(0L);
+  private final AtomicLong handledEvents =
+      new AtomicLong(0L);
+  private final AtomicLong failedEvents =
+      new AtomicLong(0L);
+
+  private ExecutorService workers;
+  private volatile Boolean running = false;
+
+  public WebhookIngestionQueue(
+      ETL etlUseCase,
+      ObjectMapper objectMapper,
+      @Value("${webhook.queue.journal-dir:./data/webhook-journal}") String journalDir,
+      @Value("${webhook.queue.fsync:true}") Boolean fsync,
+      @Value("${webhook.queue.compact-bytes:67108864}") Long compactBytes,
+      @Value("${webhook.queue.capacity:10000}") Integer capacity,
+      @Value("${webhook.queue.drain-concurrency:4}") Integer drainConcurrency,
+      @Value("${webhook.queue.drain-batch-size:64}") Integer drainBatchSize)
+  {
+    if (capacity < 1 || drainConcurrency < 1
+        || drainBatchSize < 1)
+    {
+      throw new IllegalArgumentException(
+          "Webhook queue capacity, drain concurrency and batch size must be positive");
+    }
+
+    this.etlUseCase = etlUseCase;
+    this.objectMapper = objectMapper;
+    this.journal = new WebhookJournal(
+        Path.of(journalDir), fsync,
+        compactBytes);
+    this.capacity = capacity;
+    this.drainConcurrency =
+        drainConcurrency;
+    this.drainBatchSize = drainBatchSize;
+  }
+
+  @PostConstruct
+  public void start()
+  {
+    // Whatever wasn't handled before the last shutdown goes first, even
+    // past the capacity.
+    List<WebhookJournal.Entry> unacked =
+        this.journal.open();
+    this.depth.addAndGet(unacked.size());
+    this.waiting.addAll(unacked);
+    if (!unacked.isEmpty())
+    {
+      LOG.info(
+          "Replaying {} webhook notifications from the journal",
+          unacked.size());
+    }
+
+    this.running = true;
+    AtomicInteger threadCount =
+        new AtomicInteger(0);
+    this.workers = Executors
+        .newFixedThreadPool(
+            this.drainConcurrency,
+            task -> new Thread(task,
+                "webhook-worker-"
+                    + threadCount
+                        .incrementAndGet()));
+    for (Integer i =
+        0; i < this.drainConcurrency; i++)
+    {
+      this.workers.submit(this::drain);
+    }
+  }
+
+  @PreDestroy
+  public void stop()
+  {
+    // The batches being handled are finished, entries still waiting stay in
+    // the journal for the next start.
+    this.running = false;
+    this.workers.shutdown();
+    try
+    {
+      if (!this.workers.awaitTermination(
+          30, TimeUnit.SECONDS))
+      {
+        this.workers.shutdownNow();
+      }
+    } catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+    this.journal.close();
+  }
+
+  /**
+   * Journals a notification for the workers. Returns false if the queue is full.
+   */
+  public Boolean enqueue(
+      List<MinioEventDTO> events)
+  {
+    if (this.depth
+        .incrementAndGet() > this.capacity)
+    {
+      this.depth.decrementAndGet();
+      return false;
+    }
+
+    try
+    {
+      this.waiting.add(this.journal.append(
+          this.objectMapper
+              .writeValueAsString(events)));
+      return true;
+    } catch (JsonProcessingException
+        | RuntimeException e)
+    {
+      this.depth.decrementAndGet();
+      throw new RuntimeException(
+          "Failed to enqueue the webhook notification",
+          e);
+    }
+  }
+
+  public Integer getDepth()
+  {
+    return this.depth.get();
+  }
+
+  public Integer getCapacity()
+  {
+    return this.capacity;
+  }
+
+  public Long getOldestEventAgeMillis()
+  {
+    WebhookJournal.Entry oldest =
+        this.waiting.peek();
+    return oldest == null ? 0L
+        : System.currentTimeMillis()
+            - oldest.enqueuedAt();
+  }
+
+  public Long getLastEventAgeMillis()
+  {
+    return this.lastEventAgeMillis.get();
+  }
+
+  public Long getHandledEvents()
+  {
+    return this.handledEvents.get();
+  }
+
+  public Long getFailedEvents()
+  {
+    return this.failedEvents.get();
+  }
+
+  private void drain()
+  {
+    List<WebhookJournal.Entry> batch =
+        new ArrayList<>(
+            this.drainBatchSize);
+
+    while (this.running)
+    {
+      try
+      {
+        // Polling so the worker notices a stop.
+        WebhookJournal.Entry first =
+            this.waiting.poll(200,
+                TimeUnit.MILLISECONDS);
+        if (first == null)
+        {
+          continue;
+        }
+        batch.add(first);
+      } catch (InterruptedException e)
+      {
+        return;
+      }
+      this.waiting.drainTo(batch,
+          this.drainBatchSize - 1);
+
+      this.handle(batch);
+
+      // Forced down in the middle of the batch, it's handled again after
+      // the restart.
+      if (Thread.currentThread()
+          .isInterrupted())
+      {
+        return;
+      }
+
+      for (WebhookJournal.Entry entry : batch)
+      {
+        this.journal.ack(entry.seq());
+        this.depth.decrementAndGet();
+      }
+      batch.clear();
+    }
+  }
+
+  private void handle(
+      List<WebhookJournal.Entry> batch)
+  {
+    List<MinioEventDTO> events =
+        new ArrayList<>();
+    for (WebhookJournal.Entry entry : batch)
+    {
+      try
+      {
+        events.addAll(this.objectMapper
+            .readValue(entry.payload(),
+                new TypeReference<List<MinioEventDTO>>()
+                {}));
+      } catch (JsonProcessingException e)
+      {
+        // Only a torn journal line can't be read back.
+        LOG.warn(
+            "Dropping unreadable webhook notification {}: {}",
+            entry.seq(), e.getMessage());
+      }
+    }
+
+    this.lastEventAgeMillis.set(System
+        .currentTimeMillis()
+        - batch.get(batch.size() - 1)
+            .enqueuedAt());
+
+    try
+    {
+      WebhookResponseDTO response =
+          this.etlUseCase
+              .handleMinioEvents(events);
+      if (response == null)
+      {
+        return;
+      }
+
+      Long failed = response.getRecords()
+          .stream()
+          .filter(record -> record
+              .getStatus() == ETLStatus.FAILED)
+          .count();
+      this.handledEvents.addAndGet(
+          events.size() - failed);
+      this.failedEvents.addAndGet(failed);
+    } catch (RuntimeException e)
+    {
+      // Retrying would block the queue behind a notification that keeps
+      // failing, it's dropped like a failed record.
+      LOG.atError().stage("webhook")
+          .with("events", events.size())
+          .cause(e)
+          .log("Failed to handle webhook events");
+      this.failedEvents
+          .addAndGet(events.size());
+    }
+  }
+}
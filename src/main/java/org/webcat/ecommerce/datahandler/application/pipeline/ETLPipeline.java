@@ -0,0 +1,985 @@
+package org.webcat.ecommerce.datahandler.application.pipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.webcat.ecommerce.datahandler.domain.model.entities.ProcessedData;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ETLStatus;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ObjectScan;
+import org.webcat.ecommerce.datahandler.domain.service.etl.interfaces.ExtractData;
+import org.webcat.ecommerce.datahandler.domain.service.etl.interfaces.LoadData;
+import org.webcat.ecommerce.datahandler.domain.service.etl.interfaces.RecordSink;
+import org.webcat.ecommerce.datahandler.domain.service.etl.interfaces.TransformData;
+import org.webcat.ecommerce.datahandler.infrastructure.cache.HazelcastContentIndex;
+import org.webcat.ecommerce.datahandler.infrastructure.logging.Logger;
+import org.webcat.ecommerce.datahandler.shared.helpers.RecordDigest;
+
+/**
+ * {@link ETLPipeline}
+ * <p>
+ * Runs extract, transform and load as concurrent stages. The stages are linked by bounded queues,
+ * so MinIO GETs, transformations and MySQL inserts of different files overlap in time.
+ * </p>
+ * <p>
+ * <li>Every stage has its own number of workers.</li>
+ * <li>A full queue blocks the stage that feeds it, so a slow stage slows down the stages before
+ * it instead of piling files up in memory (backpressure).</li>
+ * <li>The last worker of a stage to finish closes the queue of the next stage.</li>
+ * </p>
+ * <p>
+ * When the extraction service has a max in flight, the extract stage is a single worker that
+ * starts the files' async GETs as it takes them, and at most that many files are being extracted
+ * at the same time. Their records are handed on by virtual threads, so no thread waits on a GET.
+ * Otherwise extractParallelism workers read one file each.
+ * </p>
+ * <p>
+ * Past extraction the stages move records, a file can hold many of them when it's streamed. A
+ * file is loaded once all of its records are, and failed if any of them (or its extraction)
+ * failed.
+ * </p>
+ * <p>
+ * With deduplication on, the extract stage hashes the records of every file as they're read and
+ * holds them back until the file ends. A file whose hash is in the {@link HazelcastContentIndex}
+ * is reported with the result of the identical payload and never reaches the transform stage,
+ * the others go on and their hash is recorded once they're loaded. Files whose records add up to
+ * more than maxBufferedBytes are streamed through as usual, without deduplication.
+ * </p>
+ * <p>
+ * A run can reload files: their rows replace the ones their raw data got before, in the
+ * transaction that saves them. A reloaded file is never linked to an identical payload, its old
+ * rows would stay.
+ * </p>
+ * <p>
+ * The files come from a list, or from an {@link ObjectScan} whose listing is paged through as the
+ * extract stage takes the files. Per-file state only lives while a file is in the pipeline, and a
+ * scan doesn't collect the ids of its files, so a scan's memory stays flat whatever its size.
+ * </p>
+ */
+@Component
+public class ETLPipeline
+{
+
+  private static final Logger LOG =
+      Logger.get(ETLPipeline.class);
+
+  private final ExtractData extractionService;
+  private final TransformData transformationService;
+  private final LoadData loadingService;
+
+  // Number of workers per stage, extractParallelism only applies when
+  // files are extracted by blocking workers.
+  private final Integer extractParallelism;
+  private final Integer transformParallelism;
+  private final Integer loadParallelism;
+
+  // The capacity of each queue between two stages.
+  private final Integer queueCapacity;
+
+  // The max number of files a load worker saves in one call.
+  private final Integer loadBatchSize;
+
+  // Links payloads identical to one loaded before to its result, null when
+  // deduplication is off.
+  private final HazelcastContentIndex contentIndex;
+  // The most record bytes of a single file held back until its hash is
+  // known.
+  private final Long maxBufferedBytes;
+
+  // A single unit of work done by a stage, returns false if the file
+  // failed in this stage.
+  @FunctionalInterface
+  private interface StageStep
+  {
+    Boolean process(PipelineItem item);
+  }
+
+  // The loop of a single stage worker, returns when its input queue is
+  // closed.
+  @FunctionalInterface
+  private interface StageWorker
+  {
+    void run() throws InterruptedException;
+  }
+
+  // The records of a file kept back until it's known whether the file is a
+  // duplicate, and the hash of the records read so far.
+  private static class HeldRecords
+  {
+    final RecordDigest digest =
+        new RecordDigest();
+    final List<PipelineItem> items =
+        new ArrayList<>();
+    Long bytes = 0L;
+    // Set once the file outgrew the buffer, the rest of its records go
+    // straight through.
+    Boolean overflowed = false;
+
+    void release()
+    {
+      for (PipelineItem item : this.items)
+      {
+        item.rawData.release();
+      }
+      this.items.clear();
+    }
+  }
+
+  // The bookkeeping of a single run, shared by all of its workers. The
+  // per-file state is in the files' PipelineFile.
+  private static class RunState
+  {
+    // The result of every file by its index, null when the run doesn't
+    // collect them.
+    final Long[] processedFilesIDs;
+    final HazelcastContentIndex contentIndex;
+    final AtomicInteger failCounter =
+        new AtomicInteger(0);
+    // Set by the feeder once every file was handed to the extract stage.
+    final AtomicInteger fileCount =
+        new AtomicInteger(0);
+    final PipelineListener listener;
+
+    RunState(Long[] processedFilesIDs,
+        PipelineListener listener,
+        HazelcastContentIndex contentIndex)
+    {
+      this.processedFilesIDs =
+          processedFilesIDs;
+      this.contentIndex = contentIndex;
+      this.listener = listener;
+    }
+
+    // A record of the file entered the pipeline.
+    void extracted(PipelineItem item)
+    {
+      item.file.pendingRecords
+          .incrementAndGet();
+    }
+
+    void extractionFailed(
+        PipelineItem item, Throwable cause)
+    {
+      LOG.atWarn().file(item.file.fileName)
+          .stage("extract").cause(cause)
+          .log("Failed to extract file");
+      item.file.failed = true;
+    }
+
+    // The file's payload was loaded before, it's reported with that result
+    // instead of being loaded again.
+    void linked(PipelineItem item,
+        Long processedDataId)
+    {
+      LOG.atInfo().file(item.file.fileName)
+          .id(processedDataId).stage("link")
+          .log("Identical to a payload loaded before, linked to it");
+      item.file.processedDataId =
+          processedDataId;
+    }
+
+    // No more records of the file are coming.
+    void extractionDone(PipelineFile file)
+    {
+      this.recordDone(file);
+    }
+
+    void loaded(PipelineItem item)
+    {
+      // A file is reported by the id of its first record.
+      if (item.processedData
+          .getRecordIndex() == 0)
+      {
+        item.file.processedDataId =
+            item.processedData.getId();
+      }
+      this.recordDone(item.file);
+    }
+
+    // cause is null when the stage reported the failure itself.
+    void failed(PipelineItem item,
+        String stage, Throwable cause)
+    {
+      LOG.atWarn().file(item.file.fileName)
+          .stage(stage).cause(cause)
+          .log("Failed to {} file", stage);
+      item.file.failed = true;
+      this.recordDone(item.file);
+    }
+
+    private void recordDone(
+        PipelineFile file)
+    {
+      if (file.pendingRecords
+          .decrementAndGet() > 0)
+      {
+        return;
+      }
+
+      if (file.failed)
+      {
+        this.failCounter.incrementAndGet();
+        this.listener.onFailed(file.index,
+            file.fileName);
+      } else
+      {
+        this.remember(file);
+        // Written before the workers finish, read after.
+        if (this.processedFilesIDs != null)
+        {
+          this.processedFilesIDs[file.index] =
+              file.processedDataId;
+        }
+        this.listener.onLoaded(file.index,
+            file.processedDataId);
+      }
+    }
+
+    private void remember(
+        PipelineFile file)
+    {
+      if (file.contentHash == null
+          || file.processedDataId == null)
+      {
+        return;
+      }
+
+      // Losing an entry only costs a later duplicate its shortcut.
+      try
+      {
+        this.contentIndex.putResult(
+            file.contentHash,
+            file.processedDataId);
+      } catch (RuntimeException e)
+      {
+        LOG.atWarn().file(file.fileName)
+            .id(file.processedDataId)
+            .cause(e)
+            .log("Failed to record the content hash");
+      }
+    }
+  }
+
+  // Without deduplication.
+  public ETLPipeline(
+      ExtractData extractionService,
+      TransformData transformationService,
+      LoadData loadingService,
+      Integer extractParallelism,
+      Integer transformParallelism,
+      Integer loadParallelism,
+      Integer queueCapacity,
+      Integer loadBatchSize)
+  {
+    this(extractionService,
+        transformationService,
+        loadingService, null,
+        extractParallelism,
+        transformParallelism,
+        loadParallelism, queueCapacity,
+        loadBatchSize, false, 0L);
+  }
+
+  @Autowired
+  public ETLPipeline(
+      ExtractData extractionService,
+      TransformData transformationService,
+      LoadData loadingService,
+      HazelcastContentIndex contentIndex,
+      @Value("${etl.pipeline.extract-parallelism:8}") Integer extractParallelism,
+      @Value("${etl.pipeline.transform-parallelism:4}") Integer transformParallelism,
+      @Value("${etl.pipeline.load-parallelism:2}") Integer loadParallelism,
+      @Value("${etl.pipeline.queue-capacity:256}") Integer queueCapacity,
+      @Value("${etl.pipeline.load-batch-size:500}") Integer loadBatchSize,
+      @Value("${etl.dedup.enabled:false}") Boolean dedupEnabled,
+      @Value("${etl.dedup.max-buffered-bytes:8388608}") Long maxBufferedBytes)
+  {
+    if (extractParallelism < 1
+        || transformParallelism < 1
+        || loadParallelism < 1)
+    {
+      throw new IllegalArgumentException(
+          "Every pipeline stage needs at least one worker");
+    }
+
+    if (queueCapacity < 1
+        || loadBatchSize < 1)
+    {
+      throw new IllegalArgumentException(
+          "Pipeline queue capacity and load batch size must be positive");
+    }
+
+    this.extractionService =
+        extractionService;
+    this.transformationService =
+        transformationService;
+    this.loadingService =
+        loadingService;
+    this.extractParallelism =
+        extractParallelism;
+    this.transformParallelism =
+        transformParallelism;
+    this.loadParallelism =
+        loadParallelism;
+    this.queueCapacity = queueCapacity;
+    this.loadBatchSize = loadBatchSize;
+    this.contentIndex = dedupEnabled
+        ? contentIndex
+        : null;
+    this.maxBufferedBytes =
+        maxBufferedBytes;
+  }
+
+  /**
+   * Pushes every file through extract -> transform -> load and blocks until the last file is done.
+   *
+   * @param fileNames The files to process.
+   * @return The ids of the processed data (of the first record of every file, in the order of
+   *         fileNames) and the number of failed files.
+   */
+  public PipelineResult run(
+      List<String> fileNames)
+  {
+    return this.run(fileNames,
+        PipelineListener.NONE);
+  }
+
+  /**
+   * Same as {@link #run(List)}, reporting the progress of the run to listener.
+   */
+  public PipelineResult run(
+      List<String> fileNames,
+      PipelineListener listener)
+  {
+    return this.run(fileNames, null,
+        listener);
+  }
+
+  /**
+   * Same as {@link #run(List, PipelineListener)}, the rows of file i replace the rows its raw data
+   * has with an id below replaceBefore[i]. A null array or entry just inserts them.
+   */
+  public PipelineResult run(
+      List<String> fileNames,
+      Long[] replaceBefore,
+      PipelineListener listener)
+  {
+    return this.run(fileNames.iterator(),
+        new Long[fileNames.size()],
+        replaceBefore, listener);
+  }
+
+  /**
+   * Pushes the files a scan selects through the pipeline while the listing is paged through, and
+   * blocks until the last file is done. The ids of the files aren't collected, so memory doesn't
+   * grow with the number of files: the listener sees every file's result, the returned result
+   * only has the counts.
+   */
+  public PipelineResult run(
+      ObjectScan scan,
+      PipelineListener listener)
+  {
+    Iterator<String> fileNames =
+        this.extractionService
+            .listFiles(scan);
+    try
+    {
+      return this.run(fileNames, null, null,
+          listener);
+    } finally
+    {
+      // A run that failed stops reading the listing half way.
+      if (fileNames instanceof AutoCloseable listing)
+      {
+        try
+        {
+          listing.close();
+        } catch (Exception e)
+        {
+          LOG.atWarn().cause(e)
+              .log("Failed to close the listing");
+        }
+      }
+    }
+  }
+
+  // processedFilesIDs has a slot per file, or is null to leave the ids out.
+  private PipelineResult run(
+      Iterator<String> fileNames,
+      Long[] processedFilesIDs,
+      Long[] replaceBefore,
+      PipelineListener listener)
+  {
+    RunState state =
+        new RunState(processedFilesIDs,
+            listener, this.contentIndex);
+
+    BlockingQueue<PipelineItem> toExtract =
+        new ArrayBlockingQueue<>(
+            this.queueCapacity);
+    BlockingQueue<PipelineItem> toTransform =
+        new ArrayBlockingQueue<>(
+            this.queueCapacity);
+    BlockingQueue<PipelineItem> toLoad =
+        new ArrayBlockingQueue<>(
+            this.queueCapacity);
+
+    // Null when the files are extracted by blocking workers.
+    Integer maxInFlight =
+        this.extractionService
+            .getMaxInFlight();
+    Integer extractWorkers =
+        maxInFlight == null
+            ? this.extractParallelism
+            : 1;
+
+    // One thread feeds the files, the rest are the stage workers.
+    Integer threadCount = 1
+        + extractWorkers
+        + this.transformParallelism
+        + this.loadParallelism;
+    ExecutorService workers =
+        Executors.newFixedThreadPool(
+            threadCount,
+            stageThreadFactory());
+    // Hands on the records of async extractions.
+    ExecutorService recordThreads =
+        Executors
+            .newVirtualThreadPerTaskExecutor();
+    CompletionService<Void> tasks =
+        new ExecutorCompletionService<>(
+            workers);
+
+    StageStep transform = item -> {
+      try
+      {
+        item.processedData =
+            this.transformationService
+                .transform(item.rawData);
+        if (item.processedData == null)
+        {
+          return false;
+        }
+        item.processedData.setReplaceBefore(
+            item.file.replaceBefore);
+        return true;
+      } finally
+      {
+        // The raw content isn't needed anymore, a pooled buffer goes back
+        // for the next record.
+        item.rawData.release();
+        item.rawData = null;
+      }
+    };
+
+    try
+    {
+      // A full queue pauses the feeder, and with it the listing of a
+      // scan.
+      tasks.submit(() -> {
+        Integer index = 0;
+        while (fileNames.hasNext())
+        {
+          toExtract.put(new PipelineItem(
+              new PipelineFile(index,
+                  fileNames.next(),
+                  replaceBefore == null ? null
+                      : replaceBefore[index])));
+          index++;
+        }
+        state.fileCount.set(index);
+        closeQueue(toExtract,
+            extractWorkers);
+        return null;
+      });
+
+      startStage(tasks, extractWorkers,
+          toTransform,
+          this.transformParallelism,
+          ETLStatus.EXTRACTED, state,
+          maxInFlight == null
+              ? () -> runExtractWorker(
+                  toExtract, toTransform,
+                  state)
+              : () -> runAsyncExtractWorker(
+                  toExtract, toTransform,
+                  state, maxInFlight,
+                  recordThreads));
+      startStage(tasks,
+          this.transformParallelism,
+          toLoad, this.loadParallelism,
+          ETLStatus.TRANSFORMED, state,
+          () -> runWorker(toTransform,
+              toLoad, transform, "transform",
+              state));
+      startStage(tasks,
+          this.loadParallelism, null, 0,
+          ETLStatus.LOADED, state,
+          () -> runLoadWorker(toLoad,
+              state));
+
+      // Waiting for the tasks in the order they finish, so a task that
+      // died is noticed right away instead of after the ones before it.
+      for (Integer i =
+          0; i < threadCount; i++)
+      {
+        tasks.take().get();
+      }
+    } catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(
+          "ETL pipeline was interrupted",
+          e);
+    } catch (ExecutionException e)
+    {
+      throw new RuntimeException(
+          "ETL pipeline stage failed",
+          e.getCause());
+    } finally
+    {
+      // Stops the remaining workers if we're leaving because of an error.
+      workers.shutdownNow();
+      recordThreads.shutdownNow();
+    }
+
+    return new PipelineResult(
+        state.processedFilesIDs,
+        state.failCounter.get(),
+        state.fileCount.get());
+  }
+
+  private void startStage(
+      CompletionService<Void> tasks,
+      Integer parallelism,
+      BlockingQueue<PipelineItem> output,
+      Integer downstreamParallelism,
+      ETLStatus stage, RunState state,
+      StageWorker worker)
+  {
+    AtomicInteger activeWorkers =
+        new AtomicInteger(parallelism);
+
+    for (Integer i =
+        0; i < parallelism; i++)
+    {
+      tasks.submit(() -> {
+        worker.run();
+
+        // The last worker of the stage tells the next stage that no more
+        // files are coming.
+        if (activeWorkers
+            .decrementAndGet() == 0)
+        {
+          state.listener
+              .onStageFinished(stage);
+          if (output != null)
+          {
+            closeQueue(output,
+                downstreamParallelism);
+          }
+        }
+        return null;
+      });
+    }
+  }
+
+  // Takes files and puts their records on the next queue as they're read.
+  private void runExtractWorker(
+      BlockingQueue<PipelineItem> input,
+      BlockingQueue<PipelineItem> output,
+      RunState state)
+      throws InterruptedException
+  {
+    PipelineItem file = input.take();
+
+    while (file != PipelineItem.END)
+    {
+      PipelineItem current = file;
+      HeldRecords held =
+          this.newHeldRecords();
+      RuntimeException failure = null;
+      try
+      {
+        this.extractionService
+            .extractRecords(
+                current.file.fileName,
+                this.recordSink(current,
+                    held, output, state));
+      } catch (RuntimeException e)
+      {
+        failure = e;
+      }
+      this.finishExtraction(current, held,
+          failure, output, state);
+
+      file = input.take();
+    }
+  }
+
+  // Starts the extraction of every file it takes without waiting for it, a
+  // file past maxInFlight waits for one of the running ones to finish.
+  private void runAsyncExtractWorker(
+      BlockingQueue<PipelineItem> input,
+      BlockingQueue<PipelineItem> output,
+      RunState state, Integer maxInFlight,
+      ExecutorService recordThreads)
+      throws InterruptedException
+  {
+    Semaphore inFlight =
+        new Semaphore(maxInFlight);
+    PipelineItem file = input.take();
+
+    while (file != PipelineItem.END)
+    {
+      PipelineItem current = file;
+      HeldRecords held =
+          this.newHeldRecords();
+      inFlight.acquire();
+      try
+      {
+        this.extractionService
+            .extractRecordsAsync(
+                current.file.fileName,
+                this.recordSink(current,
+                    held, output, state),
+                recordThreads)
+            .handleAsync((records, e) -> {
+              try
+              {
+                this.finishExtraction(current,
+                    held, unwrap(e), output,
+                    state);
+              } catch (InterruptedException
+                  interrupted)
+              {
+                Thread.currentThread()
+                    .interrupt();
+              } finally
+              {
+                inFlight.release();
+              }
+              return null;
+            }, recordThreads);
+      } catch (RuntimeException e)
+      {
+        try
+        {
+          this.finishExtraction(current, held,
+              e, output, state);
+        } finally
+        {
+          inFlight.release();
+        }
+      }
+
+      file = input.take();
+    }
+
+    // The stage is done once the last extraction is.
+    inFlight.acquire(maxInFlight);
+  }
+
+  private HeldRecords newHeldRecords()
+  {
+    return this.contentIndex != null
+        ? new HeldRecords()
+        : null;
+  }
+
+  // Passes the records of a file on, or holds them back while its hash is
+  // computed. The records of a file come from one thread at a time.
+  private RecordSink recordSink(
+      PipelineItem current, HeldRecords held,
+      BlockingQueue<PipelineItem> output,
+      RunState state)
+  {
+    return record -> {
+      PipelineItem item =
+          new PipelineItem(current.file);
+      item.rawData = record;
+      if (held != null && !held.overflowed)
+      {
+        this.hold(held, item, output, state);
+        return;
+      }
+      state.extracted(item);
+      // Blocks while the next stage is behind, which also pauses the read
+      // of the file.
+      output.put(item);
+    };
+  }
+
+  // The last of a file's records was read, or its extraction failed.
+  private void finishExtraction(
+      PipelineItem current, HeldRecords held,
+      Throwable failure,
+      BlockingQueue<PipelineItem> output,
+      RunState state)
+      throws InterruptedException
+  {
+    try
+    {
+      if (failure == null && held != null
+          && !held.overflowed)
+      {
+        this.releaseHeld(current, held,
+            output, state);
+      }
+    } catch (RuntimeException e)
+    {
+      failure = e;
+    }
+
+    if (failure != null)
+    {
+      if (held != null)
+      {
+        held.release();
+      }
+      state.extractionFailed(current,
+          failure);
+    }
+    state.extractionDone(current.file);
+  }
+
+  private static Throwable unwrap(
+      Throwable e)
+  {
+    return e instanceof CompletionException
+        && e.getCause() != null
+            ? e.getCause()
+            : e;
+  }
+
+  // Keeps a record back until its file ends, a file that doesn't fit in
+  // maxBufferedBytes (a single record always does) is passed on as is.
+  private void hold(HeldRecords held,
+      PipelineItem item,
+      BlockingQueue<PipelineItem> output,
+      RunState state)
+      throws InterruptedException
+  {
+    held.items.add(item);
+    held.bytes += item.rawData
+        .getContentLength();
+    if (held.items.size() == 1
+        || held.bytes <= this.maxBufferedBytes)
+    {
+      held.digest.update(item.rawData);
+      return;
+    }
+
+    held.overflowed = true;
+    for (PipelineItem heldItem : held.items)
+    {
+      state.extracted(heldItem);
+      output.put(heldItem);
+    }
+    held.items.clear();
+  }
+
+  // The whole file was held, so it's either linked to the result of an
+  // identical payload or passed on.
+  private void releaseHeld(
+      PipelineItem file, HeldRecords held,
+      BlockingQueue<PipelineItem> output,
+      RunState state)
+      throws InterruptedException
+  {
+    String contentHash =
+        held.digest.finish();
+    Long result = null;
+    try
+    {
+      result = this.contentIndex
+          .findResult(contentHash);
+    } catch (RuntimeException e)
+    {
+      // The file is loaded again, that's all.
+      LOG.atWarn().file(file.file.fileName)
+          .stage("link").cause(e)
+          .log("Failed to look up the content hash");
+    }
+
+    if (result != null
+        && file.file.replaceBefore == null)
+    {
+      held.release();
+      state.linked(file, result);
+      return;
+    }
+
+    file.file.contentHash = contentHash;
+    for (PipelineItem item : held.items)
+    {
+      state.extracted(item);
+      output.put(item);
+    }
+    held.items.clear();
+  }
+
+  private void runWorker(
+      BlockingQueue<PipelineItem> input,
+      BlockingQueue<PipelineItem> output,
+      StageStep step, String stage,
+      RunState state)
+      throws InterruptedException
+  {
+    PipelineItem item = input.take();
+
+    while (item != PipelineItem.END)
+    {
+      Boolean success;
+      RuntimeException cause = null;
+      try
+      {
+        success = step.process(item);
+      } catch (RuntimeException e)
+      {
+        cause = e;
+        success = false;
+      }
+
+      if (!success)
+      {
+        state.failed(item, stage, cause);
+      } else if (output != null)
+      {
+        // Blocks while the next stage is behind.
+        output.put(item);
+      }
+
+      item = input.take();
+    }
+  }
+
+  // Saves whatever is waiting in the queue (up to loadBatchSize files) in a
+  // single call, so a busy pipeline sends bigger batches to the DB.
+  private void runLoadWorker(
+      BlockingQueue<PipelineItem> input,
+      RunState state)
+      throws InterruptedException
+  {
+    List<PipelineItem> taken =
+        new ArrayList<>(this.loadBatchSize);
+    Boolean closed = false;
+
+    while (!closed)
+    {
+      taken.clear();
+      taken.add(input.take());
+      input.drainTo(taken,
+          this.loadBatchSize - 1);
+
+      List<PipelineItem> batch =
+          new ArrayList<>(taken.size());
+      Integer endMarkers = 0;
+      for (PipelineItem item : taken)
+      {
+        if (item == PipelineItem.END)
+        {
+          endMarkers++;
+        } else
+        {
+          batch.add(item);
+        }
+      }
+
+      if (!batch.isEmpty())
+      {
+        this.loadBatch(batch, state);
+      }
+
+      if (endMarkers > 0)
+      {
+        closed = true;
+        // The extra markers belong to the other load workers.
+        closeQueue(input, endMarkers - 1);
+      }
+    }
+  }
+
+  private void loadBatch(
+      List<PipelineItem> batch,
+      RunState state)
+  {
+    List<ProcessedData> processedData =
+        new ArrayList<>(batch.size());
+    for (PipelineItem item : batch)
+    {
+      processedData
+          .add(item.processedData);
+    }
+
+    Boolean[] results;
+    try
+    {
+      results = this.loadingService
+          .saveAll(processedData);
+    } catch (RuntimeException e)
+    {
+      // Logged once for the batch, its files only report the failure.
+      LOG.atError().stage("load")
+          .with("rows", batch.size()).cause(e)
+          .log("Failed to save a batch");
+      results = new Boolean[batch.size()];
+      Arrays.fill(results, false);
+    }
+
+    for (Integer i =
+        0; i < batch.size(); i++)
+    {
+      PipelineItem item = batch.get(i);
+      if (results[i])
+      {
+        state.loaded(item);
+      } else
+      {
+        state.failed(item, "load", null);
+      }
+    }
+  }
+
+  // Puts one end marker per worker of the stage that reads the queue.
+  private static void closeQueue(
+      BlockingQueue<PipelineItem> queue,
+      Integer readers)
+      throws InterruptedException
+  {
+    for (Integer i = 0; i < readers; i++)
+    {
+      queue.put(PipelineItem.END);
+    }
+  }
+
+  private static ThreadFactory stageThreadFactory()
+  {
+    AtomicInteger threadNumber =
+        new AtomicInteger(0);
+
+    return runnable -> {
+      Thread thread =
+          new Thread(runnable,
+              "etl-pipeline-" + threadNumber
+                  .incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
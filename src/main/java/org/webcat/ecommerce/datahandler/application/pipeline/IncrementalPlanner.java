@@ -0,0 +1,333 @@
+package org.webcat.ecommerce.datahandler.application.pipeline;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ObjectVersion;
+import org.webcat.ecommerce.datahandler.infrastructure.cache.ProcessedRawIdFilter;
+import org.webcat.ecommerce.datahandler.infrastructure.logging.Logger;
+import org.webcat.ecommerce.datahandler.infrastructure.repository.ObjectWatermarkRepository;
+import org.webcat.ecommerce.datahandler.infrastructure.repository.ProcessedDataRepository;
+import org.webcat.ecommerce.datahandler.infrastructure.repository.RawDataRepository;
+import org.webcat.ecommerce.datahandler.shared.helpers.SnowflakeIDGenerator;
+
+/**
+ * {@link IncrementalPlanner}
+ * <p>
+ * Picks the files of a request that need to go through the pipeline, before any of them is
+ * downloaded. A file is skipped when it was loaded before and its object didn't change since.
+ * </p>
+ * <p>
+ * <li>The version (ETag, last modified) of every file is read with a HEAD request.</li>
+ * <li>A raw id the {@link ProcessedRawIdFilter} doesn't know was never loaded, the file runs
+ * without a query.</li>
+ * <li>Otherwise the version is compared with the object's watermark, the version it had when it
+ * was last loaded. A changed object runs again as a reload: its new rows replace the old ones
+ * when they're saved, the old rows stay if the reload fails.</li>
+ * <li>A loaded object whose version couldn't be read is skipped, it isn't known to have
+ * changed.</li>
+ * <li>A loaded object without a watermark (loaded before watermarks existed) gets its current
+ * version as a watermark and is skipped.</li>
+ * <li>Files that weren't named after a raw id can't be tracked, they always run.</li>
+ * </p>
+ * <p>
+ * commit() records the watermarks of the files the run loaded.
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method Boolean isEnabled()}</li>
+ * <li>{@method Plan plan(List<String> fileNames)}</li>
+ * <li>{@method void commit(Plan plan, PipelineResult result)}</li>
+ */
+@Component
+public class IncrementalPlanner
+{
+
+  /**
+   * The files of a request that run, with their positions in the request.
+   */
+  public static class Plan
+  {
+    private final Integer requestSize;
+    private final List<String> fileNames =
+        new ArrayList<>();
+    private final List<Integer> indexes =
+        new ArrayList<>();
+    // The version of every file that runs, null where it's unknown.
+    private final List<ObjectVersion> versions =
+        new ArrayList<>();
+    // Set for the files that reload their raw data, the rows below it are
+    // the old ones.
+    private final List<Long> replaceBefore =
+        new ArrayList<>();
+
+    private Plan(Integer requestSize)
+    {
+      this.requestSize = requestSize;
+    }
+
+    public List<String> getFileNames()
+    {
+      return this.fileNames;
+    }
+
+    // In the order of getFileNames(), for ETLPipeline.run().
+    public Long[] getReplaceBefore()
+    {
+      return this.replaceBefore
+          .toArray(new Long[0]);
+    }
+
+    public Integer getSkipped()
+    {
+      return this.requestSize
+          - this.fileNames.size();
+    }
+
+    /**
+     * Maps the result of running the plan back to the files of the request, skipped files have no
+     * id.
+     */
+    public PipelineResult expand(
+        PipelineResult result)
+    {
+      Long[] ids = new Long[this.requestSize];
+      for (Integer k =
+          0; k < this.indexes.size(); k++)
+      {
+        ids[this.indexes.get(k)] = result
+            .getProcessedFilesIDs()[k];
+      }
+      return new PipelineResult(ids,
+          result.getFailCounter());
+    }
+  }
+
+  private static final Logger LOG =
+      Logger.get(IncrementalPlanner.class);
+
+  private final RawDataRepository rawDataRepo;
+  private final ProcessedDataRepository processedDataRepo;
+  private final ObjectWatermarkRepository watermarkRepo;
+  private final ProcessedRawIdFilter processedIds;
+  // Shared with the processed data repository, so the rows of a run get ids
+  // above the ones it replaces.
+  private final SnowflakeIDGenerator snowflakeIDGenerator;
+
+  private final Boolean enabled;
+  // Max number of HEAD requests running at the same time.
+  private final Integer maxInFlight;
+
+  public IncrementalPlanner(
+      RawDataRepository rawDataRepo,
+      ProcessedDataRepository processedDataRepo,
+      ObjectWatermarkRepository watermarkRepo,
+      ProcessedRawIdFilter processedIds,
+      SnowflakeIDGenerator snowflakeIDGenerator,
+      @Value("${etl.incremental.enabled:false}") Boolean enabled,
+      @Value("${etl.extract.max-in-flight:64}") Integer maxInFlight)
+  {
+    if (maxInFlight < 1)
+    {
+      throw new IllegalArgumentException(
+          "Max in-flight requests must be positive");
+    }
+
+    this.rawDataRepo = rawDataRepo;
+    this.processedDataRepo =
+        processedDataRepo;
+    this.watermarkRepo = watermarkRepo;
+    this.processedIds = processedIds;
+    this.snowflakeIDGenerator =
+        snowflakeIDGenerator;
+    this.enabled = enabled;
+    this.maxInFlight = maxInFlight;
+  }
+
+  public Boolean isEnabled()
+  {
+    return this.enabled;
+  }
+
+  public Plan plan(List<String> fileNames)
+  {
+    this.processedIds.ensureLoaded();
+    List<ObjectVersion> versions =
+        this.stat(fileNames);
+
+    // Only the files the filter might have seen need a lookup.
+    List<String> seenNames =
+        new ArrayList<>();
+    for (String fileName : fileNames)
+    {
+      Long rawId = this.rawDataRepo
+          .rawIdOf(fileName);
+      if (rawId != null && this.processedIds
+          .mightContain(rawId))
+      {
+        seenNames.add(fileName);
+      }
+    }
+    Map<String, ObjectVersion> watermarks =
+        seenNames.isEmpty() ? Map.of()
+            : this.watermarkRepo
+                .findByObjectNames(seenNames);
+
+    List<Long> unmarkedIds =
+        new ArrayList<>();
+    for (String fileName : seenNames)
+    {
+      if (!watermarks.containsKey(fileName))
+      {
+        unmarkedIds.add(this.rawDataRepo
+            .rawIdOf(fileName));
+      }
+    }
+    Set<Long> loadedIds =
+        unmarkedIds.isEmpty() ? Set.of()
+            : this.processedDataRepo
+                .findLoadedRawDataIds(
+                    unmarkedIds);
+
+    Plan plan = new Plan(fileNames.size());
+    Map<String, ObjectVersion> baselines =
+        new HashMap<>();
+    // Taken once the plan has a reload, the rows loaded before it have
+    // smaller ids.
+    Long replaceBefore = null;
+    for (Integer i =
+        0; i < fileNames.size(); i++)
+    {
+      String fileName = fileNames.get(i);
+      Long rawId = this.rawDataRepo
+          .rawIdOf(fileName);
+      ObjectVersion version =
+          versions.get(i);
+      ObjectVersion watermark =
+          watermarks.get(fileName);
+
+      Boolean loaded = watermark != null
+          || (rawId != null
+              && loadedIds.contains(rawId));
+      if (loaded && (version == null
+          || watermark == null
+          || watermark.sameAs(version)))
+      {
+        // Unchanged, or not known to have changed. A loaded object gets
+        // its first watermark.
+        if (watermark == null
+            && version != null)
+        {
+          baselines.put(fileName, version);
+        }
+        continue;
+      }
+
+      // Changed since it was loaded, the new rows replace the old ones.
+      if (watermark != null
+          && replaceBefore == null)
+      {
+        replaceBefore = this.snowflakeIDGenerator
+            .generateId();
+      }
+      plan.fileNames.add(fileName);
+      plan.indexes.add(i);
+      plan.versions.add(version);
+      plan.replaceBefore.add(
+          watermark != null ? replaceBefore
+              : null);
+    }
+
+    if (!baselines.isEmpty())
+    {
+      this.watermarkRepo.saveAll(baselines);
+    }
+    return plan;
+  }
+
+  public void commit(Plan plan,
+      PipelineResult result)
+  {
+    Map<String, ObjectVersion> loaded =
+        new HashMap<>();
+    for (Integer k =
+        0; k < plan.fileNames.size(); k++)
+    {
+      if (result
+          .getProcessedFilesIDs()[k] != null
+          && plan.versions.get(k) != null)
+      {
+        loaded.put(plan.fileNames.get(k),
+            plan.versions.get(k));
+      }
+    }
+
+    if (!loaded.isEmpty())
+    {
+      this.watermarkRepo.saveAll(loaded);
+    }
+  }
+
+  // The versions of fileNames in order, null where the HEAD failed.
+  private List<ObjectVersion> stat(
+      List<String> fileNames)
+  {
+    Semaphore inFlight =
+        new Semaphore(this.maxInFlight);
+    List<Future<ObjectVersion>> futures =
+        new ArrayList<>(fileNames.size());
+
+    try (ExecutorService executor = Executors
+        .newVirtualThreadPerTaskExecutor())
+    {
+      for (String fileName : fileNames)
+      {
+        futures.add(executor.submit(() -> {
+          inFlight.acquire();
+          try
+          {
+            return this.rawDataRepo
+                .stat(fileName);
+          } catch (RuntimeException e)
+          {
+            LOG.atWarn().file(fileName)
+                .stage("plan").cause(e)
+                .log("Failed to read the object version");
+            return null;
+          } finally
+          {
+            inFlight.release();
+          }
+        }));
+      }
+
+      List<ObjectVersion> versions =
+          new ArrayList<>(fileNames.size());
+      for (Future<ObjectVersion> future : futures)
+      {
+        versions.add(future.get());
+      }
+      return versions;
+    } catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(
+          "Interrupted while reading object versions",
+          e);
+    } catch (ExecutionException e)
+    {
+      throw new RuntimeException(
+          "Failed to read object versions",
+          e.getCause());
+    }
+  }
+}
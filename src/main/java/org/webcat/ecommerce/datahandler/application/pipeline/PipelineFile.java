@@ -0,0 +1,45 @@
+package org.webcat.ecommerce.datahandler.application.pipeline;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link PipelineFile}
+ * <p>
+ * The bookkeeping of a single file of a run. It lives as long as the file's records are in the
+ * pipeline, so a run holds no per-file state for the files it's done with.
+ * </p>
+ * <p>
+ * The plain fields are written before a decrement of pendingRecords, the atomic decrement
+ * publishes them to the thread that finishes the file.
+ * </p>
+ * <h4>Fields:</h4>
+ * <li>{@field Integer index} (the position of the file in the request or listing)</li>
+ * <li>{@field String fileName}</li>
+ * <li>{@field Long replaceBefore} (the replaceBefore of the file's rows when it reloads its raw
+ * data, null otherwise)</li>
+ * <li>{@field AtomicInteger pendingRecords} (records still in the pipeline, plus one while the
+ * file is being extracted)</li>
+ * <li>{@field Boolean failed}</li>
+ * <li>{@field Long processedDataId} (of the first record, or of the payload the file is linked
+ * to)</li>
+ * <li>{@field String contentHash} (set when the file goes through with deduplication on)</li>
+ */
+class PipelineFile
+{
+  final Integer index;
+  final String fileName;
+  final Long replaceBefore;
+  final AtomicInteger pendingRecords =
+      new AtomicInteger(1);
+  Boolean failed = false;
+  Long processedDataId;
+  String contentHash;
+
+  PipelineFile(Integer index,
+      String fileName, Long replaceBefore)
+  {
+    this.index = index;
+    this.fileName = fileName;
+    this.replaceBefore = replaceBefore;
+  }
+}
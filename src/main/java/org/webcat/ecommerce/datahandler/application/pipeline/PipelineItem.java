@@ -0,0 +1,31 @@
+package org.webcat.ecommerce.datahandler.application.pipeline;
+
+import org.webcat.ecommerce.datahandler.domain.model.entities.ProcessedData;
+import org.webcat.ecommerce.datahandler.domain.model.entities.RawData;
+
+/**
+ * {@link PipelineItem}
+ * <p>
+ * A single file waiting to be extracted, or a single record of it travelling through the later
+ * stages. Every stage fills in its own field and passes the item on to the next queue.
+ * </p>
+ * <h4>Fields:</h4>
+ * <li>{@field PipelineFile file} (shared by the items of all of the file's records)</li>
+ * <li>{@field RawData rawData} (set by the extract stage)</li>
+ * <li>{@field ProcessedData processedData} (set by the transform stage)</li>
+ */
+class PipelineItem
+{
+  // Marks the end of a queue, every worker that takes it stops.
+  static final PipelineItem END =
+      new PipelineItem(null);
+
+  final PipelineFile file;
+  RawData rawData;
+  ProcessedData processedData;
+
+  PipelineItem(PipelineFile file)
+  {
+    this.file = file;
+  }
+}
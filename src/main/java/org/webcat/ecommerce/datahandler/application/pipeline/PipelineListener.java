@@ -0,0 +1,35 @@
+package org.webcat.ecommerce.datahandler.application.pipeline;
+
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ETLStatus;
+
+/**
+ * {@link PipelineListener}
+ * <p>
+ * Gets told about the progress of a pipeline run. The methods are called from the stage workers,
+ * so implementations must be thread safe and quick.
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method void onLoaded(Integer index, Long processedDataId)}</li>
+ * <li>{@method void onFailed(Integer index, String fileName)}</li>
+ * <li>{@method void onStageFinished(ETLStatus stage)} (EXTRACTED, TRANSFORMED or LOADED, once the
+ * last file has left the stage)</li>
+ */
+public interface PipelineListener
+{
+  // For runs nobody is watching.
+  PipelineListener NONE =
+      new PipelineListener()
+      {};
+
+  default void onLoaded(Integer index,
+      Long processedDataId)
+  {}
+
+  default void onFailed(Integer index,
+      String fileName)
+  {}
+
+  default void onStageFinished(
+      ETLStatus stage)
+  {}
+}
@@ -0,0 +1,53 @@
+package org.webcat.ecommerce.datahandler.application.pipeline;
+
+/**
+ * {@link PipelineResult}
+ * <p>
+ * The outcome of a pipeline run.
+ * </p>
+ * <h4>Fields:</h4>
+ * <li>{@field Long[] processedFilesIDs} (same order as the requested files, null for files that
+ * failed. null for scans, which don't collect them)</li>
+ * <li>{@field Integer failCounter}</li>
+ * <li>{@field Integer fileCount} (the files of the run)</li>
+ */
+public class PipelineResult
+{
+  private final Long[] processedFilesIDs;
+  private final Integer failCounter;
+  private final Integer fileCount;
+
+  public PipelineResult(
+      Long[] processedFilesIDs,
+      Integer failCounter)
+  {
+    this(processedFilesIDs, failCounter,
+        processedFilesIDs.length);
+  }
+
+  public PipelineResult(
+      Long[] processedFilesIDs,
+      Integer failCounter,
+      Integer fileCount)
+  {
+    this.processedFilesIDs =
+        processedFilesIDs;
+    this.failCounter = failCounter;
+    this.fileCount = fileCount;
+  }
+
+  public Long[] getProcessedFilesIDs()
+  {
+    return this.processedFilesIDs;
+  }
+
+  public Integer getFailCounter()
+  {
+    return this.failCounter;
+  }
+
+  public Integer getFileCount()
+  {
+    return this.fileCount;
+  }
+}
@@ -1,9 +1,13 @@
 package org.webcat.ecommerce.datahandler.application.use_cases.implementations;
 
+import java.util.List;
+
 import org.webcat.ecommerce.datahandler.application.use_cases.interfaces.ETL;
 
 import org.webcat.ecommerce.datahandler.application.dtos.ETLRequestDTO;
 import org.webcat.ecommerce.datahandler.application.dtos.ETLResponseDTO;
+import org.webcat.ecommerce.datahandler.application.dtos.MinioEventDTO;
+import org.webcat.ecommerce.datahandler.application.dtos.WebhookResponseDTO;
 
 public class ETLImpl implements ETL
 {
@@ -22,8 +26,8 @@ public class ETLImpl implements ETL
   }
 
   @Override
-  public ETLResponseDTO handleMinioEvent(
-      String eventName, String fileName)
+  public WebhookResponseDTO handleMinioEvents(
+      List<MinioEventDTO> events)
   {
     return null; // TODO: implement
   }
@@ -1,49 +1,86 @@
 package org.webcat.ecommerce.datahandler.application.use_cases.implementations;
 
+import org.webcat.ecommerce.datahandler.application.jobs.ETLJobProgress;
+import org.webcat.ecommerce.datahandler.application.pipeline.ETLPipeline;
+import org.webcat.ecommerce.datahandler.application.pipeline.IncrementalPlanner;
+import org.webcat.ecommerce.datahandler.application.pipeline.PipelineResult;
 import org.webcat.ecommerce.datahandler.application.use_cases.interfaces.ETL;
-import org.webcat.ecommerce.datahandler.domain.model.entities.ProcessedData;
-import org.webcat.ecommerce.datahandler.domain.model.entities.RawData;
 import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ETLStatus;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ObjectScan;
 import org.webcat.ecommerce.datahandler.domain.service.datavalidation.interfaces.DataValidationService;
-import org.webcat.ecommerce.datahandler.domain.service.etl.interfaces.ExtractData;
-import org.webcat.ecommerce.datahandler.domain.service.etl.interfaces.LoadData;
-import org.webcat.ecommerce.datahandler.domain.service.etl.interfaces.TransformData;
+import org.webcat.ecommerce.datahandler.infrastructure.cache.HazelcastETLCache;
+import org.webcat.ecommerce.datahandler.infrastructure.concurrency.ETLJobExecutorConfig;
+import org.webcat.ecommerce.datahandler.infrastructure.database.RawSegments;
+import org.webcat.ecommerce.datahandler.infrastructure.logging.Logger;
+import org.webcat.ecommerce.datahandler.infrastructure.metrics.ETLMetrics;
+import org.webcat.ecommerce.datahandler.shared.helpers.SnowflakeIDGenerator;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.webcat.ecommerce.datahandler.application.dtos.ETLRequestDTO;
 import org.webcat.ecommerce.datahandler.application.dtos.ETLResponseDTO;
+import org.webcat.ecommerce.datahandler.application.dtos.MinioEventDTO;
+import org.webcat.ecommerce.datahandler.application.dtos.WebhookResponseDTO;
+
+import io.micrometer.core.instrument.Timer;
 
 @Component
 public class ETLMinImp implements ETL
 {
 
-  private final ExtractData extractionService;
-  private final TransformData transformationService;
-  private final LoadData loadingService;
+  private static final Logger LOG =
+      Logger.get(ETLMinImp.class);
+
   private final DataValidationService dataValidationService;
+  private final ETLPipeline pipeline;
+  // Leaves out files that were loaded already, null to always run every
+  // file.
+  private final IncrementalPlanner incrementalPlanner;
+  private final HazelcastETLCache etlCache;
+  private final SnowflakeIDGenerator snowflakeIDGenerator;
+  private final Executor jobExecutor;
+  // How often the per-file progress of a job is published.
+  private final Long progressIntervalMillis;
+  private final ETLMetrics metrics;
 
   // Constructor.
   public ETLMinImp(
-      ExtractData extractionService,
-      TransformData transformationService,
-      LoadData loadingService,
-      DataValidationService dataValidationService)
+      DataValidationService dataValidationService,
+      ETLPipeline pipeline,
+      IncrementalPlanner incrementalPlanner,
+      HazelcastETLCache etlCache,
+      SnowflakeIDGenerator snowflakeIDGenerator,
+      @Qualifier(ETLJobExecutorConfig.ETL_JOB_EXECUTOR) Executor jobExecutor,
+      @Value("${etl.jobs.progress-interval-ms:500}") Long progressIntervalMillis,
+      ETLMetrics metrics)
   {
 
-    this.extractionService =
-        extractionService;
-    this.transformationService =
-        transformationService;
-    this.loadingService =
-        loadingService;
     this.dataValidationService =
         dataValidationService;
+    this.pipeline = pipeline;
+    this.incrementalPlanner =
+        incrementalPlanner;
+    this.etlCache = etlCache;
+    this.snowflakeIDGenerator =
+        snowflakeIDGenerator;
+    this.jobExecutor = jobExecutor;
+    this.progressIntervalMillis =
+        progressIntervalMillis;
+    this.metrics = metrics;
 
   }
 
+  /**
+   * Queues an ETL job for the requested files, or for the objects a prefix scan selects, and
+   * returns right away. The returned process id is used to follow the job through
+   * {@link #checkETLStatus(String)}.
+   */
   @Override
   public ETLResponseDTO runETL(
       ETLRequestDTO request)
@@ -51,122 +88,274 @@ public class ETLMinImp implements ETL
 
     List<String> fileNames =
         request.getFileNames();
-    ArrayList<RawData> contentOfFiles =
-        this.extractionService
-            .extract(fileNames);
+    ObjectScan scan = null;
+
+    if (fileNames == null
+        || fileNames.size() == 0)
+    {
+      scan = toScan(request);
+      if (scan == null)
+      {
+        return null;
+      }
+      fileNames = null;
+    }
+
+    ETLJobProgress progress =
+        new ETLJobProgress(
+            String.valueOf(
+                this.snowflakeIDGenerator
+                    .generateId()),
+            fileNames == null ? null
+                : fileNames.size(),
+            this.etlCache,
+            this.progressIntervalMillis);
+
+    ETLResponseDTO queued =
+        progress.queued();
+    List<String> jobFileNames = fileNames;
+    ObjectScan jobScan = scan;
+    try
+    {
+      this.jobExecutor.execute(
+          () -> this.runJob(jobFileNames,
+              jobScan, progress));
+    } catch (RejectedExecutionException e)
+    {
+      // Too many jobs are waiting already.
+      return progress.failed();
+    }
+
+    return queued;
+  }
 
-    if (contentOfFiles.size() == 0)
+  // The scan a request without file names asks for, null if it asks for
+  // none or its time bounds are empty.
+  private static ObjectScan toScan(
+      ETLRequestDTO request)
+  {
+    if (request.getPrefix() == null)
+    {
+      return null;
+    }
+    if (request.getModifiedAfter() != null
+        && request.getModifiedBefore() != null
+        && !request.getModifiedAfter()
+            .isBefore(request
+                .getModifiedBefore()))
     {
       return null;
     }
 
-    // Transforming and loading (to the processed data repo).
-    Long[] processedFilesIDs =
-        new Long[contentOfFiles.size()];
-    Integer index = 0;
-    Integer failCounter = 0;
-    for (RawData rawData : contentOfFiles)
+    return new ObjectScan(
+        request.getBucket(),
+        request.getPrefix(),
+        request.getModifiedAfter(),
+        request.getModifiedBefore());
+  }
+
+  // Extracting, transforming and loading (to the processed data repo)
+  // as overlapping stages, on a job executor thread. Either fileNames or
+  // scan is set.
+  private void runJob(
+      List<String> fileNames,
+      ObjectScan scan,
+      ETLJobProgress progress)
+  {
+    progress.started();
+    Timer.Sample sample = Timer.start();
+    Boolean failed = false;
+    try
     {
-      ProcessedData processedData =
-          this.transformationService
-              .transform(rawData);
-      if (processedData == null)
+      // Scans aren't planned, a plan needs the whole list of files.
+      if (scan != null)
       {
-        System.out.printf(
-            "Failed to transform file: %s\n",
-            fileNames.get(index));
-        index++;
-        failCounter++;
-        continue;
+        progress.finished(this.pipeline
+            .run(scan, progress));
+      } else
+      {
+        this.runFiles(fileNames, progress);
       }
-      Boolean success =
-          this.loadingService
-              .save(processedData);
-      if (!success)
+    } catch (RuntimeException e)
+    {
+      failed = true;
+      LOG.atError().stage("job").cause(e)
+          .with("files",
+              progress.getTotalFiles())
+          .with("prefix", scan == null ? null
+              : scan.prefix())
+          .log("ETL job failed");
+      progress.failed();
+    } finally
+    {
+      Long durationNanos = sample.stop(
+          this.metrics.getJobTimer());
+      if (!failed)
       {
-        System.out.printf(
-            "Failed to load (save) file: %s\n",
-            fileNames.get(index));
-        index++;
-        failCounter++;
-        continue;
+        LOG.atInfo().stage("job")
+            .with("files",
+                progress.getTotalFiles())
+            .with("prefix",
+                scan == null ? null
+                    : scan.prefix())
+            .durationNanos(durationNanos)
+            .log("ETL job finished");
       }
-      // If there were no errors, add the id to the array and increment the index.
-      processedFilesIDs[index] =
-          processedData.getId();
-      index++;
     }
+  }
 
-    if (failCounter == contentOfFiles
-        .size())
+  private void runFiles(
+      List<String> fileNames,
+      ETLJobProgress progress)
+  {
+    if (this.incrementalPlanner == null
+        || !this.incrementalPlanner
+            .isEnabled())
     {
-      return null;
+      progress.finished(this.pipeline
+          .run(fileNames, progress));
+      return;
     }
 
-    return new ETLResponseDTO(
-        processedFilesIDs,
-        ETLStatus.LOADED)
-            // success = true.
-            .setSuccess(true);
+    IncrementalPlanner.Plan plan =
+        this.incrementalPlanner
+            .plan(fileNames);
+    progress.skipped(plan.getSkipped());
+
+    // The listener's indexes are of the planned files, only the counts
+    // and ids are published so they don't need mapping.
+    PipelineResult result =
+        plan.getFileNames().isEmpty()
+            ? new PipelineResult(
+                new Long[0], 0)
+            : this.pipeline.run(
+                plan.getFileNames(),
+                plan.getReplaceBefore(),
+                progress);
+    this.incrementalPlanner.commit(plan,
+        result);
+    progress.finished(
+        plan.expand(result));
   }
 
   @Override
   public ETLResponseDTO checkETLStatus(
       String processID)
   {
-    return null; // TODO: implement
+    return this.etlCache
+        .getJobStatus(processID);
   }
 
   @Override
-  public ETLResponseDTO handleMinioEvent(
-      String eventName, String fileName)
+  public WebhookResponseDTO handleMinioEvents(
+      List<MinioEventDTO> events)
   {
-    // Only process "create:Put" (upload) events, ignore "delete" events
-    if (eventName.startsWith(
-        "s3:ObjectCreated:Put"))
+    if (events == null
+        || events.isEmpty())
     {
-      Long sfID =
-          this.dataValidationService
-              .normaliseNameID(
-                  fileName);
+      return null;
+    }
+
+    Timer.Sample sample = Timer.start();
+    try
+    {
+      return this.handleEvents(events);
+    } finally
+    {
+      sample.stop(
+          this.metrics.getWebhookTimer());
+      this.metrics.getWebhookEvents()
+          .record(events.size());
+    }
+  }
 
-      if (sfID == null)
+  private WebhookResponseDTO handleEvents(
+      List<MinioEventDTO> events)
+  {
+    WebhookResponseDTO.RecordResult[] results =
+        new WebhookResponseDTO.RecordResult[events
+            .size()];
+
+    // Uploads are normalised together, indexes maps them back to their
+    // record.
+    List<Integer> uploadIndexes =
+        new ArrayList<>();
+    List<String> uploadNames =
+        new ArrayList<>();
+
+    for (Integer i =
+        0; i < events.size(); i++)
+    {
+      MinioEventDTO event = events.get(i);
+      String eventName =
+          event.getEventName();
+
+      // Only process "create:Put" (upload) events. The segments the
+      // compaction writes are uploads too, but renaming one would orphan
+      // the index of its objects.
+      if (eventName.startsWith(
+          "s3:ObjectCreated:Put")
+          && !RawSegments.isSegment(
+              event.getFileName()))
       {
-        return new ETLResponseDTO(null,
-            ETLStatus.FAILED);
+        uploadIndexes.add(i);
+        uploadNames
+            .add(event.getFileName());
+        continue;
       }
 
+      ETLStatus status = ETLStatus.READY;
 
-      System.out.print("\n");
-      System.out.printf(
-          "Processing file %s, event %s, with id %s\n",
-          fileName, eventName, sfID);
-      System.out.print("\n");
+      // In case of a delete event we delete the name mapping.
+      if (eventName.startsWith(
+          "s3:ObjectRemoved:Delete")
+          && !this.dataValidationService
+              .deleteNameMapping(
+                  event.getFileName()))
+      {
+        status = ETLStatus.READYWITHWARNING;
+      }
 
-      // In the case of an upload, if the renaming was successful,
-      // we return a normalised status..
-      return new ETLResponseDTO(null,
-          ETLStatus.DATANORMALISED)
-              .setSuccess(true);
+      results[i] =
+          new WebhookResponseDTO.RecordResult(
+              eventName, event.getFileName(),
+              status, null);
     }
 
-    // In case of a delete event we delete the name mapping.
-    if (eventName.startsWith(
-        "s3:ObjectRemoved:Delete"))
+    if (!uploadNames.isEmpty())
     {
-      if (!this.dataValidationService
-          .deleteNameMapping(fileName))
+      Long[] sfIDs =
+          this.dataValidationService
+              .normaliseNameIDs(uploadNames);
+
+      for (Integer k =
+          0; k < sfIDs.length; k++)
       {
-        return new ETLResponseDTO(null,
-            ETLStatus.READYWITHWARNING);
+        Integer i = uploadIndexes.get(k);
+        MinioEventDTO event = events.get(i);
+
+        LOG.atDebug()
+            .file(event.getFileName())
+            .id(sfIDs[k]).stage("webhook")
+            .with("event",
+                event.getEventName())
+            .log("Processing file");
+
+        // In the case of an upload, if the renaming was successful,
+        // the record is normalised.
+        results[i] =
+            new WebhookResponseDTO.RecordResult(
+                event.getEventName(),
+                event.getFileName(),
+                sfIDs[k] == null
+                    ? ETLStatus.FAILED
+                    : ETLStatus.DATANORMALISED,
+                sfIDs[k]);
       }
     }
 
-    // In the case of a delete, we do nothing and return a ready
-    // status.
-    return new ETLResponseDTO(null,
-        ETLStatus.READY)
-            .setSuccess(true);
+    return new WebhookResponseDTO(
+        List.of(results));
   }
 
 
@@ -1,7 +1,11 @@
 package org.webcat.ecommerce.datahandler.application.use_cases.interfaces;
 
+import java.util.List;
+
 import org.webcat.ecommerce.datahandler.application.dtos.ETLRequestDTO;
 import org.webcat.ecommerce.datahandler.application.dtos.ETLResponseDTO;
+import org.webcat.ecommerce.datahandler.application.dtos.MinioEventDTO;
+import org.webcat.ecommerce.datahandler.application.dtos.WebhookResponseDTO;
 
 public interface ETL
 {
@@ -11,7 +15,7 @@ public interface ETL
   ETLResponseDTO checkETLStatus(
       String processID);
 
-  ETLResponseDTO handleMinioEvent(
-      String eventName,
-      String fileName);
+  // Handles all the records of a notification as one batch.
+  WebhookResponseDTO handleMinioEvents(
+      List<MinioEventDTO> events);
 }
@@ -9,7 +9,14 @@ import lombok.Setter;
 @Getter
 @NoArgsConstructor
 @Entity
-@Table(name = "file_mapping")
+// The indexes are created by migration 000005.
+@Table(name = "file_mapping",
+    indexes = {
+        @Index(name = "idx_file_mapping_original_name",
+            columnList = "original_name"),
+        @Index(name = "uq_file_mapping_new_name",
+            columnList = "new_name",
+            unique = true)})
 public class FileMapping
 {
 
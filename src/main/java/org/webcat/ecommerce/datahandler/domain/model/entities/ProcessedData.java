@@ -1,14 +1,16 @@
 package org.webcat.ecommerce.datahandler.domain.model.entities;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
 
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.EnumType;
 import jakarta.persistence.Enumerated;
-import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import jakarta.persistence.UniqueConstraint;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -16,14 +18,23 @@ import lombok.Setter;
 /**
  * A domain entity that represents processed data.
  * <h4>Fields:</h4>
- * <li>{@field Long id} (not passed to the constructor)</li>
+ * <li>{@field Long id} (not passed to the constructor, assigned when saved)</li>
  * <li>{@field Long rawDataId}</li>
- * <li>{@field String transformedData}</li>
+ * <li>{@field Integer recordIndex} (the record of the raw object this row came from, 0 unless
+ * the object was streamed record by record)</li>
+ * <li>{@field String transformedData} (or its UTF-8 bytes, whichever the transformation made, the
+ * other form is built when it's asked for)</li>
  * <li>{@field Status status}</li>
  * <li>{@field Timestamp processedAt}</li>
+ * <li>{@field Long replaceBefore} (not stored, set on the rows of a reloaded object: the rows of
+ * its raw data with a smaller id are deleted in the transaction that saves them)</li>
  */
 @Entity
-@Table(name = "processed_data")
+@Table(name = "processed_data",
+    uniqueConstraints = @UniqueConstraint(
+        name = "uq_processed_data_raw_record",
+        columnNames = {"raw_data_id",
+            "record_index"}))
 @Getter
 @Setter
 @NoArgsConstructor
@@ -35,17 +46,22 @@ public class ProcessedData
     PENDING, SUCCESS, FAILED
   }
 
+  // Assigned by the snowflake id generator before the insert, an identity
+  // column would turn off insert batching.
   @Id
-  @GeneratedValue(
-      strategy = jakarta.persistence.GenerationType.IDENTITY)
   private Long id;
 
   // The id of the corresponding raw data entry in minio (it's
   // saved as an object name there).
   @Column(name = "raw_data_id",
-      nullable = false, unique = true)
+      nullable = false)
   private Long rawDataId;
 
+  // A raw object can hold many records, each of them becomes its own row.
+  @Column(name = "record_index",
+      nullable = false)
+  private Integer recordIndex = 0;
+
   // The content after transformation (processing) in a json
   // string format.
   @Column(name = "transformed_data",
@@ -53,6 +69,10 @@ public class ProcessedData
       columnDefinition = "JSON")
   private String transformedData;
 
+  // The transformed json as UTF-8, written to the DB without decoding it.
+  @Transient
+  private byte[] transformedBytes;
+
   // The status of the processed data.
   @Enumerated(EnumType.STRING)
   @Column(nullable = false)
@@ -64,8 +84,13 @@ public class ProcessedData
       insertable = false)
   private Timestamp processedAt;
 
-  // Since some of the variables are @GeneratedValue, Lombok's automatic @AllArgeConstructor doesn't
-  // work.
+  // The rows of the raw data older than this id are replaced by this one,
+  // null for a plain insert.
+  @Transient
+  private Long replaceBefore;
+
+  // The id is assigned by the repository and processedAt by the DB, so Lombok's automatic
+  // @AllArgeConstructor doesn't fit.
   public ProcessedData(Long rawId,
       String transformedData,
       Status status,
@@ -79,4 +104,47 @@ public class ProcessedData
     this.processedAt = processedAt;
   }
 
+  public ProcessedData(Long rawId,
+      byte[] transformedBytes,
+      Status status,
+      Timestamp processedAt)
+  {
+    this(rawId, (String) null, status,
+        processedAt);
+    this.transformedBytes =
+        transformedBytes;
+  }
+
+  public String getTransformedData()
+  {
+    if (this.transformedData == null
+        && this.transformedBytes != null)
+    {
+      this.transformedData = new String(
+          this.transformedBytes,
+          StandardCharsets.UTF_8);
+    }
+    return this.transformedData;
+  }
+
+  public void setTransformedData(
+      String transformedData)
+  {
+    this.transformedData =
+        transformedData;
+    this.transformedBytes = null;
+  }
+
+  public byte[] getTransformedBytes()
+  {
+    if (this.transformedBytes == null
+        && this.transformedData != null)
+    {
+      this.transformedBytes =
+          this.transformedData.getBytes(
+              StandardCharsets.UTF_8);
+    }
+    return this.transformedBytes;
+  }
+
 }
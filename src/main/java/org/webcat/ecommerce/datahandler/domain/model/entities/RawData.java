@@ -1,5 +1,13 @@
 package org.webcat.ecommerce.datahandler.domain.model.entities;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.webcat.ecommerce.datahandler.shared.helpers.ByteArrayPool;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
  *
@@ -10,29 +18,158 @@ package org.webcat.ecommerce.datahandler.domain.model.entities;
  * <h4>Fields:</h4>
  * <li>{@field Long id}</li>
  * <li>{@field String rawContent}</li>
+ * <li>{@field Integer recordIndex} (the position of the record in its object when objects are
+ * streamed record by record, 0 for a whole object)</li>
  * <p>
  * Setting the content and id is done by the raw data repo.
  * </p>
+ * <p>
+ * The content is either a String or a slice of a UTF-8 byte array, and the other form is only
+ * built when it's asked for. Streamed records are byte slices, mostly of arrays from a
+ * {@link ByteArrayPool}: release() gives the array back once the content isn't needed, and
+ * nothing may read the content after that.
+ * </p>
  */
 public class RawData
 {
   private Long id;
-  private String rawContent;
+  // Whichever form the content wasn't created with is filled in on first
+  // use.
+  private volatile String rawContent;
+  private volatile byte[] content;
+  private Integer contentOffset = 0;
+  private Integer contentLength = 0;
+  // Not part of the stored json.
+  private Integer recordIndex = 0;
+  // Where content goes back to, null if it isn't pooled.
+  private ByteArrayPool pool;
 
-  public RawData(Long id,
-      String rawContent)
+  // Jackson needs to be told which constructor to use since there's no
+  // default one.
+  @JsonCreator
+  public RawData(
+      @JsonProperty("id") Long id,
+      @JsonProperty("rawContent") String rawContent)
   {
     this.id = id;
     this.rawContent = rawContent;
   }
 
+  // A single record of a streamed object.
+  public RawData(Long id,
+      String rawContent,
+      Integer recordIndex)
+  {
+    this(id, rawContent);
+    this.recordIndex = recordIndex;
+  }
+
+  // A single record of a streamed object, read as UTF-8 into content. The
+  // array is given back to pool by release(), pool may be null.
+  public RawData(Long id, byte[] content,
+      Integer contentOffset,
+      Integer contentLength,
+      Integer recordIndex,
+      ByteArrayPool pool)
+  {
+    this.id = id;
+    this.content = content;
+    this.contentOffset = contentOffset;
+    this.contentLength = contentLength;
+    this.recordIndex = recordIndex;
+    this.pool = pool;
+  }
+
   public Long getID()
   {
     return this.id;
   }
 
+  // Decoded from the bytes the first time, for callers that need text.
   public String getRawContent()
   {
-    return this.rawContent;
+    String text = this.rawContent;
+    if (text == null && this.content != null)
+    {
+      text = new String(this.content,
+          this.contentOffset,
+          this.contentLength,
+          StandardCharsets.UTF_8);
+      this.rawContent = text;
+    }
+    return text;
+  }
+
+  // Whether the content is held as bytes, reading them costs no encoding.
+  @JsonIgnore
+  public Boolean hasBytes()
+  {
+    return this.content != null;
+  }
+
+  /**
+   * The UTF-8 content, the array may be longer than the content so it goes with
+   * getContentOffset() and getContentLength().
+   */
+  @JsonIgnore
+  public byte[] getContentArray()
+  {
+    if (this.content == null
+        && this.rawContent != null)
+    {
+      byte[] encoded = this.rawContent
+          .getBytes(StandardCharsets.UTF_8);
+      this.contentOffset = 0;
+      this.contentLength = encoded.length;
+      this.content = encoded;
+    }
+    return this.content;
+  }
+
+  @JsonIgnore
+  public Integer getContentOffset()
+  {
+    this.getContentArray();
+    return this.contentOffset;
+  }
+
+  @JsonIgnore
+  public Integer getContentLength()
+  {
+    this.getContentArray();
+    return this.contentLength;
+  }
+
+  // A read only view of the UTF-8 content.
+  @JsonIgnore
+  public ByteBuffer getContent()
+  {
+    return ByteBuffer
+        .wrap(this.getContentArray(),
+            this.contentOffset,
+            this.contentLength)
+        .slice().asReadOnlyBuffer();
+  }
+
+  @JsonIgnore
+  public Integer getRecordIndex()
+  {
+    return this.recordIndex;
+  }
+
+  /**
+   * Gives a pooled content array back, later calls do nothing.
+   */
+  public void release()
+  {
+    ByteArrayPool owner = this.pool;
+    byte[] array = this.content;
+    this.pool = null;
+    if (owner != null && array != null)
+    {
+      this.content = null;
+      this.contentLength = 0;
+      owner.release(array);
+    }
   }
 }
@@ -0,0 +1,79 @@
+package org.webcat.ecommerce.datahandler.domain.model.valueobjects;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.webcat.ecommerce.datahandler.domain.model.entities.RawData;
+
+/**
+ * {@link ExtractionResult}
+ * <p>
+ * The outcome of extracting a list of files.
+ * </p>
+ * <h4>Fields:</h4>
+ * <li>{@field ArrayList<RawData> contentOfFiles} (same order as the requested files, null for
+ * files that failed)</li>
+ * <li>{@field List<Failure> failures}</li>
+ */
+public class ExtractionResult
+{
+
+  /**
+   * A file that couldn't be extracted and the reason why.
+   */
+  public static class Failure
+  {
+    private final Integer index;
+    private final String fileName;
+    private final Exception cause;
+
+    public Failure(Integer index,
+        String fileName, Exception cause)
+    {
+      this.index = index;
+      this.fileName = fileName;
+      this.cause = cause;
+    }
+
+    public Integer getIndex()
+    {
+      return this.index;
+    }
+
+    public String getFileName()
+    {
+      return this.fileName;
+    }
+
+    public Exception getCause()
+    {
+      return this.cause;
+    }
+  }
+
+  private final ArrayList<RawData> contentOfFiles;
+  private final List<Failure> failures;
+
+  public ExtractionResult(
+      ArrayList<RawData> contentOfFiles,
+      List<Failure> failures)
+  {
+    this.contentOfFiles = contentOfFiles;
+    this.failures = failures;
+  }
+
+  public ArrayList<RawData> getContentOfFiles()
+  {
+    return this.contentOfFiles;
+  }
+
+  public List<Failure> getFailures()
+  {
+    return this.failures;
+  }
+
+  public Boolean hasFailures()
+  {
+    return !this.failures.isEmpty();
+  }
+}
@@ -0,0 +1,47 @@
+package org.webcat.ecommerce.datahandler.domain.model.valueobjects;
+
+import java.time.Instant;
+
+/**
+ * {@link ObjectScan}
+ * <p>
+ * Selects the raw objects of a bulk run by name prefix and last modified time, instead of naming
+ * them one by one.
+ * </p>
+ * <h4>Fields:</h4>
+ * <li>{@field String bucket} (null for the bucket the raw data is read from)</li>
+ * <li>{@field String prefix} (empty for the whole bucket)</li>
+ * <li>{@field Instant modifiedAfter} (inclusive, null for no lower bound)</li>
+ * <li>{@field Instant modifiedBefore} (exclusive, null for no upper bound)</li>
+ */
+public record ObjectScan(
+    String bucket,
+    String prefix,
+    Instant modifiedAfter,
+    Instant modifiedBefore)
+{
+
+  /**
+   * Whether an object last modified at lastModified falls in the time bounds. An unknown time only
+   * passes without bounds.
+   */
+  public Boolean includes(
+      Instant lastModified)
+  {
+    if (this.modifiedAfter == null
+        && this.modifiedBefore == null)
+    {
+      return true;
+    }
+    if (lastModified == null)
+    {
+      return false;
+    }
+    return (this.modifiedAfter == null
+        || !lastModified
+            .isBefore(this.modifiedAfter))
+        && (this.modifiedBefore == null
+            || lastModified
+                .isBefore(this.modifiedBefore));
+  }
+}
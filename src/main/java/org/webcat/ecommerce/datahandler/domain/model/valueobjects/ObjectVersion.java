@@ -0,0 +1,40 @@
+package org.webcat.ecommerce.datahandler.domain.model.valueobjects;
+
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * {@link ObjectVersion}
+ * <p>
+ * Identifies the content of a raw object at some point in time, from its metadata alone.
+ * </p>
+ * <h4>Fields:</h4>
+ * <li>{@field String etag} (may be null)</li>
+ * <li>{@field Instant lastModified} (may be null)</li>
+ */
+public record ObjectVersion(
+    String etag,
+    Instant lastModified)
+{
+
+  /**
+   * Whether both describe the same content. ETags are compared when both have one, the last
+   * modified times otherwise. Versions that tell nothing are never the same.
+   */
+  public Boolean sameAs(
+      ObjectVersion other)
+  {
+    if (other == null)
+    {
+      return false;
+    }
+    if (this.etag != null
+        && other.etag != null)
+    {
+      return this.etag.equals(other.etag);
+    }
+    return this.lastModified != null
+        && Objects.equals(this.lastModified,
+            other.lastModified);
+  }
+}
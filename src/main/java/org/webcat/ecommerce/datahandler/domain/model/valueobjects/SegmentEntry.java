@@ -0,0 +1,33 @@
+package org.webcat.ecommerce.datahandler.domain.model.valueobjects;
+
+import java.time.Instant;
+
+/**
+ * {@link SegmentEntry}
+ * <p>
+ * A raw object packed into a segment by the compaction: the bytes it was stored as (compressed
+ * with contentEncoding) are length bytes of the segment from offset.
+ * </p>
+ * <h4>Fields:</h4>
+ * <li>{@field Long rawId}</li>
+ * <li>{@field String segmentName}</li>
+ * <li>{@field Long offset}</li>
+ * <li>{@field Integer length}</li>
+ * <li>{@field String contentEncoding} (null for a plain object)</li>
+ * <li>{@field ObjectVersion version} (the version the object had before it was packed)</li>
+ */
+public record SegmentEntry(
+    Long rawId,
+    String segmentName,
+    Long offset,
+    Integer length,
+    String contentEncoding,
+    ObjectVersion version)
+{
+
+  public Instant lastModified()
+  {
+    return this.version == null ? null
+        : this.version.lastModified();
+  }
+}
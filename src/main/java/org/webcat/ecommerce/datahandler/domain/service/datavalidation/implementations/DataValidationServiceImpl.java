@@ -1,31 +1,76 @@
 package org.webcat.ecommerce.datahandler.domain.service.datavalidation.implementations;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.webcat.ecommerce.datahandler.domain.model.entities.FileMapping;
 import org.webcat.ecommerce.datahandler.domain.service.datavalidation.interfaces.DataValidationService;
-import org.webcat.ecommerce.datahandler.infrastructure.database.MinIORawDataRepository;
-import org.webcat.ecommerce.datahandler.infrastructure.repository.JPAFileMappingRepo;
+import org.webcat.ecommerce.datahandler.infrastructure.cache.FileMappingNearCache;
+import org.webcat.ecommerce.datahandler.infrastructure.database.RawSegments;
+import org.webcat.ecommerce.datahandler.infrastructure.logging.Logger;
+import org.webcat.ecommerce.datahandler.infrastructure.profiling.NormaliseEvent;
+import org.webcat.ecommerce.datahandler.infrastructure.repository.RawDataRepository;
 import org.webcat.ecommerce.datahandler.shared.helpers.SnowflakeIDGenerator;
 
+/**
+ * {@link DataValidationServiceImpl}
+ * <p>
+ * Normalises the names of uploaded files a batch at a time:
+ * </p>
+ * <p>
+ * <li>The ids of the whole batch are reserved at once.</li>
+ * <li>The name mappings are inserted in one JDBC batch.</li>
+ * <li>The objects are renamed with the repository's async renames, at most maxRenamesInFlight at
+ * the same time. The mapping of a file that couldn't be renamed is deleted again.</li>
+ * </p>
+ * <p>
+ * A mapping outlives the removal of its object when the object was packed into a segment by the
+ * compaction, the object is still read by its name.
+ * </p>
+ * <p>
+ * Every file is recorded as a {@link NormaliseEvent} while a flight recording runs.
+ * </p>
+ */
 @Service
 public class DataValidationServiceImpl
     implements DataValidationService
 {
 
+  private static final Logger LOG =
+      Logger.get(DataValidationServiceImpl.class);
+
   private final SnowflakeIDGenerator snowflakeIDGenerator;
-  private final JPAFileMappingRepo fileMappingRepo;
-  private final MinIORawDataRepository minioRepo;
+  // Lookups go through the near-cache, saves and deletes keep it up to date.
+  private final FileMappingNearCache fileMappingRepo;
+  private final RawDataRepository rawDataRepo;
+
+  // The max number of renames (copy + remove) running at the same time.
+  private final Integer maxRenamesInFlight;
 
   public DataValidationServiceImpl(
       SnowflakeIDGenerator snowflakeIDGenerator,
-      JPAFileMappingRepo fileMappingRepo,
-      MinIORawDataRepository minioRepo)
+      FileMappingNearCache fileMappingRepo,
+      RawDataRepository rawDataRepo,
+      @Value("${data-validation.rename.max-in-flight:32}") Integer maxRenamesInFlight)
   {
+    if (maxRenamesInFlight < 1)
+    {
+      throw new IllegalArgumentException(
+          "Max in-flight renames must be positive");
+    }
+
     this.snowflakeIDGenerator =
         snowflakeIDGenerator;
     this.fileMappingRepo =
         fileMappingRepo;
-    this.minioRepo = minioRepo;
+    this.rawDataRepo = rawDataRepo;
+    this.maxRenamesInFlight =
+        maxRenamesInFlight;
   }
 
   @Override
@@ -36,45 +81,232 @@ public class DataValidationServiceImpl
   public Long normaliseNameID(
       String fileName)
   {
-    Long sfID =
-        this.snowflakeIDGenerator
-            .generateId();
+    return this.normaliseNameIDs(
+        List.of(fileName))[0];
+  }
+
+  @Override
+  public Long[] normaliseNameIDs(
+      List<String> fileNames)
+  {
+    NormaliseEvent[] events =
+        beginEvents(fileNames.size());
 
-    // Generating a new name for the file.
-    String newName = this.minioRepo
-        .generateObjectName(sfID);
+    Long[] sfIDs =
+        new Long[fileNames.size()];
+    long[] ids = this.snowflakeIDGenerator
+        .generateIds(fileNames.size());
 
-    if (newName == null)
+    // Generating the new names, indexes maps a mapping back to its file.
+    List<FileMapping> mappings =
+        new ArrayList<>(fileNames.size());
+    List<Integer> indexes =
+        new ArrayList<>(fileNames.size());
+    for (Integer i =
+        0; i < fileNames.size(); i++)
     {
-      return null;
+      // A segment's objects are indexed under its name, and a normalised
+      // name is what a rename would give it anyway.
+      if (RawSegments
+          .isSegment(fileNames.get(i)))
+      {
+        continue;
+      }
+      sfIDs[i] = this.rawDataRepo
+          .rawIdOf(fileNames.get(i));
+      if (sfIDs[i] != null)
+      {
+        continue;
+      }
+
+      String newName = this.rawDataRepo
+          .generateObjectName(ids[i]);
+      if (newName != null)
+      {
+        mappings.add(new FileMapping(
+            fileNames.get(i), newName));
+        indexes.add(i);
+      }
     }
 
-    FileMapping fMap = new FileMapping(
-        fileName, newName);
+    if (mappings.isEmpty())
+    {
+      commit(events, fileNames, mappings,
+          indexes, sfIDs);
+      return sfIDs;
+    }
+
+    // Saving the new and old names mappings in the DB.
+    Boolean[] saved = this.fileMappingRepo
+        .saveAll(mappings);
 
-    // Saving the new and old names mapping in the DB.
-    if (this.fileMappingRepo
-        .save(fMap) == null)
+    // Updating the file names in the raw store.
+    Boolean[] renamed =
+        this.renameAll(mappings, saved);
+
+    for (Integer j =
+        0; j < mappings.size(); j++)
     {
-      return null;
+      if (renamed[j])
+      {
+        sfIDs[indexes.get(j)] =
+            ids[indexes.get(j)];
+      } else if (saved[j])
+      {
+        // The object kept its old name, so its mapping is wrong.
+        this.fileMappingRepo
+            .deleteByNewName(mappings.get(j)
+                .getNewName());
+      }
     }
 
-    // Updating the file name in minio.
-    if (!this.minioRepo.renameObject(
-        fileName, newName))
+    commit(events, fileNames, mappings,
+        indexes, sfIDs);
+    return sfIDs;
+  }
+
+  // One event per file, each lasting as long as the batch. null unless a
+  // recording takes them.
+  private static NormaliseEvent[] beginEvents(
+      Integer fileCount)
+  {
+    NormaliseEvent first =
+        new NormaliseEvent();
+    if (!first.isEnabled())
     {
       return null;
     }
 
-    return sfID;
+    NormaliseEvent[] events =
+        new NormaliseEvent[fileCount];
+    for (Integer i = 0; i < fileCount; i++)
+    {
+      events[i] = i == 0 ? first
+          : new NormaliseEvent();
+      events[i].begin();
+    }
+    return events;
+  }
+
+  private static void commit(
+      NormaliseEvent[] events,
+      List<String> fileNames,
+      List<FileMapping> mappings,
+      List<Integer> indexes, Long[] sfIDs)
+  {
+    if (events == null)
+    {
+      return;
+    }
+
+    String[] newNames =
+        new String[fileNames.size()];
+    for (Integer j =
+        0; j < mappings.size(); j++)
+    {
+      newNames[indexes.get(j)] =
+          mappings.get(j).getNewName();
+    }
+
+    for (Integer i =
+        0; i < events.length; i++)
+    {
+      NormaliseEvent event = events[i];
+      event.end();
+      if (!event.shouldCommit())
+      {
+        continue;
+      }
+      event.file = fileNames.get(i);
+      event.newFile = newNames[i];
+      event.id = sfIDs[i] == null ? 0L
+          : sfIDs[i];
+      event.batchSize = fileNames.size();
+      event.success = sfIDs[i] != null;
+      event.commit();
+    }
   }
 
+
   @Override
   public Boolean deleteNameMapping(
       String newName)
   {
+    // The compaction removes the objects it packed into segments, they're
+    // still read by their name so their mapping stays.
+    if (this.rawDataRepo
+        .isCompacted(newName))
+    {
+      return true;
+    }
     return this.fileMappingRepo
         .deleteByNewName(newName) > 0;
   }
 
+  // Renames the objects whose mapping was saved, returns the success of
+  // every rename in the order of mappings.
+  private Boolean[] renameAll(
+      List<FileMapping> mappings,
+      Boolean[] saved)
+  {
+    Boolean[] renamed =
+        new Boolean[mappings.size()];
+    List<CompletableFuture<Boolean>> pending =
+        new ArrayList<>(mappings.size());
+    Semaphore inFlight = new Semaphore(
+        this.maxRenamesInFlight);
+
+    try
+    {
+      for (Integer j =
+          0; j < mappings.size(); j++)
+      {
+        if (!saved[j])
+        {
+          pending.add(null);
+          continue;
+        }
+
+        FileMapping mapping =
+            mappings.get(j);
+        inFlight.acquire();
+        pending.add(this.rawDataRepo
+            .renameObjectAsync(
+                mapping.getOriginalName(),
+                mapping.getNewName())
+            .whenComplete((done,
+                e) -> inFlight.release()));
+      }
+
+      for (Integer j =
+          0; j < pending.size(); j++)
+      {
+        renamed[j] = false;
+        if (pending.get(j) == null)
+        {
+          continue;
+        }
+        try
+        {
+          renamed[j] =
+              pending.get(j).get();
+        } catch (ExecutionException e)
+        {
+          LOG.atWarn()
+              .file(mappings.get(j)
+                  .getOriginalName())
+              .cause(e.getCause())
+              .log("Failed to rename the file");
+        }
+      }
+    } catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(
+          "Renaming was interrupted", e);
+    }
+
+    return renamed;
+  }
+
 }
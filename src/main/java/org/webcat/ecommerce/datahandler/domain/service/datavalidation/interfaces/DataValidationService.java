@@ -1,10 +1,16 @@
 package org.webcat.ecommerce.datahandler.domain.service.datavalidation.interfaces;
 
+import java.util.List;
 
 /**
  * A domain service that makes sure the stored raw data is valid. Meaning, that the data is not
  * corrupted, that the name of the file is unique and that the name mapping is removed if the file
  * is deleted.
+ * <p>
+ * normaliseNameIDs() returns the new snowflake id of every file, in the order of fileNames, null
+ * for files that couldn't be normalised. A file whose name is normalised already keeps it and its
+ * id, a compaction segment is never renamed and gets null.
+ * </p>
  */
 public interface DataValidationService
 {
@@ -12,6 +18,9 @@ public interface DataValidationService
 
   Long normaliseNameID(String fileName);
 
+  Long[] normaliseNameIDs(
+      List<String> fileNames);
+
   Boolean deleteNameMapping(
       String newName);
 }
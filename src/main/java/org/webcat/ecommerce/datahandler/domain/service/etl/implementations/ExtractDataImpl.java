@@ -1,45 +1,348 @@
 package org.webcat.ecommerce.datahandler.domain.service.etl.implementations;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.webcat.ecommerce.datahandler.domain.model.entities.RawData;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ExtractionResult;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ObjectScan;
 import org.webcat.ecommerce.datahandler.domain.service.etl.interfaces.ExtractData;
+import org.webcat.ecommerce.datahandler.domain.service.etl.interfaces.RecordSink;
+import org.webcat.ecommerce.datahandler.infrastructure.metrics.ETLMetrics;
 import org.webcat.ecommerce.datahandler.infrastructure.repository.RawDataRepository;
 
-@Service
+import io.micrometer.core.instrument.Timer;
+
 /**
  * {@link ExtractDataImpl}
  * <p>
  * A domain service that calls the repository to extract data by ID.
  * </p>
+ * <p>
+ * In concurrent mode the files are fetched with the repository's async reads and their futures
+ * collected, at most maxInFlight GETs are running at the same time. No thread waits on a GET. The
+ * pipeline's extract stage goes through extractRecordsAsync() the same way.
+ * </p>
+ * <p>
+ * In streaming mode extractRecords() reads a file record by record (NDJSON or a top-level array)
+ * instead of as a single RawData, so the heap used doesn't grow with the size of the file.
+ * </p>
  */
+@Service
 public class ExtractDataImpl
     implements ExtractData
 {
   private final RawDataRepository repo;
 
-  ExtractDataImpl(
-      RawDataRepository repo)
+  // Whether to fetch the files of a list concurrently.
+  private final Boolean concurrent;
+  // The max number of GETs running at the same time in concurrent mode.
+  private final Integer maxInFlight;
+  // Whether files are read record by record.
+  private final Boolean streaming;
+  private final ETLMetrics metrics;
+
+  public ExtractDataImpl(
+      RawDataRepository repo,
+      Boolean concurrent,
+      Integer maxInFlight,
+      Boolean streaming)
+  {
+    this(repo, concurrent, maxInFlight,
+        streaming, ETLMetrics.NONE);
+  }
+
+  @Autowired
+  public ExtractDataImpl(
+      RawDataRepository repo,
+      @Value("${etl.extract.concurrent:true}") Boolean concurrent,
+      @Value("${etl.extract.max-in-flight:64}") Integer maxInFlight,
+      @Value("${etl.extract.streaming:false}") Boolean streaming,
+      ETLMetrics metrics)
   {
+    if (maxInFlight < 1)
+    {
+      throw new IllegalArgumentException(
+          "Max in-flight extractions must be positive");
+    }
+
     this.repo = repo;
+    this.concurrent = concurrent;
+    this.maxInFlight = maxInFlight;
+    this.streaming = streaming;
+    this.metrics = metrics;
   }
 
   /**
-   * Goes over a list of filenames and returns a list of the content of files.
+   * Goes over a list of filenames and returns a list of the content of files. Files that failed
+   * are null in the list, use {@link #extractAll(List)} to find out why.
    */
   @Override
   public ArrayList<RawData> extract(
       List<String> fileNames)
   {
+    return this.extractAll(fileNames)
+        .getContentOfFiles();
+  }
+
+  /**
+   * Returns the content of the files in the order of fileNames, together with the files that
+   * failed.
+   */
+  @Override
+  public ExtractionResult extractAll(
+      List<String> fileNames)
+  {
+    if (this.concurrent)
+    {
+      return this
+          .extractConcurrently(fileNames);
+    }
+
     ArrayList<RawData> contentOfFiles =
         new ArrayList<RawData>();
-    for (String fileName : fileNames)
+    List<ExtractionResult.Failure> failures =
+        new ArrayList<>();
+    for (Integer i =
+        0; i < fileNames.size(); i++)
+    {
+      String fileName = fileNames.get(i);
+      RawData rawData = null;
+      try
+      {
+        rawData = this.extract(fileName);
+      } catch (RuntimeException e)
+      {
+        failures.add(
+            new ExtractionResult.Failure(i,
+                fileName, e));
+      }
+      contentOfFiles.add(rawData);
+    }
+    return new ExtractionResult(
+        contentOfFiles, failures);
+  }
+
+  /**
+   * Returns the content of a single file.
+   */
+  @Override
+  public RawData extract(
+      String fileName)
+  {
+    Timer.Sample sample = Timer.start();
+    try
+    {
+      return this.repo
+          .findByFileName(fileName);
+    } catch (RuntimeException e)
+    {
+      this.metrics.getExtractFailures()
+          .increment();
+      throw e;
+    } finally
+    {
+      sample.stop(this.metrics
+          .getExtractTimer(false));
+    }
+  }
+
+  @Override
+  public CompletableFuture<RawData> extractAsync(
+      String fileName)
+  {
+    Timer.Sample sample = Timer.start();
+    return this.repo
+        .findByFileNameAsync(fileName)
+        .whenComplete((rawData, e) -> {
+          if (e != null)
+          {
+            this.metrics.getExtractFailures()
+                .increment();
+          }
+          sample.stop(this.metrics
+              .getExtractTimer(false));
+        });
+  }
+
+  /**
+   * Hands the records of a file to sink. Outside of streaming mode the whole file is a single
+   * record.
+   */
+  @Override
+  public Integer extractRecords(
+      String fileName, RecordSink sink)
+      throws InterruptedException
+  {
+    if (this.streaming)
+    {
+      return this.stream(fileName, sink);
+    }
+
+    return this.accept(fileName,
+        this.extract(fileName), sink);
+  }
+
+  /**
+   * A document's GET is sent by the repository's async read, a streamed file is read by a thread
+   * of executor as it arrives.
+   */
+  @Override
+  public CompletableFuture<Integer> extractRecordsAsync(
+      String fileName, RecordSink sink,
+      Executor executor)
+  {
+    if (this.streaming)
+    {
+      return CompletableFuture.supplyAsync(
+          () -> {
+            try
+            {
+              return this.stream(fileName,
+                  sink);
+            } catch (InterruptedException e)
+            {
+              Thread.currentThread()
+                  .interrupt();
+              throw new CompletionException(e);
+            }
+          }, executor);
+    }
+
+    return this.extractAsync(fileName)
+        .thenApplyAsync(rawData -> {
+          try
+          {
+            return this.accept(fileName,
+                rawData, sink);
+          } catch (InterruptedException e)
+          {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+          }
+        }, executor);
+  }
+
+  @Override
+  public Integer getMaxInFlight()
+  {
+    return this.concurrent
+        ? this.maxInFlight
+        : null;
+  }
+
+  @Override
+  public Iterator<String> listFiles(
+      ObjectScan scan)
+  {
+    return this.repo.listObjectNames(scan);
+  }
+
+  // A whole document as the file's only record.
+  private Integer accept(String fileName,
+      RawData rawData, RecordSink sink)
+      throws InterruptedException
+  {
+    if (rawData == null)
+    {
+      this.metrics.getExtractFailures()
+          .increment();
+      throw new RuntimeException(
+          "No raw data in file: " + fileName);
+    }
+    this.metrics.getExtractRecords()
+        .record(1);
+    sink.accept(rawData);
+    return 1;
+  }
+
+  private Integer stream(String fileName,
+      RecordSink sink)
+      throws InterruptedException
+  {
+    Timer.Sample sample = Timer.start();
+    try
+    {
+      Integer records = this.repo
+          .streamRecords(fileName, sink);
+      this.metrics.getExtractRecords()
+          .record(records);
+      return records;
+    } catch (RuntimeException e)
+    {
+      this.metrics.getExtractFailures()
+          .increment();
+      throw e;
+    } finally
+    {
+      sample.stop(this.metrics
+          .getExtractTimer(true));
+    }
+  }
+
+  private ExtractionResult extractConcurrently(
+      List<String> fileNames)
+  {
+    ArrayList<RawData> contentOfFiles =
+        new ArrayList<RawData>(
+            fileNames.size());
+    List<ExtractionResult.Failure> failures =
+        new ArrayList<>();
+    List<CompletableFuture<RawData>> pending =
+        new ArrayList<>(fileNames.size());
+
+    // Only the calling thread waits for a permit, it bounds the number of
+    // open connections.
+    Semaphore inFlight =
+        new Semaphore(this.maxInFlight);
+
+    try
     {
-      contentOfFiles.add(this.repo
-          .findByFileName(fileName));
+      for (String fileName : fileNames)
+      {
+        inFlight.acquire();
+        pending.add(this.extractAsync(fileName)
+            .whenComplete((rawData,
+                e) -> inFlight.release()));
+      }
+
+      // Collecting in submission order keeps the result aligned with
+      // fileNames.
+      for (Integer i =
+          0; i < pending.size(); i++)
+      {
+        RawData rawData = null;
+        try
+        {
+          rawData = pending.get(i).get();
+        } catch (ExecutionException e)
+        {
+          failures.add(
+              new ExtractionResult.Failure(i,
+                  fileNames.get(i),
+                  e.getCause() instanceof Exception cause
+                      ? cause
+                      : e));
+        }
+        contentOfFiles.add(rawData);
+      }
+    } catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(
+          "Extraction was interrupted", e);
     }
-    return contentOfFiles;
+
+    return new ExtractionResult(
+        contentOfFiles, failures);
   }
 }
@@ -1,27 +1,92 @@
 package org.webcat.ecommerce.datahandler.domain.service.etl.implementations;
 
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.webcat.ecommerce.datahandler.domain.model.entities.ProcessedData;
 import org.webcat.ecommerce.datahandler.domain.service.etl.interfaces.LoadData;
+import org.webcat.ecommerce.datahandler.infrastructure.cache.ProcessedRawIdFilter;
+import org.webcat.ecommerce.datahandler.infrastructure.metrics.ETLMetrics;
 import org.webcat.ecommerce.datahandler.infrastructure.repository.ProcessedDataRepository;
 
+import io.micrometer.core.instrument.Timer;
+
 @Service
 public class LoadDataImpl
     implements LoadData
 {
   ProcessedDataRepository repo;
+  // Told about every raw id that gets rows, null when nothing tracks them.
+  ProcessedRawIdFilter processedIds;
+  ETLMetrics metrics;
 
   public LoadDataImpl(
       ProcessedDataRepository repo)
+  {
+    this(repo, null, ETLMetrics.NONE);
+  }
+
+  @Autowired
+  public LoadDataImpl(
+      ProcessedDataRepository repo,
+      ProcessedRawIdFilter processedIds,
+      ETLMetrics metrics)
   {
     this.repo = repo;
+    this.processedIds = processedIds;
+    this.metrics = metrics;
   }
 
   @Override
   public Boolean save(
       ProcessedData processedData)
   {
-    return this.repo
-        .save(processedData);
+    return this.saveAll(
+        List.of(processedData))[0];
+  }
+
+  /**
+   * Saves processed data in bulk.
+   *
+   * @return The success of every row, in the order of processedData.
+   */
+  @Override
+  public Boolean[] saveAll(
+      List<ProcessedData> processedData)
+  {
+    Timer.Sample sample = Timer.start();
+    Boolean[] saved;
+    try
+    {
+      saved = this.repo
+          .saveAll(processedData);
+    } catch (RuntimeException e)
+    {
+      this.metrics.getLoadFailedRows()
+          .increment(processedData.size());
+      throw e;
+    } finally
+    {
+      sample.stop(
+          this.metrics.getLoadTimer());
+      this.metrics.getLoadRows()
+          .record(processedData.size());
+    }
+
+    for (Integer i =
+        0; i < saved.length; i++)
+    {
+      if (!saved[i])
+      {
+        this.metrics.getLoadFailedRows()
+            .increment();
+      } else if (this.processedIds != null)
+      {
+        this.processedIds.add(processedData
+            .get(i).getRawDataId());
+      }
+    }
+    return saved;
   }
 }
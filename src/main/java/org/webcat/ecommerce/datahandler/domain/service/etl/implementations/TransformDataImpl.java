@@ -1,32 +1,145 @@
 package org.webcat.ecommerce.datahandler.domain.service.etl.implementations;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.webcat.ecommerce.datahandler.domain.model.entities.ProcessedData;
 import org.webcat.ecommerce.datahandler.domain.model.entities.RawData;
 import org.webcat.ecommerce.datahandler.domain.service.etl.interfaces.TransformData;
+import org.webcat.ecommerce.datahandler.domain.service.etl.transformation.TransformPlan;
+import org.webcat.ecommerce.datahandler.domain.service.etl.transformation.TransformSpec;
+import org.webcat.ecommerce.datahandler.infrastructure.metrics.ETLMetrics;
+import org.webcat.ecommerce.datahandler.infrastructure.profiling.TransformEvent;
 
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * {@link TransformDataImpl}
+ * <p>
+ * Transforms records by the {@link TransformSpec} at etl.transform.spec. The spec is compiled
+ * into a {@link TransformPlan} once, when the service is created, and the plan is shared by every
+ * transform worker.
+ * </p>
+ * <p>
+ * Every record is recorded as a {@link TransformEvent} while a flight recording runs.
+ * </p>
+ */
 @Service
 public class TransformDataImpl
     implements TransformData
 {
+
+  private final TransformPlan plan;
+  private final ETLMetrics metrics;
+
+  @Autowired
+  public TransformDataImpl(
+      @Value("${etl.transform.spec:classpath:transform/orders.json}") Resource spec,
+      ETLMetrics metrics)
+  {
+    this(compile(spec), metrics);
+  }
+
+  public TransformDataImpl(
+      TransformPlan plan)
+  {
+    this(plan, ETLMetrics.NONE);
+  }
+
+  public TransformDataImpl(
+      TransformPlan plan,
+      ETLMetrics metrics)
+  {
+    this.plan = plan;
+    this.metrics = metrics;
+  }
+
   /**
-   * Transforms raw data into processed data by converting its content to uppercase. The resulting
-   * processed data does not include an ID, which is assigned during the loading phase into a
-   * repository.
+   * Transforms raw data into processed data by running the compiled plan over its content. The
+   * resulting processed data does not include an ID, which is assigned during the loading phase
+   * into a repository.
    *
    * @param rawData The raw data to be transformed.
    * @return A ProcessedData object with the transformed content.
+   * @throws IllegalArgumentException If the content isn't a json object (or an array of them), or
+   *         a value can't be coerced to its field's type.
    */
   @Override
   public ProcessedData transform(
       RawData rawData)
   {
-    // The processed data ID is generated by hibernate during loading to a repo.
-    String processedContent = rawData
-        .getRawContent().toUpperCase();
+    TransformEvent event =
+        new TransformEvent();
+    event.begin();
+    Timer.Sample sample = Timer.start();
+    ProcessedData processedData = null;
+    try
+    {
+      processedData = this.run(rawData);
+      return processedData;
+    } catch (RuntimeException e)
+    {
+      this.metrics.getTransformFailures()
+          .increment();
+      throw e;
+    } finally
+    {
+      sample.stop(this.metrics
+          .getTransformTimer());
+      event.end();
+      if (event.shouldCommit())
+      {
+        commit(event, rawData,
+            processedData);
+      }
+    }
+  }
+
+  // The sizes are only worked out for a recording.
+  private static void commit(
+      TransformEvent event, RawData rawData,
+      ProcessedData processedData)
+  {
+    if (rawData.getID() != null)
+    {
+      event.rawDataId = rawData.getID();
+    }
+    if (rawData.getRecordIndex() != null)
+    {
+      event.recordIndex =
+          rawData.getRecordIndex();
+    }
+    if (rawData.hasBytes())
+    {
+      event.inputBytes =
+          rawData.getContentLength();
+    } else if (rawData
+        .getRawContent() != null)
+    {
+      event.inputBytes = rawData
+          .getRawContent().getBytes(
+              StandardCharsets.UTF_8).length;
+    }
+    if (processedData != null)
+    {
+      byte[] output =
+          processedData.getTransformedBytes();
+      event.outputBytes =
+          output == null ? 0 : output.length;
+      event.success = true;
+    }
+    event.commit();
+  }
 
+  private ProcessedData run(
+      RawData rawData)
+  {
+    // The processed data ID is generated by hibernate during loading to a repo.
     Long rDataID = rawData.getID();
 
     ProcessedData.Status status =
@@ -36,8 +149,38 @@ public class TransformDataImpl
         new Timestamp(
             System.currentTimeMillis());
 
-    return new ProcessedData(rDataID,
-        processedContent, status,
-        processedAt);
+    // Records streamed as bytes stay bytes up to the DB.
+    ProcessedData processedData = rawData
+        .hasBytes()
+            ? new ProcessedData(rDataID,
+                this.plan.apply(
+                    rawData.getContentArray(),
+                    rawData.getContentOffset(),
+                    rawData.getContentLength()),
+                status, processedAt)
+            : new ProcessedData(rDataID,
+                this.plan.apply(
+                    rawData.getRawContent()),
+                status, processedAt);
+    processedData.setRecordIndex(
+        rawData.getRecordIndex());
+    return processedData;
+  }
+
+  private static TransformPlan compile(
+      Resource spec)
+  {
+    try
+    {
+      return TransformPlan.compile(
+          spec.getContentAsString(
+              StandardCharsets.UTF_8));
+    } catch (IOException e)
+    {
+      throw new IllegalArgumentException(
+          "Failed to read the transform spec "
+              + spec.getDescription(),
+          e);
+    }
   }
 }
@@ -1,12 +1,50 @@
 package org.webcat.ecommerce.datahandler.domain.service.etl.interfaces;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import org.webcat.ecommerce.datahandler.domain.model.entities.RawData;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ExtractionResult;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ObjectScan;
 
 public interface ExtractData
 {
   ArrayList<RawData> extract(
       List<String> fileNames);
+
+  ExtractionResult extractAll(
+      List<String> fileNames);
+
+  // Extracts a single file, used by the pipelined ETL where every
+  // file flows through the stages on its own.
+  RawData extract(String fileName);
+
+  // Extracts a single file without blocking, the future fails with what
+  // extract() would throw.
+  CompletableFuture<RawData> extractAsync(
+      String fileName);
+
+  // Hands the records of a file to sink one at a time, returns the
+  // number of records.
+  Integer extractRecords(String fileName,
+      RecordSink sink)
+      throws InterruptedException;
+
+  // extractRecords() without holding a thread while the file is requested.
+  // The records are handed to sink by executor, the future completes with
+  // the number of records or fails with what extractRecords() would throw.
+  CompletableFuture<Integer> extractRecordsAsync(
+      String fileName, RecordSink sink,
+      Executor executor);
+
+  // How many files extractRecordsAsync() may be running for at the same
+  // time, null if files are to be extracted one per blocking worker.
+  Integer getMaxInFlight();
+
+  // The files a scan selects, found as the iterator is read.
+  Iterator<String> listFiles(
+      ObjectScan scan);
 }
@@ -1,5 +1,7 @@
 package org.webcat.ecommerce.datahandler.domain.service.etl.interfaces;
 
+import java.util.List;
+
 import org.webcat.ecommerce.datahandler.domain.model.entities.ProcessedData;
 
 /**
@@ -9,9 +11,15 @@ import org.webcat.ecommerce.datahandler.domain.model.entities.ProcessedData;
  * A domain service that calls the processed data repository to save data.
  * </p>
  * <h4>Methods:</h4> {@method Boolean save(ProcessedData processedData)}
+ * <p>
+ * {@method Boolean[] saveAll(List<ProcessedData> processedData)}
+ * </p>
  */
 public interface LoadData
 {
   Boolean save(
       ProcessedData processedData);
+
+  Boolean[] saveAll(
+      List<ProcessedData> processedData);
 }
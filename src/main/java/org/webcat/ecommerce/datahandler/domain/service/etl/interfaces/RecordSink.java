@@ -0,0 +1,17 @@
+package org.webcat.ecommerce.datahandler.domain.service.etl.interfaces;
+
+import org.webcat.ecommerce.datahandler.domain.model.entities.RawData;
+
+/**
+ * {@link RecordSink}
+ * <p>
+ * Receives the records of a raw object one at a time, while the object is still being read. May
+ * block (e.g. on a full pipeline queue), which slows the read down instead of buffering records.
+ * </p>
+ */
+@FunctionalInterface
+public interface RecordSink
+{
+  void accept(RawData record)
+      throws InterruptedException;
+}
@@ -0,0 +1,597 @@
+package org.webcat.ecommerce.datahandler.domain.service.etl.transformation;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.webcat.ecommerce.datahandler.domain.service.etl.transformation.TransformSpec.FieldRule;
+import org.webcat.ecommerce.datahandler.domain.service.etl.transformation.TransformSpec.FieldType;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+/**
+ * {@link TransformPlan}
+ * <p>
+ * A {@link TransformSpec} compiled into a tree of the input paths it reads. A record is
+ * transformed in one pass over its parser tokens, no tree of the record is built:
+ * </p>
+ * <p>
+ * <li>A field no path goes through is skipped with all of its children.</li>
+ * <li>A field a path goes through is descended into.</li>
+ * <li>A field a path ends at is coerced right away and kept until the record ends.</li>
+ * </p>
+ * <p>
+ * The output is a json object with the fields in the order of the spec, or an array of them when
+ * the input is an array of records. Plans are immutable, so one plan is shared by every thread,
+ * and compile(String) only compiles a spec the first time it's seen.
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method static TransformPlan compile(String specJson)}</li>
+ * <li>{@method static TransformPlan compile(TransformSpec spec)}</li>
+ * <li>{@method String apply(String json)}</li>
+ * <li>{@method byte[] apply(byte[] json, Integer offset, Integer length)}</li>
+ */
+public class TransformPlan
+{
+
+  // A spec field after validation, with its ops and default resolved.
+  private static final class Field
+  {
+    private Integer slot;
+    private String from;
+    private SerializedString to;
+    private FieldType type;
+    private Function<String, String> ops;
+    private Integer scale;
+    private Boolean required;
+    private Object defaultValue;
+  }
+
+  // A segment of the input paths, fields ends here or children go on.
+  private static final class Node
+  {
+    private final Map<String, Node> children =
+        new HashMap<>();
+    private final List<Field> fields =
+        new ArrayList<>();
+  }
+
+  private static final JsonFactory JSON_FACTORY =
+      JsonFactory.builder()
+          .enable(
+              StreamWriteFeature.WRITE_BIGDECIMAL_AS_PLAIN)
+          .build();
+
+  private static final ObjectMapper SPEC_READER =
+      JsonMapper.builder().enable(
+          MapperFeature.ACCEPT_CASE_INSENSITIVE_ENUMS)
+          .build();
+
+  private static final Map<String, TransformPlan> COMPILED =
+      new ConcurrentHashMap<>();
+
+  private final Node root;
+  private final Field[] fields;
+
+  private TransformPlan(Node root,
+      Field[] fields)
+  {
+    this.root = root;
+    this.fields = fields;
+  }
+
+  /**
+   * Compiles a json spec, a spec compiled before is returned from the cache.
+   */
+  public static TransformPlan compile(
+      String specJson)
+  {
+    return COMPILED.computeIfAbsent(
+        specJson, json -> {
+          try
+          {
+            return compile(SPEC_READER
+                .readValue(json,
+                    TransformSpec.class));
+          } catch (JsonProcessingException e)
+          {
+            throw new IllegalArgumentException(
+                "Invalid transform spec: "
+                    + e.getOriginalMessage(),
+                e);
+          }
+        });
+  }
+
+  public static TransformPlan compile(
+      TransformSpec spec)
+  {
+    if (spec.getFields() == null
+        || spec.getFields().isEmpty())
+    {
+      throw new IllegalArgumentException(
+          "A transform spec needs at least one field");
+    }
+
+    Node root = new Node();
+    Field[] fields =
+        new Field[spec.getFields().size()];
+    Set<String> outputNames =
+        new HashSet<>();
+
+    for (Integer i =
+        0; i < fields.length; i++)
+    {
+      FieldRule rule =
+          spec.getFields().get(i);
+      String[] path = parsePath(rule);
+      Field field =
+          compileField(rule, path, i);
+      if (!outputNames
+          .add(field.to.getValue()))
+      {
+        throw new IllegalArgumentException(
+            "Output field " + field.to
+                + " is written twice");
+      }
+      fields[i] = field;
+
+      Node node = root;
+      for (String segment : path)
+      {
+        if (!node.fields.isEmpty())
+        {
+          throw new IllegalArgumentException(
+              "Path " + rule.getFrom()
+                  + " goes through a mapped field");
+        }
+        node = node.children
+            .computeIfAbsent(segment,
+                name -> new Node());
+      }
+      if (!node.children.isEmpty())
+      {
+        throw new IllegalArgumentException(
+            "Path " + rule.getFrom()
+                + " is the parent of a mapped field");
+      }
+      node.fields.add(field);
+    }
+
+    return new TransformPlan(root,
+        fields);
+  }
+
+  /**
+   * Transforms a json object, or every object of a json array. Throws an IllegalArgumentException
+   * if the input isn't one, or if a value can't be coerced.
+   */
+  public String apply(String json)
+  {
+    StringWriter out = new StringWriter(
+        Math.max(16, json.length() / 2));
+    try (
+        JsonParser parser =
+            JSON_FACTORY.createParser(json);
+        JsonGenerator generator =
+            JSON_FACTORY
+                .createGenerator(out))
+    {
+      this.run(parser, generator);
+    } catch (IOException e)
+    {
+      throw new IllegalArgumentException(
+          "Malformed json record: "
+              + e.getMessage(),
+          e);
+    }
+    return out.toString();
+  }
+
+  /**
+   * Like apply(String), over UTF-8 bytes and into UTF-8 bytes, no text is decoded on the way.
+   */
+  public byte[] apply(byte[] json,
+      Integer offset, Integer length)
+  {
+    ByteArrayBuilder out =
+        new ByteArrayBuilder(
+            Math.max(16, length / 2));
+    try (
+        JsonParser parser = JSON_FACTORY
+            .createParser(json, offset,
+                length);
+        JsonGenerator generator =
+            JSON_FACTORY.createGenerator(out,
+                JsonEncoding.UTF8))
+    {
+      this.run(parser, generator);
+    } catch (IOException e)
+    {
+      throw new IllegalArgumentException(
+          "Malformed json record: "
+              + e.getMessage(),
+          e);
+    }
+    return out.toByteArray();
+  }
+
+  private void run(JsonParser parser,
+      JsonGenerator generator)
+      throws IOException
+  {
+    JsonToken token = parser.nextToken();
+    if (token == JsonToken.START_ARRAY)
+    {
+      generator.writeStartArray();
+      while ((token = parser
+          .nextToken()) != JsonToken.END_ARRAY)
+      {
+        if (token == null)
+        {
+          throw new IllegalArgumentException(
+              "Unterminated json array");
+        }
+        this.record(parser, generator,
+            token);
+      }
+      generator.writeEndArray();
+    } else
+    {
+      this.record(parser, generator,
+          token);
+    }
+  }
+
+  private void record(JsonParser parser,
+      JsonGenerator generator,
+      JsonToken token)
+      throws IOException
+  {
+    if (token != JsonToken.START_OBJECT)
+    {
+      throw new IllegalArgumentException(
+          "A record must be a json object, not "
+              + token);
+    }
+
+    Object[] values =
+        new Object[this.fields.length];
+    this.walk(parser, this.root, values);
+
+    generator.writeStartObject();
+    for (Field field : this.fields)
+    {
+      Object value = values[field.slot];
+      if (value == null && field.required)
+      {
+        throw new IllegalArgumentException(
+            "Missing required field "
+                + field.from);
+      }
+      if (value == null)
+      {
+        value = field.defaultValue;
+      }
+
+      generator.writeFieldName(field.to);
+      write(generator, field, value);
+    }
+    generator.writeEndObject();
+  }
+
+  // Leaves the parser on the END_OBJECT of the object it was called in.
+  private void walk(JsonParser parser,
+      Node node, Object[] values)
+      throws IOException
+  {
+    while (parser
+        .nextToken() == JsonToken.FIELD_NAME)
+    {
+      Node child = node.children
+          .get(parser.currentName());
+      JsonToken token = parser.nextToken();
+
+      if (child == null)
+      {
+        parser.skipChildren();
+      } else if (!child.fields.isEmpty())
+      {
+        read(parser, token, child.fields,
+            values);
+      } else if (token == JsonToken.START_OBJECT)
+      {
+        this.walk(parser, child, values);
+      } else
+      {
+        // The path expects an object here, the record doesn't have the
+        // field.
+        parser.skipChildren();
+      }
+    }
+  }
+
+  private static void read(
+      JsonParser parser, JsonToken token,
+      List<Field> fields, Object[] values)
+      throws IOException
+  {
+    if (token == JsonToken.START_OBJECT
+        || token == JsonToken.START_ARRAY)
+    {
+      String raw = copy(parser);
+      for (Field field : fields)
+      {
+        if (field.type != FieldType.RAW)
+        {
+          throw new IllegalArgumentException(
+              "Field " + field.from
+                  + " must be a scalar to be read as "
+                  + field.type);
+        }
+        values[field.slot] = raw;
+      }
+      return;
+    }
+
+    for (Field field : fields)
+    {
+      if (token == JsonToken.VALUE_NULL)
+      {
+        values[field.slot] = null;
+      } else if (field.type == FieldType.RAW)
+      {
+        values[field.slot] = copy(parser);
+      } else if (field.type == FieldType.LONG
+          && token == JsonToken.VALUE_NUMBER_INT)
+      {
+        values[field.slot] =
+            parser.getLongValue();
+      } else
+      {
+        values[field.slot] = coerce(field,
+            parser.getText());
+      }
+    }
+  }
+
+  private static Object coerce(
+      Field field, String text)
+  {
+    String trimmed = text.trim();
+    try
+    {
+      return switch (field.type)
+      {
+        case STRING -> field.ops.apply(text);
+        case LONG -> new BigDecimal(trimmed)
+            .longValueExact();
+        case DECIMAL -> new BigDecimal(
+            trimmed);
+        case CURRENCY -> amount(trimmed)
+            .setScale(field.scale,
+                RoundingMode.HALF_EVEN);
+        case BOOLEAN -> bool(trimmed);
+        // Raw values are json.
+        case RAW -> text;
+      };
+    } catch (NumberFormatException
+        | ArithmeticException e)
+    {
+      throw new IllegalArgumentException(
+          String.format(
+              "Can't read \"%s\" of field %s as %s",
+              text, field.from, field.type),
+          e);
+    }
+  }
+
+  // Keeps the digits, separators and the sign, "$1,234.50" -> 1234.50 and
+  // "12,30 EUR" -> 12.30. Whichever separator comes last is the decimal
+  // one, unless it's a single comma followed by three digits.
+  private static BigDecimal amount(
+      String text)
+  {
+    StringBuilder kept =
+        new StringBuilder(text.length());
+    for (Integer i =
+        0; i < text.length(); i++)
+    {
+      Character c = text.charAt(i);
+      if (Character.isDigit(c) || c == '.'
+          || c == ',' || c == '-')
+      {
+        kept.append(c);
+      }
+    }
+
+    String amount = kept.toString();
+    Integer lastDot =
+        amount.lastIndexOf('.');
+    Integer lastComma =
+        amount.lastIndexOf(',');
+    if (lastComma > lastDot)
+    {
+      Boolean grouping = lastDot < 0
+          && amount
+              .indexOf(',') == lastComma
+          && amount.length() - lastComma
+              - 1 == 3;
+      amount = grouping
+          ? amount.replace(",", "")
+          : amount.replace(".", "")
+              .replace(',', '.');
+    } else
+    {
+      amount = amount.replace(",", "");
+    }
+    return new BigDecimal(amount);
+  }
+
+  private static Boolean bool(
+      String text)
+  {
+    return switch (text
+        .toLowerCase(Locale.ROOT))
+    {
+      case "true", "yes", "y", "1" -> true;
+      case "false", "no", "n", "0" -> false;
+      default -> throw new NumberFormatException(
+          "Not a boolean: " + text);
+    };
+  }
+
+  private static void write(
+      JsonGenerator generator, Field field,
+      Object value)
+      throws IOException
+  {
+    if (value == null)
+    {
+      generator.writeNull();
+      return;
+    }
+
+    switch (field.type)
+    {
+      case STRING -> generator
+          .writeString((String) value);
+      case LONG -> generator
+          .writeNumber((Long) value);
+      case DECIMAL, CURRENCY -> generator
+          .writeNumber((BigDecimal) value);
+      case BOOLEAN -> generator
+          .writeBoolean((Boolean) value);
+      case RAW -> generator
+          .writeRawValue((String) value);
+    }
+  }
+
+  private static String copy(
+      JsonParser parser)
+      throws IOException
+  {
+    StringWriter raw = new StringWriter();
+    try (JsonGenerator generator =
+        JSON_FACTORY.createGenerator(raw))
+    {
+      generator
+          .copyCurrentStructure(parser);
+    }
+    return raw.toString();
+  }
+
+  private static String[] parsePath(
+      FieldRule rule)
+  {
+    String from = rule.getFrom();
+    if (from == null || from.isBlank())
+    {
+      throw new IllegalArgumentException(
+          "Every transform field needs a from path");
+    }
+    if (from.startsWith("$."))
+    {
+      from = from.substring(2);
+    }
+
+    String[] path = from.split("\\.", -1);
+    for (String segment : path)
+    {
+      if (segment.isEmpty())
+      {
+        throw new IllegalArgumentException(
+            "Invalid path " + rule.getFrom());
+      }
+    }
+    return path;
+  }
+
+  private static Field compileField(
+      FieldRule rule, String[] path,
+      Integer slot)
+  {
+    Field field = new Field();
+    field.slot = slot;
+    field.from = rule.getFrom();
+    field.to = new SerializedString(
+        rule.getTo() != null
+            ? rule.getTo()
+            : path[path.length - 1]);
+    field.type = rule.getType() != null
+        ? rule.getType()
+        : FieldType.RAW;
+    field.scale = rule.getScale() != null
+        ? rule.getScale()
+        : 2;
+    field.required =
+        Boolean.TRUE.equals(rule.getRequired());
+
+    if (field.scale < 0)
+    {
+      throw new IllegalArgumentException(
+          "Field " + field.from
+              + " has a negative scale");
+    }
+
+    // The ops are chained once here, not looked up per record.
+    Function<String, String> ops =
+        Function.identity();
+    List<String> opNames =
+        rule.getOps() != null
+            ? rule.getOps()
+            : List.of();
+    if (!opNames.isEmpty()
+        && field.type != FieldType.STRING)
+    {
+      throw new IllegalArgumentException(
+          "Ops only apply to string fields, "
+              + field.from + " is "
+              + field.type);
+    }
+    for (String op : opNames)
+    {
+      ops = ops.andThen(switch (op
+          .toLowerCase(Locale.ROOT))
+      {
+        case "trim" -> String::trim;
+        case "lower" -> value -> value
+            .toLowerCase(Locale.ROOT);
+        case "upper" -> value -> value
+            .toUpperCase(Locale.ROOT);
+        default -> throw new IllegalArgumentException(
+            "Unknown op " + op + " of field "
+                + field.from);
+      });
+    }
+    field.ops = ops;
+
+    if (rule.getDefaultValue() != null)
+    {
+      field.defaultValue = coerce(field,
+          rule.getDefaultValue());
+    }
+    return field;
+  }
+}
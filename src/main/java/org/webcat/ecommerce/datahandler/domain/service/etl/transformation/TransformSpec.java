@@ -0,0 +1,162 @@
+package org.webcat.ecommerce.datahandler.domain.service.etl.transformation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link TransformSpec}
+ * <p>
+ * Describes how a record is transformed, read from json:
+ * </p>
+ *
+ * <pre>
+ * {"fields": [
+ *   {"from": "customer.country", "to": "country", "type": "string", "ops": ["trim", "upper"]},
+ *   {"from": "total", "to": "total", "type": "currency", "scale": 2}
+ * ]}
+ * </pre>
+ * <p>
+ * Every field of the output is a {@link FieldRule}, the output has them in the order of the spec.
+ * Input fields no rule asks for are dropped.
+ * </p>
+ * <h4>Fields:</h4>
+ * <li>{@field List<FieldRule> fields}</li>
+ */
+public class TransformSpec
+{
+
+  /**
+   * What a value is coerced to.
+   * <p>
+   * <li>STRING, LONG, DECIMAL, BOOLEAN - numbers and strings are converted to each other.</li>
+   * <li>CURRENCY - an amount, given as a number or a string like "$1,234.5" or "12,30 EUR", as a
+   * decimal with scale fraction digits.</li>
+   * <li>RAW - the value as it is, objects and arrays included.</li>
+   * </p>
+   */
+  public enum FieldType
+  {
+    STRING, LONG, DECIMAL, BOOLEAN, CURRENCY, RAW
+  }
+
+  /**
+   * A single output field.
+   * <h4>Fields:</h4>
+   * <li>{@field String from} (a dotted path in the input, e.g. customer.name or $.customer.name)</li>
+   * <li>{@field String to} (the output field name, the last segment of from by default)</li>
+   * <li>{@field FieldType type} (RAW by default)</li>
+   * <li>{@field List<String> ops} (trim, lower or upper, applied in order to STRING fields)</li>
+   * <li>{@field Integer scale} (fraction digits of a CURRENCY field, 2 by default)</li>
+   * <li>{@field Boolean required} (a record without the field, or with a null, fails)</li>
+   * <li>{@field String defaultValue} (used when the field is missing, coerced like the input, json
+   * for RAW fields)</li>
+   */
+  public static class FieldRule
+  {
+    private String from;
+    private String to;
+    private FieldType type = FieldType.RAW;
+    private List<String> ops =
+        new ArrayList<>();
+    private Integer scale = 2;
+    private Boolean required = false;
+    private String defaultValue;
+
+    public FieldRule()
+    {}
+
+    public FieldRule(String from,
+        String to, FieldType type)
+    {
+      this.from = from;
+      this.to = to;
+      this.type = type;
+    }
+
+    public String getFrom()
+    {
+      return this.from;
+    }
+
+    public void setFrom(String from)
+    {
+      this.from = from;
+    }
+
+    public String getTo()
+    {
+      return this.to;
+    }
+
+    public void setTo(String to)
+    {
+      this.to = to;
+    }
+
+    public FieldType getType()
+    {
+      return this.type;
+    }
+
+    public void setType(FieldType type)
+    {
+      this.type = type;
+    }
+
+    public List<String> getOps()
+    {
+      return this.ops;
+    }
+
+    public void setOps(List<String> ops)
+    {
+      this.ops = ops;
+    }
+
+    public Integer getScale()
+    {
+      return this.scale;
+    }
+
+    public void setScale(Integer scale)
+    {
+      this.scale = scale;
+    }
+
+    public Boolean getRequired()
+    {
+      return this.required;
+    }
+
+    public void setRequired(
+        Boolean required)
+    {
+      this.required = required;
+    }
+
+    public String getDefaultValue()
+    {
+      return this.defaultValue;
+    }
+
+    public void setDefaultValue(
+        String defaultValue)
+    {
+      this.defaultValue = defaultValue;
+    }
+  }
+
+  private List<FieldRule> fields =
+      new ArrayList<>();
+
+  public List<FieldRule> getFields()
+  {
+    return this.fields;
+  }
+
+  public void setFields(
+      List<FieldRule> fields)
+  {
+    this.fields = fields;
+  }
+}
@@ -0,0 +1,280 @@
+package org.webcat.ecommerce.datahandler.infrastructure.cache;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.webcat.ecommerce.datahandler.domain.model.entities.FileMapping;
+import org.webcat.ecommerce.datahandler.infrastructure.repository.FileMappingRepository;
+
+/**
+ * {@link FileMappingNearCache}
+ * <p>
+ * A bounded, in process cache in front of {@link FileMappingRepository}. Mappings are kept by their
+ * original name and by their new name, each side evicts its least recently used entry once it's
+ * full.
+ * </p>
+ * <p>
+ * <li>save(), saveAll() and deleteByNewName() update the cache together with the DB.</li>
+ * <li>A lookup that raced with a delete doesn't cache what it read.</li>
+ * <li>Entries expire after ttlSeconds, so a delete made by another node is seen eventually.</li>
+ * <li>Misses aren't cached, a file can be mapped by another node at any time.</li>
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method FileMapping findByOriginalName(String originalName)}</li>
+ * <li>{@method FileMapping findByNewName(String newName)}</li>
+ * <li>{@method Boolean save(FileMapping fileMapping)}</li>
+ * <li>{@method Boolean[] saveAll(List<FileMapping> fileMappings)}</li>
+ * <li>{@method Integer deleteByNewName(String newName)}</li>
+ * <li>{@method Long getHits()}, {@method Long getMisses()}, {@method Integer getSize()}</li>
+ */
+@Component
+public class FileMappingNearCache
+{
+
+  private record Entry(
+      FileMapping mapping,
+      Long expiresAt)
+  {}
+
+  private final FileMappingRepository fileMappingRepo;
+  private final Integer maxEntries;
+  private final Long ttlMillis;
+
+  // Both maps are guarded by this lock, an access ordered LinkedHashMap
+  // changes on every get.
+  private final Object lock = new Object();
+  private final Map<String, Entry> byOriginalName;
+  private final Map<String, Entry> byNewName;
+
+  // Bumped by every delete, a lookup only caches what it read if no delete
+  // happened in between.
+  private final AtomicLong invalidations =
+      new AtomicLong(0L);
+
+  private final LongAdder hits =
+      new LongAdder();
+  private final LongAdder misses =
+      new LongAdder();
+
+  public FileMappingNearCache(
+      FileMappingRepository fileMappingRepo,
+      @Value("${file-mapping.cache.max-entries:100000}") Integer maxEntries,
+      @Value("${file-mapping.cache.ttl-seconds:300}") Long ttlSeconds)
+  {
+    if (maxEntries < 1 || ttlSeconds < 1)
+    {
+      throw new IllegalArgumentException(
+          "File mapping cache size and ttl must be positive");
+    }
+
+    this.fileMappingRepo =
+        fileMappingRepo;
+    this.maxEntries = maxEntries;
+    this.ttlMillis = ttlSeconds * 1000L;
+    this.byOriginalName = this.lruMap();
+    this.byNewName = this.lruMap();
+  }
+
+  public FileMapping findByOriginalName(
+      String originalName)
+  {
+    FileMapping cached = this.lookup(
+        this.byOriginalName, originalName);
+    if (cached != null)
+    {
+      return cached;
+    }
+
+    Long generation =
+        this.invalidations.get();
+    FileMapping loaded =
+        this.fileMappingRepo
+            .findByOriginalName(originalName);
+    this.cacheIfUnchanged(loaded,
+        generation);
+    return loaded;
+  }
+
+  public FileMapping findByNewName(
+      String newName)
+  {
+    FileMapping cached = this
+        .lookup(this.byNewName, newName);
+    if (cached != null)
+    {
+      return cached;
+    }
+
+    Long generation =
+        this.invalidations.get();
+    FileMapping loaded =
+        this.fileMappingRepo
+            .findByNewName(newName);
+    this.cacheIfUnchanged(loaded,
+        generation);
+    return loaded;
+  }
+
+  public Boolean save(
+      FileMapping fileMapping)
+  {
+    return this.saveAll(
+        List.of(fileMapping))[0];
+  }
+
+  public Boolean[] saveAll(
+      List<FileMapping> fileMappings)
+  {
+    Boolean[] saved =
+        this.fileMappingRepo
+            .saveAll(fileMappings);
+
+    // Only the rows that made it to the DB are cached.
+    synchronized (this.lock)
+    {
+      for (Integer i =
+          0; i < saved.length; i++)
+      {
+        if (saved[i])
+        {
+          this.put(fileMappings.get(i));
+        }
+      }
+    }
+    return saved;
+  }
+
+  public Integer deleteByNewName(
+      String newName)
+  {
+    // Evicting on both sides of the delete, a lookup running in between
+    // sees the bumped counter and won't cache the row.
+    this.evict(newName);
+    Integer deleted =
+        this.fileMappingRepo
+            .deleteByNewName(newName);
+    this.evict(newName);
+    return deleted;
+  }
+
+  public Long getHits()
+  {
+    return this.hits.sum();
+  }
+
+  public Long getMisses()
+  {
+    return this.misses.sum();
+  }
+
+  // The number of cached mappings.
+  public Integer getSize()
+  {
+    synchronized (this.lock)
+    {
+      return this.byNewName.size();
+    }
+  }
+
+  private FileMapping lookup(
+      Map<String, Entry> map,
+      String name)
+  {
+    synchronized (this.lock)
+    {
+      Entry entry = map.get(name);
+      if (entry != null && entry
+          .expiresAt() > System
+              .currentTimeMillis())
+      {
+        this.hits.increment();
+        return entry.mapping();
+      }
+      if (entry != null)
+      {
+        this.remove(entry);
+      }
+    }
+
+    this.misses.increment();
+    return null;
+  }
+
+  private void cacheIfUnchanged(
+      FileMapping mapping,
+      Long generation)
+  {
+    if (mapping == null)
+    {
+      return;
+    }
+
+    synchronized (this.lock)
+    {
+      if (this.invalidations
+          .get() == generation)
+      {
+        this.put(mapping);
+      }
+    }
+  }
+
+  private void evict(String newName)
+  {
+    synchronized (this.lock)
+    {
+      this.invalidations
+          .incrementAndGet();
+      Entry entry =
+          this.byNewName.get(newName);
+      if (entry != null)
+      {
+        this.remove(entry);
+      }
+    }
+  }
+
+  // Callers hold the lock.
+  private void put(FileMapping mapping)
+  {
+    Entry entry = new Entry(mapping,
+        System.currentTimeMillis()
+            + this.ttlMillis);
+    this.byOriginalName.put(
+        mapping.getOriginalName(), entry);
+    this.byNewName.put(
+        mapping.getNewName(), entry);
+  }
+
+  // Callers hold the lock. An original name can be mapped again, the entry
+  // is only removed where it wasn't replaced by a newer one.
+  private void remove(Entry entry)
+  {
+    this.byOriginalName.remove(entry
+        .mapping().getOriginalName(),
+        entry);
+    this.byNewName.remove(
+        entry.mapping().getNewName(),
+        entry);
+  }
+
+  private Map<String, Entry> lruMap()
+  {
+    return new LinkedHashMap<>(16, 0.75f,
+        true)
+    {
+      @Override
+      protected boolean removeEldestEntry(
+          Map.Entry<String, Entry> eldest)
+      {
+        return this
+            .size() > FileMappingNearCache.this.maxEntries;
+      }
+    };
+  }
+}
@@ -1,5 +1,67 @@
 package org.webcat.ecommerce.datahandler.infrastructure.cache;
 
-public class HazelcastConfig {
-  // Hazelcast configuration setup
-}
\ No newline at end of file
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.JoinConfig;
+import com.hazelcast.config.MapConfig;
+
+/**
+ * {@link HazelcastConfig}
+ * <p>
+ * Hazelcast configuration setup. Spring Boot starts the Hazelcast member from this config.
+ * </p>
+ * <p>
+ * <li>Members find each other through a fixed list (hazelcast.members), multicast is off.</li>
+ * <li>With no members listed the node runs as a cluster of one.</li>
+ * </p>
+ */
+@Configuration
+public class HazelcastConfig
+{
+
+  // ETL job id -> status of the job.
+  public static final String ETL_JOBS_MAP =
+      "etl-jobs";
+  // Content hash of a raw payload -> the processed data id it was loaded as.
+  public static final String CONTENT_HASHES_MAP =
+      "etl-content-hashes";
+
+  @Bean
+  public Config hazelcastConfiguration(
+      @Value("${hazelcast.cluster-name:ecommerce-datahandler}") String clusterName,
+      @Value("${hazelcast.members:}") List<String> members,
+      @Value("${etl.jobs.status-ttl-seconds:86400}") Integer statusTtlSeconds,
+      @Value("${etl.dedup.ttl-seconds:604800}") Integer contentHashTtlSeconds)
+  {
+    Config config = new Config();
+    config.setClusterName(clusterName);
+
+    JoinConfig join = config
+        .getNetworkConfig().getJoin();
+    join.getMulticastConfig()
+        .setEnabled(false);
+    join.getTcpIpConfig()
+        .setEnabled(!members.isEmpty())
+        .setMembers(members);
+
+    // Finished jobs are dropped after a while so the map doesn't grow
+    // forever.
+    config.addMapConfig(
+        new MapConfig(ETL_JOBS_MAP)
+            .setTimeToLiveSeconds(
+                statusTtlSeconds)
+            .setBackupCount(1));
+    config.addMapConfig(
+        new MapConfig(CONTENT_HASHES_MAP)
+            .setTimeToLiveSeconds(
+                contentHashTtlSeconds)
+            .setBackupCount(1));
+
+    return config;
+  }
+}
@@ -0,0 +1,61 @@
+package org.webcat.ecommerce.datahandler.infrastructure.cache;
+
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.hazelcast.core.HazelcastInstance;
+
+/**
+ * {@link HazelcastContentIndex}
+ * <p>
+ * The content hash of every raw payload that was loaded, mapped to the processed data id it was
+ * loaded as. Kept in a Hazelcast map so an identical payload is recognised by any node of the
+ * cluster.
+ * </p>
+ * <p>
+ * <li>The first payload loaded with a hash stays its result, later ones don't replace it.</li>
+ * <li>Entries expire after etl.dedup.ttl-seconds, a result whose rows were replaced since stops
+ * being handed out eventually.</li>
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method Long findResult(String contentHash)}</li>
+ * <li>{@method void putResult(String contentHash, Long processedDataId)}</li>
+ */
+@Component
+public class HazelcastContentIndex
+{
+
+  private final ConcurrentMap<String, Long> results;
+
+  @Autowired
+  public HazelcastContentIndex(
+      HazelcastInstance hazelcast)
+  {
+    this(hazelcast.getMap(
+        HazelcastConfig.CONTENT_HASHES_MAP));
+  }
+
+  // For running without a cluster (benchmarks and tests).
+  public HazelcastContentIndex(
+      ConcurrentMap<String, Long> results)
+  {
+    this.results = results;
+  }
+
+  // The id an identical payload was loaded as, null if there's none.
+  public Long findResult(
+      String contentHash)
+  {
+    return this.results.get(contentHash);
+  }
+
+  public void putResult(
+      String contentHash,
+      Long processedDataId)
+  {
+    this.results.putIfAbsent(contentHash,
+        processedDataId);
+  }
+}
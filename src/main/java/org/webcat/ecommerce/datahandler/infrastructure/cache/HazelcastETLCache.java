@@ -1,5 +1,61 @@
 package org.webcat.ecommerce.datahandler.infrastructure.cache;
 
-public class HazelcastETLCache {
-  // Cache logic for ETL.
-}
\ No newline at end of file
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.webcat.ecommerce.datahandler.application.dtos.ETLResponseDTO;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+
+/**
+ * {@link HazelcastETLCache}
+ * <p>
+ * Cache logic for ETL. Keeps the status of ETL jobs in a Hazelcast map, so any node of the cluster
+ * can answer a status query.
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method void putJobStatus(String processID, ETLResponseDTO status)}</li>
+ * <li>{@method ETLResponseDTO getJobStatus(String processID)}</li>
+ */
+@Component
+public class HazelcastETLCache
+{
+
+  private final ConcurrentMap<String, ETLResponseDTO> jobs;
+
+  @Autowired
+  public HazelcastETLCache(
+      HazelcastInstance hazelcast)
+  {
+    this(hazelcast.getMap(
+        HazelcastConfig.ETL_JOBS_MAP));
+  }
+
+  // For running without a cluster (benchmarks and tests).
+  public HazelcastETLCache(
+      ConcurrentMap<String, ETLResponseDTO> jobs)
+  {
+    this.jobs = jobs;
+  }
+
+  public void putJobStatus(
+      String processID,
+      ETLResponseDTO status)
+  {
+    // set() doesn't send the old value back over the network like put().
+    if (this.jobs instanceof IMap<String, ETLResponseDTO> map)
+    {
+      map.set(processID, status);
+      return;
+    }
+    this.jobs.put(processID, status);
+  }
+
+  public ETLResponseDTO getJobStatus(
+      String processID)
+  {
+    return this.jobs.get(processID);
+  }
+}
@@ -0,0 +1,682 @@
+package org.webcat.ecommerce.datahandler.infrastructure.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.webcat.ecommerce.datahandler.infrastructure.logging.Logger;
+import org.webcat.ecommerce.datahandler.shared.helpers.ByteBufferInputStream;
+
+/**
+ * {@link LocalObjectCache}
+ * <p>
+ * A read-through cache of lake objects on local disk, so reprocessing the same files doesn't
+ * download them again. Objects are kept as they're stored (still compressed) together with their
+ * ETag and Content-Encoding, one file per object.
+ * </p>
+ * <p>
+ * <li>open() only serves an object whose ETag is the one the lake has now, the caller gets it
+ * from a HEAD request. A stale copy is dropped.</li>
+ * <li>fill() wraps the body of a GET, what's read is written to a temp file that's moved into
+ * place once the body was read to its end. A body that's abandoned or larger than maxBytes isn't
+ * cached.</li>
+ * <li>Hits are read from a read-only memory mapping of the file ({@link ByteBufferInputStream}).
+ * </li>
+ * <li>The least recently used objects are evicted once the files take more than maxBytes.</li>
+ * </p>
+ * <p>
+ * The directory survives restarts, its files are indexed again on startup, oldest first. Disabled,
+ * nothing is read from or written to disk.
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method CachedObject open(String objectName, String etag)}</li>
+ * <li>{@method InputStream fill(String objectName, String etag, String contentEncoding,
+ * InputStream body)}</li>
+ * <li>{@method void invalidate(String objectName)}</li>
+ * <li>{@method Boolean isEnabled()}</li>
+ * <li>{@method Long getHits()}, {@method Long getMisses()}, {@method Long getSizeBytes()}</li>
+ */
+@Component
+public class LocalObjectCache
+{
+
+  private static final Logger LOG =
+      Logger.get(LocalObjectCache.class);
+
+  /**
+   * A cached object, content is its body as it's stored in the lake.
+   */
+  public record CachedObject(
+      String contentEncoding,
+      InputStream content)
+  {}
+
+  private record Entry(
+      Path file,
+      String etag,
+      String contentEncoding,
+      Long headerBytes,
+      Long sizeBytes)
+  {}
+
+  // Marks a cache file, followed by the object's name, ETag and
+  // Content-Encoding.
+  private static final Integer MAGIC =
+      0x45544c43;
+  private static final String SUFFIX =
+      ".obj";
+  private static final String TEMP_SUFFIX =
+      ".tmp";
+  // A reader that stopped short of the end of a body (a json parser stops
+  // after the closing bracket) has the rest of it read on close, up to
+  // this much.
+  private static final Integer MAX_DRAIN_BYTES =
+      64 * 1024;
+
+  private final Boolean enabled;
+  private final Path directory;
+  private final Long maxBytes;
+
+  // Guarded by this lock, an access ordered LinkedHashMap changes on every
+  // get.
+  private final Object lock = new Object();
+  private final Map<String, Entry> entries =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private Long totalBytes = 0L;
+
+  private final LongAdder hits =
+      new LongAdder();
+  private final LongAdder misses =
+      new LongAdder();
+
+  public LocalObjectCache(
+      @Value("${minio.read-cache.enabled:false}") Boolean enabled,
+      @Value("${minio.read-cache.directory:./data/raw-cache}") String directory,
+      @Value("${minio.read-cache.max-bytes:10737418240}") Long maxBytes)
+  {
+    if (maxBytes < 1)
+    {
+      throw new IllegalArgumentException(
+          "Read cache max bytes must be positive");
+    }
+
+    this.enabled = enabled;
+    this.directory = Paths.get(directory);
+    this.maxBytes = maxBytes;
+
+    if (this.enabled)
+    {
+      this.load();
+    }
+  }
+
+  /**
+   * The cached copy of an object if it has the given ETag, null on a miss. The caller closes its
+   * content.
+   */
+  public CachedObject open(
+      String objectName, String etag)
+  {
+    if (!this.enabled)
+    {
+      return null;
+    }
+
+    String expected = normalise(etag);
+    Entry entry;
+    synchronized (this.lock)
+    {
+      entry = this.entries.get(objectName);
+      if (entry != null && (expected == null
+          || !expected.equals(entry.etag())))
+      {
+        // The object was written again since it was cached.
+        this.remove(objectName, entry);
+        entry = null;
+      }
+    }
+    if (entry == null)
+    {
+      this.misses.increment();
+      return null;
+    }
+
+    try
+    {
+      InputStream content =
+          ByteBufferInputStream.map(
+              entry.file(),
+              entry.headerBytes());
+      this.hits.increment();
+      return new CachedObject(
+          entry.contentEncoding(),
+          content);
+    } catch (NoSuchFileException e)
+    {
+      // Evicted in between.
+    } catch (IOException e)
+    {
+      LOG.atWarn().file(objectName).cause(e)
+          .log("Failed to read the cached object");
+    }
+    synchronized (this.lock)
+    {
+      this.remove(objectName, entry);
+    }
+    this.misses.increment();
+    return null;
+  }
+
+  /**
+   * Wraps the body of a GET so the object is cached as it's read. Returns body itself when it
+   * can't be cached.
+   */
+  public InputStream fill(
+      String objectName, String etag,
+      String contentEncoding,
+      InputStream body)
+  {
+    String normalised = normalise(etag);
+    if (!this.enabled
+        || normalised == null)
+    {
+      return body;
+    }
+
+    Path temp = null;
+    OutputStream out = null;
+    try
+    {
+      temp = Files.createTempFile(
+          this.directory, "fill-",
+          TEMP_SUFFIX);
+      out = new BufferedOutputStream(
+              Files.newOutputStream(temp,
+                  StandardOpenOption.WRITE),
+              65536);
+      DataOutputStream header =
+          new DataOutputStream(out);
+      header.writeInt(MAGIC);
+      header.writeUTF(objectName);
+      header.writeUTF(normalised);
+      header.writeUTF(
+          contentEncoding == null ? ""
+              : contentEncoding);
+      return new FillingInputStream(body,
+          objectName,
+          new Entry(this.fileOf(objectName),
+              normalised, contentEncoding,
+              Long.valueOf(header.size()),
+              null),
+          temp, out);
+    } catch (IOException e)
+    {
+      if (out != null)
+      {
+        try
+        {
+          out.close();
+        } catch (IOException closeFailure)
+        {
+          e.addSuppressed(closeFailure);
+        }
+      }
+      delete(temp);
+      LOG.atWarn().file(objectName).cause(e)
+          .log("Failed to start caching the object");
+      return body;
+    }
+  }
+
+  // Drops a copy that's known to be stale, e.g. of a renamed object.
+  public void invalidate(
+      String objectName)
+  {
+    if (!this.enabled)
+    {
+      return;
+    }
+    synchronized (this.lock)
+    {
+      Entry entry =
+          this.entries.get(objectName);
+      if (entry != null)
+      {
+        this.remove(objectName, entry);
+      }
+    }
+  }
+
+  public Boolean isEnabled()
+  {
+    return this.enabled;
+  }
+
+  public Long getHits()
+  {
+    return this.hits.sum();
+  }
+
+  public Long getMisses()
+  {
+    return this.misses.sum();
+  }
+
+  // The bytes the cached files take.
+  public Long getSizeBytes()
+  {
+    synchronized (this.lock)
+    {
+      return this.totalBytes;
+    }
+  }
+
+  // Tees a body into a temp file, which is moved into the cache if the
+  // body was read to its end.
+  private class FillingInputStream
+      extends FilterInputStream
+  {
+    private final String objectName;
+    private final Entry entry;
+    private final Path temp;
+    private OutputStream out;
+    private Long written;
+    private Boolean complete = false;
+    private Boolean closed = false;
+
+    FillingInputStream(InputStream in,
+        String objectName, Entry entry,
+        Path temp, OutputStream out)
+    {
+      super(in);
+      this.objectName = objectName;
+      this.entry = entry;
+      this.temp = temp;
+      this.out = out;
+      this.written = entry.headerBytes();
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+      int b = super.read();
+      if (b < 0)
+      {
+        this.complete = true;
+      } else
+      {
+        this.write(new byte[] {(byte) b}, 0,
+            1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buffer,
+        int offset, int length)
+        throws IOException
+    {
+      int read = super.read(buffer, offset,
+          length);
+      if (read < 0)
+      {
+        this.complete = true;
+      } else
+      {
+        this.write(buffer, offset, read);
+      }
+      return read;
+    }
+
+    // Skipped bytes would be missing from the copy.
+    @Override
+    public long skip(long n)
+        throws IOException
+    {
+      this.abandon();
+      return super.skip(n);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      if (this.closed)
+      {
+        return;
+      }
+      this.closed = true;
+
+      try
+      {
+        this.drain();
+      } finally
+      {
+        super.close();
+        this.finish();
+      }
+    }
+
+    private void write(byte[] buffer,
+        int offset, int length)
+    {
+      if (this.out == null)
+      {
+        return;
+      }
+      if (this.written
+          + length > LocalObjectCache.this.maxBytes)
+      {
+        this.abandon();
+        return;
+      }
+      try
+      {
+        this.out.write(buffer, offset,
+            length);
+        this.written += length;
+      } catch (IOException e)
+      {
+        // A full disk only costs the copy, the read goes on.
+        LOG.atWarn().file(this.objectName)
+            .cause(e)
+            .log("Failed to write the cached object");
+        this.abandon();
+      }
+    }
+
+    private void drain()
+    {
+      if (this.out == null
+          || this.complete)
+      {
+        return;
+      }
+      byte[] buffer = new byte[8192];
+      Integer drained = 0;
+      try
+      {
+        while (this.out != null
+            && drained < MAX_DRAIN_BYTES)
+        {
+          int read =
+              this.read(buffer, 0,
+                  buffer.length);
+          if (read < 0)
+          {
+            return;
+          }
+          drained += read;
+        }
+      } catch (IOException e)
+      {
+        // The body is closed anyway, it's just not cached.
+      }
+      this.abandon();
+    }
+
+    private void finish()
+    {
+      if (this.out == null)
+      {
+        return;
+      }
+      try
+      {
+        this.out.close();
+        this.out = null;
+        if (!this.complete)
+        {
+          delete(this.temp);
+          return;
+        }
+        Files.move(this.temp,
+            this.entry.file(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        LocalObjectCache.this.put(
+            this.objectName,
+            new Entry(this.entry.file(),
+                this.entry.etag(),
+                this.entry.contentEncoding(),
+                this.entry.headerBytes(),
+                this.written));
+      } catch (IOException e)
+      {
+        delete(this.temp);
+        LOG.atWarn().file(this.objectName)
+            .cause(e)
+            .log("Failed to cache the object");
+      }
+    }
+
+    private void abandon()
+    {
+      if (this.out == null)
+      {
+        return;
+      }
+      try
+      {
+        this.out.close();
+      } catch (IOException e)
+      {
+        // Deleted anyway.
+      }
+      this.out = null;
+      delete(this.temp);
+    }
+  }
+
+  private void put(String objectName,
+      Entry entry)
+  {
+    List<Path> evicted = new ArrayList<>();
+    synchronized (this.lock)
+    {
+      Entry previous =
+          this.entries.put(objectName, entry);
+      if (previous != null)
+      {
+        // Both were written to the same file, the newer one replaced it.
+        this.totalBytes -=
+            previous.sizeBytes();
+      }
+      this.totalBytes += entry.sizeBytes();
+
+      Iterator<Map.Entry<String, Entry>> eldest =
+          this.entries.entrySet().iterator();
+      while (this.totalBytes > this.maxBytes
+          && eldest.hasNext())
+      {
+        Entry victim =
+            eldest.next().getValue();
+        eldest.remove();
+        this.totalBytes -=
+            victim.sizeBytes();
+        evicted.add(victim.file());
+      }
+    }
+
+    // A reader that mapped an evicted file keeps its mapping.
+    for (Path file : evicted)
+    {
+      delete(file);
+    }
+  }
+
+  // Callers hold the lock.
+  private void remove(String objectName,
+      Entry entry)
+  {
+    if (this.entries.remove(objectName,
+        entry))
+    {
+      this.totalBytes -= entry.sizeBytes();
+      delete(entry.file());
+    }
+  }
+
+  // Indexes the files left by an earlier run, the oldest ones are the
+  // first to be evicted.
+  private void load()
+  {
+    try
+    {
+      Files.createDirectories(
+          this.directory);
+      List<Path> files;
+      try (Stream<Path> listing =
+          Files.list(this.directory))
+      {
+        files = listing.toList();
+      }
+
+      List<Path> cached =
+          new ArrayList<>();
+      for (Path file : files)
+      {
+        String name =
+            file.getFileName().toString();
+        if (name.endsWith(TEMP_SUFFIX))
+        {
+          // A fill that didn't finish.
+          delete(file);
+        } else if (name.endsWith(SUFFIX))
+        {
+          cached.add(file);
+        }
+      }
+      cached.sort(Comparator.comparing(
+          LocalObjectCache::modifiedAt));
+
+      for (Path file : cached)
+      {
+        // Unbuffered, the channel's position is where the body starts.
+        try (FileChannel channel =
+            FileChannel.open(file,
+                StandardOpenOption.READ))
+        {
+          DataInputStream header =
+              new DataInputStream(Channels
+                  .newInputStream(channel));
+          if (header.readInt() != MAGIC)
+          {
+            delete(file);
+            continue;
+          }
+          String objectName =
+              header.readUTF();
+          String etag = header.readUTF();
+          String contentEncoding =
+              header.readUTF();
+          this.put(objectName,
+              new Entry(file, etag,
+                  contentEncoding.isEmpty()
+                      ? null
+                      : contentEncoding,
+                  channel.position(),
+                  channel.size()));
+        } catch (IOException e)
+        {
+          delete(file);
+        }
+      }
+      LOG.info(
+          "Read cache {} holds {} objects, {} bytes",
+          this.directory,
+          this.entries.size(),
+          this.totalBytes);
+    } catch (IOException e)
+    {
+      throw new RuntimeException(
+          "Failed to open the read cache "
+              + this.directory,
+          e);
+    }
+  }
+
+  // The object names are hashed, they can hold slashes and be longer than
+  // a file name.
+  private Path fileOf(String objectName)
+  {
+    try
+    {
+      return this.directory.resolve(
+          HexFormat.of()
+              .formatHex(MessageDigest
+                  .getInstance("SHA-256")
+                  .digest(objectName.getBytes(
+                      StandardCharsets.UTF_8)))
+              + SUFFIX);
+    } catch (NoSuchAlgorithmException e)
+    {
+      throw new IllegalStateException(
+          "SHA-256 isn't available", e);
+    }
+  }
+
+  // ETags come quoted in headers and unquoted from some clients.
+  private static String normalise(
+      String etag)
+  {
+    if (etag == null || etag.isBlank())
+    {
+      return null;
+    }
+    return etag.replace("\"", "");
+  }
+
+  private static Long modifiedAt(
+      Path file)
+  {
+    try
+    {
+      return Files.getLastModifiedTime(file)
+          .toMillis();
+    } catch (IOException e)
+    {
+      return 0L;
+    }
+  }
+
+  private static void delete(Path file)
+  {
+    if (file == null)
+    {
+      return;
+    }
+    try
+    {
+      Files.deleteIfExists(file);
+    } catch (IOException e)
+    {
+      // Left for the next startup.
+    }
+  }
+}
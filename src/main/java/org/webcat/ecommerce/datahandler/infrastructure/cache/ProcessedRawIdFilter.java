@@ -0,0 +1,161 @@
+package org.webcat.ecommerce.datahandler.infrastructure.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.webcat.ecommerce.datahandler.infrastructure.repository.ProcessedDataRepository;
+
+/**
+ * {@link ProcessedRawIdFilter}
+ * <p>
+ * A bloom filter of the raw ids that have rows in processed_data. mightContain() is false for an
+ * id that was never loaded, so most new files are told apart without a query, a true has to be
+ * confirmed.
+ * </p>
+ * <p>
+ * <li>The bits are an {@link AtomicLongArray}, ids are added concurrently without a lock.</li>
+ * <li>It's filled from processed_data the first time it's needed (ensureLoaded()), and ids loaded
+ * afterwards are added by the load service.</li>
+ * <li>Sized for expectedIds at falsePositiveRate, it degrades gracefully past that.</li>
+ * <li>Ids can't be removed, reprocessed ids just stay in.</li>
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method void ensureLoaded()}</li>
+ * <li>{@method void add(Long rawId)}</li>
+ * <li>{@method Boolean mightContain(Long rawId)}</li>
+ */
+@Component
+public class ProcessedRawIdFilter
+{
+
+  private final ProcessedDataRepository processedDataRepo;
+
+  private final AtomicLongArray bits;
+  private final Long bitCount;
+  private final Integer hashCount;
+
+  private volatile Boolean loaded = false;
+
+  public ProcessedRawIdFilter(
+      ProcessedDataRepository processedDataRepo,
+      @Value("${etl.incremental.expected-ids:10000000}") Long expectedIds,
+      @Value("${etl.incremental.false-positive-rate:0.01}") Double falsePositiveRate)
+  {
+    if (expectedIds < 1
+        || falsePositiveRate <= 0
+        || falsePositiveRate >= 1)
+    {
+      throw new IllegalArgumentException(
+          "Expected ids must be positive and the false positive rate between 0 and 1");
+    }
+
+    this.processedDataRepo =
+        processedDataRepo;
+    // The usual optimum, m = -n ln(p) / ln(2)^2 and k = m / n ln(2).
+    Long optimalBits = (long) Math.ceil(
+        -expectedIds
+            * Math.log(falsePositiveRate)
+            / (Math.log(2) * Math.log(2)));
+    Integer words = (int) Math.min(
+        Integer.MAX_VALUE - 8,
+        (optimalBits + 63) / 64);
+    this.bits = new AtomicLongArray(words);
+    this.bitCount = words * 64L;
+    this.hashCount = (int) Math.max(1,
+        Math.round((double) this.bitCount
+            / expectedIds * Math.log(2)));
+  }
+
+  /**
+   * Adds every raw id of processed_data, once. Ids added concurrently aren't lost.
+   */
+  public void ensureLoaded()
+  {
+    if (this.loaded)
+    {
+      return;
+    }
+    synchronized (this)
+    {
+      if (!this.loaded)
+      {
+        this.processedDataRepo
+            .forEachRawDataId(this::add);
+        this.loaded = true;
+      }
+    }
+  }
+
+  public void add(Long rawId)
+  {
+    Long first = mix(rawId);
+    Long second = mix(first);
+    for (Integer i =
+        0; i < this.hashCount; i++)
+    {
+      Long bit =
+          this.bitIndex(first, second, i);
+      Integer word = (int) (bit >>> 6);
+      Long mask = 1L << (bit & 63);
+
+      Long current = this.bits.get(word);
+      while ((current & mask) == 0
+          && !this.bits.compareAndSet(word,
+              current, current | mask))
+      {
+        current = this.bits.get(word);
+      }
+    }
+  }
+
+  public Boolean mightContain(
+      Long rawId)
+  {
+    Long first = mix(rawId);
+    Long second = mix(first);
+    for (Integer i =
+        0; i < this.hashCount; i++)
+    {
+      Long bit =
+          this.bitIndex(first, second, i);
+      if ((this.bits.get((int) (bit >>> 6))
+          & (1L << (bit & 63))) == 0)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public Integer getHashCount()
+  {
+    return this.hashCount;
+  }
+
+  public Long getBitCount()
+  {
+    return this.bitCount;
+  }
+
+  // Double hashing, the i-th probe is first + i * second.
+  private Long bitIndex(Long first,
+      Long second, Integer i)
+  {
+    return Math.floorMod(
+        first + i * second, this.bitCount);
+  }
+
+  // Snowflake ids share most of their bits, they're spread first
+  // (murmur3's finalizer).
+  private static Long mix(Long id)
+  {
+    Long h = id;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
@@ -0,0 +1,69 @@
+package org.webcat.ecommerce.datahandler.infrastructure.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@link GzipCodec}
+ * <p>
+ * gzip from the JDK, readable by any client that honours Content-Encoding.
+ * </p>
+ */
+@Component
+public class GzipCodec
+    implements RawDataCodec
+{
+  private static final Integer BUFFER_SIZE =
+      64 * 1024;
+
+  // 1 (fastest) to 9 (smallest).
+  private final Integer level;
+
+  public GzipCodec(
+      @Value("${minio.codec.gzip-level:6}") Integer level)
+  {
+    if (level < 1 || level > 9)
+    {
+      throw new IllegalArgumentException(
+          "gzip level must be between 1 and 9");
+    }
+    this.level = level;
+  }
+
+  @Override
+  public String getName()
+  {
+    return "gzip";
+  }
+
+  @Override
+  public OutputStream encode(
+      OutputStream out)
+      throws IOException
+  {
+    Integer level = this.level;
+    // GZIPOutputStream only exposes the level through its deflater.
+    return new GZIPOutputStream(out,
+        BUFFER_SIZE)
+    {
+      {
+        this.def.setLevel(level);
+      }
+    };
+  }
+
+  @Override
+  public InputStream decode(
+      InputStream in)
+      throws IOException
+  {
+    return new GZIPInputStream(in,
+        BUFFER_SIZE);
+  }
+}
@@ -0,0 +1,41 @@
+package org.webcat.ecommerce.datahandler.infrastructure.codec;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * {@link IdentityCodec}
+ * <p>
+ * Stores objects as they are. Objects without a Content-Encoding are read with it, which covers
+ * everything written before compression was turned on.
+ * </p>
+ */
+@Component
+public class IdentityCodec
+    implements RawDataCodec
+{
+  public static final String NAME =
+      "identity";
+
+  @Override
+  public String getName()
+  {
+    return NAME;
+  }
+
+  @Override
+  public OutputStream encode(
+      OutputStream out)
+  {
+    return out;
+  }
+
+  @Override
+  public InputStream decode(
+      InputStream in)
+  {
+    return in;
+  }
+}
@@ -0,0 +1,61 @@
+package org.webcat.ecommerce.datahandler.infrastructure.codec;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * {@link RawDataCodec}
+ * <p>
+ * Compresses raw lake objects while they're written and decompresses them while they're read.
+ * A codec is named after the Content-Encoding it stores objects with, which is how
+ * {@link RawDataCodecs} finds the codec of an object when it's read back.
+ * </p>
+ * <p>
+ * Codecs are Spring components, a new one is picked up by {@link RawDataCodecs} on its own.
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method String getName()} (the Content-Encoding value, e.g. gzip)</li>
+ * <li>{@method OutputStream encode(OutputStream out)} (closing the result finishes the encoding
+ * and closes out)</li>
+ * <li>{@method InputStream decode(InputStream in)} (closing the result closes in)</li>
+ */
+public interface RawDataCodec
+{
+  String getName();
+
+  OutputStream encode(OutputStream out)
+      throws IOException;
+
+  InputStream decode(InputStream in)
+      throws IOException;
+
+  /**
+   * Wraps out so closing the wrapper only flushes it. Lets an encoding be finished without
+   * closing the stream it was written to.
+   */
+  static OutputStream keepOpen(
+      OutputStream out)
+  {
+    return new FilterOutputStream(out)
+    {
+      // FilterOutputStream would write the array a byte at a time.
+      @Override
+      public void write(byte[] bytes,
+          int offset, int length)
+          throws IOException
+      {
+        this.out.write(bytes, offset,
+            length);
+      }
+
+      @Override
+      public void close()
+          throws IOException
+      {
+        this.out.flush();
+      }
+    };
+  }
+}
@@ -0,0 +1,83 @@
+package org.webcat.ecommerce.datahandler.infrastructure.codec;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@link RawDataCodecs}
+ * <p>
+ * Every {@link RawDataCodec} by name. New objects are written with the codec named by
+ * minio.codec.write, objects are read with the codec their Content-Encoding names, so objects
+ * written with another codec (or none) stay readable after the setting changes.
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method RawDataCodec getWriteCodec()}</li>
+ * <li>{@method RawDataCodec forContentEncoding(String contentEncoding)}</li>
+ */
+@Component
+public class RawDataCodecs
+{
+
+  private final Map<String, RawDataCodec> byName =
+      new HashMap<>();
+  private final RawDataCodec writeCodec;
+
+  public RawDataCodecs(
+      List<RawDataCodec> codecs,
+      @Value("${minio.codec.write:zstd}") String writeCodec)
+  {
+    for (RawDataCodec codec : codecs)
+    {
+      this.byName.put(codec.getName(),
+          codec);
+    }
+    // Plain objects must stay readable whatever codecs are around.
+    this.byName.putIfAbsent(
+        IdentityCodec.NAME,
+        new IdentityCodec());
+    this.writeCodec =
+        lookup(this.byName, writeCodec);
+  }
+
+  public RawDataCodec getWriteCodec()
+  {
+    return this.writeCodec;
+  }
+
+  /**
+   * The codec of an object with the given Content-Encoding, identity when it has none.
+   */
+  public RawDataCodec forContentEncoding(
+      String contentEncoding)
+  {
+    return lookup(this.byName,
+        contentEncoding);
+  }
+
+  // Static so the constructor can use it before the object is built.
+  private static RawDataCodec lookup(
+      Map<String, RawDataCodec> byName,
+      String contentEncoding)
+  {
+    if (contentEncoding == null
+        || contentEncoding.isBlank())
+    {
+      return byName.get(IdentityCodec.NAME);
+    }
+
+    RawDataCodec codec = byName.get(contentEncoding.trim()
+            .toLowerCase(Locale.ROOT));
+    if (codec == null)
+    {
+      throw new IllegalArgumentException(
+          "No codec for content encoding "
+              + contentEncoding);
+    }
+    return codec;
+  }
+}
@@ -0,0 +1,70 @@
+package org.webcat.ecommerce.datahandler.infrastructure.codec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+/**
+ * {@link ZstdCodec}
+ * <p>
+ * Zstandard through zstd-jni. Compresses json about as well as gzip at a fraction of the CPU time,
+ * and decompresses several times faster.
+ * </p>
+ */
+@Component
+public class ZstdCodec
+    implements RawDataCodec
+{
+  private static final Integer BUFFER_SIZE =
+      64 * 1024;
+
+  // 1 (fastest) to 22 (smallest), 3 is zstd's own default.
+  private final Integer level;
+
+  public ZstdCodec(
+      @Value("${minio.codec.zstd-level:3}") Integer level)
+  {
+    if (level < 1 || level > 22)
+    {
+      throw new IllegalArgumentException(
+          "zstd level must be between 1 and 22");
+    }
+    this.level = level;
+  }
+
+  @Override
+  public String getName()
+  {
+    return "zstd";
+  }
+
+  @Override
+  public OutputStream encode(
+      OutputStream out)
+      throws IOException
+  {
+    // Jackson writes in small chunks, every native call is worth batching.
+    return new BufferedOutputStream(
+        new ZstdOutputStream(out,
+            this.level),
+        BUFFER_SIZE);
+  }
+
+  @Override
+  public InputStream decode(
+      InputStream in)
+      throws IOException
+  {
+    return new BufferedInputStream(
+        new ZstdInputStream(in),
+        BUFFER_SIZE);
+  }
+}
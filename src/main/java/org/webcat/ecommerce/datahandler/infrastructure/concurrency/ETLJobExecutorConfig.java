@@ -0,0 +1,44 @@
+package org.webcat.ecommerce.datahandler.infrastructure.concurrency;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * {@link ETLJobExecutorConfig}
+ * <p>
+ * The executor ETL jobs run on, so a long run doesn't hold an HTTP thread.
+ * </p>
+ * <p>
+ * <li>etl.jobs.concurrency: the number of jobs running at the same time.</li>
+ * <li>etl.jobs.queue-capacity: the number of jobs waiting for a free slot, more than that are
+ * rejected.</li>
+ * </p>
+ */
+@Configuration
+public class ETLJobExecutorConfig
+{
+
+  public static final String ETL_JOB_EXECUTOR =
+      "etlJobExecutor";
+
+  @Bean(name = ETL_JOB_EXECUTOR)
+  public ThreadPoolTaskExecutor etlJobExecutor(
+      @Value("${etl.jobs.concurrency:2}") Integer concurrency,
+      @Value("${etl.jobs.queue-capacity:100}") Integer queueCapacity)
+  {
+    ThreadPoolTaskExecutor executor =
+        new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(concurrency);
+    executor.setMaxPoolSize(concurrency);
+    executor.setQueueCapacity(queueCapacity);
+    executor.setThreadNamePrefix("etl-job-");
+    // Lets running jobs finish when the app shuts down.
+    executor
+        .setWaitForTasksToCompleteOnShutdown(
+            true);
+    executor.setAwaitTerminationSeconds(60);
+    return executor;
+  }
+}
@@ -0,0 +1,564 @@
+package org.webcat.ecommerce.datahandler.infrastructure.database;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+import org.webcat.ecommerce.datahandler.domain.model.entities.RawData;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ObjectScan;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ObjectVersion;
+import org.webcat.ecommerce.datahandler.domain.service.etl.interfaces.RecordSink;
+import org.webcat.ecommerce.datahandler.infrastructure.logging.Logger;
+import org.webcat.ecommerce.datahandler.infrastructure.metrics.ETLMetrics;
+import org.webcat.ecommerce.datahandler.infrastructure.profiling.LakeObjectEvent;
+import org.webcat.ecommerce.datahandler.infrastructure.repository.RawDataRepository;
+import org.webcat.ecommerce.datahandler.shared.helpers.ByteBufferInputStream;
+import org.webcat.ecommerce.datahandler.shared.helpers.JsonRecordReader;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * {@link FileSystemRawDataRepository}
+ * <p>
+ * Raw data on a local filesystem instead of MinIO, for edge deployments and for running the ETL
+ * at disk speed. Selected with raw-data.store=filesystem.
+ * </p>
+ * <p>
+ * Layout under root:
+ * <li>ids/{aa}/{bb}/raw-data_{id}.json - normalised objects, sharded by a hash of their snowflake
+ * id. Ids made in the same millisecond share their high bits, the hash spreads them over the
+ * 65536 directories so none of them grows to millions of entries.</li>
+ * <li>names/{name} - everything else (uploads), a / in a name is a directory.</li>
+ * </p>
+ * <p>
+ * <li>Reads map the file read-only ({@link ByteBufferInputStream}), json is parsed straight from
+ * the page cache.</li>
+ * <li>Writes go to a temp file in the target's directory that's renamed over it, a reader sees
+ * the old object or the new one, never a part of it. With fsync the file is forced to disk before
+ * the rename.</li>
+ * <li>Renames are a single atomic move.</li>
+ * <li>An object's ETag is its size and last modified time.</li>
+ * </p>
+ * <p>
+ * Objects are stored as plain json, minio.codec and the read cache only apply to MinIO. GETs, PUTs
+ * and COPYs are recorded like MinIO's (etl.lake.get, {@link LakeObjectEvent}).
+ * </p>
+ */
+@Repository
+@ConditionalOnProperty(name = "raw-data.store", havingValue = "filesystem")
+public class FileSystemRawDataRepository
+    implements RawDataRepository
+{
+
+  private static final Logger LOG =
+      Logger.get(
+          FileSystemRawDataRepository.class);
+
+  private static final String TEMP_PREFIX =
+      ".";
+  private static final String TEMP_SUFFIX =
+      ".tmp";
+
+  // Reads a listing, and closes its directory handles once it's exhausted
+  // or closed before that.
+  private static class ListingIterator
+      implements Iterator<String>, AutoCloseable
+  {
+    private final Stream<String> listed;
+    private final Iterator<String> names;
+    private Boolean closed = false;
+
+    ListingIterator(Stream<String> listed)
+    {
+      this.listed = listed;
+      this.names = listed.iterator();
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      if (this.closed)
+      {
+        return false;
+      }
+      if (this.names.hasNext())
+      {
+        return true;
+      }
+      this.close();
+      return false;
+    }
+
+    @Override
+    public String next()
+    {
+      if (!this.hasNext())
+      {
+        throw new NoSuchElementException();
+      }
+      return this.names.next();
+    }
+
+    @Override
+    public void close()
+    {
+      if (!this.closed)
+      {
+        this.closed = true;
+        this.listed.close();
+      }
+    }
+  }
+
+  private final Path root;
+  private final Path ids;
+  private final Path names;
+  private final Boolean fsync;
+  private final ETLMetrics metrics;
+
+  // Jackson object mapper.
+  private final ObjectMapper objectMapper =
+      new ObjectMapper();
+  private final JsonRecordReader recordReader =
+      new JsonRecordReader(
+          this.objectMapper.getFactory());
+  // The file is closed by save(), after it's forced to disk.
+  private final ObjectWriter fileWriter =
+      this.objectMapper.writer().without(
+          JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+  public FileSystemRawDataRepository(
+      ETLMetrics metrics,
+      @Value("${raw-data.filesystem.root:./data/raw}") String root,
+      @Value("${raw-data.filesystem.fsync:false}") Boolean fsync)
+  {
+    this.root = Paths.get(root)
+        .toAbsolutePath().normalize();
+    this.ids = this.root.resolve("ids");
+    this.names = this.root.resolve("names");
+    this.fsync = fsync;
+    this.metrics = metrics;
+
+    try
+    {
+      Files.createDirectories(this.ids);
+      Files.createDirectories(this.names);
+    } catch (IOException e)
+    {
+      throw new RuntimeException(
+          "Failed to create the raw data directory "
+              + this.root,
+          e);
+    }
+  }
+
+  @Override
+  public RawData findById(Long id)
+  {
+    String objectName =
+        RawObjectNames.generate(id);
+    try (InputStream inputStream =
+        this.openObject(objectName))
+    {
+      return this.objectMapper.readValue(
+          inputStream, RawData.class);
+    } catch (Exception e)
+    {
+      throw new RuntimeException(
+          "Failed to fetch raw data with id: "
+              + id,
+          e);
+    }
+  }
+
+  @Override
+  public RawData findByFileName(
+      String fileName)
+  {
+    try (InputStream inputStream =
+        this.openObject(fileName))
+    {
+      return this.objectMapper.readValue(
+          inputStream, RawData.class);
+    } catch (Exception e)
+    {
+      throw new RuntimeException(
+          "Failed to fetch raw data with name: "
+              + fileName,
+          e);
+    }
+  }
+
+  @Override
+  public Integer streamRecords(
+      String fileName, RecordSink sink)
+      throws InterruptedException
+  {
+    Long rawId =
+        RawObjectNames.parseId(fileName);
+    if (rawId == null)
+    {
+      throw new RuntimeException(
+          "Can't stream a file that wasn't normalised: "
+              + fileName);
+    }
+
+    try (InputStream inputStream =
+        this.openObject(fileName))
+    {
+      return this.recordReader.read(
+          inputStream, rawId, sink);
+    } catch (InterruptedException e)
+    {
+      throw e;
+    } catch (Exception e)
+    {
+      throw new RuntimeException(
+          "Failed to stream raw data with name: "
+              + fileName,
+          e);
+    }
+  }
+
+  @Override
+  public Boolean save(RawData rawData)
+  {
+    String objectName = RawObjectNames
+        .generate(rawData.getID());
+    LakeObjectEvent event =
+        new LakeObjectEvent(
+            LakeObjectEvent.PUT, objectName);
+    event.id = rawData.getID();
+    event.begin();
+
+    Path file = this.pathOf(objectName);
+    Path temp = null;
+    try
+    {
+      Files.createDirectories(
+          file.getParent());
+      temp = Files.createTempFile(
+          file.getParent(),
+          TEMP_PREFIX + objectName,
+          TEMP_SUFFIX);
+      try (FileChannel channel =
+          FileChannel.open(temp,
+              StandardOpenOption.WRITE))
+      {
+        OutputStream out =
+            new BufferedOutputStream(
+                Channels
+                    .newOutputStream(channel),
+                65536);
+        this.fileWriter.writeValue(out,
+            rawData);
+        out.flush();
+        if (this.fsync)
+        {
+          channel.force(true);
+        }
+        event.bytes = channel.size();
+      }
+      Files.move(temp, file,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      event.success = true;
+      return true;
+    } catch (Exception e)
+    {
+      delete(temp);
+      throw new RuntimeException(
+          "Failed to save raw data", e);
+    } finally
+    {
+      commit(event);
+    }
+  }
+
+  @Override
+  public ObjectVersion stat(
+      String fileName)
+  {
+    try
+    {
+      BasicFileAttributes attributes =
+          Files.readAttributes(
+              this.pathOf(fileName),
+              BasicFileAttributes.class);
+      return new ObjectVersion(
+          etagOf(attributes),
+          attributes.lastModifiedTime()
+              .toInstant());
+    } catch (Exception e)
+    {
+      throw new RuntimeException(
+          "Failed to stat raw data with name: "
+              + fileName,
+          e);
+    }
+  }
+
+  /**
+   * The names of the objects a scan selects, in no particular order. The directories are walked
+   * as the iterator is read, and closed once it's exhausted or closed. The store has no buckets, a
+   * scan may only name the root directory.
+   */
+  @Override
+  public Iterator<String> listObjectNames(
+      ObjectScan scan)
+  {
+    if (scan.bucket() != null
+        && !scan.bucket().equals(this.root
+            .getFileName().toString()))
+    {
+      throw new IllegalArgumentException(
+          "Only "
+              + this.root.getFileName()
+              + " can be scanned, not "
+              + scan.bucket());
+    }
+    String prefix = scan.prefix() == null
+        ? ""
+        : scan.prefix();
+
+    Stream<String> listed = Stream.empty();
+    // Normalised objects only match prefixes of their names.
+    if (RawObjectNames.PREFIX
+        .startsWith(prefix)
+        || prefix.startsWith(
+            RawObjectNames.PREFIX))
+    {
+      listed = this.walk(this.ids, scan,
+          prefix, path -> path.getFileName()
+              .toString());
+    }
+
+    // Only the directory the prefix points into is walked.
+    Path start = this.names;
+    Integer slash = prefix.lastIndexOf('/');
+    if (slash >= 0)
+    {
+      start = this.names.resolve(
+          prefix.substring(0, slash))
+          .normalize();
+    }
+    if (start.startsWith(this.names)
+        && Files.isDirectory(start))
+    {
+      try
+      {
+        listed = Stream.concat(listed,
+            this.walk(start, scan, prefix,
+                path -> this.names
+                    .relativize(path)
+                    .toString()
+                    .replace('\\', '/')));
+      } catch (RuntimeException e)
+      {
+        listed.close();
+        throw e;
+      }
+    }
+    return new ListingIterator(listed);
+  }
+
+  @Override
+  public Long rawIdOf(String fileName)
+  {
+    return RawObjectNames.parseId(fileName);
+  }
+
+  @Override
+  public String generateObjectName(
+      Long id)
+  {
+    return RawObjectNames.generate(id);
+  }
+
+  @Override
+  public Boolean renameObject(
+      String oldName, String newName)
+  {
+    LakeObjectEvent event =
+        new LakeObjectEvent(
+            LakeObjectEvent.COPY, oldName);
+    event.destination = newName;
+    Long rawId =
+        RawObjectNames.parseId(newName);
+    event.id = rawId == null ? 0L : rawId;
+    event.begin();
+
+    try
+    {
+      Path target = this.pathOf(newName);
+      Files.createDirectories(
+          target.getParent());
+      Files.move(this.pathOf(oldName),
+          target,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      event.bytes = Files.size(target);
+      event.success = true;
+      return true;
+    } catch (Exception e)
+    {
+      LOG.atWarn().file(oldName).cause(e)
+          .log("Failed to rename the object to {}",
+              newName);
+      return false;
+    } finally
+    {
+      commit(event);
+    }
+  }
+
+  // The object mapped into memory. A GET's time is the time to open and
+  // map the file.
+  private InputStream openObject(
+      String objectName)
+      throws IOException
+  {
+    LakeObjectEvent event =
+        new LakeObjectEvent(
+            LakeObjectEvent.GET, objectName);
+    Long rawId =
+        RawObjectNames.parseId(objectName);
+    event.id = rawId == null ? 0L : rawId;
+    event.begin();
+
+    Timer.Sample sample = Timer.start();
+    try
+    {
+      Path file = this.pathOf(objectName);
+      InputStream content =
+          ByteBufferInputStream.map(file, 0L);
+      Long bytes = Files.size(file);
+      this.metrics.getLakeGetBytes()
+          .record(bytes);
+      event.bytes = bytes;
+      event.success = true;
+      return content;
+    } finally
+    {
+      sample.stop(this.metrics
+          .getLakeGetTimer());
+      commit(event);
+    }
+  }
+
+  // Where an object is kept. Names can't point out of the store.
+  private Path pathOf(String objectName)
+  {
+    Long id =
+        RawObjectNames.parseId(objectName);
+    if (id != null)
+    {
+      // The top 16 bits of a multiplicative hash of the id.
+      Long shard =
+          (id * 0x9E3779B97F4A7C15L) >>> 48;
+      return this.ids
+          .resolve(String.format("%02x",
+              shard >>> 8))
+          .resolve(String.format("%02x",
+              shard & 0xff))
+          .resolve(objectName);
+    }
+
+    Path file = this.names
+        .resolve(objectName).normalize();
+    if (!file.startsWith(this.names)
+        || file.equals(this.names))
+    {
+      throw new IllegalArgumentException(
+          "Invalid object name: "
+              + objectName);
+    }
+    return file;
+  }
+
+  private Stream<String> walk(Path start,
+      ObjectScan scan, String prefix,
+      Function<Path, String> objectName)
+  {
+    try
+    {
+      return Files.find(start,
+          Integer.MAX_VALUE,
+          (path, attributes) -> attributes
+              .isRegularFile()
+              && !path.getFileName()
+                  .toString()
+                  .startsWith(TEMP_PREFIX)
+              && scan.includes(attributes
+                  .lastModifiedTime()
+                  .toInstant()))
+          .map(objectName)
+          .filter(name -> name
+              .startsWith(prefix));
+    } catch (IOException e)
+    {
+      throw new RuntimeException(
+          "Failed to list raw data with prefix: "
+              + prefix,
+          e);
+    }
+  }
+
+  // Changes whenever the file is written again.
+  private static String etagOf(
+      BasicFileAttributes attributes)
+  {
+    return Long.toHexString(
+        attributes.size())
+        + "-"
+        + Long.toHexString(attributes
+            .lastModifiedTime()
+            .to(TimeUnit.NANOSECONDS));
+  }
+
+  private static void delete(Path file)
+  {
+    if (file == null)
+    {
+      return;
+    }
+    try
+    {
+      Files.deleteIfExists(file);
+    } catch (IOException e)
+    {
+      // Skipped by listings, the name starts with a dot.
+    }
+  }
+
+  // Ends the event and writes it if a recording takes it, a no-op otherwise.
+  private static void commit(
+      LakeObjectEvent event)
+  {
+    event.end();
+    if (event.shouldCommit())
+    {
+      event.commit();
+    }
+  }
+}
@@ -0,0 +1,224 @@
+package org.webcat.ecommerce.datahandler.infrastructure.database;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.webcat.ecommerce.datahandler.infrastructure.metrics.ETLMetrics;
+
+/**
+ * {@link HedgedRequests}
+ * <p>
+ * Hedges lake GETs: when a request hasn't answered after the hedge delay, the same request is
+ * sent again and whichever answers first is kept. The other answer is closed once it arrives. A
+ * few slow responses stop setting the p99 of extraction, for a few percent more requests.
+ * </p>
+ * <p>
+ * <li>The delay is the given percentile of the latest WINDOW times to an answer, recomputed every
+ * RECOMPUTE_EVERY answers and never below minDelayMillis. With percentile 0.95 about 5% of the
+ * requests are hedged.</li>
+ * <li>Nothing is hedged until MIN_SAMPLES answers were seen.</li>
+ * <li>A request is hedged once at most. A failure isn't retried, the request only fails once every
+ * copy of it failed.</li>
+ * </p>
+ * <p>
+ * Hedges are counted in etl.lake.get.hedges, hedges that answered first in
+ * etl.lake.get.hedge.wins.
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method <T extends AutoCloseable> CompletableFuture<T> send(Callable<CompletableFuture<T>>
+ * request)}</li>
+ * <li>{@method Boolean isEnabled()}</li>
+ * <li>{@method Long getDelayMillis()}</li>
+ */
+@Component
+public class HedgedRequests
+{
+
+  private static final Integer WINDOW = 1024;
+  private static final Integer RECOMPUTE_EVERY =
+      128;
+  private static final Integer MIN_SAMPLES =
+      128;
+
+  private final Boolean enabled;
+  private final Double percentile;
+  private final Long minDelayNanos;
+  private final ETLMetrics metrics;
+
+  // The latest times to an answer, in nanoseconds.
+  private final AtomicLongArray samples =
+      new AtomicLongArray(WINDOW);
+  private final AtomicLong sampleCount =
+      new AtomicLong(0L);
+  // null until there are enough samples.
+  private volatile Long delayNanos;
+
+  public HedgedRequests(
+      @Value("${minio.hedge.enabled:false}") Boolean enabled,
+      @Value("${minio.hedge.percentile:0.95}") Double percentile,
+      @Value("${minio.hedge.min-delay-ms:20}") Long minDelayMillis,
+      ETLMetrics metrics)
+  {
+    if (percentile <= 0 || percentile >= 1
+        || minDelayMillis < 0)
+    {
+      throw new IllegalArgumentException(
+          "Hedge percentile must be in (0, 1) and the min delay not negative");
+    }
+
+    this.enabled = enabled;
+    this.percentile = percentile;
+    this.minDelayNanos = TimeUnit.MILLISECONDS
+        .toNanos(minDelayMillis);
+    this.metrics = metrics;
+  }
+
+  /**
+   * Sends request, and again if it's slower than the hedge delay. The future completes with the
+   * first answer.
+   */
+  public <T extends AutoCloseable> CompletableFuture<T> send(
+      Callable<CompletableFuture<T>> request)
+  {
+    if (!this.enabled)
+    {
+      return call(request);
+    }
+
+    CompletableFuture<T> winner =
+        new CompletableFuture<>();
+    // Copies that haven't failed yet.
+    AtomicInteger pending =
+        new AtomicInteger(1);
+    // Claimed by the first copy to answer.
+    AtomicBoolean answered =
+        new AtomicBoolean(false);
+    this.attempt(request, winner, pending,
+        answered, false);
+
+    Long delay = this.delayNanos;
+    if (delay != null)
+    {
+      CompletableFuture
+          .delayedExecutor(delay,
+              TimeUnit.NANOSECONDS)
+          .execute(() -> {
+            if (winner.isDone())
+            {
+              return;
+            }
+            pending.incrementAndGet();
+            this.metrics.getLakeGetHedges()
+                .increment();
+            this.attempt(request, winner,
+                pending, answered, true);
+          });
+    }
+    return winner;
+  }
+
+  public Boolean isEnabled()
+  {
+    return this.enabled;
+  }
+
+  // The current hedge delay, null while nothing is hedged yet.
+  public Long getDelayMillis()
+  {
+    Long delay = this.delayNanos;
+    return delay == null ? null
+        : TimeUnit.NANOSECONDS
+            .toMillis(delay);
+  }
+
+  private <T extends AutoCloseable> void attempt(
+      Callable<CompletableFuture<T>> request,
+      CompletableFuture<T> winner,
+      AtomicInteger pending,
+      AtomicBoolean answered, Boolean hedge)
+  {
+    Long start = System.nanoTime();
+    call(request).whenComplete(
+        (response, e) -> {
+          if (e != null)
+          {
+            if (pending.decrementAndGet() == 0)
+            {
+              winner.completeExceptionally(e);
+            }
+            return;
+          }
+
+          this.record(
+              System.nanoTime() - start);
+          // The win is counted before the caller is woken up by it.
+          if (answered.compareAndSet(false,
+              true))
+          {
+            if (hedge)
+            {
+              this.metrics
+                  .getLakeGetHedgeWins()
+                  .increment();
+            }
+            winner.complete(response);
+          } else
+          {
+            // The other copy answered first.
+            try
+            {
+              response.close();
+            } catch (Exception closeFailure)
+            {
+              // Nothing else holds it.
+            }
+          }
+        });
+  }
+
+  private void record(Long nanos)
+  {
+    Long count =
+        this.sampleCount.incrementAndGet();
+    this.samples.set(
+        (int) ((count - 1) % WINDOW), nanos);
+    if (count >= MIN_SAMPLES
+        && count % RECOMPUTE_EVERY == 0)
+    {
+      Integer size =
+          (int) Math.min(count, WINDOW);
+      long[] sorted = new long[size];
+      for (Integer i = 0; i < size; i++)
+      {
+        sorted[i] = this.samples.get(i);
+      }
+      Arrays.sort(sorted);
+      this.delayNanos = Math.max(
+          this.minDelayNanos,
+          sorted[(int) Math.min(size - 1,
+              Math.floor(this.percentile
+                  * size))]);
+    }
+  }
+
+  private static <T> CompletableFuture<T> call(
+      Callable<CompletableFuture<T>> request)
+  {
+    try
+    {
+      return request.call();
+    } catch (Exception e)
+    {
+      return CompletableFuture
+          .failedFuture(e);
+    }
+  }
+}
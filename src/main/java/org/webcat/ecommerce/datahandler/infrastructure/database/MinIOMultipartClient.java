@@ -0,0 +1,127 @@
+package org.webcat.ecommerce.datahandler.infrastructure.database;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.google.common.collect.Multimap;
+
+import io.minio.MinioAsyncClient;
+import io.minio.ObjectWriteResponse;
+import io.minio.PutObjectArgs;
+import io.minio.messages.Part;
+
+/**
+ * {@link MinIOMultipartClient}
+ * <p>
+ * The async MinIO client with its multipart calls opened up. The public API only does multipart
+ * uploads from a stream one part after the other, we send parts as soon as they're serialized and
+ * in parallel.
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method String createUpload(String bucket, String object, String contentType, String
+ * contentEncoding)}</li>
+ * <li>{@method CompletableFuture<Part> uploadPart(...)}</li>
+ * <li>{@method void completeUpload(...)}</li>
+ * <li>{@method void abortUpload(...)}</li>
+ * <li>{@method void putBytes(...)} (a single PUT, for objects that fit in one part)</li>
+ */
+class MinIOMultipartClient
+    extends MinioAsyncClient
+{
+
+  MinIOMultipartClient(
+      MinioAsyncClient client)
+  {
+    super(client);
+  }
+
+  // contentEncoding may be null.
+  String createUpload(String bucket,
+      String object, String contentType,
+      String contentEncoding)
+      throws Exception
+  {
+    Multimap<String, String> headers =
+        this.newMultimap(this.headers(
+            contentType, contentEncoding));
+    // A null region is looked up (and cached) by the client.
+    return this.createMultipartUploadAsync(
+        bucket, null, object, headers,
+        this.newMultimap()).get().result()
+        .uploadId();
+  }
+
+  // data is sent as is, it must not be reused until the future completes.
+  CompletableFuture<Part> uploadPart(
+      String bucket, String object,
+      String uploadId, Integer partNumber,
+      byte[] data)
+      throws Exception
+  {
+    return this.uploadPartAsync(bucket,
+        null, object, data, data.length,
+        uploadId, partNumber,
+        this.newMultimap(),
+        this.newMultimap())
+        .thenApply(response -> new Part(
+            response.partNumber(),
+            response.etag()));
+  }
+
+  void completeUpload(String bucket,
+      String object, String uploadId,
+      Part[] parts)
+      throws Exception
+  {
+    this.completeMultipartUploadAsync(
+        bucket, null, object, uploadId,
+        parts, this.newMultimap(),
+        this.newMultimap()).get();
+  }
+
+  void abortUpload(String bucket,
+      String object, String uploadId)
+      throws Exception
+  {
+    this.abortMultipartUploadAsync(bucket,
+        null, object, uploadId,
+        this.newMultimap(),
+        this.newMultimap()).get();
+  }
+
+  ObjectWriteResponse putBytes(
+      String bucket, String object,
+      String contentType,
+      String contentEncoding, byte[] data,
+      Integer length)
+      throws Exception
+  {
+    return this.putObject(PutObjectArgs
+        .builder().bucket(bucket)
+        .object(object)
+        .stream(new ByteArrayInputStream(
+            data, 0, length), length, -1)
+        .headers(this.headers(contentType,
+            contentEncoding))
+        .build())
+        .get();
+  }
+
+  private Map<String, String> headers(
+      String contentType,
+      String contentEncoding)
+  {
+    Map<String, String> headers =
+        new HashMap<>();
+    headers.put("Content-Type",
+        contentType);
+    if (contentEncoding != null)
+    {
+      headers.put("Content-Encoding",
+          contentEncoding);
+    }
+    return headers;
+  }
+}
@@ -1,21 +1,62 @@
 package org.webcat.ecommerce.datahandler.infrastructure.database;
 
-import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.io.OutputStream;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Repository;
 import org.webcat.ecommerce.datahandler.domain.model.entities.RawData;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ObjectScan;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ObjectVersion;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.SegmentEntry;
+import org.webcat.ecommerce.datahandler.domain.service.etl.interfaces.RecordSink;
+import org.webcat.ecommerce.datahandler.infrastructure.cache.LocalObjectCache;
+import org.webcat.ecommerce.datahandler.infrastructure.codec.IdentityCodec;
+import org.webcat.ecommerce.datahandler.infrastructure.codec.RawDataCodec;
+import org.webcat.ecommerce.datahandler.infrastructure.codec.RawDataCodecs;
+import org.webcat.ecommerce.datahandler.infrastructure.logging.Logger;
+import org.webcat.ecommerce.datahandler.infrastructure.metrics.ETLMetrics;
+import org.webcat.ecommerce.datahandler.infrastructure.profiling.LakeObjectEvent;
 import org.webcat.ecommerce.datahandler.infrastructure.repository.RawDataRepository;
+import org.webcat.ecommerce.datahandler.infrastructure.repository.RawSegmentIndexRepository;
+import org.webcat.ecommerce.datahandler.shared.helpers.JsonRecordReader;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
 import io.minio.CopyObjectArgs;
 import io.minio.CopySource;
 import io.minio.GetObjectArgs;
+import io.minio.GetObjectResponse;
+import io.minio.ListObjectsArgs;
+import io.minio.MinioAsyncClient;
 import io.minio.MinioClient;
-import io.minio.PutObjectArgs;
 import io.minio.RemoveObjectArgs;
+import io.minio.Result;
+import io.minio.StatObjectArgs;
+import io.minio.StatObjectResponse;
+import io.minio.errors.ErrorResponseException;
+import io.minio.http.HttpUtils;
+import io.minio.messages.Item;
 import io.github.cdimascio.dotenv.Dotenv;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 
 
 /**
@@ -23,44 +64,342 @@ import io.github.cdimascio.dotenv.Dotenv;
  * {@link MinIORawDataRepository}
  * <p>
  * An S3 compatible object store that runs locally. It mimics AWS S3. Serves as a data lake.
+ * The default raw store, see {@link FileSystemRawDataRepository} for the other one.
+ * </p>
+ * <p>
+ * save() serializes straight into a {@link MinIOUploadStream}, objects larger than partSize go as
+ * multipart uploads with up to maxParallelParts parts in flight.
+ * </p>
+ * <p>
+ * Objects are compressed with the write codec of {@link RawDataCodecs} on the way out, and
+ * decompressed on the way in with the codec their Content-Encoding names (none for plain
+ * objects).
+ * </p>
+ * <p>
+ * listObjectNames() pages through the bucket listing as it's iterated, listPageSize keys per
+ * request, so a scan holds a single page however many objects match.
+ * </p>
+ * <p>
+ * findByFileNameAsync() and renameObjectAsync() send their requests through the async client and
+ * return at once, up to maxAsyncRequests of them are in flight together. Nothing blocks until a
+ * body is read.
+ * </p>
+ * <p>
+ * Reads can be hedged ({@link HedgedRequests}), and objects larger than rangedThreshold read as
+ * the first rangedThreshold bytes followed by concurrent GETs of rangedPartSize ranges of the rest
+ * ({@link RangedObjectStream}). Both send their GETs through the async client.
+ * </p>
+ * <p>
+ * With the {@link LocalObjectCache} enabled, a read first asks the lake for the object's ETag (a
+ * HEAD) and serves the local copy if it's still current, otherwise the GET's body is cached as
+ * it's read. A miss costs the HEAD on top of the GET, a hit the HEAD only.
+ * </p>
+ * <p>
+ * With the compaction on, compact() packs small objects into segments ({@link RawSegments}) and
+ * records where each one went in the {@link RawSegmentIndexRepository}. A packed object keeps its
+ * name: reads look it up in the index first and GET its byte range of the segment, stat() returns
+ * the version it had before it was packed, and listings name the objects of a segment in its
+ * place.
+ * </p>
+ * <p>
+ * Every GET, PUT and COPY is recorded as a {@link LakeObjectEvent} while a flight recording runs.
  * </p>
  */
 @Repository
+@ConditionalOnProperty(name = "raw-data.store", havingValue = "minio", matchIfMissing = true)
 public class MinIORawDataRepository
     implements RawDataRepository
 {
 
+  private static final Logger LOG =
+      Logger.get(MinIORawDataRepository.class);
+
   // Loading environment variables.
   private static final Dotenv env =
       Dotenv.load();
   private final MinioClient lakeClient;
+  // Uploads and the async variants of the reads and renames.
+  private final MinIOMultipartClient asyncClient;
   private final String bucketName =
       env.get("CURRENT_BUCKET");
   // Jackson object mapper.
   private final ObjectMapper objectMapper =
       new ObjectMapper();
+  private final JsonRecordReader recordReader =
+      new JsonRecordReader(
+          this.objectMapper.getFactory());
+  // The upload stream is closed by save(), not by the serializer, so a
+  // failed serialization can't complete an upload.
+  private final ObjectWriter uploadWriter =
+      this.objectMapper.writer().without(
+          JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+  // The client's own default for connect, write and read timeouts.
+  private static final Long HTTP_TIMEOUT_MILLIS =
+      TimeUnit.MINUTES.toMillis(5);
+  // S3 needs every part but the last to be at least 5 MiB.
+  private static final Integer MIN_PART_SIZE =
+      5 * 1024 * 1024;
+  // Objects larger than this are sent in parts of this size.
+  private final Integer partSize;
+  private final Integer maxParallelParts;
+  // Keys per listing request.
+  private final Integer listPageSize;
+  private final RawDataCodecs codecs;
+  private final ETLMetrics metrics;
+  private final LocalObjectCache readCache;
+  private final HedgedRequests hedgedRequests;
+  // Objects larger than rangedThreshold are read as concurrent ranges of
+  // rangedPartSize, null if they aren't.
+  private final Long rangedThreshold;
+  private final Integer rangedPartSize;
+  private final Integer rangedParallelism;
+  // Where packed objects are, null while the compaction is off.
+  private final RawSegmentIndexRepository segmentIndex;
 
-  // Generating object names from ids.
-  private static class ObjectNameGenerator
+  // Counts the bytes read from the body of an object, they're recorded when
+  // it's closed. The GET's event ends there too.
+  private static class CountingInputStream
+      extends FilterInputStream
   {
-    // The class is private so its methods are also private.
-    static String generateObjectName(
-        Long id)
+    private final DistributionSummary bytes;
+    private final LakeObjectEvent event;
+    private Long count = 0L;
+    private Boolean recorded = false;
+
+    CountingInputStream(InputStream in,
+        DistributionSummary bytes,
+        LakeObjectEvent event)
+    {
+      super(in);
+      this.bytes = bytes;
+      this.event = event;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+      int b = super.read();
+      if (b >= 0)
+      {
+        this.count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buffer,
+        int offset, int length)
+        throws IOException
+    {
+      int read = super.read(buffer, offset,
+          length);
+      if (read > 0)
+      {
+        this.count += read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n)
+        throws IOException
+    {
+      long skipped = super.skip(n);
+      this.count += skipped;
+      return skipped;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      if (!this.recorded)
+      {
+        this.recorded = true;
+        this.bytes.record(this.count);
+        this.event.bytes = this.count;
+        this.event.success = true;
+        commit(this.event);
+      }
+      super.close();
+    }
+  }
+
+  // The names of the objects of a listing that fall in the scan's time
+  // bounds. The next page is only requested once the current one is used
+  // up. A segment stands for the objects packed into it, segments are
+  // skipped without an index.
+  private static class ScanIterator
+      implements Iterator<String>
+  {
+    private final Iterator<Result<Item>> listing;
+    private final ObjectScan scan;
+    private final RawSegmentIndexRepository segmentIndex;
+    // The objects of the last segment listed that weren't handed out yet.
+    private final ArrayDeque<String> packed =
+        new ArrayDeque<>();
+    private String next;
+
+    ScanIterator(
+        Iterable<Result<Item>> listing,
+        ObjectScan scan,
+        RawSegmentIndexRepository segmentIndex)
+    {
+      this.listing = listing.iterator();
+      this.scan = scan;
+      this.segmentIndex = segmentIndex;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      while (this.next == null
+          && (!this.packed.isEmpty()
+              || this.listing.hasNext()))
+      {
+        if (!this.packed.isEmpty())
+        {
+          this.next = this.packed.poll();
+          continue;
+        }
+
+        Item item;
+        try
+        {
+          item = this.listing.next().get();
+        } catch (Exception e)
+        {
+          throw new RuntimeException(
+              "Failed to list raw data with prefix: "
+                  + this.scan.prefix(),
+              e);
+        }
+
+        if (item.isDir()
+            || item.isDeleteMarker())
+        {
+          continue;
+        }
+        if (RawSegments
+            .isSegment(item.objectName()))
+        {
+          this.unpack(item.objectName());
+          continue;
+        }
+        if (this.scan.includes(
+            item.lastModified() == null
+                ? null
+                : item.lastModified()
+                    .toInstant()))
+        {
+          this.next = item.objectName();
+        }
+      }
+      return this.next != null;
+    }
+
+    @Override
+    public String next()
     {
-      return "raw-data_" + id + ".json";
+      if (!this.hasNext())
+      {
+        throw new NoSuchElementException();
+      }
+      String objectName = this.next;
+      this.next = null;
+      return objectName;
+    }
+
+    // The scan's bounds apply to the times the objects had before they
+    // were packed.
+    private void unpack(String segmentName)
+    {
+      if (this.segmentIndex == null)
+      {
+        return;
+      }
+      String prefix =
+          this.scan.prefix() == null ? ""
+              : this.scan.prefix();
+      for (SegmentEntry entry : this.segmentIndex
+          .findBySegmentName(segmentName))
+      {
+        String objectName = RawObjectNames
+            .generate(entry.rawId());
+        if (objectName.startsWith(prefix)
+            && this.scan.includes(
+                entry.lastModified()))
+        {
+          this.packed.add(objectName);
+        }
+      }
     }
   }
 
+  @Override
   public String generateObjectName(
       Long id)
   {
-    return ObjectNameGenerator
-        .generateObjectName(id);
+    return RawObjectNames.generate(id);
   }
 
   // Constructor.
-  public MinIORawDataRepository()
+  public MinIORawDataRepository(
+      RawDataCodecs codecs,
+      ETLMetrics metrics,
+      LocalObjectCache readCache,
+      HedgedRequests hedgedRequests,
+      RawSegmentIndexRepository segmentIndex,
+      @Value("${raw-data.compaction.enabled:false}") Boolean compaction,
+      @Value("${minio.upload.part-size:16777216}") Integer partSize,
+      @Value("${minio.upload.max-parallel-parts:4}") Integer maxParallelParts,
+      @Value("${minio.list.page-size:1000}") Integer listPageSize,
+      @Value("${minio.async.max-requests:256}") Integer maxAsyncRequests,
+      @Value("${minio.ranged-get.enabled:false}") Boolean rangedGets,
+      @Value("${minio.ranged-get.threshold-bytes:33554432}") Long rangedThreshold,
+      @Value("${minio.ranged-get.part-size:8388608}") Integer rangedPartSize,
+      @Value("${minio.ranged-get.parallelism:4}") Integer rangedParallelism)
   {
+    if (partSize < MIN_PART_SIZE
+        || maxParallelParts < 1)
+    {
+      throw new IllegalArgumentException(
+          "Upload part size must be at least 5 MiB and parallel parts positive");
+    }
+    // S3 returns at most 1000 keys per request.
+    if (listPageSize < 1
+        || listPageSize > 1000)
+    {
+      throw new IllegalArgumentException(
+          "List page size must be between 1 and 1000");
+    }
+    if (maxAsyncRequests < 1)
+    {
+      throw new IllegalArgumentException(
+          "Max async requests must be positive");
+    }
+    if (rangedThreshold < 1
+        || rangedPartSize < 1
+        || rangedParallelism < 1)
+    {
+      throw new IllegalArgumentException(
+          "Ranged GET threshold, part size and parallelism must be positive");
+    }
+    this.partSize = partSize;
+    this.maxParallelParts =
+        maxParallelParts;
+    this.listPageSize = listPageSize;
+    this.codecs = codecs;
+    this.metrics = metrics;
+    this.readCache = readCache;
+    this.hedgedRequests = hedgedRequests;
+    this.rangedThreshold =
+        rangedGets ? rangedThreshold : null;
+    this.rangedPartSize = rangedPartSize;
+    this.rangedParallelism =
+        rangedParallelism;
+    this.segmentIndex =
+        compaction ? segmentIndex : null;
 
     // Instantiating minio client.
 
@@ -75,6 +414,39 @@ public class MinIORawDataRepository
             env.get("MINIO_SECRET_KEY"))
         .build();
 
+    // OkHttp runs at most 5 async calls per host by default, the rest
+    // would queue behind them. A call holds a dispatcher thread until its
+    // response headers arrive, a body is read by whoever consumes it.
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequests(
+        maxAsyncRequests);
+    dispatcher.setMaxRequestsPerHost(
+        maxAsyncRequests);
+    this.asyncClient =
+        new MinIOMultipartClient(
+            MinioAsyncClient.builder()
+                .endpoint("http://"
+                    + env.get("MINIO_HOST")
+                    + ":"
+                    + env.get(
+                        "MINIO_API_PORT"))
+                .credentials(
+                    env.get("MINIO_ACCESS_KEY"),
+                    env.get("MINIO_SECRET_KEY"))
+                .httpClient(HttpUtils
+                    .newDefaultHttpClient(
+                        HTTP_TIMEOUT_MILLIS,
+                        HTTP_TIMEOUT_MILLIS,
+                        HTTP_TIMEOUT_MILLIS)
+                    .newBuilder()
+                    .dispatcher(dispatcher)
+                    .connectionPool(
+                        new ConnectionPool(
+                            maxAsyncRequests,
+                            5, TimeUnit.MINUTES))
+                    .build())
+                .build());
+
     //
     // System.out.println("MINIO_HOST: "
     // + env.get("MINIO_HOST"));
@@ -95,49 +467,34 @@ public class MinIORawDataRepository
   public RawData findByFileName(
       String fileName)
   {
-    try
+    // The object is closed after reading so its connection goes back to
+    // the pool, concurrent extraction would run out of connections
+    // otherwise.
+    try (InputStream inputStream =
+        this.openObject(fileName))
     {
-      String objectName =
-          fileName.split(".")[0];
-      InputStream inputStream =
-          this.lakeClient.getObject(
-              GetObjectArgs.builder()
-                  .bucket(
-                      this.bucketName)
-                  .object(objectName)
-                  .build());
-
       // Reads data form input stream into RawData object.
       return objectMapper.readValue(
           inputStream, RawData.class);
     } catch (Exception e)
     {
-      // throw new RuntimeException(
-      System.out.printf(
+      // Thrown so the caller can report which file failed and why.
+      throw new RuntimeException(
           "Failed to fetch raw data with name: "
               + fileName,
           e);
     }
-    return null;
   }
 
   // Getting data by ID.
   @Override
   public RawData findById(Long id)
   {
-    try
+    String objectName =
+        RawObjectNames.generate(id);
+    try (InputStream inputStream =
+        this.openObject(objectName))
     {
-      String objectName =
-          ObjectNameGenerator
-              .generateObjectName(id);
-      InputStream inputStream =
-          this.lakeClient.getObject(
-              GetObjectArgs.builder()
-                  .bucket(
-                      this.bucketName)
-                  .object(objectName)
-                  .build());
-
       // Reads data form input stream into RawData object.
       return objectMapper.readValue(
           inputStream, RawData.class);
@@ -151,72 +508,1047 @@ public class MinIORawDataRepository
   }
 
   /**
-   * Saves raw data in the minio repository.
+   * Streams the records of an object to sink while it's downloaded. The records carry no id of
+   * their own, they get the one the object was named after by the normalisation.
+   */
+  @Override
+  public Integer streamRecords(
+      String fileName, RecordSink sink)
+      throws InterruptedException
+  {
+    Long rawId = RawObjectNames
+        .parseId(fileName);
+    if (rawId == null)
+    {
+      throw new RuntimeException(
+          "Can't stream a file that wasn't normalised: "
+              + fileName);
+    }
+
+    try (InputStream inputStream =
+        this.openObject(fileName))
+    {
+      return this.recordReader.read(
+          inputStream, rawId, sink);
+    } catch (InterruptedException e)
+    {
+      throw e;
+    } catch (Exception e)
+    {
+      throw new RuntimeException(
+          "Failed to stream raw data with name: "
+              + fileName,
+          e);
+    }
+  }
+
+  /**
+   * Saves raw data in the minio repository. The json is compressed and uploaded while it's being
+   * written, so neither a String nor a byte array of the whole object is ever built.
    */
   @Override
   public Boolean save(RawData rawData)
   {
-    try
+    String objectName =
+        RawObjectNames
+            .generate(rawData.getID());
+    RawDataCodec codec =
+        this.codecs.getWriteCodec();
+    LakeObjectEvent event =
+        new LakeObjectEvent(
+            LakeObjectEvent.PUT, objectName);
+    event.id = rawData.getID();
+    event.begin();
+
+    try (MinIOUploadStream upload =
+        new MinIOUploadStream(
+            this.asyncClient,
+            this.bucketName, objectName,
+            "application/json",
+            codec.getName().equals(
+                IdentityCodec.NAME) ? null
+                    : codec.getName(),
+            this.partSize,
+            this.maxParallelParts))
     {
-      String objectName =
-          ObjectNameGenerator
-              .generateObjectName(
-                  rawData.getID());
-      String json = this.objectMapper
-          .writeValueAsString(rawData);
-      // Turning the data into a json string and then turning it into
-      // a byte array input stream (sends one byte after the other).
-      InputStream inputStream =
-          new ByteArrayInputStream(
-              json.getBytes(
-                  StandardCharsets.UTF_8));
-
-      this.lakeClient.putObject(
-          PutObjectArgs.builder()
-              .bucket(this.bucketName)
-              .object(objectName)
-              .stream(inputStream,
-                  json.length(), -1)
-              .contentType(
-                  "application/json")
-              .build());
+      // Closing the encoder writes the end of the compressed stream, the
+      // upload itself is only completed by finish().
+      try (OutputStream encoded = codec
+          .encode(RawDataCodec
+              .keepOpen(upload)))
+      {
+        this.uploadWriter.writeValue(
+            encoded, rawData);
+      }
+      upload.finish();
+      event.bytes = upload.getTotalBytes();
+      event.success = true;
       return true;
     } catch (Exception e)
     {
       throw new RuntimeException(
           "Failed to save raw data", e);
+    } finally
+    {
+      commit(event);
+    }
+  }
+
+  // A HEAD request, the object isn't downloaded.
+  @Override
+  public ObjectVersion stat(
+      String fileName)
+  {
+    SegmentEntry packed =
+        this.segmentEntry(fileName);
+    if (packed != null)
+    {
+      return packed.version();
+    }
+
+    try
+    {
+      StatObjectResponse response =
+          this.lakeClient.statObject(
+              StatObjectArgs.builder()
+                  .bucket(this.bucketName)
+                  .object(fileName)
+                  .build());
+      return new ObjectVersion(
+          response.etag(),
+          response.lastModified() == null
+              ? null
+              : response.lastModified()
+                  .toInstant());
+    } catch (Exception e)
+    {
+      throw new RuntimeException(
+          "Failed to stat raw data with name: "
+              + fileName,
+          e);
+    }
+  }
+
+  /**
+   * The names of the objects a scan selects, in key order (the objects of a segment where the
+   * segment is listed). Only the bucket raw data is read from
+   * can be scanned, extraction couldn't find the objects of another one.
+   */
+  @Override
+  public Iterator<String> listObjectNames(
+      ObjectScan scan)
+  {
+    if (scan.bucket() != null
+        && !scan.bucket()
+            .equals(this.bucketName))
+    {
+      throw new IllegalArgumentException(
+          "Only the bucket "
+              + this.bucketName
+              + " can be scanned, not "
+              + scan.bucket());
+    }
+
+    return new ScanIterator(
+        this.lakeClient.listObjects(
+            ListObjectsArgs.builder()
+                .bucket(this.bucketName)
+                .prefix(scan.prefix() == null
+                    ? ""
+                    : scan.prefix())
+                .recursive(true)
+                .maxKeys(this.listPageSize)
+                .build()),
+        scan, this.segmentIndex);
+  }
+
+  @Override
+  public Long rawIdOf(String fileName)
+  {
+    return RawObjectNames
+        .parseId(fileName);
+  }
+
+  /**
+   * Fetches an object without holding a thread while the request is in flight. The body is read
+   * and parsed on a virtual thread once the response headers arrived.
+   */
+  @Override
+  public CompletableFuture<RawData> findByFileNameAsync(
+      String fileName)
+  {
+    return this.openObjectAsync(fileName)
+        .thenApplyAsync(inputStream -> {
+          try (inputStream)
+          {
+            return this.objectMapper.readValue(
+                inputStream, RawData.class);
+          } catch (IOException e)
+          {
+            throw new CompletionException(e);
+          }
+        }, Thread::startVirtualThread)
+        .handle((rawData, e) -> {
+          if (e != null)
+          {
+            throw new RuntimeException(
+                "Failed to fetch raw data with name: "
+                    + fileName,
+                unwrap(e));
+          }
+          return rawData;
+        });
+  }
+
+  // The copy and the remove are both sent by the async client, nothing
+  // waits on them.
+  @Override
+  public CompletableFuture<Boolean> renameObjectAsync(
+      String oldName, String newName)
+  {
+    LakeObjectEvent event =
+        copyEvent(oldName, newName);
+    CompletableFuture<Boolean> renamed;
+    try
+    {
+      renamed = this.asyncClient
+          .copyObject(this.copyArgs(oldName,
+              newName))
+          .thenCompose(copied -> {
+            event.success = true;
+            commit(event);
+            try
+            {
+              return this.asyncClient
+                  .removeObject(this
+                      .removeArgs(oldName));
+            } catch (Exception e)
+            {
+              throw new CompletionException(e);
+            }
+          })
+          .thenApply(removed -> {
+            this.readCache.invalidate(oldName);
+            return true;
+          });
+    } catch (Exception e)
+    {
+      renamed =
+          CompletableFuture.failedFuture(e);
+    }
+
+    return renamed.exceptionally(e -> {
+      // A failed remove comes after the copy's event.
+      if (!event.success)
+      {
+        commit(event);
+      }
+      LOG.atWarn().file(oldName)
+          .cause(unwrap(e))
+          .log("Failed to rename the object to {}",
+              newName);
+      return false;
+    });
+  }
+
+  // The object's content, decoded with the codec its Content-Encoding names.
+  // Closing the stream gives the connection back.
+  private InputStream openObject(
+      String objectName)
+      throws Exception
+  {
+    SegmentEntry packed =
+        this.segmentEntry(objectName);
+    // Hedged, ranged and packed GETs are sent by the async client.
+    if (packed != null
+        || this.hedgedRequests.isEnabled()
+        || this.rangedThreshold != null)
+    {
+      try
+      {
+        return (packed != null
+            ? this.getPacked(objectName, packed)
+            : this.openStored(objectName))
+            .get();
+      } catch (ExecutionException e)
+      {
+        throw e.getCause() instanceof Exception cause
+            ? cause
+            : e;
+      }
+    }
+
+    if (this.readCache.isEnabled())
+    {
+      InputStream cached = this.openCached(
+          objectName,
+          this.stat(objectName).etag());
+      if (cached != null)
+      {
+        return cached;
+      }
+    }
+
+    LakeObjectEvent event =
+        getEvent(objectName);
+    Timer.Sample sample = Timer.start();
+    GetObjectResponse response;
+    try
+    {
+      response = this.lakeClient.getObject(
+          this.getArgs(objectName));
+    } catch (Exception e)
+    {
+      commit(event);
+      throw e;
+    } finally
+    {
+      sample.stop(this.metrics
+          .getLakeGetTimer());
+    }
+    return this.decode(objectName,
+        response.headers()
+            .get("Content-Encoding"),
+        response.headers().get("ETag"),
+        response, event);
+  }
+
+  // openObject() on the async client, the future completes once the
+  // response headers arrived. The index is read on a virtual thread.
+  private CompletableFuture<InputStream> openObjectAsync(
+      String objectName)
+  {
+    if (this.segmentIndex == null)
+    {
+      return this.openStored(objectName);
     }
+    return CompletableFuture
+        .supplyAsync(
+            () -> this.segmentEntry(objectName),
+            Thread::startVirtualThread)
+        .thenCompose(packed -> packed != null
+            ? this.getPacked(objectName, packed)
+            : this.openStored(objectName));
   }
 
+  // An object that wasn't packed.
+  private CompletableFuture<InputStream> openStored(
+      String objectName)
+  {
+    try
+    {
+      CompletableFuture<String> etag =
+          this.readCache.isEnabled()
+              ? this.asyncClient
+                  .statObject(StatObjectArgs
+                      .builder()
+                      .bucket(this.bucketName)
+                      .object(objectName)
+                      .build())
+                  .thenApply(
+                      StatObjectResponse::etag)
+              : CompletableFuture
+                  .completedFuture(null);
+
+      return etag.thenCompose(current -> {
+        try
+        {
+          InputStream cached = current == null
+              ? null
+              : this.openCached(objectName,
+                  current);
+          return cached != null
+              ? CompletableFuture
+                  .completedFuture(cached)
+              : this.getAsync(objectName);
+        } catch (IOException e)
+        {
+          throw new CompletionException(e);
+        }
+      });
+    } catch (Exception e)
+    {
+      return CompletableFuture
+          .failedFuture(e);
+    }
+  }
+
+  private CompletableFuture<InputStream> getAsync(
+      String objectName)
+  {
+    LakeObjectEvent event =
+        getEvent(objectName);
+    Timer.Sample sample = Timer.start();
+    // With ranged GETs the first request asks for the first range only,
+    // its Content-Range tells how large the object is.
+    CompletableFuture<GetObjectResponse> response =
+        this.hedgedRequests.send(
+            () -> this.asyncClient.getObject(
+                this.rangedThreshold == null
+                    ? this.getArgs(objectName)
+                    : this.rangeArgs(objectName,
+                        null, 0L,
+                        this.rangedThreshold)));
+    if (this.rangedThreshold != null)
+    {
+      // An empty object has no first range.
+      response = response
+          .exceptionallyCompose(
+              e -> isInvalidRange(e)
+                  ? this.hedgedRequests.send(
+                      () -> this.asyncClient
+                          .getObject(this
+                              .getArgs(
+                                  objectName)))
+                  : CompletableFuture
+                      .failedFuture(e));
+    }
+
+    return this.recorded(response, sample,
+        event)
+        .thenApply(headers -> {
+          try
+          {
+            return this.decode(objectName,
+                headers.headers()
+                    .get("Content-Encoding"),
+                headers.headers().get("ETag"),
+                this.ranged(objectName,
+                    headers),
+                event);
+          } catch (IOException e)
+          {
+            throw new CompletionException(e);
+          }
+        });
+  }
+
+  // A packed object, its byte range of the segment. It isn't cached
+  // locally, the segment's ETag doesn't say whether the range changed.
+  private CompletableFuture<InputStream> getPacked(
+      String objectName, SegmentEntry packed)
+  {
+    LakeObjectEvent event =
+        getEvent(objectName);
+    Timer.Sample sample = Timer.start();
+    return this.recorded(
+        this.hedgedRequests.send(
+            () -> this.asyncClient.getObject(
+                this.rangeArgs(
+                    packed.segmentName(),
+                    null, packed.offset(),
+                    packed.length()
+                        .longValue()))),
+        sample, event)
+        .thenApply(response -> {
+          try
+          {
+            return this.decode(objectName,
+                packed.contentEncoding(), null,
+                response, event);
+          } catch (IOException e)
+          {
+            throw new CompletionException(e);
+          }
+        });
+  }
+
+  // Stops the GET's timer once the headers arrived, a failed GET's event
+  // ends there.
+  private <T> CompletableFuture<T> recorded(
+      CompletableFuture<T> response,
+      Timer.Sample sample,
+      LakeObjectEvent event)
+  {
+    return response.whenComplete(
+        (headers, e) -> {
+          sample.stop(this.metrics
+              .getLakeGetTimer());
+          if (e != null)
+          {
+            commit(event);
+          }
+        });
+  }
+
+  // Where a packed object is, null for one that wasn't or while the
+  // compaction is off.
+  private SegmentEntry segmentEntry(
+      String objectName)
+  {
+    Long rawId = this.segmentIndex == null
+        ? null
+        : RawObjectNames.parseId(objectName);
+    return rawId == null ? null
+        : this.segmentIndex.findByRawId(rawId);
+  }
+
+  // The local copy of an object, decoded, if it has the ETag the lake
+  // has. null on a miss.
+  private InputStream openCached(
+      String objectName, String etag)
+      throws IOException
+  {
+    LocalObjectCache.CachedObject cached =
+        this.readCache.open(objectName, etag);
+    if (cached == null)
+    {
+      return null;
+    }
+    try
+    {
+      return this.codecs
+          .forContentEncoding(
+              cached.contentEncoding())
+          .decode(cached.content());
+    } catch (IOException
+        | RuntimeException e)
+    {
+      cached.content().close();
+      throw e;
+    }
+  }
+
+  // The body of an object larger than the first range, read as the first
+  // range followed by concurrent GETs of the rest. Other bodies as they
+  // are.
+  private InputStream ranged(
+      String objectName,
+      GetObjectResponse response)
+  {
+    Long totalLength =
+        this.rangedThreshold == null ? null
+            : totalLength(response.headers()
+                .get("Content-Range"));
+    if (totalLength == null
+        || totalLength <= this.rangedThreshold)
+    {
+      return response;
+    }
+
+    this.metrics.getLakeGetRanged()
+        .increment();
+    // The ranges must come from the same version of the object.
+    String etag =
+        response.headers().get("ETag");
+    return new RangedObjectStream(response,
+        this.rangedThreshold, totalLength,
+        this.rangedPartSize,
+        this.rangedParallelism,
+        (offset, length) -> this.fetchRange(
+            objectName, etag, offset,
+            length));
+  }
+
+  private CompletableFuture<byte[]> fetchRange(
+      String objectName, String etag,
+      Long offset, Integer length)
+  {
+    this.metrics.getLakeGetRanges()
+        .increment();
+    CompletableFuture<GetObjectResponse> response =
+        this.hedgedRequests
+            .send(() -> this.asyncClient
+                .getObject(this.rangeArgs(
+                    objectName, etag, offset,
+                    length.longValue())));
+    CompletableFuture<byte[]> range =
+        response.thenApplyAsync(body -> {
+          try (body)
+          {
+            byte[] bytes =
+                body.readNBytes(length);
+            if (bytes.length != length)
+            {
+              throw new IOException(
+                  "The range at " + offset
+                      + " ended after "
+                      + bytes.length + " of "
+                      + length + " bytes");
+            }
+            return bytes;
+          } catch (IOException e)
+          {
+            throw new CompletionException(e);
+          }
+        }, Thread::startVirtualThread);
+    // Cancelling the range (the stream was closed before reading it) skips
+    // the read, so the response is closed here to give its connection back.
+    range.whenComplete((bytes, e) -> {
+      if (range.isCancelled())
+      {
+        response.thenAccept(
+            MinIORawDataRepository::closeQuietly);
+      }
+    });
+    return range;
+  }
+
+  private static void closeQuietly(
+      GetObjectResponse response)
+  {
+    try
+    {
+      response.close();
+    } catch (IOException e)
+    {
+      LOG.atDebug().cause(e)
+          .log("Failed to close a dropped range");
+    }
+  }
+
+  // Wraps the body of a GET, counting it and caching it on the way. A body
+  // without an ETag isn't cached.
+  private InputStream decode(
+      String objectName,
+      String contentEncoding, String etag,
+      InputStream content,
+      LakeObjectEvent event)
+      throws IOException
+  {
+    try
+    {
+      InputStream body =
+          new CountingInputStream(content,
+              this.metrics.getLakeGetBytes(),
+              event);
+      if (this.readCache.isEnabled()
+          && etag != null)
+      {
+        body = this.readCache.fill(objectName,
+            etag, contentEncoding, body);
+      }
+      return this.codecs
+          .forContentEncoding(contentEncoding)
+          .decode(body);
+    } catch (IOException
+        | RuntimeException e)
+    {
+      content.close();
+      commit(event);
+      throw e;
+    }
+  }
+
+  @Override
   public Boolean renameObject(
       String oldName, String newName)
   {
+    LakeObjectEvent event =
+        copyEvent(oldName, newName);
     try
     {
       // Copying the object to one with a new name.
       this.lakeClient.copyObject(
-          CopyObjectArgs.builder()
-              .source(CopySource
-                  .builder()
-                  .bucket(
-                      this.bucketName)
-                  .object(oldName)
-                  .build())
-              .bucket(bucketName)
-              .object(newName).build());
+          this.copyArgs(oldName, newName));
+      event.success = true;
+      commit(event);
 
       // Deleting the old object.
       this.lakeClient.removeObject(
-          RemoveObjectArgs.builder()
-              .bucket(bucketName)
-              .object(oldName).build());
+          this.removeArgs(oldName));
+      this.readCache.invalidate(oldName);
 
       return true;
     } catch (Exception e)
     {
-      e.printStackTrace();
+      // A failed remove comes after the copy's event.
+      if (!event.success)
+      {
+        commit(event);
+      }
+      LOG.atWarn().file(oldName).cause(e)
+          .log("Failed to rename the object to {}",
+              newName);
       return false;
     }
   }
 
+  @Override
+  public Boolean isCompacted(
+      String fileName)
+  {
+    return this.segmentEntry(fileName) != null;
+  }
+
+  /**
+   * Packs the small objects a scan selects into segments, objectsPerSegment at a time. Segments and
+   * objects that weren't named after a raw id are left alone. An object is only removed once its
+   * segment is uploaded and its index entry saved, so a failure leaves it where it was.
+   */
+  @Override
+  public Integer compact(ObjectScan scan,
+      Long maxObjectBytes,
+      Integer objectsPerSegment)
+  {
+    if (this.segmentIndex == null)
+    {
+      return 0;
+    }
+    if (objectsPerSegment < 2)
+    {
+      throw new IllegalArgumentException(
+          "A segment must hold at least 2 objects");
+    }
+
+    List<String> batch =
+        new ArrayList<>(objectsPerSegment);
+    Integer packed = 0;
+    for (Result<Item> result : this.lakeClient
+        .listObjects(ListObjectsArgs.builder()
+            .bucket(this.bucketName)
+            .prefix(scan.prefix() == null ? ""
+                : scan.prefix())
+            .recursive(true)
+            .maxKeys(this.listPageSize)
+            .build()))
+    {
+      Item item;
+      try
+      {
+        item = result.get();
+      } catch (Exception e)
+      {
+        throw new RuntimeException(
+            "Failed to list raw data with prefix: "
+                + scan.prefix(),
+            e);
+      }
+
+      if (item.isDir()
+          || item.isDeleteMarker()
+          || item.size() == 0
+          || item.size() > maxObjectBytes
+          || RawObjectNames.parseId(
+              item.objectName()) == null
+          || !scan.includes(
+              item.lastModified() == null
+                  ? null
+                  : item.lastModified()
+                      .toInstant()))
+      {
+        continue;
+      }
+      batch.add(item.objectName());
+      if (batch.size() == objectsPerSegment)
+      {
+        packed += this.pack(batch);
+        batch.clear();
+      }
+    }
+    // A single object isn't worth a segment.
+    if (batch.size() > 1)
+    {
+      packed += this.pack(batch);
+    }
+    return packed;
+  }
+
+  // Uploads a segment of objectNames, then indexes and removes the objects
+  // packed into it. The index is what the uploaded footer reads back as.
+  // Returns the number packed.
+  private Integer pack(
+      List<String> objectNames)
+  {
+    String segmentName = RawSegments.name(
+        RawObjectNames
+            .parseId(objectNames.get(0)),
+        System.currentTimeMillis());
+    Long footerOffset;
+    Long segmentBytes;
+    List<SegmentEntry> entries =
+        new ArrayList<>(objectNames.size());
+    List<String> packedNames =
+        new ArrayList<>(objectNames.size());
+    LakeObjectEvent event =
+        new LakeObjectEvent(
+            LakeObjectEvent.PUT, segmentName);
+    event.begin();
+
+    try (MinIOUploadStream upload =
+        new MinIOUploadStream(
+            this.asyncClient,
+            this.bucketName, segmentName,
+            "application/octet-stream", null,
+            this.partSize,
+            this.maxParallelParts))
+    {
+      Long offset = 0L;
+      for (String objectName : objectNames)
+      {
+        SegmentEntry entry = this.copyInto(
+            upload, segmentName, offset,
+            objectName);
+        if (entry != null)
+        {
+          entries.add(entry);
+          packedNames.add(objectName);
+          offset += entry.length();
+        }
+      }
+      // Closing without finish() aborts the upload.
+      if (entries.isEmpty())
+      {
+        return 0;
+      }
+      footerOffset = offset;
+      RawSegments.writeFooter(upload,
+          footerOffset, entries);
+      upload.finish();
+      segmentBytes = upload.getTotalBytes();
+      event.bytes = segmentBytes;
+      event.success = true;
+    } catch (Exception e)
+    {
+      throw new RuntimeException(
+          "Failed to write the segment "
+              + segmentName,
+          e);
+    } finally
+    {
+      commit(event);
+    }
+
+    try
+    {
+      List<SegmentEntry> footer =
+          this.readFooter(segmentName,
+              footerOffset, segmentBytes);
+      if (footer.size() != entries.size())
+      {
+        throw new IOException(
+            "The footer of " + segmentName
+                + " holds " + footer.size()
+                + " of " + entries.size()
+                + " objects");
+      }
+      this.segmentIndex.saveAll(footer);
+    } catch (Exception e)
+    {
+      // Nothing may point at the segment, a batch that failed half way
+      // left some of its rows. Rows that can't be deleted keep the segment,
+      // they still point at the right bytes.
+      try
+      {
+        this.segmentIndex
+            .deleteBySegmentName(segmentName);
+        this.lakeClient.removeObject(
+            this.removeArgs(segmentName));
+      } catch (Exception cleanupFailure)
+      {
+        e.addSuppressed(cleanupFailure);
+      }
+      throw new RuntimeException(
+          "Failed to index the segment "
+              + segmentName,
+          e);
+    }
+    this.metrics.getCompactionSegments()
+        .increment();
+
+    // Reads of the objects go to the segment from here on, an object that
+    // couldn't be removed is only packed again by a later run.
+    for (String objectName : packedNames)
+    {
+      try
+      {
+        this.lakeClient.removeObject(
+            this.removeArgs(objectName));
+        this.readCache.invalidate(objectName);
+      } catch (Exception e)
+      {
+        LOG.atWarn().file(objectName).cause(e)
+            .log("Failed to remove the object packed into {}",
+                segmentName);
+      }
+    }
+    this.metrics.getCompactionObjects()
+        .increment(entries.size());
+    return entries.size();
+  }
+
+  // The entries of an uploaded segment, from one GET of its footer and
+  // trailer.
+  private List<SegmentEntry> readFooter(
+      String segmentName, Long footerOffset,
+      Long segmentBytes)
+      throws Exception
+  {
+    try (GetObjectResponse response =
+        this.lakeClient.getObject(
+            this.rangeArgs(segmentName, null,
+                footerOffset,
+                segmentBytes - footerOffset)))
+    {
+      return RawSegments.readFooter(
+          segmentName,
+          response.readAllBytes(),
+          footerOffset);
+    }
+  }
+
+  // Appends the body of an object as it's stored (compressed) to segment,
+  // null if the object couldn't be read. A body that fails half way fails
+  // the segment.
+  private SegmentEntry copyInto(
+      OutputStream segment,
+      String segmentName, Long offset,
+      String objectName)
+      throws IOException
+  {
+    GetObjectResponse response;
+    try
+    {
+      response = this.lakeClient.getObject(
+          this.getArgs(objectName));
+    } catch (Exception e)
+    {
+      LOG.atWarn().file(objectName).cause(e)
+          .log("Skipping an object the compaction couldn't read");
+      return null;
+    }
+
+    try (response)
+    {
+      Long length =
+          response.transferTo(segment);
+      String etag =
+          response.headers().get("ETag");
+      String lastModified = response
+          .headers().get("Last-Modified");
+      // The version stat() returned before, so watermarks still match.
+      return new SegmentEntry(
+          RawObjectNames.parseId(objectName),
+          segmentName, offset,
+          length.intValue(),
+          response.headers()
+              .get("Content-Encoding"),
+          new ObjectVersion(
+              etag == null ? null
+                  : etag.replace("\"", ""),
+              lastModified == null ? null
+                  : ZonedDateTime.parse(
+                      lastModified,
+                      DateTimeFormatter.RFC_1123_DATE_TIME)
+                      .toInstant()));
+    }
+  }
+
+  private GetObjectArgs getArgs(
+      String objectName)
+  {
+    return GetObjectArgs.builder()
+        .bucket(this.bucketName)
+        .object(objectName).build();
+  }
+
+  // etag may be null.
+  private GetObjectArgs rangeArgs(
+      String objectName, String etag,
+      Long offset, Long length)
+  {
+    GetObjectArgs.Builder args =
+        GetObjectArgs.builder()
+            .bucket(this.bucketName)
+            .object(objectName)
+            .offset(offset).length(length);
+    if (etag != null)
+    {
+      args.matchETag(etag);
+    }
+    return args.build();
+  }
+
+  private CopyObjectArgs copyArgs(
+      String oldName, String newName)
+  {
+    return CopyObjectArgs.builder()
+        .source(CopySource.builder()
+            .bucket(this.bucketName)
+            .object(oldName).build())
+        .bucket(this.bucketName)
+        .object(newName).build();
+  }
+
+  private RemoveObjectArgs removeArgs(
+      String objectName)
+  {
+    return RemoveObjectArgs.builder()
+        .bucket(this.bucketName)
+        .object(objectName).build();
+  }
+
+  private static LakeObjectEvent getEvent(
+      String objectName)
+  {
+    LakeObjectEvent event =
+        new LakeObjectEvent(
+            LakeObjectEvent.GET, objectName);
+    Long rawId =
+        RawObjectNames.parseId(objectName);
+    event.id = rawId == null ? 0L : rawId;
+    event.begin();
+    return event;
+  }
+
+  private static LakeObjectEvent copyEvent(
+      String oldName, String newName)
+  {
+    LakeObjectEvent event =
+        new LakeObjectEvent(
+            LakeObjectEvent.COPY, oldName);
+    event.destination = newName;
+    Long rawId =
+        RawObjectNames.parseId(newName);
+    event.id = rawId == null ? 0L : rawId;
+    event.begin();
+    return event;
+  }
+
+  // The object size of a "bytes first-last/size" Content-Range, null
+  // without one.
+  private static Long totalLength(
+      String contentRange)
+  {
+    if (contentRange == null)
+    {
+      return null;
+    }
+    String size = contentRange.substring(
+        contentRange.lastIndexOf('/') + 1)
+        .trim();
+    return size.equals("*") ? null
+        : Long.parseLong(size);
+  }
+
+  private static Boolean isInvalidRange(
+      Throwable e)
+  {
+    return unwrap(
+        e) instanceof ErrorResponseException error
+        && "InvalidRange".equals(
+            error.errorResponse().code());
+  }
+
+  // What a future failed with, without the CompletionException around it.
+  private static Throwable unwrap(
+      Throwable e)
+  {
+    return e instanceof CompletionException
+        && e.getCause() != null
+            ? e.getCause()
+            : e;
+  }
+
+  // Ends the event and writes it if a recording takes it, a no-op otherwise.
+  private static void commit(
+      LakeObjectEvent event)
+  {
+    event.end();
+    if (event.shouldCommit())
+    {
+      event.commit();
+    }
+  }
+
 }
@@ -0,0 +1,255 @@
+package org.webcat.ecommerce.datahandler.infrastructure.database;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+import io.minio.messages.Part;
+
+import org.webcat.ecommerce.datahandler.infrastructure.logging.Logger;
+
+/**
+ * {@link MinIOUploadStream}
+ * <p>
+ * An output stream that uploads what's written to it as a MinIO object, without ever holding more
+ * than a few parts in memory.
+ * </p>
+ * <p>
+ * <li>Bytes are collected in a buffer of partSize bytes.</li>
+ * <li>An object that fits in one buffer is sent with a single PUT by finish(), with its exact
+ * byte count.</li>
+ * <li>Otherwise every full buffer becomes a multipart part that's uploaded right away, with at
+ * most maxParallelParts parts in flight (writers wait for a free slot).</li>
+ * <li>close() without finish() (a failed serialization) aborts the upload, nothing is
+ * stored.</li>
+ * </p>
+ */
+class MinIOUploadStream
+    extends OutputStream
+{
+
+  private static final Logger LOG =
+      Logger.get(MinIOUploadStream.class);
+
+  private final MinIOMultipartClient client;
+  private final String bucket;
+  private final String object;
+  private final String contentType;
+  // Null for objects stored as they are.
+  private final String contentEncoding;
+  private final Integer partSize;
+  private final Semaphore partsInFlight;
+
+  private byte[] buffer;
+  private Integer count = 0;
+  private Long totalBytes = 0L;
+
+  // Set once the object is larger than a part.
+  private String uploadId;
+  private final List<CompletableFuture<Part>> parts =
+      new ArrayList<>();
+  private Boolean finished = false;
+  private Boolean closed = false;
+
+  MinIOUploadStream(
+      MinIOMultipartClient client,
+      String bucket, String object,
+      String contentType,
+      String contentEncoding,
+      Integer partSize,
+      Integer maxParallelParts)
+  {
+    this.client = client;
+    this.bucket = bucket;
+    this.object = object;
+    this.contentType = contentType;
+    this.contentEncoding =
+        contentEncoding;
+    this.partSize = partSize;
+    this.partsInFlight =
+        new Semaphore(maxParallelParts);
+    this.buffer = new byte[partSize];
+  }
+
+  @Override
+  public void write(int b)
+      throws IOException
+  {
+    if (this.count == this.buffer.length)
+    {
+      this.sendPart(false);
+    }
+    this.buffer[this.count++] = (byte) b;
+    this.totalBytes++;
+  }
+
+  @Override
+  public void write(byte[] bytes,
+      int offset, int length)
+      throws IOException
+  {
+    while (length > 0)
+    {
+      if (this.count == this.buffer.length)
+      {
+        this.sendPart(false);
+      }
+      Integer chunk = Math.min(length,
+          this.buffer.length - this.count);
+      System.arraycopy(bytes, offset,
+          this.buffer, this.count, chunk);
+      this.count += chunk;
+      this.totalBytes += chunk;
+      offset += chunk;
+      length -= chunk;
+    }
+  }
+
+  // The number of bytes written so far, which is the size of the object.
+  Long getTotalBytes()
+  {
+    return this.totalBytes;
+  }
+
+  /**
+   * Uploads what's left and completes the object.
+   */
+  void finish()
+      throws IOException
+  {
+    try
+    {
+      if (this.uploadId == null)
+      {
+        this.client.putBytes(this.bucket,
+            this.object, this.contentType,
+            this.contentEncoding,
+            this.buffer, this.count);
+      } else
+      {
+        if (this.count > 0)
+        {
+          this.sendPart(true);
+        }
+        Part[] completed =
+            new Part[this.parts.size()];
+        for (Integer i =
+            0; i < completed.length; i++)
+        {
+          completed[i] =
+              this.parts.get(i).get();
+        }
+        this.client.completeUpload(
+            this.bucket, this.object,
+            this.uploadId, completed);
+      }
+      this.finished = true;
+    } catch (Exception e)
+    {
+      throw new IOException(
+          "Failed to upload " + this.object,
+          e);
+    }
+  }
+
+  @Override
+  public void close()
+  {
+    if (this.closed)
+    {
+      return;
+    }
+    this.closed = true;
+    this.buffer = null;
+
+    if (!this.finished
+        && this.uploadId != null)
+    {
+      try
+      {
+        // Parts that are still in flight are dropped by the abort too.
+        this.client.abortUpload(this.bucket,
+            this.object, this.uploadId);
+      } catch (Exception e)
+      {
+        LOG.atWarn().file(this.object)
+            .cause(e)
+            .log("Failed to abort the upload");
+      }
+    }
+  }
+
+  private void sendPart(Boolean last)
+      throws IOException
+  {
+    // Stops writing early if a part already failed.
+    for (CompletableFuture<Part> sent : this.parts)
+    {
+      if (sent.isCompletedExceptionally())
+      {
+        throw new IOException(
+            "Failed to upload a part of "
+                + this.object);
+      }
+    }
+
+    try
+    {
+      if (this.uploadId == null)
+      {
+        this.uploadId =
+            this.client.createUpload(
+                this.bucket, this.object,
+                this.contentType,
+                this.contentEncoding);
+      }
+
+      // A full buffer is handed over as is, only the last part is copied
+      // to its exact size.
+      byte[] data =
+          this.count == this.buffer.length
+              ? this.buffer
+              : Arrays.copyOf(this.buffer,
+                  this.count);
+
+      this.partsInFlight.acquire();
+      CompletableFuture<Part> part;
+      try
+      {
+        part = this.client.uploadPart(
+            this.bucket, this.object,
+            this.uploadId,
+            this.parts.size() + 1, data);
+      } catch (Exception e)
+      {
+        this.partsInFlight.release();
+        throw e;
+      }
+      part.whenComplete((done,
+          failure) -> this.partsInFlight
+              .release());
+      this.parts.add(part);
+
+      this.buffer = last ? null
+          : new byte[this.partSize];
+      this.count = 0;
+    } catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new IOException(
+          "Interrupted while uploading "
+              + this.object,
+          e);
+    } catch (Exception e)
+    {
+      throw new IOException(
+          "Failed to upload a part of "
+              + this.object,
+          e);
+    }
+  }
+}
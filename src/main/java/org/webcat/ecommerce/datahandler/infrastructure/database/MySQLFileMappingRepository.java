@@ -0,0 +1,153 @@
+package org.webcat.ecommerce.datahandler.infrastructure.database;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.webcat.ecommerce.datahandler.domain.model.entities.FileMapping;
+import org.webcat.ecommerce.datahandler.infrastructure.logging.Logger;
+import org.webcat.ecommerce.datahandler.infrastructure.repository.FileMappingRepository;
+import org.webcat.ecommerce.datahandler.infrastructure.repository.JPAFileMappingRepo;
+
+/**
+ * {@link MySQLFileMappingRepository}
+ * <p>
+ * Reads and deletes go through JPA, inserts go through plain JDBC batches (the identity id makes
+ * Hibernate insert one row at a time).
+ * </p>
+ * <p>
+ * The generated ids aren't read back, mappings are always looked up by name.
+ * </p>
+ */
+@Repository
+public class MySQLFileMappingRepository
+    implements FileMappingRepository
+{
+
+  private static final Logger LOG =
+      Logger.get(MySQLFileMappingRepository.class);
+
+  private static final String INSERT_SQL =
+      "insert into file_mapping (original_name, new_name) values (?, ?)";
+
+  private final JPAFileMappingRepo jpaRepo;
+  private final JdbcTemplate jdbcTemplate;
+
+  // The number of rows sent to the DB in one round-trip.
+  private final Integer batchSize;
+
+  public MySQLFileMappingRepository(
+      JPAFileMappingRepo jpaRepo,
+      JdbcTemplate jdbcTemplate,
+      @Value("${etl.load.jdbc-batch-size:500}") Integer batchSize)
+  {
+    if (batchSize < 1)
+    {
+      throw new IllegalArgumentException(
+          "JDBC batch size must be positive");
+    }
+
+    this.jpaRepo = jpaRepo;
+    this.jdbcTemplate = jdbcTemplate;
+    this.batchSize = batchSize;
+  }
+
+  @Override
+  public FileMapping findByOriginalName(
+      String originalName)
+  {
+    return this.jpaRepo
+        .findByOriginalName(originalName);
+  }
+
+  @Override
+  public FileMapping findByNewName(
+      String newName)
+  {
+    return this.jpaRepo
+        .findByNewName(newName);
+  }
+
+  @Override
+  public Boolean save(
+      FileMapping fileMapping)
+  {
+    return this.saveAll(
+        List.of(fileMapping))[0];
+  }
+
+  @Override
+  public Boolean[] saveAll(
+      List<FileMapping> fileMappings)
+  {
+    Boolean[] results =
+        new Boolean[fileMappings.size()];
+
+    for (Integer start =
+        0; start < fileMappings
+            .size(); start += this.batchSize)
+    {
+      Integer end = Math.min(
+          start + this.batchSize,
+          fileMappings.size());
+      List<FileMapping> batch =
+          fileMappings.subList(start, end);
+
+      try
+      {
+        this.jdbcTemplate.batchUpdate(
+            INSERT_SQL, batch,
+            batch.size(),
+            (statement, row) -> {
+              statement.setString(1,
+                  row.getOriginalName());
+              statement.setString(2,
+                  row.getNewName());
+            });
+        Arrays.fill(results, start, end,
+            true);
+      } catch (DataAccessException e)
+      {
+        // Same as for processed data, finding the failed rows one by one.
+        for (Integer i = start; i < end; i++)
+        {
+          results[i] = this.insertRow(
+              fileMappings.get(i));
+        }
+      }
+    }
+
+    return results;
+  }
+
+  @Override
+  public Integer deleteByNewName(
+      String newName)
+  {
+    return this.jpaRepo
+        .deleteByNewName(newName);
+  }
+
+  private Boolean insertRow(
+      FileMapping row)
+  {
+    try
+    {
+      this.jdbcTemplate.update(INSERT_SQL,
+          row.getOriginalName(),
+          row.getNewName());
+      return true;
+    } catch (DataAccessException e)
+    {
+      LOG.atWarn()
+          .file(row.getOriginalName())
+          .log("Failed to save the name mapping: {}",
+              e.getMostSpecificCause()
+                  .getMessage());
+      return false;
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package org.webcat.ecommerce.datahandler.infrastructure.database;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ObjectVersion;
+import org.webcat.ecommerce.datahandler.infrastructure.repository.ObjectWatermarkRepository;
+
+/**
+ * {@link MySQLObjectWatermarkRepository}
+ * <p>
+ * Watermarks in the raw_object_watermarks table, through plain JDBC: lookups are chunked "in"
+ * queries and saves are batched upserts.
+ * </p>
+ */
+@Repository
+public class MySQLObjectWatermarkRepository
+    implements ObjectWatermarkRepository
+{
+
+  private static final String UPSERT_SQL =
+      "insert into raw_object_watermarks (object_name, etag, last_modified) values (?, ?, ?) as new"
+          + " on duplicate key update etag = new.etag, last_modified = new.last_modified";
+
+  // Names per "in (...)" lookup.
+  private static final Integer LOOKUP_CHUNK =
+      1000;
+
+  private final JdbcTemplate jdbcTemplate;
+  private final Integer batchSize;
+
+  public MySQLObjectWatermarkRepository(
+      JdbcTemplate jdbcTemplate,
+      @Value("${etl.load.jdbc-batch-size:500}") Integer batchSize)
+  {
+    if (batchSize < 1)
+    {
+      throw new IllegalArgumentException(
+          "JDBC batch size must be positive");
+    }
+
+    this.jdbcTemplate = jdbcTemplate;
+    this.batchSize = batchSize;
+  }
+
+  @Override
+  public Map<String, ObjectVersion> findByObjectNames(
+      List<String> objectNames)
+  {
+    Map<String, ObjectVersion> versions =
+        new HashMap<>();
+    for (Integer start =
+        0; start < objectNames
+            .size(); start += LOOKUP_CHUNK)
+    {
+      List<String> chunk =
+          objectNames.subList(start,
+              Math.min(start + LOOKUP_CHUNK,
+                  objectNames.size()));
+      this.jdbcTemplate.query(
+          "select object_name, etag, last_modified from raw_object_watermarks where object_name in ("
+              + String.join(",",
+                  Collections.nCopies(
+                      chunk.size(), "?"))
+              + ")",
+          (RowCallbackHandler) row -> {
+            Timestamp lastModified =
+                row.getTimestamp(3);
+            versions.put(row.getString(1),
+                new ObjectVersion(
+                    row.getString(2),
+                    lastModified == null
+                        ? null
+                        : lastModified
+                            .toInstant()));
+          }, chunk.toArray());
+    }
+    return versions;
+  }
+
+  @Override
+  public void saveAll(
+      Map<String, ObjectVersion> versions)
+  {
+    List<Map.Entry<String, ObjectVersion>> rows =
+        new ArrayList<>(versions.entrySet());
+    this.jdbcTemplate.batchUpdate(
+        UPSERT_SQL, rows, this.batchSize,
+        (statement, row) -> {
+          statement.setString(1,
+              row.getKey());
+          statement.setString(2,
+              row.getValue().etag());
+          statement.setTimestamp(3,
+              row.getValue()
+                  .lastModified() == null
+                      ? null
+                      : Timestamp.from(row
+                          .getValue()
+                          .lastModified()));
+        });
+  }
+}
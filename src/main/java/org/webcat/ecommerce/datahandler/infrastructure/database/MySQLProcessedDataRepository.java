@@ -1,24 +1,101 @@
 package org.webcat.ecommerce.datahandler.infrastructure.database;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.webcat.ecommerce.datahandler.domain.model.entities.ProcessedData;
+import org.webcat.ecommerce.datahandler.infrastructure.logging.Logger;
+import org.webcat.ecommerce.datahandler.infrastructure.profiling.SaveEvent;
 import org.webcat.ecommerce.datahandler.infrastructure.repository.JPAProcessedDataRepo;
 import org.webcat.ecommerce.datahandler.infrastructure.repository.ProcessedDataRepository;
+import org.webcat.ecommerce.datahandler.shared.helpers.SnowflakeIDGenerator;
 
+/**
+ * {@link MySQLProcessedDataRepository}
+ * <p>
+ * Reads go through JPA, writes go through plain JDBC batches.
+ * </p>
+ * <p>
+ * <li>Ids are snowflake ids assigned before the insert, so rows can be sent in batches (an
+ * identity id forces Hibernate to insert one row at a time to read the id back).</li>
+ * <li>A batch is inserted in one transaction. The driver sends a large batch as several multi-row
+ * inserts, so a failure rolls back the ones already sent, and then its rows are inserted one by
+ * one to find out which of them failed.</li>
+ * <li>The rows a reloaded object had before (ids below the replaceBefore of its new rows) are
+ * deleted in the transaction that inserts the new ones, a failed reload keeps them.</li>
+ * <li>Every batch is recorded as a {@link SaveEvent} while a flight recording runs.</li>
+ * </p>
+ */
 @Repository
 public class MySQLProcessedDataRepository
     implements ProcessedDataRepository
 {
 
+  private static final Logger LOG =
+      Logger.get(MySQLProcessedDataRepository.class);
+
+  // processed_at is filled in by the DB. The json goes as UTF-8 bytes, MySQL
+  // only takes them into a JSON column once they're given a charset.
+  private static final String INSERT_SQL =
+      "insert into processed_data (id, raw_data_id, record_index, transformed_data, status) values (?, ?, ?, convert(? using utf8mb4), ?)";
+
+  private static final String DELETE_REPLACED_SQL =
+      "delete from processed_data where raw_data_id = ? and id < ?";
+
+  private static final String RAW_IDS_SQL =
+      "select distinct raw_data_id from processed_data";
+
+  // Ids per "in (...)" lookup.
+  private static final Integer LOOKUP_CHUNK =
+      1000;
+
   private final JPAProcessedDataRepo jpaRepo;
+  private final JdbcTemplate jdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+  private final SnowflakeIDGenerator snowflakeIDGenerator;
+
+  // The number of rows sent to the DB in one round-trip.
+  private final Integer batchSize;
 
   // This is autowired, e.g. spring creates a singleton for the
   // implementation of the jpa repo interface and passes the
   // singleton here.
   public MySQLProcessedDataRepository(
-      JPAProcessedDataRepo jpaRepo)
+      JPAProcessedDataRepo jpaRepo,
+      JdbcTemplate jdbcTemplate,
+      PlatformTransactionManager transactionManager,
+      SnowflakeIDGenerator snowflakeIDGenerator,
+      @Value("${etl.load.jdbc-batch-size:500}") Integer batchSize)
   {
+    if (batchSize < 1)
+    {
+      throw new IllegalArgumentException(
+          "JDBC batch size must be positive");
+    }
+
     this.jpaRepo = jpaRepo;
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate =
+        new TransactionTemplate(
+            transactionManager);
+    this.snowflakeIDGenerator =
+        snowflakeIDGenerator;
+    this.batchSize = batchSize;
   }
 
   @Override
@@ -28,10 +105,226 @@ public class MySQLProcessedDataRepository
         .orElse(null);
   }
 
+  @Override
   public Boolean save(
       ProcessedData processedData)
   {
-    return this.jpaRepo
-        .save(processedData) != null;
+    return this.saveAll(
+        List.of(processedData))[0];
+  }
+
+  @Override
+  public Boolean[] saveAll(
+      List<ProcessedData> processedData)
+  {
+    Boolean[] results =
+        new Boolean[processedData.size()];
+
+    // Reserving the ids of the whole call at once.
+    long[] ids = this.snowflakeIDGenerator
+        .generateIds(processedData.size());
+    for (Integer i =
+        0; i < processedData.size(); i++)
+    {
+      if (processedData.get(i)
+          .getId() == null)
+      {
+        processedData.get(i)
+            .setId(ids[i]);
+      }
+    }
+
+    for (Integer start =
+        0; start < processedData
+            .size(); start += this.batchSize)
+    {
+      Integer end = Math.min(
+          start + this.batchSize,
+          processedData.size());
+      List<ProcessedData> batch =
+          processedData.subList(start, end);
+      SaveEvent event = new SaveEvent();
+      event.begin();
+
+      try
+      {
+        this.transactionTemplate
+            .executeWithoutResult(
+                status -> this.insertBatch(
+                    batch));
+        Arrays.fill(results, start, end,
+            true);
+      } catch (DataAccessException e)
+      {
+        // Nothing of the batch is left in the table, retrying row by row
+        // tells which rows are at fault.
+        for (Integer i = start; i < end; i++)
+        {
+          results[i] = this.insertRow(
+              processedData.get(i));
+        }
+      }
+
+      event.end();
+      if (event.shouldCommit())
+      {
+        commit(event, batch, results,
+            start);
+      }
+    }
+
+    return results;
+  }
+
+  // The batch's details are only gathered for a recording.
+  private static void commit(
+      SaveEvent event,
+      List<ProcessedData> batch,
+      Boolean[] results, Integer start)
+  {
+    Set<Long> rawDataIds =
+        new LinkedHashSet<>();
+    for (Integer i = 0; i < batch.size(); i++)
+    {
+      ProcessedData row = batch.get(i);
+      rawDataIds.add(row.getRawDataId());
+      byte[] bytes =
+          row.getTransformedBytes();
+      event.bytes +=
+          bytes == null ? 0 : bytes.length;
+      if (!results[start + i])
+      {
+        event.failedRows++;
+      }
+    }
+    event.rows = batch.size();
+    event.rawDataIds =
+        rawDataIds.toString();
+    event.commit();
+  }
+
+  @Override
+  public void forEachRawDataId(
+      Consumer<Long> consumer)
+  {
+    // A fetch size of MIN_VALUE makes Connector/J stream the rows instead
+    // of buffering the whole result.
+    this.jdbcTemplate.query(connection -> {
+      PreparedStatement statement =
+          connection.prepareStatement(
+              RAW_IDS_SQL,
+              ResultSet.TYPE_FORWARD_ONLY,
+              ResultSet.CONCUR_READ_ONLY);
+      statement.setFetchSize(
+          Integer.MIN_VALUE);
+      return statement;
+    }, (RowCallbackHandler) row -> consumer
+        .accept(row.getLong(1)));
+  }
+
+  @Override
+  public Set<Long> findLoadedRawDataIds(
+      List<Long> rawDataIds)
+  {
+    Set<Long> loaded = new HashSet<>();
+    for (Integer start =
+        0; start < rawDataIds
+            .size(); start += LOOKUP_CHUNK)
+    {
+      List<Long> chunk =
+          rawDataIds.subList(start,
+              Math.min(start + LOOKUP_CHUNK,
+                  rawDataIds.size()));
+      String placeholders = String.join(
+          ",", Collections.nCopies(
+              chunk.size(), "?"));
+      this.jdbcTemplate.query(
+          RAW_IDS_SQL
+              + " where raw_data_id in ("
+              + placeholders + ")",
+          (RowCallbackHandler) row -> loaded
+              .add(row.getLong(1)),
+          chunk.toArray());
+    }
+    return loaded;
+  }
+
+  private void insertBatch(
+      List<ProcessedData> batch)
+  {
+    this.deleteReplaced(batch);
+    this.jdbcTemplate.batchUpdate(
+        INSERT_SQL, batch, batch.size(),
+        (statement, row) -> {
+          statement.setLong(1, row.getId());
+          statement.setLong(2,
+              row.getRawDataId());
+          statement.setInt(3,
+              row.getRecordIndex());
+          statement.setBytes(4,
+              row.getTransformedBytes());
+          statement.setString(5,
+              row.getStatus().name());
+        });
+  }
+
+  // The older rows of the raw data the rows of a reload replace. The new
+  // rows of one object share their replaceBefore, so deleting again for a
+  // later batch of the object leaves its earlier ones alone.
+  private void deleteReplaced(
+      List<ProcessedData> rows)
+  {
+    List<ProcessedData> replacing =
+        new ArrayList<>();
+    for (ProcessedData row : rows)
+    {
+      if (row.getReplaceBefore() != null)
+      {
+        replacing.add(row);
+      }
+    }
+    if (replacing.isEmpty())
+    {
+      return;
+    }
+
+    this.jdbcTemplate.batchUpdate(
+        DELETE_REPLACED_SQL, replacing,
+        replacing.size(),
+        (statement, row) -> {
+          statement.setLong(1,
+              row.getRawDataId());
+          statement.setLong(2,
+              row.getReplaceBefore());
+        });
+  }
+
+  private Boolean insertRow(
+      ProcessedData row)
+  {
+    try
+    {
+      this.transactionTemplate
+          .executeWithoutResult(status -> {
+            this.deleteReplaced(List.of(row));
+            this.jdbcTemplate.update(
+                INSERT_SQL, row.getId(),
+                row.getRawDataId(),
+                row.getRecordIndex(),
+                row.getTransformedBytes(),
+                row.getStatus().name());
+          });
+      return true;
+    } catch (DataAccessException e)
+    {
+      LOG.atWarn().id(row.getRawDataId())
+          .stage("load")
+          .log("Failed to save processed data: {}",
+              e.getMostSpecificCause()
+                  .getMessage());
+      // The row wasn't saved so it has no id.
+      row.setId(null);
+      return false;
+    }
   }
 }
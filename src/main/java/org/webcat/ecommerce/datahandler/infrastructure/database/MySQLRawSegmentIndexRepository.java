@@ -0,0 +1,131 @@
+package org.webcat.ecommerce.datahandler.infrastructure.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ObjectVersion;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.SegmentEntry;
+import org.webcat.ecommerce.datahandler.infrastructure.repository.RawSegmentIndexRepository;
+
+/**
+ * {@link MySQLRawSegmentIndexRepository}
+ * <p>
+ * Segment entries in the raw_segment_index table, through plain JDBC like the watermarks. Saves
+ * are batched upserts, so packing an object again moves its entry.
+ * </p>
+ */
+@Repository
+public class MySQLRawSegmentIndexRepository
+    implements RawSegmentIndexRepository
+{
+
+  private static final String COLUMNS =
+      "raw_id, segment_name, byte_offset, byte_length, content_encoding, etag, last_modified";
+
+  private static final String UPSERT_SQL =
+      "insert into raw_segment_index ("
+          + COLUMNS
+          + ") values (?, ?, ?, ?, ?, ?, ?) as new"
+          + " on duplicate key update segment_name = new.segment_name,"
+          + " byte_offset = new.byte_offset, byte_length = new.byte_length,"
+          + " content_encoding = new.content_encoding, etag = new.etag,"
+          + " last_modified = new.last_modified";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final Integer batchSize;
+
+  public MySQLRawSegmentIndexRepository(
+      JdbcTemplate jdbcTemplate,
+      @Value("${etl.load.jdbc-batch-size:500}") Integer batchSize)
+  {
+    if (batchSize < 1)
+    {
+      throw new IllegalArgumentException(
+          "JDBC batch size must be positive");
+    }
+
+    this.jdbcTemplate = jdbcTemplate;
+    this.batchSize = batchSize;
+  }
+
+  @Override
+  public SegmentEntry findByRawId(
+      Long rawId)
+  {
+    List<SegmentEntry> entries =
+        this.jdbcTemplate.query(
+            "select " + COLUMNS
+                + " from raw_segment_index where raw_id = ?",
+            MySQLRawSegmentIndexRepository::toEntry,
+            rawId);
+    return entries.isEmpty() ? null
+        : entries.get(0);
+  }
+
+  @Override
+  public List<SegmentEntry> findBySegmentName(
+      String segmentName)
+  {
+    return this.jdbcTemplate.query(
+        "select " + COLUMNS
+            + " from raw_segment_index where segment_name = ? order by byte_offset",
+        MySQLRawSegmentIndexRepository::toEntry,
+        segmentName);
+  }
+
+  @Override
+  public void saveAll(
+      List<SegmentEntry> entries)
+  {
+    this.jdbcTemplate.batchUpdate(
+        UPSERT_SQL, entries, this.batchSize,
+        (statement, entry) -> {
+          statement.setLong(1,
+              entry.rawId());
+          statement.setString(2,
+              entry.segmentName());
+          statement.setLong(3,
+              entry.offset());
+          statement.setInt(4,
+              entry.length());
+          statement.setString(5,
+              entry.contentEncoding());
+          statement.setString(6,
+              entry.version() == null ? null
+                  : entry.version().etag());
+          statement.setTimestamp(7,
+              entry.lastModified() == null
+                  ? null
+                  : Timestamp.from(
+                      entry.lastModified()));
+        });
+  }
+
+  @Override
+  public Integer deleteBySegmentName(
+      String segmentName)
+  {
+    return this.jdbcTemplate.update(
+        "delete from raw_segment_index where segment_name = ?",
+        segmentName);
+  }
+
+  private static SegmentEntry toEntry(
+      ResultSet row, int rowNumber)
+      throws SQLException
+  {
+    Timestamp lastModified =
+        row.getTimestamp(7);
+    return new SegmentEntry(row.getLong(1),
+        row.getString(2), row.getLong(3),
+        row.getInt(4), row.getString(5),
+        new ObjectVersion(row.getString(6),
+            lastModified == null ? null
+                : lastModified.toInstant()));
+  }
+}
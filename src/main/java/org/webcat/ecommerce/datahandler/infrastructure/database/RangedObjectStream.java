@@ -0,0 +1,167 @@
+package org.webcat.ecommerce.datahandler.infrastructure.database;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * {@link RangedObjectStream}
+ * <p>
+ * The body of a large object read as byte ranges. The first range streams from its own response
+ * while the next ones are downloaded into memory concurrently, at most parallelism of them ahead
+ * of the reader. Ranges are handed out in order, so the reader sees the object as one stream.
+ * </p>
+ * <p>
+ * A range that fails or comes back short fails the read. The memory held is about parallelism *
+ * partSize.
+ * </p>
+ */
+class RangedObjectStream
+    extends InputStream
+{
+
+  // Downloads length bytes of the object from offset.
+  interface RangeFetcher
+  {
+    CompletableFuture<byte[]> fetch(
+        Long offset, Integer length);
+  }
+
+  private final InputStream head;
+  private final Long headLength;
+  private final Long totalLength;
+  private final Integer partSize;
+  private final Integer parallelism;
+  private final RangeFetcher fetcher;
+
+  private final ArrayDeque<CompletableFuture<byte[]>> ahead =
+      new ArrayDeque<>();
+  // Where the next range that wasn't requested yet starts.
+  private Long nextOffset;
+  private InputStream current;
+  private Long headRead = 0L;
+
+  RangedObjectStream(InputStream head,
+      Long headLength, Long totalLength,
+      Integer partSize, Integer parallelism,
+      RangeFetcher fetcher)
+  {
+    this.head = head;
+    this.headLength = headLength;
+    this.totalLength = totalLength;
+    this.partSize = partSize;
+    this.parallelism = parallelism;
+    this.fetcher = fetcher;
+    this.nextOffset = headLength;
+    this.current = head;
+    this.requestAhead();
+  }
+
+  @Override
+  public int read() throws IOException
+  {
+    byte[] one = new byte[1];
+    int read = this.read(one, 0, 1);
+    return read < 0 ? -1 : one[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] buffer,
+      int offset, int length)
+      throws IOException
+  {
+    if (length == 0)
+    {
+      return 0;
+    }
+
+    while (true)
+    {
+      int read = this.current.read(buffer,
+          offset, length);
+      if (read >= 0)
+      {
+        if (this.current == this.head)
+        {
+          this.headRead += read;
+        }
+        return read;
+      }
+      if (!this.nextRange())
+      {
+        return -1;
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    // Ranges still downloading are dropped once they arrive.
+    for (CompletableFuture<byte[]> range : this.ahead)
+    {
+      range.cancel(false);
+    }
+    this.ahead.clear();
+    this.head.close();
+  }
+
+  // Moves on to the next range, false at the end of the object.
+  private Boolean nextRange()
+      throws IOException
+  {
+    if (this.current == this.head)
+    {
+      if (!this.headRead
+          .equals(this.headLength))
+      {
+        throw new IOException(
+            "The first range ended after "
+                + this.headRead + " of "
+                + this.headLength
+                + " bytes");
+      }
+      this.head.close();
+    }
+
+    CompletableFuture<byte[]> range =
+        this.ahead.poll();
+    if (range == null)
+    {
+      return false;
+    }
+    try
+    {
+      this.current = new ByteArrayInputStream(
+          range.join());
+    } catch (CompletionException
+        | CancellationException e)
+    {
+      throw new IOException(
+          "Failed to read a range of the object",
+          e.getCause() == null ? e
+              : e.getCause());
+    }
+    this.requestAhead();
+    return true;
+  }
+
+  private void requestAhead()
+  {
+    while (this.ahead
+        .size() < this.parallelism
+        && this.nextOffset < this.totalLength)
+    {
+      Integer length = (int) Math.min(
+          this.partSize,
+          this.totalLength - this.nextOffset);
+      this.ahead.add(this.fetcher
+          .fetch(this.nextOffset, length));
+      this.nextOffset += length;
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package org.webcat.ecommerce.datahandler.infrastructure.database;
+
+/**
+ * {@link RawObjectNames}
+ * <p>
+ * The names normalised raw objects get, raw-data_{id}.json after the snowflake id of their raw
+ * data. Shared by the raw data repositories so a file keeps its name whichever store holds it.
+ * </p>
+ */
+final class RawObjectNames
+{
+
+  static final String PREFIX =
+      "raw-data_";
+  private static final String SUFFIX =
+      ".json";
+
+  private RawObjectNames()
+  {}
+
+  static String generate(Long id)
+  {
+    return PREFIX + id + SUFFIX;
+  }
+
+  // The id a normalised object was named after, null for other names.
+  static Long parseId(String objectName)
+  {
+    if (!objectName.startsWith(PREFIX)
+        || !objectName.endsWith(SUFFIX))
+    {
+      return null;
+    }
+    try
+    {
+      return Long.parseLong(objectName
+          .substring(PREFIX.length(),
+              objectName.length()
+                  - SUFFIX.length()));
+    } catch (NumberFormatException e)
+    {
+      return null;
+    }
+  }
+}
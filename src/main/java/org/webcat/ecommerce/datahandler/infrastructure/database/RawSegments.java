@@ -0,0 +1,172 @@
+package org.webcat.ecommerce.datahandler.infrastructure.database;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ObjectVersion;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.SegmentEntry;
+
+/**
+ * {@link RawSegments}
+ * <p>
+ * The layout of the segments the compaction packs small raw objects into:
+ * </p>
+ * <p>
+ * <li>The objects' bodies as they were stored (compressed), back to back.</li>
+ * <li>A footer with an entry per object: raw id, offset, length, Content-Encoding, ETag and last
+ * modified time.</li>
+ * <li>A trailer of TRAILER_BYTES: the footer's offset, the number of entries and MAGIC.</li>
+ * </p>
+ * <p>
+ * Lookups go through the raw_segment_index table. The rows indexed for a segment are its footer
+ * as read back after the upload (one suffix GET of the trailer and footer), so the index says what
+ * the segment does.
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method static String name(Long firstId, Long createdAtMillis)}</li>
+ * <li>{@method static Boolean isSegment(String objectName)}</li>
+ * <li>{@method static void writeFooter(OutputStream out, Long footerOffset, List<SegmentEntry>
+ * entries)}</li>
+ * <li>{@method static List<SegmentEntry> readFooter(String segmentName, byte[] tail, Long
+ * tailOffset)}</li>
+ */
+public final class RawSegments
+{
+
+  public static final Integer MAGIC =
+      0x45544c53;
+  public static final Integer TRAILER_BYTES =
+      16;
+
+  private static final String NAME_PREFIX =
+      RawObjectNames.PREFIX + "segment-";
+  private static final String SUFFIX = ".seg";
+
+  private RawSegments()
+  {}
+
+  // Segments are listed next to the objects they hold, named after the id
+  // of their first object and the time they're written at, so an object
+  // packed again (its removal failed) goes into a segment of its own.
+  public static String name(Long firstId,
+      Long createdAtMillis)
+  {
+    return NAME_PREFIX + firstId + "-"
+        + createdAtMillis + SUFFIX;
+  }
+
+  public static Boolean isSegment(
+      String objectName)
+  {
+    return objectName.startsWith(NAME_PREFIX)
+        && objectName.endsWith(SUFFIX);
+  }
+
+  /**
+   * Writes the footer and trailer of a segment whose bodies take footerOffset bytes.
+   */
+  public static void writeFooter(
+      OutputStream out, Long footerOffset,
+      List<SegmentEntry> entries)
+      throws IOException
+  {
+    DataOutputStream data =
+        new DataOutputStream(out);
+    for (SegmentEntry entry : entries)
+    {
+      data.writeLong(entry.rawId());
+      data.writeLong(entry.offset());
+      data.writeInt(entry.length());
+      data.writeUTF(orEmpty(
+          entry.contentEncoding()));
+      data.writeUTF(orEmpty(
+          entry.version() == null ? null
+              : entry.version().etag()));
+      data.writeLong(
+          entry.lastModified() == null ? -1L
+              : entry.lastModified()
+                  .toEpochMilli());
+    }
+    data.writeLong(footerOffset);
+    data.writeInt(entries.size());
+    data.writeInt(MAGIC);
+    data.flush();
+  }
+
+  /**
+   * The entries of a segment from its last bytes, tail starting at tailOffset. Throws if tail
+   * doesn't hold the whole footer.
+   */
+  public static List<SegmentEntry> readFooter(
+      String segmentName, byte[] tail,
+      Long tailOffset)
+      throws IOException
+  {
+    if (tail.length < TRAILER_BYTES)
+    {
+      throw new IOException(
+          "Not a segment: " + segmentName);
+    }
+    ByteBuffer trailer = ByteBuffer.wrap(
+        tail, tail.length - TRAILER_BYTES,
+        TRAILER_BYTES);
+    Long footerOffset = trailer.getLong();
+    Integer entryCount = trailer.getInt();
+    if (trailer.getInt() != MAGIC)
+    {
+      throw new IOException(
+          "Not a segment: " + segmentName);
+    }
+    if (footerOffset < tailOffset)
+    {
+      throw new IOException(
+          "The footer of " + segmentName
+              + " starts before the bytes read");
+    }
+
+    DataInputStream data =
+        new DataInputStream(
+            new ByteArrayInputStream(tail,
+                (int) (footerOffset
+                    - tailOffset),
+                tail.length));
+    List<SegmentEntry> entries =
+        new ArrayList<>(entryCount);
+    for (Integer i = 0; i < entryCount; i++)
+    {
+      Long rawId = data.readLong();
+      Long offset = data.readLong();
+      Integer length = data.readInt();
+      String contentEncoding =
+          orNull(data.readUTF());
+      String etag = orNull(data.readUTF());
+      Long lastModified = data.readLong();
+      entries.add(new SegmentEntry(rawId,
+          segmentName, offset, length,
+          contentEncoding,
+          new ObjectVersion(etag,
+              lastModified < 0 ? null
+                  : Instant.ofEpochMilli(
+                      lastModified))));
+    }
+    return entries;
+  }
+
+  private static String orEmpty(
+      String value)
+  {
+    return value == null ? "" : value;
+  }
+
+  private static String orNull(String value)
+  {
+    return value.isEmpty() ? null : value;
+  }
+}
@@ -0,0 +1,194 @@
+package org.webcat.ecommerce.datahandler.infrastructure.logging;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.LoggerFactory;
+import org.slf4j.spi.LoggingEventBuilder;
+
+/**
+ * {@link Logger}
+ * <p>
+ * The logging facade of the app, over SLF4J. The backend is Log4j2 with async loggers
+ * (log4j2-spring.xml): a call copies the event into a ring buffer and returns, a single background
+ * thread formats and writes it. Workers never wait on the console the way they did on
+ * System.out's lock.
+ * </p>
+ * <p>
+ * Per-file events carry their fields as key-values rather than in the message, so they can be
+ * searched for as is:
+ * <li>{@field id} - the snowflake id of the raw or processed data.</li>
+ * <li>{@field file} - the object name.</li>
+ * <li>{@field stage} - extract, transform, load, link, job or webhook.</li>
+ * <li>{@field durationMs}</li>
+ * </p>
+ * <p>
+ * at*() of a disabled level returns a shared event that drops everything, so a per-file event
+ * costs nothing unless its level is on. Messages built from arguments use SLF4J's {} placeholders,
+ * which are only formatted when the event is written.
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method static Logger get(Class<?> owner)}</li>
+ * <li>{@method Boolean isDebugEnabled() / isInfoEnabled()}</li>
+ * <li>{@method void debug / info / warn / error(String message, Object... arguments)}</li>
+ * <li>{@method Event atDebug() / atInfo() / atWarn() / atError()}</li>
+ */
+public final class Logger
+{
+
+  /**
+   * A single event with structured fields, written by log().
+   */
+  public static final class Event
+  {
+    // Every method of it does nothing.
+    private static final Event NONE =
+        new Event(null);
+
+    private final LoggingEventBuilder builder;
+
+    private Event(LoggingEventBuilder builder)
+    {
+      this.builder = builder;
+    }
+
+    public Event id(Long id)
+    {
+      return this.with("id", id);
+    }
+
+    public Event file(String fileName)
+    {
+      return this.with("file", fileName);
+    }
+
+    public Event stage(String stage)
+    {
+      return this.with("stage", stage);
+    }
+
+    public Event durationNanos(Long nanos)
+    {
+      if (this.builder == null
+          || nanos == null)
+      {
+        return this;
+      }
+      return this.with("durationMs",
+          TimeUnit.NANOSECONDS
+              .toMillis(nanos));
+    }
+
+    public Event cause(Throwable cause)
+    {
+      if (this.builder != null)
+      {
+        this.builder.setCause(cause);
+      }
+      return this;
+    }
+
+    public Event with(String key,
+        Object value)
+    {
+      if (this.builder != null
+          && value != null)
+      {
+        this.builder.addKeyValue(key, value);
+      }
+      return this;
+    }
+
+    public void log(String message)
+    {
+      if (this.builder != null)
+      {
+        this.builder.log(message);
+      }
+    }
+
+    public void log(String message,
+        Object... arguments)
+    {
+      if (this.builder != null)
+      {
+        this.builder.log(message, arguments);
+      }
+    }
+  }
+
+  private final org.slf4j.Logger delegate;
+
+  private Logger(org.slf4j.Logger delegate)
+  {
+    this.delegate = delegate;
+  }
+
+  public static Logger get(Class<?> owner)
+  {
+    return new Logger(
+        LoggerFactory.getLogger(owner));
+  }
+
+  public Boolean isDebugEnabled()
+  {
+    return this.delegate.isDebugEnabled();
+  }
+
+  public Boolean isInfoEnabled()
+  {
+    return this.delegate.isInfoEnabled();
+  }
+
+  // A Throwable as the last argument is logged with its stack trace.
+  public void debug(String message,
+      Object... arguments)
+  {
+    this.delegate.debug(message, arguments);
+  }
+
+  public void info(String message,
+      Object... arguments)
+  {
+    this.delegate.info(message, arguments);
+  }
+
+  public void warn(String message,
+      Object... arguments)
+  {
+    this.delegate.warn(message, arguments);
+  }
+
+  public void error(String message,
+      Object... arguments)
+  {
+    this.delegate.error(message, arguments);
+  }
+
+  public Event atDebug()
+  {
+    return this.delegate.isDebugEnabled()
+        ? new Event(this.delegate.atDebug())
+        : Event.NONE;
+  }
+
+  public Event atInfo()
+  {
+    return this.delegate.isInfoEnabled()
+        ? new Event(this.delegate.atInfo())
+        : Event.NONE;
+  }
+
+  public Event atWarn()
+  {
+    return this.delegate.isWarnEnabled()
+        ? new Event(this.delegate.atWarn())
+        : Event.NONE;
+  }
+
+  public Event atError()
+  {
+    return this.delegate.isErrorEnabled()
+        ? new Event(this.delegate.atError())
+        : Event.NONE;
+  }
+}
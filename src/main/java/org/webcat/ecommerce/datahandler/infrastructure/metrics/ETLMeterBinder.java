@@ -0,0 +1,130 @@
+package org.webcat.ecommerce.datahandler.infrastructure.metrics;
+
+import org.springframework.stereotype.Component;
+import org.webcat.ecommerce.datahandler.application.jobs.WebhookIngestionQueue;
+import org.webcat.ecommerce.datahandler.infrastructure.cache.FileMappingNearCache;
+import org.webcat.ecommerce.datahandler.infrastructure.cache.LocalObjectCache;
+import org.webcat.ecommerce.datahandler.shared.helpers.SnowflakeIDGenerator;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * {@link ETLMeterBinder}
+ * <p>
+ * Exposes the counters the components already keep as meters, they're read when the registry is
+ * scraped so nothing is recorded on the hot paths.
+ * </p>
+ * <p>
+ * <li>etl.webhook.queue.depth, etl.webhook.queue.oldest.age, etl.webhook.handled,
+ * etl.webhook.failed - {@link WebhookIngestionQueue}</li>
+ * <li>etl.mapping.cache.hits, etl.mapping.cache.misses, etl.mapping.cache.size -
+ * {@link FileMappingNearCache}</li>
+ * <li>etl.lake.cache.hits, etl.lake.cache.misses, etl.lake.cache.size - {@link LocalObjectCache}
+ * </li>
+ * <li>snowflake.cas.retries, snowflake.lead - {@link SnowflakeIDGenerator}, the generator never
+ * sleeps, contention and borrowed milliseconds are what it has instead of waits.</li>
+ * </p>
+ */
+@Component
+public class ETLMeterBinder
+    implements MeterBinder
+{
+
+  private final WebhookIngestionQueue webhookQueue;
+  private final FileMappingNearCache mappingCache;
+  private final LocalObjectCache readCache;
+  private final SnowflakeIDGenerator snowflakeIDGenerator;
+
+  public ETLMeterBinder(
+      WebhookIngestionQueue webhookQueue,
+      FileMappingNearCache mappingCache,
+      LocalObjectCache readCache,
+      SnowflakeIDGenerator snowflakeIDGenerator)
+  {
+    this.webhookQueue = webhookQueue;
+    this.mappingCache = mappingCache;
+    this.readCache = readCache;
+    this.snowflakeIDGenerator =
+        snowflakeIDGenerator;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry)
+  {
+    Gauge.builder("etl.webhook.queue.depth",
+        this.webhookQueue,
+        WebhookIngestionQueue::getDepth)
+        .description(
+            "Notifications waiting or being handled")
+        .register(registry);
+    Gauge.builder(
+        "etl.webhook.queue.oldest.age",
+        this.webhookQueue,
+        WebhookIngestionQueue::getOldestEventAgeMillis)
+        .description(
+            "Age of the oldest waiting notification")
+        .baseUnit("milliseconds")
+        .register(registry);
+    FunctionCounter.builder(
+        "etl.webhook.handled",
+        this.webhookQueue,
+        WebhookIngestionQueue::getHandledEvents)
+        .register(registry);
+    FunctionCounter.builder(
+        "etl.webhook.failed",
+        this.webhookQueue,
+        WebhookIngestionQueue::getFailedEvents)
+        .register(registry);
+
+    FunctionCounter.builder(
+        "etl.mapping.cache.hits",
+        this.mappingCache,
+        FileMappingNearCache::getHits)
+        .register(registry);
+    FunctionCounter.builder(
+        "etl.mapping.cache.misses",
+        this.mappingCache,
+        FileMappingNearCache::getMisses)
+        .register(registry);
+    Gauge.builder("etl.mapping.cache.size",
+        this.mappingCache,
+        FileMappingNearCache::getSize)
+        .register(registry);
+
+    FunctionCounter.builder(
+        "etl.lake.cache.hits",
+        this.readCache,
+        LocalObjectCache::getHits)
+        .register(registry);
+    FunctionCounter.builder(
+        "etl.lake.cache.misses",
+        this.readCache,
+        LocalObjectCache::getMisses)
+        .register(registry);
+    Gauge.builder("etl.lake.cache.size",
+        this.readCache,
+        LocalObjectCache::getSizeBytes)
+        .description(
+            "Bytes of lake objects cached on local disk")
+        .baseUnit("bytes")
+        .register(registry);
+
+    FunctionCounter.builder(
+        "snowflake.cas.retries",
+        this.snowflakeIDGenerator,
+        SnowflakeIDGenerator::getCasRetries)
+        .description(
+            "Id reservations retried after losing a race")
+        .register(registry);
+    Gauge.builder("snowflake.lead",
+        this.snowflakeIDGenerator,
+        SnowflakeIDGenerator::getLeadMillis)
+        .description(
+            "How far the ids handed out are ahead of the clock")
+        .baseUnit("milliseconds")
+        .register(registry);
+  }
+}
@@ -0,0 +1,284 @@
+package org.webcat.ecommerce.datahandler.infrastructure.metrics;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+/**
+ * {@link ETLMetrics}
+ * <p>
+ * The meters of the ETL stages, registered once and shared by the services that record them. Every
+ * timer and summary publishes a percentile histogram, so the p50/p99 of a stage can be read (and
+ * aggregated over nodes) from /actuator/prometheus.
+ * </p>
+ * <p>
+ * <li>etl.extract (mode=document|streaming) - a file from the start of the GET to its last
+ * record. Streamed files include the time the read waited for the transform stage.</li>
+ * <li>etl.extract.records, etl.extract.failures</li>
+ * <li>etl.lake.get - an object GET until the response headers arrive, etl.lake.get.bytes - the
+ * bytes of the body as stored (compressed).</li>
+ * <li>etl.lake.get.hedges - duplicate GETs sent after the hedge delay, etl.lake.get.hedge.wins -
+ * the ones that answered first.</li>
+ * <li>etl.lake.get.ranged - objects read as concurrent byte ranges, etl.lake.get.ranges - range
+ * GETs sent for them.</li>
+ * <li>etl.transform, etl.transform.failures - a single record.</li>
+ * <li>etl.load - a batch insert, etl.load.rows - rows per batch, etl.load.failed.rows</li>
+ * <li>etl.webhook - a batch of MinIO notifications, etl.webhook.events - notifications per
+ * batch.</li>
+ * <li>etl.compaction.objects - small objects packed into segments, etl.compaction.segments -
+ * segments written.</li>
+ * <li>etl.job - a whole ETL job, from the executor picking it up to its last file.</li>
+ * </p>
+ * <p>
+ * NONE records into a registry without any backend, for services created outside of Spring.
+ * </p>
+ */
+@Component
+public class ETLMetrics
+{
+
+  public static final ETLMetrics NONE =
+      new ETLMetrics(
+          new CompositeMeterRegistry());
+
+  private final Timer extractDocument;
+  private final Timer extractStreaming;
+  private final DistributionSummary extractRecords;
+  private final Counter extractFailures;
+  private final Timer lakeGet;
+  private final DistributionSummary lakeGetBytes;
+  private final Counter lakeGetHedges;
+  private final Counter lakeGetHedgeWins;
+  private final Counter lakeGetRanged;
+  private final Counter lakeGetRanges;
+  private final Timer transform;
+  private final Counter transformFailures;
+  private final Timer load;
+  private final DistributionSummary loadRows;
+  private final Counter loadFailedRows;
+  private final Timer webhook;
+  private final DistributionSummary webhookEvents;
+  private final Counter compactionObjects;
+  private final Counter compactionSegments;
+  private final Timer job;
+
+  public ETLMetrics(MeterRegistry registry)
+  {
+    this.extractDocument = timer(
+        "etl.extract",
+        "Extraction of a single file",
+        registry, "mode", "document");
+    this.extractStreaming = timer(
+        "etl.extract",
+        "Extraction of a single file",
+        registry, "mode", "streaming");
+    this.extractRecords = summary(
+        "etl.extract.records",
+        "Records read from a single file",
+        null, registry);
+    this.extractFailures = Counter
+        .builder("etl.extract.failures")
+        .description(
+            "Files that couldn't be extracted")
+        .register(registry);
+
+    this.lakeGet = timer("etl.lake.get",
+        "Object GET until the response headers",
+        registry);
+    this.lakeGetBytes = summary(
+        "etl.lake.get.bytes",
+        "Stored size of an object read",
+        "bytes", registry);
+    this.lakeGetHedges = Counter
+        .builder("etl.lake.get.hedges")
+        .description(
+            "Duplicate GETs sent for slow responses")
+        .register(registry);
+    this.lakeGetHedgeWins = Counter
+        .builder("etl.lake.get.hedge.wins")
+        .description(
+            "Duplicate GETs that answered first")
+        .register(registry);
+    this.lakeGetRanged = Counter
+        .builder("etl.lake.get.ranged")
+        .description(
+            "Objects read as concurrent byte ranges")
+        .register(registry);
+    this.lakeGetRanges = Counter
+        .builder("etl.lake.get.ranges")
+        .description(
+            "Byte range GETs of split objects")
+        .register(registry);
+
+    this.transform = timer("etl.transform",
+        "Transformation of a single record",
+        registry);
+    this.transformFailures = Counter
+        .builder("etl.transform.failures")
+        .description(
+            "Records that couldn't be transformed")
+        .register(registry);
+
+    this.load = timer("etl.load",
+        "Insert of a batch of processed rows",
+        registry);
+    this.loadRows = summary(
+        "etl.load.rows",
+        "Processed rows per insert batch",
+        null, registry);
+    this.loadFailedRows = Counter
+        .builder("etl.load.failed.rows")
+        .description(
+            "Processed rows that couldn't be saved")
+        .register(registry);
+
+    this.webhook = timer("etl.webhook",
+        "Handling of a batch of MinIO notifications",
+        registry);
+    this.webhookEvents = summary(
+        "etl.webhook.events",
+        "MinIO notifications per handled batch",
+        null, registry);
+
+    this.compactionObjects = Counter
+        .builder("etl.compaction.objects")
+        .description(
+            "Small raw objects packed into segments")
+        .register(registry);
+    this.compactionSegments = Counter
+        .builder("etl.compaction.segments")
+        .description(
+            "Segments written by the compaction")
+        .register(registry);
+
+    this.job = timer("etl.job",
+        "A whole ETL job", registry);
+  }
+
+  public Timer getExtractTimer(
+      Boolean streaming)
+  {
+    return streaming
+        ? this.extractStreaming
+        : this.extractDocument;
+  }
+
+  public DistributionSummary getExtractRecords()
+  {
+    return this.extractRecords;
+  }
+
+  public Counter getExtractFailures()
+  {
+    return this.extractFailures;
+  }
+
+  public Timer getLakeGetTimer()
+  {
+    return this.lakeGet;
+  }
+
+  public DistributionSummary getLakeGetBytes()
+  {
+    return this.lakeGetBytes;
+  }
+
+  public Counter getLakeGetHedges()
+  {
+    return this.lakeGetHedges;
+  }
+
+  public Counter getLakeGetHedgeWins()
+  {
+    return this.lakeGetHedgeWins;
+  }
+
+  public Counter getLakeGetRanged()
+  {
+    return this.lakeGetRanged;
+  }
+
+  public Counter getLakeGetRanges()
+  {
+    return this.lakeGetRanges;
+  }
+
+  public Timer getTransformTimer()
+  {
+    return this.transform;
+  }
+
+  public Counter getTransformFailures()
+  {
+    return this.transformFailures;
+  }
+
+  public Timer getLoadTimer()
+  {
+    return this.load;
+  }
+
+  public DistributionSummary getLoadRows()
+  {
+    return this.loadRows;
+  }
+
+  public Counter getLoadFailedRows()
+  {
+    return this.loadFailedRows;
+  }
+
+  public Timer getWebhookTimer()
+  {
+    return this.webhook;
+  }
+
+  public DistributionSummary getWebhookEvents()
+  {
+    return this.webhookEvents;
+  }
+
+  public Counter getCompactionObjects()
+  {
+    return this.compactionObjects;
+  }
+
+  public Counter getCompactionSegments()
+  {
+    return this.compactionSegments;
+  }
+
+  public Timer getJobTimer()
+  {
+    return this.job;
+  }
+
+  private static Timer timer(String name,
+      String description,
+      MeterRegistry registry,
+      String... tags)
+  {
+    return Timer.builder(name)
+        .description(description)
+        .tags(tags)
+        .publishPercentileHistogram()
+        .register(registry);
+  }
+
+  private static DistributionSummary summary(
+      String name, String description,
+      String baseUnit,
+      MeterRegistry registry)
+  {
+    return DistributionSummary
+        .builder(name)
+        .description(description)
+        .baseUnit(baseUnit)
+        .publishPercentileHistogram()
+        .register(registry);
+  }
+}
@@ -0,0 +1,63 @@
+package org.webcat.ecommerce.datahandler.infrastructure.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * {@link LakeObjectEvent}
+ * <p>
+ * A single object request to the data lake, recorded by {@link ETLFlightRecorder}.
+ * </p>
+ * <p>
+ * <li>GET - from the request until the body was read and closed.</li>
+ * <li>PUT - the whole (possibly multipart) upload.</li>
+ * <li>COPY - the copy of a rename, file is the old name and destination the new one.</li>
+ * </p>
+ * <p>
+ * JFR only takes primitive and String fields, so unlike the rest of the app the fields aren't
+ * boxed. An unknown id is 0.
+ * </p>
+ */
+@Name("org.webcat.etl.LakeObject")
+@Label("Lake Object")
+@Category({"eCommerce Data Handler", "ETL"})
+@Description("A GET, PUT or COPY of a data lake object")
+@StackTrace(false)
+public class LakeObjectEvent
+    extends jdk.jfr.Event
+{
+  public static final String GET = "GET";
+  public static final String PUT = "PUT";
+  public static final String COPY = "COPY";
+
+  @Label("Operation")
+  public String operation;
+
+  @Label("File")
+  public String file;
+
+  @Label("Destination")
+  public String destination;
+
+  @Label("Snowflake Id")
+  public long id;
+
+  @Label("Bytes")
+  @Description("The bytes sent or received as stored, compressed objects count compressed")
+  @DataAmount
+  public long bytes;
+
+  @Label("Success")
+  public boolean success;
+
+  public LakeObjectEvent(String operation,
+      String file)
+  {
+    this.operation = operation;
+    this.file = file;
+  }
+}
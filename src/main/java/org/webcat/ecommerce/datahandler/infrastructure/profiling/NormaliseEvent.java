@@ -0,0 +1,39 @@
+package org.webcat.ecommerce.datahandler.infrastructure.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * {@link NormaliseEvent}
+ * <p>
+ * The normalisation of an uploaded file's name. Files are normalised a batch at a time, so the
+ * event of a file lasts as long as its batch. The COPY {@link LakeObjectEvent} of the file shows
+ * its own rename.
+ * </p>
+ */
+@Name("org.webcat.etl.Normalise")
+@Label("Normalise Name")
+@Category({"eCommerce Data Handler", "ETL"})
+@Description("The renaming of an uploaded file to its snowflake id")
+@StackTrace(false)
+public class NormaliseEvent
+    extends jdk.jfr.Event
+{
+  @Label("File")
+  public String file;
+
+  @Label("New File")
+  public String newFile;
+
+  @Label("Snowflake Id")
+  public long id;
+
+  @Label("Batch Size")
+  public int batchSize;
+
+  @Label("Success")
+  public boolean success;
+}
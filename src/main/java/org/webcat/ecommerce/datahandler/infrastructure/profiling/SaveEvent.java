@@ -0,0 +1,38 @@
+package org.webcat.ecommerce.datahandler.infrastructure.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * {@link SaveEvent}
+ * <p>
+ * A single JDBC batch of processed data, including the row by row retry of a failed batch. The
+ * rows of a batch come from many files, rawDataIds lists them.
+ * </p>
+ */
+@Name("org.webcat.etl.Save")
+@Label("Save Processed Data")
+@Category({"eCommerce Data Handler", "ETL"})
+@Description("A JDBC batch insert of processed data")
+@StackTrace(false)
+public class SaveEvent
+    extends jdk.jfr.Event
+{
+  @Label("Raw Data Ids")
+  public String rawDataIds;
+
+  @Label("Rows")
+  public int rows;
+
+  @Label("Failed Rows")
+  public int failedRows;
+
+  @Label("Bytes")
+  @Description("The transformed json of the batch")
+  @DataAmount
+  public long bytes;
+}
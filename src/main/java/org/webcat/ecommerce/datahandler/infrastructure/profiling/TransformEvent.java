@@ -0,0 +1,41 @@
+package org.webcat.ecommerce.datahandler.infrastructure.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * {@link TransformEvent}
+ * <p>
+ * The transformation of a single record. The transform stage doesn't know file names, the raw
+ * data id is the one in the file's normalised name (raw-data_{id}.json).
+ * </p>
+ */
+@Name("org.webcat.etl.Transform")
+@Label("Transform")
+@Category({"eCommerce Data Handler", "ETL"})
+@Description("The transformation of a single record")
+@StackTrace(false)
+public class TransformEvent
+    extends jdk.jfr.Event
+{
+  @Label("Raw Data Id")
+  public long rawDataId;
+
+  @Label("Record Index")
+  public int recordIndex;
+
+  @Label("Input Bytes")
+  @DataAmount
+  public long inputBytes;
+
+  @Label("Output Bytes")
+  @DataAmount
+  public long outputBytes;
+
+  @Label("Success")
+  public boolean success;
+}
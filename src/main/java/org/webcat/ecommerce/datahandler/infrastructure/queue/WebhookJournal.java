@@ -0,0 +1,320 @@
+package org.webcat.ecommerce.datahandler.infrastructure.queue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link WebhookJournal}
+ * <p>
+ * An append-only file journal of webhook payloads. A payload is appended (and forced to disk)
+ * before it's acknowledged to the sender and acked once it was handled, so after a crash
+ * open() returns whatever wasn't handled yet.
+ * </p>
+ * <p>
+ * One line per record:
+ * </p>
+ * <p>
+ * <li>E {seq} {enqueuedAtMillis} {payload} - an enqueued payload (no new lines in it).</li>
+ * <li>A {seq} - the payload with that seq was handled.</li>
+ * </p>
+ * <p>
+ * Only lines that end in a new line are replayed, so a torn last line (crash in the middle of a
+ * write) is skipped even when only its payload was cut. On open the journal is rewritten
+ * with the unacked payloads only, and it's truncated whenever nothing is pending and it grew past
+ * compactBytes.
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method List<Entry> open()}</li>
+ * <li>{@method Entry append(String payload)}</li>
+ * <li>{@method void ack(Long seq)}</li>
+ * <li>{@method void close()}</li>
+ */
+public class WebhookJournal
+    implements AutoCloseable
+{
+
+  /**
+   * A journaled payload.
+   */
+  public record Entry(
+      Long seq,
+      Long enqueuedAt,
+      String payload)
+  {}
+
+  private static final String FILE_NAME =
+      "webhook.journal";
+
+  private final Path file;
+  // Whether every write is forced to disk before it returns.
+  private final Boolean fsync;
+  private final Long compactBytes;
+
+  // Guards the channel and seq.
+  private final Object lock = new Object();
+  private FileChannel channel;
+  private Long seq = 0L;
+
+  private final Set<Long> pending =
+      ConcurrentHashMap.newKeySet();
+
+  public WebhookJournal(Path directory,
+      Boolean fsync, Long compactBytes)
+  {
+    this.file =
+        directory.resolve(FILE_NAME);
+    this.fsync = fsync;
+    this.compactBytes = compactBytes;
+  }
+
+  /**
+   * Opens the journal and returns the payloads that weren't acked, in the order they were
+   * appended.
+   */
+  public List<Entry> open()
+  {
+    synchronized (this.lock)
+    {
+      try
+      {
+        Files.createDirectories(
+            this.file.getParent());
+        List<Entry> unacked =
+            this.replay();
+
+        // Rewriting the journal with the unacked entries only, the move
+        // swaps the old file out at once.
+        Path compacted = this.file
+            .resolveSibling(FILE_NAME
+                + ".compact");
+        try (FileChannel out =
+            FileChannel.open(compacted,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))
+        {
+          for (Entry entry : unacked)
+          {
+            this.write(out,
+                this.enqueueLine(entry));
+          }
+          out.force(true);
+        }
+        Files.move(compacted, this.file,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+
+        this.channel = FileChannel.open(
+            this.file,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+
+        for (Entry entry : unacked)
+        {
+          this.pending.add(entry.seq());
+        }
+        return unacked;
+      } catch (IOException e)
+      {
+        throw new RuntimeException(
+            "Failed to open the webhook journal "
+                + this.file,
+            e);
+      }
+    }
+  }
+
+  public Entry append(String payload)
+  {
+    if (payload.indexOf('\n') >= 0)
+    {
+      throw new IllegalArgumentException(
+          "Journal payloads must be a single line");
+    }
+
+    synchronized (this.lock)
+    {
+      Entry entry =
+          new Entry(++this.seq,
+              System.currentTimeMillis(),
+              payload);
+      try
+      {
+        this.write(this.channel,
+            this.enqueueLine(entry));
+      } catch (IOException e)
+      {
+        throw new RuntimeException(
+            "Failed to append to the webhook journal",
+            e);
+      }
+      this.pending.add(entry.seq());
+      return entry;
+    }
+  }
+
+  public void ack(Long seq)
+  {
+    synchronized (this.lock)
+    {
+      try
+      {
+        this.write(this.channel,
+            "A " + seq + "\n");
+        this.pending.remove(seq);
+
+        if (this.pending.isEmpty()
+            && this.channel
+                .size() > this.compactBytes)
+        {
+          // Everything in the file was handled.
+          this.channel.truncate(0L);
+          this.channel.force(true);
+        }
+      } catch (IOException e)
+      {
+        // The payload is replayed after a restart, handling it twice is
+        // harmless for the webhook.
+        throw new RuntimeException(
+            "Failed to ack in the webhook journal",
+            e);
+      }
+    }
+  }
+
+  // The number of payloads appended and not acked yet.
+  public Integer getPending()
+  {
+    return this.pending.size();
+  }
+
+  @Override
+  public void close()
+  {
+    synchronized (this.lock)
+    {
+      try
+      {
+        if (this.channel != null)
+        {
+          this.channel.close();
+        }
+      } catch (IOException e)
+      {
+        throw new RuntimeException(
+            "Failed to close the webhook journal",
+            e);
+      }
+    }
+  }
+
+  // Callers hold the lock.
+  private List<Entry> replay()
+      throws IOException
+  {
+    Map<Long, Entry> unacked =
+        new LinkedHashMap<>();
+    if (!Files.exists(this.file))
+    {
+      return new ArrayList<>();
+    }
+
+    // Reading the raw bytes, a line reader hands out the last line whether
+    // it ended in a new line or not.
+    try (InputStream in =
+        new BufferedInputStream(
+            Files.newInputStream(this.file)))
+    {
+      ByteArrayOutputStream line =
+          new ByteArrayOutputStream();
+      Integer next;
+      while ((next = in.read()) != -1)
+      {
+        if (next == '\n')
+        {
+          this.replayLine(line.toString(
+              StandardCharsets.UTF_8),
+              unacked);
+          line.reset();
+        } else
+        {
+          line.write(next);
+        }
+      }
+      // Whatever is left in line is a torn write, nothing after it was
+      // acknowledged.
+    }
+
+    return new ArrayList<>(
+        unacked.values());
+  }
+
+  // Callers hold the lock.
+  private void replayLine(String line,
+      Map<Long, Entry> unacked)
+  {
+    String[] parts =
+        line.split(" ", 4);
+    try
+    {
+      if (parts[0].equals("E")
+          && parts.length == 4)
+      {
+        Entry entry = new Entry(
+            Long.parseLong(parts[1]),
+            Long.parseLong(parts[2]),
+            parts[3]);
+        unacked.put(entry.seq(), entry);
+        this.seq = Math.max(this.seq,
+            entry.seq());
+      } else if (parts[0].equals("A")
+          && parts.length == 2)
+      {
+        unacked.remove(
+            Long.parseLong(parts[1]));
+      }
+    } catch (NumberFormatException e)
+    {
+      // Not a record this journal wrote.
+    }
+  }
+
+  private String enqueueLine(Entry entry)
+  {
+    return "E " + entry.seq() + " "
+        + entry.enqueuedAt() + " "
+        + entry.payload() + "\n";
+  }
+
+  private void write(FileChannel out,
+      String line)
+      throws IOException
+  {
+    ByteBuffer buffer = ByteBuffer.wrap(
+        line.getBytes(
+            StandardCharsets.UTF_8));
+    while (buffer.hasRemaining())
+    {
+      out.write(buffer);
+    }
+    if (this.fsync)
+    {
+      out.force(false);
+    }
+  }
+}
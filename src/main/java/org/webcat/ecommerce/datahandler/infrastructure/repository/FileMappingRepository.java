@@ -0,0 +1,37 @@
+package org.webcat.ecommerce.datahandler.infrastructure.repository;
+
+import java.util.List;
+
+import org.webcat.ecommerce.datahandler.domain.model.entities.FileMapping;
+
+/**
+ * {@link FileMappingRepository}
+ * <p>
+ * Repository for the mapping between the original name of an uploaded file and its normalised
+ * name.
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method FileMapping findByOriginalName(String originalName)}</li>
+ * <li>{@method FileMapping findByNewName(String newName)}</li>
+ * <li>{@method Boolean save(FileMapping fileMapping)}</li>
+ * <li>{@method Boolean[] saveAll(List<FileMapping> fileMappings)}</li>
+ * <li>{@method Integer deleteByNewName(String newName)}</li>
+ */
+public interface FileMappingRepository
+{
+  FileMapping findByOriginalName(
+      String originalName);
+
+  FileMapping findByNewName(
+      String newName);
+
+  Boolean save(FileMapping fileMapping);
+
+  // Returns the success of every row, in the order of fileMappings.
+  Boolean[] saveAll(
+      List<FileMapping> fileMappings);
+
+  // Returns the number of rows deleted.
+  Integer deleteByNewName(
+      String newName);
+}
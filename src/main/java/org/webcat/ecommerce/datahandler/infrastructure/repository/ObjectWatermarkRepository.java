@@ -0,0 +1,26 @@
+package org.webcat.ecommerce.datahandler.infrastructure.repository;
+
+import java.util.List;
+import java.util.Map;
+
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ObjectVersion;
+
+/**
+ * {@link ObjectWatermarkRepository}
+ * <p>
+ * Repository for the version every raw object had when it was last loaded.
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method Map<String, ObjectVersion> findByObjectNames(List<String> objectNames)}</li>
+ * <li>{@method void saveAll(Map<String, ObjectVersion> versions)}</li>
+ */
+public interface ObjectWatermarkRepository
+{
+  // Objects without a watermark aren't in the result.
+  Map<String, ObjectVersion> findByObjectNames(
+      List<String> objectNames);
+
+  // Inserts or replaces the watermark of every object.
+  void saveAll(
+      Map<String, ObjectVersion> versions);
+}
@@ -1,5 +1,9 @@
 package org.webcat.ecommerce.datahandler.infrastructure.repository;
 
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
 import org.webcat.ecommerce.datahandler.domain.model.entities.ProcessedData;
 
 /**
@@ -10,6 +14,9 @@ import org.webcat.ecommerce.datahandler.domain.model.entities.ProcessedData;
  * <h4>Methods:</h4>
  * <li>{@method ProcessedData findById(Long id)}</li>
  * <li>{@method Boolean save(ProcessedData processedData)}</li>
+ * <li>{@method Boolean[] saveAll(List<ProcessedData> processedData)}</li>
+ * <li>{@method void forEachRawDataId(Consumer<Long> consumer)}</li>
+ * <li>{@method Set<Long> findLoadedRawDataIds(List<Long> rawDataIds)}</li>
  */
 public interface ProcessedDataRepository
 {
@@ -17,4 +24,18 @@ public interface ProcessedDataRepository
 
   Boolean save(
       ProcessedData processedData);
+
+  // Returns the success of every row, in the order of processedData. A row
+  // with a replaceBefore replaces the older rows of its raw data.
+  Boolean[] saveAll(
+      List<ProcessedData> processedData);
+
+  // Hands every distinct raw id with rows to consumer, without holding them
+  // all in memory.
+  void forEachRawDataId(
+      Consumer<Long> consumer);
+
+  // The ones of rawDataIds that have rows.
+  Set<Long> findLoadedRawDataIds(
+      List<Long> rawDataIds);
 }
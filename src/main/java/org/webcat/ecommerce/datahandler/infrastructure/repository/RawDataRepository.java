@@ -1,6 +1,12 @@
 package org.webcat.ecommerce.datahandler.infrastructure.repository;
 
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+
 import org.webcat.ecommerce.datahandler.domain.model.entities.RawData;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ObjectScan;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ObjectVersion;
+import org.webcat.ecommerce.datahandler.domain.service.etl.interfaces.RecordSink;
 
 public interface RawDataRepository
 {
@@ -10,4 +16,68 @@ public interface RawDataRepository
       String fileName);
 
   Boolean save(RawData rawData);
+
+  // Reads an object holding many records (NDJSON or a top-level array)
+  // record by record, returns the number of records.
+  Integer streamRecords(String fileName,
+      RecordSink sink)
+      throws InterruptedException;
+
+  // The version of an object from its metadata, without reading it.
+  ObjectVersion stat(String fileName);
+
+  // The names of the objects a scan selects. The listing is read as the
+  // iterator is, never held as a whole. An iterator that's AutoCloseable
+  // is closed by a reader that stops before its end.
+  Iterator<String> listObjectNames(
+      ObjectScan scan);
+
+  // The raw id an object was named after by the normalisation, null for
+  // other names.
+  Long rawIdOf(String fileName);
+
+  // The name the normalisation gives the object of a raw id.
+  String generateObjectName(Long id);
+
+  // Moves an object to a new name, false if it couldn't be.
+  Boolean renameObject(String oldName,
+      String newName);
+
+  // Whether an object was packed into a segment by the compaction, it's
+  // still read by its name.
+  default Boolean isCompacted(
+      String fileName)
+  {
+    return false;
+  }
+
+  // Packs the objects a scan selects, those of at most maxObjectBytes, into
+  // segments of up to objectsPerSegment objects and removes them. Returns
+  // the number of objects packed, stores without segments pack none.
+  default Integer compact(ObjectScan scan,
+      Long maxObjectBytes,
+      Integer objectsPerSegment)
+  {
+    return 0;
+  }
+
+  // The non-blocking variants, a failure completes the future
+  // exceptionally. By default the blocking call runs on a virtual thread,
+  // stores with an async client don't hold a thread while they wait.
+  default CompletableFuture<RawData> findByFileNameAsync(
+      String fileName)
+  {
+    return CompletableFuture.supplyAsync(
+        () -> this.findByFileName(fileName),
+        Thread::startVirtualThread);
+  }
+
+  default CompletableFuture<Boolean> renameObjectAsync(
+      String oldName, String newName)
+  {
+    return CompletableFuture.supplyAsync(
+        () -> this.renameObject(oldName,
+            newName),
+        Thread::startVirtualThread);
+  }
 }
@@ -0,0 +1,33 @@
+package org.webcat.ecommerce.datahandler.infrastructure.repository;
+
+import java.util.List;
+
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.SegmentEntry;
+
+/**
+ * {@link RawSegmentIndexRepository}
+ * <p>
+ * Repository for where the raw objects packed into segments live.
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method SegmentEntry findByRawId(Long rawId)}</li>
+ * <li>{@method List<SegmentEntry> findBySegmentName(String segmentName)}</li>
+ * <li>{@method void saveAll(List<SegmentEntry> entries)}</li>
+ * <li>{@method Integer deleteBySegmentName(String segmentName)}</li>
+ */
+public interface RawSegmentIndexRepository
+{
+  // null for an object that wasn't packed.
+  SegmentEntry findByRawId(Long rawId);
+
+  // In the order of their offsets.
+  List<SegmentEntry> findBySegmentName(
+      String segmentName);
+
+  // Inserts or replaces the entry of every object.
+  void saveAll(List<SegmentEntry> entries);
+
+  // Returns the number of rows deleted.
+  Integer deleteBySegmentName(
+      String segmentName);
+}
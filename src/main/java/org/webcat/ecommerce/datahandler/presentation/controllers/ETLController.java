@@ -1,13 +1,21 @@
 package org.webcat.ecommerce.datahandler.presentation.controllers;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.webcat.ecommerce.datahandler.Application;
 import org.webcat.ecommerce.datahandler.application.dtos.ETLRequestDTO;
 import org.webcat.ecommerce.datahandler.application.dtos.ETLResponseDTO;
+import org.webcat.ecommerce.datahandler.application.dtos.MinioEventDTO;
+import org.webcat.ecommerce.datahandler.application.dtos.WebhookQueueStatsDTO;
+import org.webcat.ecommerce.datahandler.application.jobs.WebhookIngestionQueue;
 import org.webcat.ecommerce.datahandler.application.use_cases.interfaces.ETL;
 import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ETLStatus;
+import org.webcat.ecommerce.datahandler.infrastructure.logging.Logger;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -15,26 +23,32 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.GetMapping;
-import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.PathVariable;
 
 @RestController
 @RequestMapping("/etl")
 public class ETLController
 {
 
+  private static final Logger LOG =
+      Logger.get(ETLController.class);
 
   private final ETL etlUseCase;
+  private final WebhookIngestionQueue webhookQueue;
   private final ObjectMapper objectMApper;
 
   public ETLController(ETL etlUseCase,
+      WebhookIngestionQueue webhookQueue,
       ObjectMapper objectMApper,
       Application application)
   {
     this.etlUseCase = etlUseCase;
+    this.webhookQueue = webhookQueue;
     this.objectMApper = objectMApper;
   }
 
   // Handler for starting the etl process.
+  // The process runs in the background, the response carries its id.
   @PostMapping("/run")
   public ResponseEntity<ETLResponseDTO> sendToETL(
       @RequestBody ETLRequestDTO request)
@@ -49,21 +63,38 @@ public class ETLController
           .build();
     }
 
-    return ResponseEntity.ok(response);
+    // The job queue is full.
+    if (response.getStatus()
+        .equals(ETLStatus.FAILED))
+    {
+      return ResponseEntity.status(
+          HttpStatus.SERVICE_UNAVAILABLE)
+          .body(response);
+    }
+
+    return ResponseEntity.accepted()
+        .body(response);
   }
 
   // Handler for checking the status of the etl process.
   @GetMapping("/status/{processID}")
   public ResponseEntity<ETLResponseDTO> checkETLStatus(
-      @RequestParam String processID)
+      @PathVariable String processID)
   {
+    ETLResponseDTO response = etlUseCase
+        .checkETLStatus(processID);
+
+    if (response == null)
+    {
+      return ResponseEntity.notFound()
+          .build();
+    }
 
-    return ResponseEntity.ok(etlUseCase
-        .checkETLStatus(processID));
+    return ResponseEntity.ok(response);
   }
 
   @PostMapping("/webhook")
-  public ResponseEntity<ETLResponseDTO> handleMinioEvent(
+  public ResponseEntity<Void> handleMinioEvent(
       @RequestBody String eventData)
   {
     try
@@ -82,43 +113,63 @@ public class ETLController
             .badRequest().build();
       }
 
-      // Extracting relevant details from the json.
-      String eventName = eventJson
-          .path("Records").get(0)
-          .path("eventName").asText();
-
-      String fileName = eventJson
-          .path("Records").get(0)
-          .path("s3").path("object")
-          .path("key").asText();
-
-      // Logging the event and the extracted file name.
-      System.out.print(
-          "--------------------------------------------------------------------------------\n");
-      System.out.printf(
-          "Received event: %s\nFile name: %s\n",
-          eventName, fileName);
-
-      // Calling the ETL use case to process the file.
-      ETLResponseDTO response =
-          this.etlUseCase
-              .handleMinioEvent(
-                  eventName, fileName);
-
-      if (response == null
-          || response.getStatus()
-              .equals(ETLStatus.FAILED))
+      // MinIO can batch several notifications into one request, extracting
+      // the relevant details of every record.
+      List<MinioEventDTO> events =
+          new ArrayList<>();
+      for (JsonNode record : eventJson
+          .path("Records"))
       {
-        return ResponseEntity
-            .badRequest().build();
+        MinioEventDTO event =
+            new MinioEventDTO(
+                record.path("eventName")
+                    .asText(),
+                record.path("s3")
+                    .path("object")
+                    .path("key").asText());
+
+        // Nothing to act on in a record without these.
+        if (event.getEventName().isEmpty()
+            || event.getFileName()
+                .isEmpty())
+        {
+          return ResponseEntity
+              .badRequest().build();
+        }
+        events.add(event);
+      }
+
+      // Logging the events and the extracted file names.
+      if (LOG.isDebugEnabled())
+      {
+        for (MinioEventDTO event : events)
+        {
+          LOG.atDebug()
+              .file(event.getFileName())
+              .stage("webhook")
+              .with("event",
+                  event.getEventName())
+              .log("Received event");
+        }
       }
 
-      return ResponseEntity
-          .ok(response);
+      // The events are handled in the background, answering right away
+      // keeps MinIO from timing out and retrying during bursts.
+      if (!this.webhookQueue.enqueue(events))
+      {
+        return ResponseEntity.status(
+            HttpStatus.SERVICE_UNAVAILABLE)
+            .build();
+      }
+
+      return ResponseEntity.accepted()
+          .build();
 
     } catch (Exception e)
     {
-      e.printStackTrace();
+      LOG.error(
+          "Failed to handle a MinIO event",
+          e);
       // See why I can't return a body.
       return ResponseEntity.status(500)
           .build();
@@ -126,5 +177,23 @@ public class ETLController
 
   }
 
+  // Handler for checking the backlog of the webhook.
+  @GetMapping("/webhook/queue")
+  public ResponseEntity<WebhookQueueStatsDTO> checkWebhookQueue()
+  {
+    return ResponseEntity.ok(
+        new WebhookQueueStatsDTO(
+            this.webhookQueue.getDepth(),
+            this.webhookQueue.getCapacity(),
+            this.webhookQueue
+                .getOldestEventAgeMillis(),
+            this.webhookQueue
+                .getLastEventAgeMillis(),
+            this.webhookQueue
+                .getHandledEvents(),
+            this.webhookQueue
+                .getFailedEvents()));
+  }
+
 
 }
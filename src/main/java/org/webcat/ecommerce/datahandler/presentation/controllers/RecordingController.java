@@ -0,0 +1,126 @@
+package org.webcat.ecommerce.datahandler.presentation.controllers;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.webcat.ecommerce.datahandler.application.dtos.RecordingStatusDTO;
+import org.webcat.ecommerce.datahandler.infrastructure.logging.Logger;
+import org.webcat.ecommerce.datahandler.infrastructure.profiling.ETLFlightRecorder;
+
+/**
+ * {@link RecordingController}
+ * <p>
+ * Starts, dumps and stops the flight recording of {@link ETLFlightRecorder}. A dump is a .jfr
+ * file, opened with JDK Mission Control or `jfr print --events org.webcat.etl.*`.
+ * </p>
+ */
+@RestController
+@RequestMapping("/etl/recording")
+public class RecordingController
+{
+
+  private static final Logger LOG =
+      Logger.get(RecordingController.class);
+
+  private final ETLFlightRecorder recorder;
+
+  public RecordingController(
+      ETLFlightRecorder recorder)
+  {
+    this.recorder = recorder;
+  }
+
+  // Handler for starting a recording, 409 if one is running already.
+  @PostMapping("/start")
+  public ResponseEntity<RecordingStatusDTO> startRecording(
+      @RequestParam(defaultValue = "default") String settings)
+  {
+    Boolean started;
+    try
+    {
+      started = this.recorder.start(settings);
+    } catch (IllegalArgumentException e)
+    {
+      return ResponseEntity.badRequest()
+          .build();
+    }
+
+    return ResponseEntity.status(
+        started ? HttpStatus.OK
+            : HttpStatus.CONFLICT)
+        .body(this.status());
+  }
+
+  // Handler for downloading what the running recording holds, it keeps
+  // running.
+  @PostMapping("/dump")
+  public ResponseEntity<StreamingResponseBody> dumpRecording()
+  {
+    Path file = this.recorder.dump();
+    if (file == null)
+    {
+      return ResponseEntity.notFound()
+          .build();
+    }
+
+    StreamingResponseBody body = output -> {
+      try (InputStream input =
+          Files.newInputStream(file))
+      {
+        input.transferTo(output);
+      } finally
+      {
+        Files.deleteIfExists(file);
+      }
+    };
+
+    LOG.info("Dumping the flight recording");
+    return ResponseEntity.ok()
+        .header(
+            HttpHeaders.CONTENT_DISPOSITION,
+            "attachment; filename=\"etl.jfr\"")
+        .contentType(
+            MediaType.APPLICATION_OCTET_STREAM)
+        .body(body);
+  }
+
+  // Handler for stopping the recording, its data is dropped.
+  @PostMapping("/stop")
+  public ResponseEntity<RecordingStatusDTO> stopRecording()
+  {
+    if (!this.recorder.stop())
+    {
+      return ResponseEntity.notFound()
+          .build();
+    }
+
+    return ResponseEntity
+        .ok(this.status());
+  }
+
+  @GetMapping
+  public ResponseEntity<RecordingStatusDTO> checkRecording()
+  {
+    return ResponseEntity
+        .ok(this.status());
+  }
+
+  private RecordingStatusDTO status()
+  {
+    return new RecordingStatusDTO(
+        this.recorder.isRecording(),
+        this.recorder.getSettings(),
+        this.recorder.getStartTime());
+  }
+}
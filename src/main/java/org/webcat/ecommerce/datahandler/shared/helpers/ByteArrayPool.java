@@ -0,0 +1,207 @@
+package org.webcat.ecommerce.datahandler.shared.helpers;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ByteArrayPool}
+ * <p>
+ * Reuses the byte arrays records are read into, so streaming a file doesn't allocate a fresh
+ * array (and garbage) per record.
+ * </p>
+ * <p>
+ * <li>Arrays are handed out in power of two sizes, from 1 KiB up to maxArraySize. Larger requests
+ * get an array of their own that isn't pooled.</li>
+ * <li>At most maxRetainedBytes are kept idle in the pool, released arrays past that are left to
+ * the GC.</li>
+ * <li>An array must not be touched after it was released.</li>
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method byte[] acquire(Integer minLength)}</li>
+ * <li>{@method void release(byte[] array)}</li>
+ * <li>{@method Output output()}</li>
+ * <li>{@method Long getRetainedBytes()}</li>
+ */
+public class ByteArrayPool
+{
+
+  /**
+   * An OutputStream writing into pooled arrays. take() hands the bytes written so far over to the
+   * caller and the next write starts a new array. close() does nothing, so a JsonGenerator can be
+   * closed over it.
+   */
+  public class Output
+      extends OutputStream
+  {
+    private byte[] buffer;
+    private Integer count = 0;
+
+    private Output()
+    {}
+
+    @Override
+    public void write(int b)
+    {
+      this.ensureCapacity(1);
+      this.buffer[this.count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes,
+        int offset, int length)
+    {
+      this.ensureCapacity(length);
+      System.arraycopy(bytes, offset,
+          this.buffer, this.count, length);
+      this.count += length;
+    }
+
+    // The array holds getCount() bytes, the caller releases it.
+    public byte[] take()
+    {
+      byte[] taken = this.buffer != null
+          ? this.buffer
+          : new byte[0];
+      this.buffer = null;
+      this.count = 0;
+      return taken;
+    }
+
+    public Integer getCount()
+    {
+      return this.count;
+    }
+
+    private void ensureCapacity(
+        Integer extra)
+    {
+      if (this.buffer == null)
+      {
+        this.buffer = ByteArrayPool.this
+            .acquire(extra);
+        return;
+      }
+      if (this.count + extra <= this.buffer.length)
+      {
+        return;
+      }
+
+      byte[] grown = ByteArrayPool.this
+          .acquire(Math.max(
+              this.count + extra,
+              this.buffer.length * 2));
+      System.arraycopy(this.buffer, 0,
+          grown, 0, this.count);
+      ByteArrayPool.this
+          .release(this.buffer);
+      this.buffer = grown;
+    }
+  }
+
+  private static final Integer MIN_ARRAY_SIZE =
+      1024;
+
+  private final Integer maxArraySize;
+  private final Long maxRetainedBytes;
+
+  // One queue per size class, 1 KiB, 2 KiB, ... maxArraySize.
+  // One queue per size class.
+  private final List<ConcurrentLinkedQueue<byte[]>> idle;
+  private final AtomicLong retainedBytes =
+      new AtomicLong(0L);
+
+  @SuppressWarnings("unchecked")
+  public ByteArrayPool(
+      Integer maxArraySize,
+      Long maxRetainedBytes)
+  {
+    if (maxArraySize < MIN_ARRAY_SIZE
+        || Integer.bitCount(maxArraySize) != 1
+        || maxRetainedBytes < 0)
+    {
+      throw new IllegalArgumentException(
+          "Max pooled array size must be a power of two of at least 1 KiB");
+    }
+
+    this.maxArraySize = maxArraySize;
+    this.maxRetainedBytes =
+        maxRetainedBytes;
+    Integer sizeClasses =
+        this.sizeClass(maxArraySize) + 1;
+    this.idle = new ArrayList<>(sizeClasses);
+    for (Integer i = 0; i < sizeClasses; i++)
+    {
+      this.idle.add(
+          new ConcurrentLinkedQueue<>());
+    }
+  }
+
+  /**
+   * Returns an array of at least minLength bytes, its content is undefined.
+   */
+  public byte[] acquire(Integer minLength)
+  {
+    if (minLength > this.maxArraySize)
+    {
+      return new byte[minLength];
+    }
+
+    Integer sizeClass = this.sizeClass(
+        Math.max(minLength,
+            MIN_ARRAY_SIZE));
+    byte[] array =
+        this.idle.get(sizeClass).poll();
+    if (array == null)
+    {
+      return new byte[MIN_ARRAY_SIZE << sizeClass];
+    }
+    this.retainedBytes
+        .addAndGet(-array.length);
+    return array;
+  }
+
+  /**
+   * Gives an array back. Arrays that didn't come from the pool, or don't fit in it anymore, are
+   * dropped.
+   */
+  public void release(byte[] array)
+  {
+    Integer length = array.length;
+    if (length < MIN_ARRAY_SIZE
+        || length > this.maxArraySize
+        || Integer.bitCount(length) != 1)
+    {
+      return;
+    }
+    if (this.retainedBytes.addAndGet(
+        length) > this.maxRetainedBytes)
+    {
+      this.retainedBytes
+          .addAndGet(-length);
+      return;
+    }
+    this.idle.get(this.sizeClass(length))
+        .offer(array);
+  }
+
+  public Output output()
+  {
+    return new Output();
+  }
+
+  public Long getRetainedBytes()
+  {
+    return this.retainedBytes.get();
+  }
+
+  // The smallest class holding length bytes, length is at least 1 KiB.
+  private Integer sizeClass(
+      Integer length)
+  {
+    return 32 - Integer.numberOfLeadingZeros(
+        length - 1) - 10;
+  }
+}
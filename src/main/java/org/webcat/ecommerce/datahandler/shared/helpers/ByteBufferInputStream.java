@@ -0,0 +1,112 @@
+package org.webcat.ecommerce.datahandler.shared.helpers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link ByteBufferInputStream}
+ * <p>
+ * An InputStream over a ByteBuffer, mostly a memory mapped file. Reads copy straight out of the
+ * mapping, there's no read() call into the kernel per chunk and no buffer of the file on the heap.
+ * </p>
+ * <p>
+ * Closing it does nothing, a mapping is released once the buffer is garbage collected. The file
+ * can be deleted or replaced while it's mapped.
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method static InputStream map(Path file, Long offset)}</li>
+ */
+public class ByteBufferInputStream
+    extends InputStream
+{
+
+  private final ByteBuffer buffer;
+
+  public ByteBufferInputStream(
+      ByteBuffer buffer)
+  {
+    this.buffer = buffer;
+  }
+
+  /**
+   * The content of a file from offset on, memory mapped. A file too large to map in one piece (past
+   * 2 GiB) is read through its channel instead.
+   */
+  public static InputStream map(Path file,
+      Long offset) throws IOException
+  {
+    FileChannel channel = FileChannel
+        .open(file, StandardOpenOption.READ);
+    try
+    {
+      Long length = channel.size() - offset;
+      if (length > Integer.MAX_VALUE)
+      {
+        channel.position(offset);
+        return Channels
+            .newInputStream(channel);
+      }
+      // The mapping stays valid once the channel is closed.
+      InputStream content =
+          new ByteBufferInputStream(
+              channel.map(
+                  FileChannel.MapMode.READ_ONLY,
+                  offset, length));
+      channel.close();
+      return content;
+    } catch (IOException
+        | RuntimeException e)
+    {
+      channel.close();
+      throw e;
+    }
+  }
+
+  @Override
+  public int read()
+  {
+    return this.buffer.hasRemaining()
+        ? this.buffer.get() & 0xff
+        : -1;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset,
+      int length)
+  {
+    if (length == 0)
+    {
+      return 0;
+    }
+    if (!this.buffer.hasRemaining())
+    {
+      return -1;
+    }
+    int read = Math.min(length,
+        this.buffer.remaining());
+    this.buffer.get(bytes, offset, read);
+    return read;
+  }
+
+  @Override
+  public long skip(long n)
+  {
+    int skipped = (int) Math.max(0,
+        Math.min(n,
+            this.buffer.remaining()));
+    this.buffer.position(
+        this.buffer.position() + skipped);
+    return skipped;
+  }
+
+  @Override
+  public int available()
+  {
+    return this.buffer.remaining();
+  }
+}
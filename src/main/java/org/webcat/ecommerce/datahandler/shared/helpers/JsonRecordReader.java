@@ -0,0 +1,105 @@
+package org.webcat.ecommerce.datahandler.shared.helpers;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.webcat.ecommerce.datahandler.domain.model.entities.RawData;
+import org.webcat.ecommerce.datahandler.domain.service.etl.interfaces.RecordSink;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * {@link JsonRecordReader}
+ * <p>
+ * Reads the records of a json stream one at a time with a {@link JsonParser}, so only the record
+ * being read is ever in memory. Two layouts are understood:
+ * </p>
+ * <p>
+ * <li>A top-level array, every element is a record.</li>
+ * <li>NDJSON (or any sequence of root values), every root value is a record.</li>
+ * </p>
+ * <p>
+ * A record is copied as UTF-8 into an array of the {@link ByteArrayPool}, whoever is done with
+ * the record releases it.
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method Integer read(InputStream input, Long rawId, RecordSink sink)}</li>
+ */
+public class JsonRecordReader
+{
+
+  private final JsonFactory jsonFactory;
+  private final ByteArrayPool bufferPool;
+
+  public JsonRecordReader(
+      JsonFactory jsonFactory)
+  {
+    // Up to 1 MiB arrays, 64 MiB kept idle.
+    this(jsonFactory, new ByteArrayPool(
+        1 << 20, 64L << 20));
+  }
+
+  public JsonRecordReader(
+      JsonFactory jsonFactory,
+      ByteArrayPool bufferPool)
+  {
+    this.jsonFactory = jsonFactory;
+    this.bufferPool = bufferPool;
+  }
+
+  /**
+   * Hands every record of input to sink as a RawData of rawId, in order. Returns the number of
+   * records. The input isn't closed.
+   */
+  public Integer read(InputStream input,
+      Long rawId, RecordSink sink)
+      throws IOException, InterruptedException
+  {
+    try (JsonParser parser = this.jsonFactory
+        .createParser(input))
+    {
+      parser.disable(
+          JsonParser.Feature.AUTO_CLOSE_SOURCE);
+      JsonToken token = parser.nextToken();
+      Boolean array =
+          token == JsonToken.START_ARRAY;
+      if (array)
+      {
+        token = parser.nextToken();
+      }
+
+      Integer recordIndex = 0;
+      ByteArrayPool.Output record =
+          this.bufferPool.output();
+      while (token != null
+          && token != JsonToken.END_ARRAY)
+      {
+        // Copying the record's tokens out, no tree of it is built.
+        try (JsonGenerator generator =
+            this.jsonFactory.createGenerator(
+                record, JsonEncoding.UTF8))
+        {
+          generator.copyCurrentStructure(
+              parser);
+        }
+
+        Integer length = record.getCount();
+        sink.accept(new RawData(rawId,
+            record.take(), 0, length,
+            recordIndex++, this.bufferPool));
+        token = parser.nextToken();
+      }
+
+      if (array && token == null)
+      {
+        throw new IOException(
+            "Unterminated json array");
+      }
+      return recordIndex;
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package org.webcat.ecommerce.datahandler.shared.helpers;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import org.webcat.ecommerce.datahandler.domain.model.entities.RawData;
+
+/**
+ * {@link RecordDigest}
+ * <p>
+ * A SHA-256 content hash of the records of a raw object, fed one record at a time while the
+ * object is read.
+ * </p>
+ * <p>
+ * <li>Every record is hashed with its length in front, so the hash doesn't depend on where one
+ * record ends and the next begins.</li>
+ * <li>Records are hashed as the compact UTF-8 json they're read as, the same records give the same
+ * hash whatever the layout (NDJSON, json array) or compression of the object.</li>
+ * </p>
+ * <h4>Methods:</h4>
+ * <li>{@method void update(RawData record)}</li>
+ * <li>{@method String finish()}</li>
+ */
+public class RecordDigest
+{
+
+  private final MessageDigest digest;
+  private final byte[] lengthPrefix =
+      new byte[4];
+
+  public RecordDigest()
+  {
+    try
+    {
+      this.digest = MessageDigest
+          .getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e)
+    {
+      throw new RuntimeException(
+          "SHA-256 isn't available", e);
+    }
+  }
+
+  public void update(RawData record)
+  {
+    Integer length =
+        record.getContentLength();
+    this.lengthPrefix[0] =
+        (byte) (length >>> 24);
+    this.lengthPrefix[1] =
+        (byte) (length >>> 16);
+    this.lengthPrefix[2] =
+        (byte) (length >>> 8);
+    this.lengthPrefix[3] = (byte) (int) length;
+    this.digest.update(this.lengthPrefix);
+    this.digest.update(
+        record.getContentArray(),
+        record.getContentOffset(), length);
+  }
+
+  // The hash as lower case hex, the digest starts over afterwards.
+  public String finish()
+  {
+    return HexFormat.of()
+        .formatHex(this.digest.digest());
+  }
+}
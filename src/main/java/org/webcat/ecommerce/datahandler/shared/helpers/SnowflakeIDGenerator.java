@@ -1,5 +1,8 @@
 package org.webcat.ecommerce.datahandler.shared.helpers;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
@@ -9,130 +12,176 @@ public class SnowflakeIDGenerator
 
   // A custom starting time (in milliseconds), we will always take a timestamp of (now - epoch).
   // We take the time difference so the time would be smaller than using full Unix timestamps.
-  private final Long epoch =
-      1741611497L; // Monday, 10 March 2025 13:58:17 GMT+01:00
-
-  // This makes the snowflake id unique over multiple data centers.
-  private final Integer datacenterId;
-  // This makes the snowflake id unique over multiple machines/servers.
-  private final Integer machineId;
-  // In case the same machine generates multiple ids in the same millisecond, we use a counter to
-  // create a unique id.
-  private Long sequence = 0L;
-
-  private final Integer sequenceBits =
+  private static final long EPOCH =
+      1741611497000L; // Monday, 10 March 2025 13:58:17 GMT+01:00
+
+  private static final int SEQUENCE_BITS =
       12;
-  private final Integer machineIdBits =
+  private static final int MACHINE_ID_BITS =
       5;
-  private final Integer datacenterIdBits =
+  private static final int DATACENTER_ID_BITS =
       5;
 
   // The max binary number for the id is the left shift (next higher power of 2) minus 1, so that the
   // higher power we just added turns to zero and the bits to the right of it are 1.
-  private final Integer maxMachineId =
-      (1 << this.machineIdBits) - 1;
+  private static final int MAX_MACHINE_ID =
+      (1 << MACHINE_ID_BITS) - 1;
 
-  private final Integer maxDatacenterId =
-      (1 << this.datacenterIdBits) - 1;
+  private static final int MAX_DATACENTER_ID =
+      (1 << DATACENTER_ID_BITS) - 1;
 
   // A bitmask that limits the sequence number to sequenceBits bits.
   // Example (0b111111111111) for sequenceBits = 12.
-  private final Long sequenceMask =
-      (1L << this.sequenceBits) - 1L; // left shift - 1 = max number within the range of sequenceBits.
+  private static final long SEQUENCE_MASK =
+      (1L << SEQUENCE_BITS) - 1L; // left shift - 1 = max number within the range of sequenceBits.
+
+  private static final int TIMESTAMP_SHIFT =
+      MACHINE_ID_BITS + DATACENTER_ID_BITS
+          + SEQUENCE_BITS;
+
+  // The datacenter and machine bits are the same for every id, so they are
+  // shifted into place once.
+  // The datacenter id makes the snowflake id unique over multiple data centers and the machine id
+  // over multiple machines/servers.
+  private final long nodeBits;
 
-  // The last timestamp used to generate an ID.
-  // If the current timestamp is the same as the last timestamp, we do one of 3 things:
+  // The last timestamp and sequence used, packed into one word as
+  // (timestamp << sequenceBits) | sequence.
+  // Packed like this the state is just a counter: adding 1 moves to the next sequence number, and
+  // when the sequence overflows the carry moves the timestamp to the next millisecond. So:
 
-  // 1. Increment the sequence number (if still in the same millisecond).
+  // 1. Same millisecond as the last id: the next id is state + 1.
 
-  // 2. Wait until the next millisecond
-  // (if after incrementing and filtering with the mask, the
-  // sequence number is 0, i.e. the sequence has overflowed,
-  // we have to wait for the next millisecond).
+  // 2. Sequence overflowed: state + 1 already belongs to the next millisecond. We borrow that
+  // millisecond instead of spinning until the clock gets there, the clock catches up as soon as
+  // the burst is over.
 
-  // 3. Reset the sequence number (if a new millisecond has started).
-  private Long previousTimestamp = -1L;
+  // 3. New millisecond: the state jumps to (now << sequenceBits), which resets the sequence.
+
+  // A clock that moved backwards is case 1 or 2: the ids keep counting up from the last state
+  // until the clock passes it again, so there's nothing to throw.
+  private final AtomicLong state =
+      new AtomicLong(-1L);
+
+  // Compare-and-sets lost to another thread, the only time a caller
+  // spends waiting for an id.
+  private final LongAdder casRetries =
+      new LongAdder();
 
   public SnowflakeIDGenerator(
       @Value("${snowflake.datacenter-id}") Integer datacenterId,
       @Value("${snowflake.machine-id}") Integer machineId)
   {
-    if (machineId > this.maxMachineId
+    if (machineId > MAX_MACHINE_ID
         || machineId < 0)
     {
       throw new IllegalArgumentException(
           "Machine ID out of range");
     }
 
-    if (datacenterId > this.maxDatacenterId
+    if (datacenterId > MAX_DATACENTER_ID
         || datacenterId < 0)
     {
       throw new IllegalArgumentException(
           "Datacenter ID out of range");
     }
-    this.datacenterId = datacenterId;
-    this.machineId = machineId;
+
+    this.nodeBits =
+        ((long) datacenterId << (MACHINE_ID_BITS
+            + SEQUENCE_BITS))
+            | ((long) machineId << SEQUENCE_BITS);
   }
 
-  // The synchronized keyword locks the method so that only one
-  // thread can access it at a time if multiple threads use the same
-  // generator instance.
-  public synchronized Long generateId()
+  // Lock free: threads race on a compare-and-set of the state word and the
+  // loser just retries with the new state.
+  public long generateId()
   {
-    Long timestamp =
-        System.currentTimeMillis();
+    return this.toId(this.reserve(1));
+  }
+
+  /**
+   * Reserves n consecutive ids in a single compare-and-set, for bulk loaders that need thousands of
+   * ids at once.
+   *
+   * @param n The number of ids.
+   * @return The ids, in increasing order.
+   */
+  public long[] generateIds(int n)
+  {
+    if (n < 0)
+    {
+      throw new IllegalArgumentException(
+          "Number of ids can't be negative");
+    }
+
+    long[] ids = new long[n];
+    if (n == 0)
+    {
+      return ids;
+    }
 
-    if (timestamp < this.previousTimestamp)
+    long first = this.reserve(n);
+    for (int i = 0; i < n; i++)
     {
-      throw new RuntimeException(
-          "Clock moved backwards");
+      ids[i] = this.toId(first + i);
     }
+    return ids;
+  }
 
-    // If this is the same millisecond as the last time, increment the sequence.
-    if (timestamp == this.previousTimestamp)
+  // Moves the state n steps forward and returns the first state of the
+  // reserved range.
+  private long reserve(int n)
+  {
+    while (true)
     {
-      /**
-       * Explanation in the def of {@link previousTimestamp}
-       */
-      this.sequence =
-          // Bitwise AND with the mask cuts overflowed bits.
-          (this.sequence + 1)
-              & sequenceMask;
-      if (this.sequence == 0L)
+      long current = this.state.get();
+      long now = System.currentTimeMillis()
+          - EPOCH;
+
+      // Explanation in the def of {@link state}.
+      long first = Math.max(current + 1,
+          now << SEQUENCE_BITS);
+
+      if (this.state.compareAndSet(current,
+          first + n - 1))
       {
-        Long initialMillisecond =
-            System.currentTimeMillis();
-        while (System
-            .currentTimeMillis() <= initialMillisecond)
-        {
-          // In case the sequence has overflowed, we need to wait until the next millisecond.
-        }
+        return first;
       }
-    } else
-    {
-      // If this is a new millisecond, reset the sequence to 0.
-      this.sequence = 0L;
+      this.casRetries.increment();
     }
+  }
 
-    this.previousTimestamp = timestamp;
-
-    // The snowflake ID is a 64-bit integer made of:
-    // 1. Timestamp (12 bits)
-    // 2. Datacenter ID (5 bits)
-    // 3. Machine ID (5 bits)
-    // 4. Sequence (12 bits)
-    // The bitwise OR is a binary addition (without carry)
-    // and the left shift takes the entire binary number and puts it to the left while there are zeroes
-    // in the original place.
-    // Than way, it makes room for another number to squeeze in.
-    return ((timestamp
-        - epoch) << (this.machineIdBits
-            + this.datacenterIdBits
-            + this.sequenceBits))
-        | (this.datacenterId << (this.machineIdBits
-            + this.sequenceBits))
-        | (this.machineId << this.sequenceBits)
-        | this.sequence;
+  public long getCasRetries()
+  {
+    return this.casRetries.sum();
+  }
 
+  /**
+   * How many milliseconds the last id handed out is ahead of the clock, 0 unless bursts borrowed
+   * milliseconds (or the clock moved back). Ids keep coming without waiting, but their timestamps
+   * stop telling when they were made.
+   */
+  public long getLeadMillis()
+  {
+    long now = System.currentTimeMillis()
+        - EPOCH;
+    return Math.max(0L, (this.state
+        .get() >> SEQUENCE_BITS) - now);
+  }
+
+  // The snowflake ID is a 64-bit integer made of:
+  // 1. Timestamp (41 bits)
+  // 2. Datacenter ID (5 bits)
+  // 3. Machine ID (5 bits)
+  // 4. Sequence (12 bits)
+  // The bitwise OR is a binary addition (without carry)
+  // and the left shift takes the entire binary number and puts it to the left while there are zeroes
+  // in the original place.
+  // Than way, it makes room for another number to squeeze in.
+  private long toId(long packedState)
+  {
+    return ((packedState >>> SEQUENCE_BITS) << TIMESTAMP_SHIFT)
+        | this.nodeBits
+        | (packedState & SEQUENCE_MASK);
   }
 }
@@ -0,0 +1,4 @@
+alter table processed_data
+modify column raw_data_id int not null,
+modify column id int not null auto_increment
+;
@@ -0,0 +1,7 @@
+-- Processed data ids are now snowflake ids assigned by the app before the
+-- insert (identity ids turn off insert batching). Raw data ids are snowflake
+-- ids as well, so both columns need 64 bits.
+alter table processed_data
+modify column id bigint not null,
+modify column raw_data_id bigint not null
+;
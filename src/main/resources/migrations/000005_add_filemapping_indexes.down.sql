@@ -0,0 +1,4 @@
+drop index uq_file_mapping_new_name on file_mapping
+;
+drop index idx_file_mapping_original_name on file_mapping
+;
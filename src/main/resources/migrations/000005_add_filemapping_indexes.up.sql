@@ -0,0 +1,6 @@
+-- Lookups and webhook deletes filter on the names, every new name is a
+-- unique snowflake based object name.
+create index idx_file_mapping_original_name on file_mapping (original_name)
+;
+create unique index uq_file_mapping_new_name on file_mapping (new_name)
+;
@@ -0,0 +1,11 @@
+-- Rolling back drops every streamed record but the first of its object
+-- (record_index > 0): without the column a raw id is unique again, so only
+-- one row per raw id can stay.
+delete from processed_data
+where record_index > 0
+;
+alter table processed_data
+drop index uq_processed_data_raw_record,
+drop column record_index,
+add unique index raw_data_id (raw_data_id)
+;
@@ -0,0 +1,7 @@
+-- A streamed raw object holds many records, each one is a processed row, so
+-- a raw id is only unique together with the record index.
+alter table processed_data
+drop index raw_data_id,
+add column record_index int not null default 0 after raw_data_id,
+add unique index uq_processed_data_raw_record (raw_data_id, record_index)
+;
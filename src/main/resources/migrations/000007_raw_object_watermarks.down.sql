@@ -0,0 +1,2 @@
+drop table if exists raw_object_watermarks
+;
\ No newline at end of file
@@ -0,0 +1,10 @@
+-- The version (etag / last modified) of every raw object when it was last
+-- loaded, incremental runs only reload objects whose version changed.
+create table
+  raw_object_watermarks (
+    object_name varchar(255) not null primary key,
+    etag varchar(128) null,
+    last_modified timestamp(3) null,
+    loaded_at timestamp(3) not null default current_timestamp(3) on update current_timestamp(3)
+  )
+;
@@ -0,0 +1,2 @@
+drop table if exists raw_segment_index
+;
\ No newline at end of file
@@ -0,0 +1,17 @@
+-- Where every raw object packed into a segment by the compaction lives:
+-- its byte range in the segment and the version it had before it was
+-- packed, so its name, watermark and file mapping stay valid.
+create table
+  raw_segment_index (
+    raw_id bigint not null primary key,
+    segment_name varchar(255) not null,
+    byte_offset bigint not null,
+    byte_length int not null,
+    content_encoding varchar(32) null,
+    etag varchar(128) null,
+    last_modified timestamp(3) null,
+    compacted_at timestamp(3) not null default current_timestamp(3)
+  )
+;
+create index idx_raw_segment_index_segment on raw_segment_index (segment_name)
+;
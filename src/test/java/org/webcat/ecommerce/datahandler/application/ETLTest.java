@@ -0,0 +1,1044 @@
+package org.webcat.ecommerce.datahandler.application;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ClassPathResource;
+import org.webcat.ecommerce.datahandler.application.dtos.ETLRequestDTO;
+import org.webcat.ecommerce.datahandler.application.dtos.ETLResponseDTO;
+import org.webcat.ecommerce.datahandler.application.dtos.MinioEventDTO;
+import org.webcat.ecommerce.datahandler.application.dtos.WebhookResponseDTO;
+import org.webcat.ecommerce.datahandler.application.jobs.WebhookIngestionQueue;
+import org.webcat.ecommerce.datahandler.application.pipeline.ETLPipeline;
+import org.webcat.ecommerce.datahandler.application.pipeline.IncrementalPlanner;
+import org.webcat.ecommerce.datahandler.application.pipeline.PipelineListener;
+import org.webcat.ecommerce.datahandler.application.pipeline.PipelineResult;
+import org.webcat.ecommerce.datahandler.application.use_cases.implementations.ETLMinImp;
+import org.webcat.ecommerce.datahandler.application.use_cases.interfaces.ETL;
+import org.webcat.ecommerce.datahandler.domain.model.entities.ProcessedData;
+import org.webcat.ecommerce.datahandler.domain.model.entities.RawData;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ETLStatus;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ExtractionResult;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ObjectScan;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ObjectVersion;
+import org.webcat.ecommerce.datahandler.domain.service.datavalidation.implementations.DataValidationServiceImpl;
+import org.webcat.ecommerce.datahandler.domain.service.datavalidation.interfaces.DataValidationService;
+import org.webcat.ecommerce.datahandler.domain.service.etl.implementations.ExtractDataImpl;
+import org.webcat.ecommerce.datahandler.domain.service.etl.implementations.LoadDataImpl;
+import org.webcat.ecommerce.datahandler.domain.service.etl.implementations.TransformDataImpl;
+import org.webcat.ecommerce.datahandler.domain.service.etl.interfaces.LoadData;
+import org.webcat.ecommerce.datahandler.domain.service.etl.interfaces.RecordSink;
+import org.webcat.ecommerce.datahandler.domain.service.etl.interfaces.TransformData;
+import org.webcat.ecommerce.datahandler.domain.service.etl.transformation.TransformPlan;
+import org.webcat.ecommerce.datahandler.infrastructure.cache.FileMappingNearCache;
+import org.webcat.ecommerce.datahandler.infrastructure.cache.HazelcastContentIndex;
+import org.webcat.ecommerce.datahandler.infrastructure.cache.HazelcastETLCache;
+import org.webcat.ecommerce.datahandler.infrastructure.metrics.ETLMetrics;
+import org.webcat.ecommerce.datahandler.infrastructure.profiling.ETLFlightRecorder;
+import org.webcat.ecommerce.datahandler.infrastructure.cache.ProcessedRawIdFilter;
+import org.webcat.ecommerce.datahandler.infrastructure.repository.ObjectWatermarkRepository;
+import org.webcat.ecommerce.datahandler.infrastructure.repository.ProcessedDataRepository;
+import org.webcat.ecommerce.datahandler.infrastructure.repository.RawDataRepository;
+import org.webcat.ecommerce.datahandler.shared.helpers.JsonRecordReader;
+import org.webcat.ecommerce.datahandler.shared.helpers.SnowflakeIDGenerator;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+class ETLTest
+{
+
+  // Files named "bad-*" can't be extracted, files named "broken-*" can't
+  // be saved. Files named "copy-*" hold the same payload as the file without
+  // the prefix. The bucket lists fileNames(100), file i was last modified i
+  // seconds after the epoch.
+  private static class InMemoryRawDataRepository
+      implements RawDataRepository
+  {
+    @Override
+    public RawData findById(Long id)
+    {
+      return null;
+    }
+
+    @Override
+    public RawData findByFileName(
+        String fileName)
+    {
+      if (fileName.startsWith("bad-"))
+      {
+        throw new RuntimeException(
+            "Failed to fetch raw data with name: "
+                + fileName);
+      }
+      return new RawData(
+          (long) fileName.hashCode(),
+          "{\"file\": \""
+              + payloadName(fileName) + "\"}");
+    }
+
+    @Override
+    public Boolean save(RawData rawData)
+    {
+      return true;
+    }
+
+    private static String payloadName(
+        String fileName)
+    {
+      return fileName.startsWith("copy-")
+          ? fileName.substring(5)
+          : fileName;
+    }
+
+    @Override
+    public ObjectVersion stat(
+        String fileName)
+    {
+      return new ObjectVersion(
+          "etag-" + fileName, null);
+    }
+
+    @Override
+    public Long rawIdOf(String fileName)
+    {
+      return (long) fileName.hashCode();
+    }
+
+    @Override
+    public String generateObjectName(
+        Long id)
+    {
+      return "raw-data_" + id + ".json";
+    }
+
+    @Override
+    public Boolean renameObject(
+        String oldName, String newName)
+    {
+      return true;
+    }
+
+    @Override
+    public Iterator<String> listObjectNames(
+        ObjectScan scan)
+    {
+      List<String> listed = fileNames(100);
+      return IntStream
+          .range(0, listed.size())
+          .filter(i -> listed.get(i)
+              .startsWith(scan.prefix())
+              && scan.includes(
+                  Instant.ofEpochSecond(i)))
+          .mapToObj(listed::get)
+          .iterator();
+    }
+
+    // Every file is three NDJSON records.
+    @Override
+    public Integer streamRecords(
+        String fileName, RecordSink sink)
+        throws InterruptedException
+    {
+      if (fileName.startsWith("bad-"))
+      {
+        throw new RuntimeException(
+            "Failed to stream raw data with name: "
+                + fileName);
+      }
+      String ndjson = "";
+      for (Integer i = 0; i < 3; i++)
+      {
+        ndjson += "{\"file\": \""
+            + payloadName(fileName)
+            + "\", \"record\": " + i
+            + "}\n";
+      }
+      try
+      {
+        return new JsonRecordReader(
+            new JsonFactory()).read(
+                new ByteArrayInputStream(
+                    ndjson.getBytes(
+                        StandardCharsets.UTF_8)),
+                (long) fileName.hashCode(),
+                sink);
+      } catch (IOException e)
+      {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  private static class InMemoryLoad
+      implements LoadData
+  {
+    private final AtomicLong nextId =
+        new AtomicLong(1);
+
+    @Override
+    public Boolean save(
+        ProcessedData processedData)
+    {
+      return this.saveAll(
+          List.of(processedData))[0];
+    }
+
+    @Override
+    public Boolean[] saveAll(
+        List<ProcessedData> processedData)
+    {
+      Boolean[] results =
+          new Boolean[processedData.size()];
+      for (Integer i =
+          0; i < processedData.size(); i++)
+      {
+        ProcessedData row =
+            processedData.get(i);
+        results[i] = !row
+            .getTransformedData()
+            .contains("BROKEN-");
+        if (results[i])
+        {
+          row.setId(this.nextId
+              .getAndIncrement());
+        }
+      }
+      return results;
+    }
+  }
+
+  private final TransformData transform =
+      rawData -> new ProcessedData(
+          rawData.getID(),
+          rawData.getRawContent()
+              .toUpperCase(),
+          ProcessedData.Status.SUCCESS,
+          new Timestamp(
+              System.currentTimeMillis()));
+
+  private static List<String> fileNames(
+      Integer count)
+  {
+    List<String> fileNames =
+        new ArrayList<>();
+    for (Integer i = 0; i < count; i++)
+    {
+      fileNames.add((i % 10 == 0 ? "bad-"
+          : i % 10 == 5 ? "broken-"
+              : "file-")
+          + i + ".json");
+    }
+    return fileNames;
+  }
+
+  @Test
+  void concurrentExtractionKeepsOrderAndReportsFailures()
+  {
+    ExtractDataImpl extraction =
+        new ExtractDataImpl(
+            new InMemoryRawDataRepository(),
+            true, 4, false);
+    List<String> fileNames =
+        fileNames(200);
+
+    ExtractionResult result =
+        extraction.extractAll(fileNames);
+
+    assertEquals(200, result
+        .getContentOfFiles().size());
+    assertEquals(20,
+        result.getFailures().size());
+    for (Integer i = 0; i < 200; i++)
+    {
+      RawData rawData = result
+          .getContentOfFiles().get(i);
+      if (i % 10 == 0)
+      {
+        assertNull(rawData);
+      } else
+      {
+        assertEquals(
+            (long) fileNames.get(i)
+                .hashCode(),
+            rawData.getID());
+      }
+    }
+    assertEquals(fileNames.get(10),
+        result.getFailures().get(1)
+            .getFileName());
+    // The failure of the async read, not the future's wrapper.
+    assertEquals(
+        "Failed to fetch raw data with name: "
+            + fileNames.get(10),
+        result.getFailures().get(1)
+            .getCause().getMessage());
+  }
+
+  @Test
+  void etlJobPublishesItsStatus()
+  {
+    ETLPipeline pipeline =
+        new ETLPipeline(
+            new ExtractDataImpl(
+                new InMemoryRawDataRepository(),
+                true, 8, false),
+            this.transform,
+            new InMemoryLoad(), 2, 2, 1, 8,
+            16);
+    HazelcastETLCache etlCache =
+        new HazelcastETLCache(
+            new ConcurrentHashMap<>());
+    // Jobs run on the calling thread.
+    ETLMinImp etl = new ETLMinImp(null,
+        pipeline, null, etlCache,
+        new SnowflakeIDGenerator(1, 1),
+        Runnable::run, 0L,
+        ETLMetrics.NONE);
+
+    ETLResponseDTO queued =
+        etl.runETL(new ETLRequestDTO(
+            fileNames(50)));
+
+    assertEquals(ETLStatus.PENDING,
+        queued.getStatus());
+    ETLResponseDTO done = etl
+        .checkETLStatus(queued.getProcessID());
+    assertEquals(ETLStatus.LOADED,
+        done.getStatus());
+    assertEquals(50, done.getTotalFiles());
+    assertEquals(40, done.getLoadedFiles());
+    assertEquals(10, done.getFailedFiles());
+    assertEquals(50,
+        done.getProcessedFilesIDs().length);
+    assertNull(etl.checkETLStatus("0"));
+  }
+
+  @Test
+  void prefixScanRunsTheListedFiles()
+  {
+    ETLPipeline pipeline =
+        new ETLPipeline(
+            new ExtractDataImpl(
+                new InMemoryRawDataRepository(),
+                true, 8, false),
+            this.transform,
+            new InMemoryLoad(), 2, 2, 1, 8,
+            16);
+    HazelcastETLCache etlCache =
+        new HazelcastETLCache(
+            new ConcurrentHashMap<>());
+    ETLMinImp etl = new ETLMinImp(null,
+        pipeline, null, etlCache,
+        new SnowflakeIDGenerator(1, 1),
+        Runnable::run, 0L,
+        ETLMetrics.NONE);
+
+    // file-11 .. file-39 without the bad-* and broken-* ones.
+    ETLResponseDTO queued =
+        etl.runETL(new ETLRequestDTO(null,
+            "file-", Instant.ofEpochSecond(10),
+            Instant.ofEpochSecond(40)));
+
+    ETLResponseDTO done = etl
+        .checkETLStatus(queued.getProcessID());
+    assertEquals(ETLStatus.LOADED,
+        done.getStatus());
+    assertEquals(24, done.getTotalFiles());
+    assertEquals(24, done.getLoadedFiles());
+    assertEquals(0, done.getFailedFiles());
+    // A scan doesn't collect ids.
+    assertNull(done.getProcessedFilesIDs());
+
+    PipelineResult everything =
+        pipeline.run(
+            new ObjectScan(null, "", null,
+                null),
+            PipelineListener.NONE);
+    assertEquals(100,
+        everything.getFileCount());
+    assertEquals(20,
+        everything.getFailCounter());
+
+    // No prefix, or empty time bounds.
+    assertNull(etl.runETL(
+        new ETLRequestDTO()));
+    assertNull(etl.runETL(
+        new ETLRequestDTO(null, "file-",
+            Instant.ofEpochSecond(40),
+            Instant.ofEpochSecond(40))));
+  }
+
+  @Test
+  void incrementalRunsSkipUnchangedFiles()
+  {
+    ProcessedDataRepository processedRepo =
+        mock(ProcessedDataRepository.class);
+    // The rows saved by the last run.
+    List<ProcessedData> savedRows =
+        Collections.synchronizedList(
+            new ArrayList<>());
+    when(processedRepo.saveAll(anyList()))
+        .thenAnswer(call -> {
+          List<ProcessedData> rows =
+              call.getArgument(0);
+          savedRows.addAll(rows);
+          Boolean[] saved =
+              new Boolean[rows.size()];
+          for (Integer i =
+              0; i < rows.size(); i++)
+          {
+            rows.get(i).setId(i + 1L);
+            saved[i] = true;
+          }
+          return saved;
+        });
+    Map<String, ObjectVersion> watermarks =
+        new ConcurrentHashMap<>();
+    ObjectWatermarkRepository watermarkRepo =
+        new ObjectWatermarkRepository()
+        {
+          @Override
+          public Map<String, ObjectVersion> findByObjectNames(
+              List<String> objectNames)
+          {
+            Map<String, ObjectVersion> found =
+                new HashMap<>();
+            for (String name : objectNames)
+            {
+              if (watermarks.containsKey(name))
+              {
+                found.put(name,
+                    watermarks.get(name));
+              }
+            }
+            return found;
+          }
+
+          @Override
+          public void saveAll(
+              Map<String, ObjectVersion> versions)
+          {
+            watermarks.putAll(versions);
+          }
+        };
+    ProcessedRawIdFilter processedIds =
+        new ProcessedRawIdFilter(
+            processedRepo, 1000L, 0.01);
+    // Objects whose HEAD fails.
+    Set<String> unreachable =
+        ConcurrentHashMap.newKeySet();
+    InMemoryRawDataRepository rawRepo =
+        new InMemoryRawDataRepository()
+        {
+          @Override
+          public ObjectVersion stat(
+              String fileName)
+          {
+            if (unreachable.contains(fileName))
+            {
+              throw new RuntimeException(
+                  "HEAD failed: " + fileName);
+            }
+            return super.stat(fileName);
+          }
+        };
+    ETLPipeline pipeline =
+        new ETLPipeline(
+            new ExtractDataImpl(rawRepo, true,
+                4, false),
+            this.transform,
+            new LoadDataImpl(processedRepo,
+                processedIds, ETLMetrics.NONE),
+            2, 2, 1, 8, 16);
+    ETLMinImp etl = new ETLMinImp(null,
+        pipeline,
+        new IncrementalPlanner(rawRepo,
+            processedRepo, watermarkRepo,
+            processedIds,
+            new SnowflakeIDGenerator(1, 1),
+            true, 4),
+        new HazelcastETLCache(
+            new ConcurrentHashMap<>()),
+        new SnowflakeIDGenerator(1, 1),
+        Runnable::run, 0L,
+        ETLMetrics.NONE);
+    List<String> fileNames = List.of(
+        "file-0.json", "file-1.json",
+        "file-2.json");
+
+    ETLResponseDTO first = etl.checkETLStatus(
+        etl.runETL(new ETLRequestDTO(
+            fileNames)).getProcessID());
+    assertEquals(3, first.getLoadedFiles());
+    assertEquals(0, first.getSkippedFiles());
+    assertEquals(3, watermarks.size());
+    assertNull(savedRows.get(0)
+        .getReplaceBefore());
+
+    ETLResponseDTO second = etl.checkETLStatus(
+        etl.runETL(new ETLRequestDTO(
+            fileNames)).getProcessID());
+    assertEquals(ETLStatus.LOADED,
+        second.getStatus());
+    assertEquals(0, second.getLoadedFiles());
+    assertEquals(3, second.getSkippedFiles());
+    assertNull(
+        second.getProcessedFilesIDs()[0]);
+
+    // The object changed since it was loaded.
+    watermarks.put("file-1.json",
+        new ObjectVersion("old-etag", null));
+    savedRows.clear();
+    ETLResponseDTO third = etl.checkETLStatus(
+        etl.runETL(new ETLRequestDTO(
+            fileNames)).getProcessID());
+    assertEquals(1, third.getLoadedFiles());
+    assertEquals(2, third.getSkippedFiles());
+    assertNotNull(
+        third.getProcessedFilesIDs()[1]);
+    // Its old rows are only replaced by the save of the new ones.
+    assertEquals(1, savedRows.size());
+    assertNotNull(savedRows.get(0)
+        .getReplaceBefore());
+    assertEquals("etag-file-1.json",
+        watermarks.get("file-1.json").etag());
+
+    // A failed HEAD doesn't make a loaded object a reload.
+    watermarks.put("file-0.json",
+        new ObjectVersion("old-etag", null));
+    unreachable.add("file-0.json");
+    savedRows.clear();
+    ETLResponseDTO fourth = etl.checkETLStatus(
+        etl.runETL(new ETLRequestDTO(
+            fileNames)).getProcessID());
+    assertEquals(0, fourth.getLoadedFiles());
+    assertEquals(3, fourth.getSkippedFiles());
+    assertTrue(savedRows.isEmpty());
+    assertEquals("old-etag",
+        watermarks.get("file-0.json").etag());
+
+    // No false negatives, whatever was added is found.
+    for (Long rawId = 0L; rawId < 1000L; rawId++)
+    {
+      processedIds.add(rawId * 7919L);
+    }
+    for (Long rawId = 0L; rawId < 1000L; rawId++)
+    {
+      assertTrue(processedIds
+          .mightContain(rawId * 7919L));
+    }
+  }
+
+  @Test
+  void identicalPayloadsAreLinkedToTheFirstResult()
+  {
+    HazelcastContentIndex contentIndex =
+        new HazelcastContentIndex(
+            new ConcurrentHashMap<>());
+    InMemoryLoad load = new InMemoryLoad();
+    ETLPipeline pipeline =
+        new ETLPipeline(
+            new ExtractDataImpl(
+                new InMemoryRawDataRepository(),
+                true, 4, true),
+            this.transform, load,
+            contentIndex, 2, 2, 1, 8, 16, true,
+            1024L);
+
+    PipelineResult first = pipeline.run(
+        List.of("file-1.json",
+            "file-2.json"));
+    PipelineResult second = pipeline.run(
+        List.of("copy-file-1.json",
+            "copy-file-2.json",
+            "file-3.json"));
+
+    assertEquals(0,
+        second.getFailCounter());
+    assertEquals(
+        first.getProcessedFilesIDs()[0],
+        second.getProcessedFilesIDs()[0]);
+    assertEquals(
+        first.getProcessedFilesIDs()[1],
+        second.getProcessedFilesIDs()[1]);
+    assertNotNull(
+        second.getProcessedFilesIDs()[2]);
+    // Only the 3 records of file-3 were loaded, after the 6 of the first
+    // run.
+    assertEquals(10L, load.nextId.get());
+
+    // Files that don't fit in the buffer are loaded again.
+    InMemoryLoad unbufferedLoad =
+        new InMemoryLoad();
+    ETLPipeline unbuffered =
+        new ETLPipeline(
+            new ExtractDataImpl(
+                new InMemoryRawDataRepository(),
+                true, 4, true),
+            this.transform, unbufferedLoad,
+            contentIndex, 2, 2, 1, 8, 16, true,
+            1L);
+    unbuffered.run(
+        List.of("copy-file-3.json"));
+    assertEquals(4L,
+        unbufferedLoad.nextId.get());
+  }
+
+  @Test
+  void stagesRecordTheirMetrics()
+  {
+    SimpleMeterRegistry registry =
+        new SimpleMeterRegistry();
+    ETLMetrics metrics =
+        new ETLMetrics(registry);
+    ETLPipeline pipeline =
+        new ETLPipeline(
+            new ExtractDataImpl(
+                new InMemoryRawDataRepository(),
+                true, 8, true, metrics),
+            new TransformDataImpl(
+                TransformPlan.compile(
+                    "{\"fields\": [{\"from\": \"record\", \"type\": \"long\"}]}"),
+                metrics),
+            new InMemoryLoad(), 2, 2, 1, 8,
+            16);
+
+    pipeline.run(fileNames(20));
+
+    assertEquals(20, registry
+        .get("etl.extract")
+        .tag("mode", "streaming").timer()
+        .count());
+    // bad-0 and bad-10.
+    assertEquals(2.0, registry
+        .get("etl.extract.failures")
+        .counter().count());
+    assertEquals(18 * 3.0, registry
+        .get("etl.extract.records")
+        .summary().totalAmount());
+    assertEquals(18 * 3, registry
+        .get("etl.transform").timer()
+        .count());
+  }
+
+  @Test
+  void transformsAreFlightRecorded()
+      throws IOException
+  {
+    ETLPipeline pipeline =
+        new ETLPipeline(
+            new ExtractDataImpl(
+                new InMemoryRawDataRepository(),
+                true, 8, true),
+            new TransformDataImpl(
+                TransformPlan.compile(
+                    "{\"fields\": [{\"from\": \"record\", \"type\": \"long\"}]}")),
+            new InMemoryLoad(), 2, 2, 1, 8,
+            16);
+    ETLFlightRecorder recorder =
+        new ETLFlightRecorder(60L);
+
+    assertTrue(recorder.start("default"));
+    assertFalse(recorder.start("default"));
+    Path dump;
+    try
+    {
+      pipeline.run(fileNames(20));
+      dump = recorder.dump();
+    } finally
+    {
+      recorder.stop();
+    }
+
+    try
+    {
+      List<RecordedEvent> transforms =
+          new ArrayList<>();
+      for (RecordedEvent event : RecordingFile
+          .readAllEvents(dump))
+      {
+        if (event.getEventType().getName()
+            .equals("org.webcat.etl.Transform"))
+        {
+          transforms.add(event);
+        }
+      }
+
+      // 3 records of each of the 18 good files.
+      assertEquals(18 * 3, transforms.size());
+      for (RecordedEvent event : transforms)
+      {
+        assertTrue(event.getBoolean("success"));
+        assertTrue(event
+            .getLong("inputBytes") > 0);
+      }
+    } finally
+    {
+      Files.deleteIfExists(dump);
+    }
+    assertFalse(recorder.isRecording());
+    assertNull(recorder.dump());
+  }
+
+  @Test
+  void pipelineKeepsPerFileBookkeeping()
+  {
+    ETLPipeline pipeline =
+        new ETLPipeline(
+            new ExtractDataImpl(
+                new InMemoryRawDataRepository(),
+                true, 8, false),
+            this.transform,
+            new InMemoryLoad(), 3, 2, 2, 4,
+            16);
+
+    List<String> fileNames =
+        fileNames(500);
+
+    PipelineResult result =
+        pipeline.run(fileNames);
+
+    assertEquals(100,
+        result.getFailCounter());
+    Long[] ids =
+        result.getProcessedFilesIDs();
+    assertEquals(500, ids.length);
+    for (Integer i = 0; i < 500; i++)
+    {
+      if (i % 5 == 0)
+      {
+        assertNull(ids[i]);
+      } else
+      {
+        assertNotNull(ids[i]);
+      }
+    }
+  }
+
+  @Test
+  void pipelineExtractsAtMostMaxInFlightFiles()
+  {
+    AtomicInteger inFlight =
+        new AtomicInteger(0);
+    AtomicInteger maxSeen =
+        new AtomicInteger(0);
+    RawDataRepository rawRepo =
+        new InMemoryRawDataRepository()
+        {
+          // Every GET takes a while, and is counted until it completes.
+          @Override
+          public CompletableFuture<RawData> findByFileNameAsync(
+              String fileName)
+          {
+            maxSeen.accumulateAndGet(
+                inFlight.incrementAndGet(),
+                Math::max);
+            return CompletableFuture
+                .supplyAsync(
+                    () -> this.findByFileName(
+                        fileName),
+                    CompletableFuture
+                        .delayedExecutor(5,
+                            TimeUnit.MILLISECONDS))
+                .whenComplete((rawData,
+                    e) -> inFlight
+                        .decrementAndGet());
+          }
+        };
+    ETLPipeline pipeline =
+        new ETLPipeline(
+            new ExtractDataImpl(rawRepo,
+                true, 3, false),
+            this.transform,
+            new InMemoryLoad(), 8, 2, 2, 4,
+            16);
+
+    PipelineResult result =
+        pipeline.run(fileNames(60));
+
+    assertEquals(60, result.getFileCount());
+    assertEquals(12,
+        result.getFailCounter());
+    assertTrue(maxSeen.get() <= 3);
+    assertTrue(maxSeen.get() > 1);
+  }
+
+  @Test
+  void webhookHandlesEveryRecordInOneBatch()
+  {
+    DataValidationService dataValidation =
+        mock(DataValidationService.class);
+    when(dataValidation.normaliseNameIDs(
+        List.of("a.json", "c.json")))
+            .thenReturn(new Long[] {1L, null});
+    when(dataValidation
+        .deleteNameMapping("b.json"))
+            .thenReturn(false);
+    ETLMinImp etl = new ETLMinImp(
+        dataValidation, null, null, null,
+        new SnowflakeIDGenerator(1, 1),
+        Runnable::run, 0L,
+        ETLMetrics.NONE);
+
+    WebhookResponseDTO response =
+        etl.handleMinioEvents(List.of(
+            new MinioEventDTO(
+                "s3:ObjectCreated:Put",
+                "a.json"),
+            new MinioEventDTO(
+                "s3:ObjectRemoved:Delete",
+                "b.json"),
+            new MinioEventDTO(
+                "s3:ObjectCreated:Put",
+                "c.json"),
+            new MinioEventDTO(
+                "s3:ObjectCreated:Copy",
+                "d.json")));
+
+    // Both uploads were normalised in a single call.
+    verify(dataValidation)
+        .normaliseNameIDs(
+            List.of("a.json", "c.json"));
+    List<WebhookResponseDTO.RecordResult> records =
+        response.getRecords();
+    assertEquals(ETLStatus.DATANORMALISED,
+        records.get(0).getStatus());
+    assertEquals(1L,
+        records.get(0).getSfID());
+    assertEquals(
+        ETLStatus.READYWITHWARNING,
+        records.get(1).getStatus());
+    assertEquals(ETLStatus.FAILED,
+        records.get(2).getStatus());
+    assertEquals(ETLStatus.READY,
+        records.get(3).getStatus());
+    assertEquals(
+        ETLStatus.READYWITHWARNING,
+        response.getStatus());
+    assertEquals(false,
+        response.getSuccess());
+    assertNull(etl.handleMinioEvents(
+        List.of()));
+  }
+
+  @Test
+  void webhookLeavesSegmentsAndNormalisedNamesAlone()
+  {
+    DataValidationService dataValidation =
+        mock(DataValidationService.class);
+    when(dataValidation.normaliseNameIDs(
+        List.of("e.json")))
+            .thenReturn(new Long[] {2L});
+    ETLMinImp etl = new ETLMinImp(
+        dataValidation, null, null, null,
+        new SnowflakeIDGenerator(1, 1),
+        Runnable::run, 0L,
+        ETLMetrics.NONE);
+
+    // A segment uploaded by the compaction.
+    WebhookResponseDTO response =
+        etl.handleMinioEvents(List.of(
+            new MinioEventDTO(
+                "s3:ObjectCreated:Put",
+                "raw-data_segment-7-1000.seg"),
+            new MinioEventDTO(
+                "s3:ObjectCreated:Put",
+                "e.json")));
+
+    verify(dataValidation)
+        .normaliseNameIDs(
+            List.of("e.json"));
+    assertEquals(ETLStatus.READY,
+        response.getRecords().get(0)
+            .getStatus());
+    assertEquals(ETLStatus.DATANORMALISED,
+        response.getRecords().get(1)
+            .getStatus());
+
+    // Whoever calls the service directly, neither name is renamed.
+    RawDataRepository rawRepo =
+        mock(RawDataRepository.class);
+    when(rawRepo.rawIdOf("raw-data_5.json"))
+        .thenReturn(5L);
+    FileMappingNearCache fileMappings =
+        mock(FileMappingNearCache.class);
+    DataValidationServiceImpl service =
+        new DataValidationServiceImpl(
+            new SnowflakeIDGenerator(1, 1),
+            fileMappings, rawRepo, 4);
+
+    Long[] sfIDs =
+        service.normaliseNameIDs(List.of(
+            "raw-data_5.json",
+            "raw-data_segment-7-1000.seg"));
+
+    assertEquals(5L, sfIDs[0]);
+    assertNull(sfIDs[1]);
+    verify(fileMappings, never())
+        .saveAll(anyList());
+    verify(rawRepo, never())
+        .generateObjectName(anyLong());
+  }
+
+  @Test
+  void webhookQueueHandsJournaledEventsToTheUseCase(
+      @TempDir Path journalDir)
+      throws InterruptedException
+  {
+    ETL etlUseCase = mock(ETL.class);
+    when(etlUseCase
+        .handleMinioEvents(anyList()))
+            .thenAnswer(
+                call -> new WebhookResponseDTO(
+                    List.of()));
+    WebhookIngestionQueue queue =
+        new WebhookIngestionQueue(
+            etlUseCase, new ObjectMapper(),
+            journalDir.toString(), false,
+            1024L, 1, 1, 8);
+
+    queue.start();
+    try
+    {
+      assertEquals(true,
+          queue.enqueue(List.of(
+              new MinioEventDTO(
+                  "s3:ObjectCreated:Put",
+                  "a.json"))));
+
+      verify(etlUseCase, timeout(5000))
+          .handleMinioEvents(argThat(
+              events -> events.size() == 1
+                  && events.get(0)
+                      .getFileName()
+                      .equals("a.json")));
+      // Acked, the queue is empty again.
+      for (Integer i = 0; i < 100
+          && queue.getDepth() > 0; i++)
+      {
+        Thread.sleep(50);
+      }
+      assertEquals(0, queue.getDepth());
+    } finally
+    {
+      queue.stop();
+    }
+  }
+
+  @Test
+  void streamingPipelineLoadsEveryRecord()
+  {
+    InMemoryLoad load = new InMemoryLoad();
+    ETLPipeline pipeline =
+        new ETLPipeline(
+            new ExtractDataImpl(
+                new InMemoryRawDataRepository(),
+                true, 8, true),
+            new TransformDataImpl(
+                TransformPlan.compile(
+                    "{\"fields\": [{\"from\": \"file\", \"type\": \"string\", \"ops\": [\"upper\"]},"
+                        + " {\"from\": \"record\", \"type\": \"long\"}]}")),
+            load, 2, 2, 2, 4, 16);
+
+    PipelineResult result =
+        pipeline.run(fileNames(20));
+
+    // bad-0, bad-10 can't be read, every record of broken-5, broken-15
+    // fails to load.
+    assertEquals(4,
+        result.getFailCounter());
+    assertEquals(16 * 3 + 1,
+        load.nextId.get());
+    Long[] ids =
+        result.getProcessedFilesIDs();
+    for (Integer i = 0; i < 20; i++)
+    {
+      if (i % 5 == 0)
+      {
+        assertNull(ids[i]);
+      } else
+      {
+        assertNotNull(ids[i]);
+      }
+    }
+  }
+
+  @Test
+  void transformPlanProjectsRenamesAndCoerces()
+      throws IOException
+  {
+    TransformPlan plan =
+        TransformPlan.compile(
+            new ClassPathResource(
+                "transform/orders.json")
+                    .getContentAsString(
+                        StandardCharsets.UTF_8));
+
+    assertEquals(
+        "{\"order_id\":7,\"customer_name\":\"Ada\",\"country\":\"DE\","
+            + "\"currency\":\"EUR\",\"total\":1234.50,"
+            + "\"items\":[{\"sku\":\"a\",\"quantity\":2}]}",
+        plan.apply(
+            "{\"ignored\": {\"deep\": [1, 2]}, \"orderId\": \"7\","
+                + " \"customer\": {\"name\": \" Ada \", \"country\": \"de\"},"
+                + " \"currency\": \"eur\", \"total\": \"€1.234,5\","
+                + " \"items\": [{\"sku\": \"a\", \"quantity\": 2}]}"));
+
+    // Arrays are transformed record by record, missing fields fall back to
+    // their default.
+    assertEquals(
+        "[{\"order_id\":1,\"customer_name\":null,\"country\":null,"
+            + "\"currency\":null,\"total\":3.00,\"items\":[]}]",
+        plan.apply(
+            "[{\"orderId\": 1, \"total\": 3}]"));
+
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> plan.apply(
+            "{\"orderId\": \"seven\"}"));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> TransformPlan.compile(
+            "{\"fields\": [{\"from\": \"a\"}, {\"from\": \"a.b\", \"to\": \"b\"}]}"));
+  }
+}
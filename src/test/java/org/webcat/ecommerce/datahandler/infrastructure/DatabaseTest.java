@@ -0,0 +1,747 @@
+package org.webcat.ecommerce.datahandler.infrastructure;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.webcat.ecommerce.datahandler.domain.model.entities.FileMapping;
+import org.webcat.ecommerce.datahandler.domain.model.entities.ProcessedData;
+import org.webcat.ecommerce.datahandler.domain.model.entities.RawData;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ObjectScan;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.ObjectVersion;
+import org.webcat.ecommerce.datahandler.domain.model.valueobjects.SegmentEntry;
+import org.webcat.ecommerce.datahandler.domain.service.datavalidation.implementations.DataValidationServiceImpl;
+import org.webcat.ecommerce.datahandler.infrastructure.cache.FileMappingNearCache;
+import org.webcat.ecommerce.datahandler.infrastructure.cache.LocalObjectCache;
+import org.webcat.ecommerce.datahandler.infrastructure.codec.GzipCodec;
+import org.webcat.ecommerce.datahandler.infrastructure.codec.IdentityCodec;
+import org.webcat.ecommerce.datahandler.infrastructure.codec.RawDataCodec;
+import org.webcat.ecommerce.datahandler.infrastructure.codec.RawDataCodecs;
+import org.webcat.ecommerce.datahandler.infrastructure.codec.ZstdCodec;
+import org.webcat.ecommerce.datahandler.infrastructure.database.FileSystemRawDataRepository;
+import org.webcat.ecommerce.datahandler.infrastructure.database.HedgedRequests;
+import org.webcat.ecommerce.datahandler.infrastructure.database.MySQLProcessedDataRepository;
+import org.webcat.ecommerce.datahandler.infrastructure.database.RawSegments;
+import org.webcat.ecommerce.datahandler.infrastructure.metrics.ETLMetrics;
+import org.webcat.ecommerce.datahandler.infrastructure.queue.WebhookJournal;
+import org.webcat.ecommerce.datahandler.infrastructure.repository.FileMappingRepository;
+import org.webcat.ecommerce.datahandler.infrastructure.repository.RawDataRepository;
+import org.webcat.ecommerce.datahandler.shared.helpers.SnowflakeIDGenerator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class DatabaseTest
+{
+
+  private static Boolean[] savedAll(
+      List<FileMapping> fileMappings)
+  {
+    Boolean[] saved =
+        new Boolean[fileMappings.size()];
+    Arrays.fill(saved, true);
+    return saved;
+  }
+
+  @Test
+  void fileMappingCacheServesBothNamesAfterSave()
+  {
+    FileMappingRepository repo =
+        mock(FileMappingRepository.class);
+    when(repo.saveAll(any())).thenAnswer(
+        call -> savedAll(
+            call.getArgument(0)));
+    FileMappingNearCache cache =
+        new FileMappingNearCache(repo, 10,
+            60L);
+
+    FileMapping mapping = new FileMapping(
+        "orders.json", "raw-data_1.json");
+    cache.save(mapping);
+
+    assertSame(mapping, cache
+        .findByOriginalName("orders.json"));
+    assertSame(mapping, cache
+        .findByNewName("raw-data_1.json"));
+    assertEquals(2L, cache.getHits());
+    assertEquals(0L, cache.getMisses());
+    verify(repo, times(0))
+        .findByNewName(any());
+  }
+
+  @Test
+  void fileMappingCacheForgetsDeletedMappings()
+  {
+    FileMappingRepository repo =
+        mock(FileMappingRepository.class);
+    FileMapping mapping = new FileMapping(
+        "orders.json", "raw-data_1.json");
+    when(repo.findByNewName(
+        "raw-data_1.json"))
+            .thenReturn(mapping);
+    when(repo.deleteByNewName(
+        "raw-data_1.json")).thenReturn(1);
+    FileMappingNearCache cache =
+        new FileMappingNearCache(repo, 10,
+            60L);
+
+    // A miss, then a hit.
+    cache.findByNewName("raw-data_1.json");
+    cache.findByNewName("raw-data_1.json");
+    assertEquals(1L, cache.getMisses());
+    assertEquals(1L, cache.getHits());
+
+    assertEquals(1, cache.deleteByNewName(
+        "raw-data_1.json"));
+    when(repo.findByNewName(
+        "raw-data_1.json")).thenReturn(null);
+
+    assertNull(cache
+        .findByOriginalName("orders.json"));
+    assertNull(cache
+        .findByNewName("raw-data_1.json"));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  void fileMappingCacheEvictsTheLeastRecentlyUsed()
+  {
+    FileMappingRepository repo =
+        mock(FileMappingRepository.class);
+    when(repo.saveAll(any())).thenAnswer(
+        call -> savedAll(
+            call.getArgument(0)));
+    FileMappingNearCache cache =
+        new FileMappingNearCache(repo, 2,
+            60L);
+
+    cache.save(new FileMapping("a.json",
+        "raw-data_1.json"));
+    cache.save(new FileMapping("b.json",
+        "raw-data_2.json"));
+    // Touching the first one so the second is evicted.
+    cache.findByNewName("raw-data_1.json");
+    cache.save(new FileMapping("c.json",
+        "raw-data_3.json"));
+
+    assertEquals(2, cache.getSize());
+    cache.findByNewName("raw-data_2.json");
+    verify(repo, times(1))
+        .findByNewName("raw-data_2.json");
+  }
+
+  @Test
+  void webhookJournalReplaysWhatWasntAcked(
+      @TempDir Path directory)
+      throws IOException
+  {
+    WebhookJournal journal =
+        new WebhookJournal(directory, true,
+            1024L);
+    journal.open();
+    WebhookJournal.Entry first =
+        journal.append("[\"first\"]");
+    journal.append("[\"second\"]");
+    journal.append("[\"third\"]");
+    journal.ack(first.seq());
+    journal.close();
+
+    // A crash in the middle of a write.
+    Files.writeString(
+        directory.resolve("webhook.journal"),
+        "E 4", StandardCharsets.UTF_8,
+        StandardOpenOption.APPEND);
+
+    WebhookJournal reopened =
+        new WebhookJournal(directory, true,
+            1024L);
+    List<WebhookJournal.Entry> unacked =
+        reopened.open();
+
+    assertEquals(2, unacked.size());
+    assertEquals("[\"second\"]",
+        unacked.get(0).payload());
+    assertEquals("[\"third\"]",
+        unacked.get(1).payload());
+    assertEquals(2, reopened.getPending());
+    // Sequence numbers carry on after the replayed ones.
+    assertEquals(4L, reopened
+        .append("[\"fourth\"]").seq());
+    reopened.close();
+  }
+
+  @Test
+  void webhookJournalSkipsATornPayload(
+      @TempDir Path directory)
+      throws IOException
+  {
+    WebhookJournal journal =
+        new WebhookJournal(directory, true,
+            1024L);
+    journal.open();
+    journal.append("[\"first\"]");
+    journal.close();
+
+    // The crash hit after the seq and timestamp were written, the record
+    // still parses but its payload was cut.
+    Files.writeString(
+        directory.resolve("webhook.journal"),
+        "E 2 1700000000000 [\"seco",
+        StandardCharsets.UTF_8,
+        StandardOpenOption.APPEND);
+
+    WebhookJournal reopened =
+        new WebhookJournal(directory, true,
+            1024L);
+    List<WebhookJournal.Entry> unacked =
+        reopened.open();
+
+    assertEquals(1, unacked.size());
+    assertEquals("[\"first\"]",
+        unacked.get(0).payload());
+    assertEquals(2L, reopened
+        .append("[\"second\"]").seq());
+    reopened.close();
+
+    // The torn record is gone after open rewrote the journal.
+    WebhookJournal again =
+        new WebhookJournal(directory, true,
+            1024L);
+    List<WebhookJournal.Entry> replayed =
+        again.open();
+    assertEquals(2, replayed.size());
+    assertEquals("[\"second\"]",
+        replayed.get(1).payload());
+    again.close();
+  }
+
+  @Test
+  void codecsRoundTripAndPlainObjectsStayReadable()
+      throws IOException
+  {
+    RawDataCodecs codecs =
+        new RawDataCodecs(
+            List.of(new GzipCodec(6),
+                new ZstdCodec(3)),
+            "zstd");
+    byte[] json = "{\"orders\": [1, 2, 3]}"
+        .repeat(1000)
+        .getBytes(StandardCharsets.UTF_8);
+
+    for (String encoding : List.of("gzip",
+        "zstd"))
+    {
+      RawDataCodec codec = codecs
+          .forContentEncoding(encoding);
+      ByteArrayOutputStream stored =
+          new ByteArrayOutputStream();
+      try (OutputStream out =
+          codec.encode(stored))
+      {
+        out.write(json);
+      }
+      assertTrue(
+          stored.size() < json.length / 8);
+
+      try (InputStream in = codecs
+          .forContentEncoding(
+              encoding.toUpperCase())
+          .decode(new ByteArrayInputStream(
+              stored.toByteArray())))
+      {
+        assertArrayEquals(json,
+            in.readAllBytes());
+      }
+    }
+
+    // Objects written before compression have no Content-Encoding.
+    assertEquals(IdentityCodec.NAME, codecs
+        .forContentEncoding(null).getName());
+    assertEquals("zstd",
+        codecs.getWriteCodec().getName());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> codecs
+            .forContentEncoding("br"));
+  }
+
+  @Test
+  void localObjectCacheServesCurrentCopiesAndEvicts(
+      @TempDir Path directory)
+      throws IOException
+  {
+    LocalObjectCache cache =
+        new LocalObjectCache(true,
+            directory.toString(), 3000L);
+    byte[] a = "a".repeat(1000)
+        .getBytes(StandardCharsets.UTF_8);
+
+    assertNull(cache.open(
+        "raw-data_1.json", "e1"));
+    // The reader stops short of the end, the rest is read on close.
+    try (InputStream in = cache.fill(
+        "raw-data_1.json", "\"e1\"", "zstd",
+        new ByteArrayInputStream(a)))
+    {
+      in.readNBytes(500);
+    }
+    LocalObjectCache.CachedObject hit =
+        cache.open("raw-data_1.json", "e1");
+    assertNotNull(hit);
+    assertEquals("zstd",
+        hit.contentEncoding());
+    try (InputStream in = hit.content())
+    {
+      assertArrayEquals(a,
+          in.readAllBytes());
+    }
+
+    // Written again since, the copy is dropped.
+    assertNull(cache.open(
+        "raw-data_1.json", "e2"));
+    assertNull(cache.open(
+        "raw-data_1.json", "e1"));
+    assertEquals(0L,
+        cache.getSizeBytes());
+
+    for (String name : List.of(
+        "raw-data_1.json",
+        "raw-data_2.json"))
+    {
+      cache.fill(name, "e1", null,
+          new ByteArrayInputStream(a))
+          .close();
+    }
+    // Touching the first one so the second is evicted.
+    cache.open("raw-data_1.json", "e1")
+        .content().close();
+    cache.fill("raw-data_3.json", "e1", null,
+        new ByteArrayInputStream(a)).close();
+    assertNull(cache.open(
+        "raw-data_2.json", "e1"));
+    assertTrue(
+        cache.getSizeBytes() <= 3000L);
+
+    // The files are indexed again after a restart.
+    LocalObjectCache reopened =
+        new LocalObjectCache(true,
+            directory.toString(), 3000L);
+    hit = reopened.open("raw-data_3.json",
+        "e1");
+    assertNotNull(hit);
+    assertNull(hit.contentEncoding());
+    try (InputStream in = hit.content())
+    {
+      assertArrayEquals(a,
+          in.readAllBytes());
+    }
+    assertEquals(cache.getSizeBytes(),
+        reopened.getSizeBytes());
+  }
+
+  @Test
+  void fileSystemStoreSavesRenamesAndLists(
+      @TempDir Path directory)
+      throws IOException
+  {
+    FileSystemRawDataRepository repo =
+        new FileSystemRawDataRepository(
+            ETLMetrics.NONE,
+            directory.toString(), true);
+
+    repo.save(new RawData(42L,
+        "{\"orders\": []}"));
+    assertEquals("{\"orders\": []}",
+        repo.findById(42L).getRawContent());
+    String etag = repo
+        .stat("raw-data_42.json").etag();
+
+    // An upload, renamed by the normalisation.
+    Path upload = directory.resolve(
+        "names/uploads/orders.json");
+    Files.createDirectories(
+        upload.getParent());
+    Files.writeString(upload,
+        "{\"id\": 7, \"rawContent\": \"{}\"}");
+    List<String> listed = new ArrayList<>();
+    repo.listObjectNames(new ObjectScan(null,
+        "uploads/", null, null))
+        .forEachRemaining(listed::add);
+    assertEquals(
+        List.of("uploads/orders.json"),
+        listed);
+
+    assertTrue(repo.renameObject(
+        "uploads/orders.json",
+        repo.generateObjectName(7L)));
+    assertFalse(Files.exists(upload));
+    assertEquals(7L, repo
+        .findByFileName("raw-data_7.json")
+        .getID());
+
+    listed.clear();
+    repo.listObjectNames(new ObjectScan(null,
+        "raw-data_", null, null))
+        .forEachRemaining(listed::add);
+    listed.sort(null);
+    assertEquals(List.of("raw-data_42.json",
+        "raw-data_7.json"), listed);
+
+    // Written again, the version changes.
+    repo.save(new RawData(42L,
+        "{\"orders\": [1]}"));
+    assertFalse(etag.equals(repo
+        .stat("raw-data_42.json").etag()));
+    assertFalse(repo.renameObject(
+        "../outside.json", "raw-data_8.json"));
+  }
+
+  @Test
+  void fileSystemListingReleasesItsDirectories(
+      @TempDir Path directory)
+      throws Exception
+  {
+    FileSystemRawDataRepository repo =
+        new FileSystemRawDataRepository(
+            ETLMetrics.NONE,
+            directory.toString(), false);
+    for (Integer i = 0; i < 3; i++)
+    {
+      Path upload = directory.resolve(
+          "names/uploads/" + i + "/orders.json");
+      Files.createDirectories(
+          upload.getParent());
+      Files.writeString(upload, "{}");
+    }
+
+    Long before = openFiles();
+    for (Integer i = 0; i < 200; i++)
+    {
+      // A reader that stops after the first name closes the rest.
+      Iterator<String> listing =
+          repo.listObjectNames(new ObjectScan(
+              null, "uploads/", null, null));
+      assertNotNull(listing.next());
+      ((AutoCloseable) listing).close();
+      assertFalse(listing.hasNext());
+    }
+    if (before != null)
+    {
+      assertTrue(openFiles() < before + 10);
+    }
+  }
+
+  // The number of open file descriptors, null where /proc isn't there.
+  private static Long openFiles()
+      throws IOException
+  {
+    Path fds = Path.of("/proc/self/fd");
+    if (!Files.isDirectory(fds))
+    {
+      return null;
+    }
+    try (Stream<Path> open = Files.list(fds))
+    {
+      return open.count();
+    }
+  }
+
+  @Test
+  void hedgedRequestKeepsTheFirstAnswer()
+      throws Exception
+  {
+    ETLMetrics metrics = new ETLMetrics(
+        new SimpleMeterRegistry());
+    HedgedRequests hedged =
+        new HedgedRequests(true, 0.5, 1L,
+            metrics);
+    AutoCloseable answer = () -> {};
+    // Nothing is hedged before the delay is known.
+    for (Integer i = 0; i < 128; i++)
+    {
+      hedged.send(() -> CompletableFuture
+          .completedFuture(answer)).get();
+    }
+    assertEquals(1L,
+        hedged.getDelayMillis());
+
+    AtomicBoolean slowClosed =
+        new AtomicBoolean(false);
+    AutoCloseable slowAnswer =
+        () -> slowClosed.set(true);
+    CompletableFuture<AutoCloseable> slow =
+        new CompletableFuture<>();
+    AtomicInteger sent = new AtomicInteger(0);
+    CompletableFuture<AutoCloseable> response =
+        hedged.send(
+            () -> sent.getAndIncrement() == 0
+                ? slow
+                : CompletableFuture
+                    .completedFuture(answer));
+    assertSame(answer,
+        response.get(5, TimeUnit.SECONDS));
+    assertEquals(1.0, metrics
+        .getLakeGetHedges().count());
+    assertEquals(1.0, metrics
+        .getLakeGetHedgeWins().count());
+    // The slow answer is closed once it arrives.
+    slow.complete(slowAnswer);
+    assertTrue(slowClosed.get());
+
+    // A request only fails once both copies did.
+    CompletableFuture<AutoCloseable> failed =
+        hedged.send(() -> CompletableFuture
+            .failedFuture(new IOException(
+                "unavailable")));
+    ExecutionException e = assertThrows(
+        ExecutionException.class,
+        () -> failed.get(5,
+            TimeUnit.SECONDS));
+    assertEquals("unavailable",
+        e.getCause().getMessage());
+  }
+
+  @Test
+  void segmentFooterIndexesPackedObjects()
+      throws IOException
+  {
+    String segmentName =
+        RawSegments.name(7L, 1000L);
+    assertTrue(
+        RawSegments.isSegment(segmentName));
+    assertFalse(RawSegments
+        .isSegment("raw-data_7.json"));
+
+    List<SegmentEntry> entries = List.of(
+        new SegmentEntry(7L, segmentName, 0L,
+            120, "zstd",
+            new ObjectVersion("e7",
+                Instant.ofEpochMilli(5000L))),
+        new SegmentEntry(9L, segmentName,
+            120L, 40, null,
+            new ObjectVersion(null, null)));
+    ByteArrayOutputStream segment =
+        new ByteArrayOutputStream();
+    segment.write(new byte[160]);
+    RawSegments.writeFooter(segment, 160L,
+        entries);
+    byte[] bytes = segment.toByteArray();
+
+    // The footer is read from the last bytes only.
+    Integer tailOffset = 100;
+    assertEquals(entries,
+        RawSegments.readFooter(segmentName,
+            Arrays.copyOfRange(bytes,
+                tailOffset, bytes.length),
+            tailOffset.longValue()));
+    assertThrows(IOException.class,
+        () -> RawSegments.readFooter(
+            segmentName,
+            Arrays.copyOfRange(bytes, 170,
+                bytes.length),
+            170L));
+  }
+
+  @Test
+  void compactedObjectsKeepTheirNameMappings()
+  {
+    FileMappingNearCache fileMappings =
+        mock(FileMappingNearCache.class);
+    RawDataRepository rawDataRepo =
+        mock(RawDataRepository.class);
+    when(rawDataRepo
+        .isCompacted("raw-data_1.json"))
+            .thenReturn(true);
+    when(fileMappings
+        .deleteByNewName("raw-data_2.json"))
+            .thenReturn(1);
+    DataValidationServiceImpl dataValidation =
+        new DataValidationServiceImpl(
+            new SnowflakeIDGenerator(1, 1),
+            fileMappings, rawDataRepo, 4);
+
+    // Removed by the compaction, still read from its segment.
+    assertTrue(dataValidation
+        .deleteNameMapping("raw-data_1.json"));
+    verify(fileMappings, times(0))
+        .deleteByNewName("raw-data_1.json");
+    assertTrue(dataValidation
+        .deleteNameMapping("raw-data_2.json"));
+  }
+
+  @Test
+  void failedBatchIsRolledBackBeforeTheRowByRowRetry()
+  {
+    // The table, and the rows inserted by the open transaction. Without
+    // one a statement commits on its own.
+    Set<Long> table = new HashSet<>();
+    Set<Long> uncommitted = new HashSet<>();
+    AtomicBoolean inTransaction =
+        new AtomicBoolean(false);
+    JdbcTemplate jdbcTemplate =
+        mock(JdbcTemplate.class);
+    PlatformTransactionManager transactionManager =
+        mock(PlatformTransactionManager.class);
+    when(transactionManager
+        .getTransaction(any()))
+            .thenAnswer(invocation -> {
+              inTransaction.set(true);
+              return new SimpleTransactionStatus();
+            });
+    doAnswer(invocation -> {
+      inTransaction.set(false);
+      table.addAll(uncommitted);
+      uncommitted.clear();
+      return null;
+    }).when(transactionManager).commit(any());
+    doAnswer(invocation -> {
+      inTransaction.set(false);
+      uncommitted.clear();
+      return null;
+    }).when(transactionManager).rollback(any());
+
+    // The first multi-row insert of the batch goes through, the second
+    // fails on the row of raw id 3.
+    doAnswer(invocation -> {
+      List<ProcessedData> batch =
+          invocation.getArgument(1);
+      Set<Long> inserted = inTransaction.get()
+          ? uncommitted
+          : table;
+      inserted.add(batch.get(0).getId());
+      inserted.add(batch.get(1).getId());
+      throw new DataIntegrityViolationException(
+          "Bad row");
+    }).when(jdbcTemplate).batchUpdate(
+        anyString(), any(), anyInt(), any());
+    when(jdbcTemplate.update(anyString(),
+        any(Object[].class)))
+            .thenAnswer(invocation -> {
+              Long id = invocation.getArgument(1);
+              Long rawId =
+                  invocation.getArgument(2);
+              if (rawId == 3L || !table.add(id))
+              {
+                throw new DuplicateKeyException(
+                    "Bad row");
+              }
+              return 1;
+            });
+
+    MySQLProcessedDataRepository repository =
+        new MySQLProcessedDataRepository(null,
+            jdbcTemplate, transactionManager,
+            new SnowflakeIDGenerator(1, 1), 4);
+    List<ProcessedData> rows = new ArrayList<>();
+    for (Long rawId = 1L; rawId <= 4L; rawId++)
+    {
+      rows.add(new ProcessedData(rawId, "{}",
+          ProcessedData.Status.SUCCESS,
+          new Timestamp(0L)));
+    }
+
+    Boolean[] results =
+        repository.saveAll(rows);
+
+    assertArrayEquals(new Boolean[] {true,
+        true, false, true}, results);
+    assertNotNull(rows.get(0).getId());
+    assertNull(rows.get(2).getId());
+    assertEquals(3, table.size());
+    // The batch's, and the bad row's own.
+    verify(transactionManager, times(2))
+        .rollback(any());
+  }
+
+  @Test
+  void reloadedRowsReplaceTheOldOnesWhenSaved()
+  {
+    JdbcTemplate jdbcTemplate =
+        mock(JdbcTemplate.class);
+    PlatformTransactionManager transactionManager =
+        mock(PlatformTransactionManager.class);
+    when(transactionManager
+        .getTransaction(any()))
+            .thenAnswer(invocation -> new SimpleTransactionStatus());
+    MySQLProcessedDataRepository repository =
+        new MySQLProcessedDataRepository(null,
+            jdbcTemplate, transactionManager,
+            new SnowflakeIDGenerator(1, 1), 4);
+    ProcessedData reloaded =
+        new ProcessedData(1L, "{}",
+            ProcessedData.Status.SUCCESS,
+            new Timestamp(0L));
+    reloaded.setReplaceBefore(100L);
+    ProcessedData loaded =
+        new ProcessedData(2L, "{}",
+            ProcessedData.Status.SUCCESS,
+            new Timestamp(0L));
+
+    repository.saveAll(
+        new ArrayList<>(List.of(reloaded,
+            loaded)));
+
+    // Only the reloaded row's raw data loses its old rows, in the
+    // transaction of the insert.
+    InOrder order = inOrder(
+        transactionManager, jdbcTemplate);
+    order.verify(transactionManager)
+        .getTransaction(any());
+    order.verify(jdbcTemplate).batchUpdate(
+        startsWith("delete"),
+        argThat((List<ProcessedData> rows) -> rows
+            .equals(List.of(reloaded))),
+        anyInt(), any());
+    order.verify(jdbcTemplate).batchUpdate(
+        startsWith("insert"), any(),
+        anyInt(), any());
+    order.verify(transactionManager)
+        .commit(any());
+  }
+}
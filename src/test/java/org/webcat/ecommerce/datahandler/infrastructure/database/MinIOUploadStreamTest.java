@@ -0,0 +1,222 @@
+package org.webcat.ecommerce.datahandler.infrastructure.database;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import io.minio.messages.Part;
+
+// In the package of the upload classes, they aren't public.
+class MinIOUploadStreamTest
+{
+
+  private static final String BUCKET =
+      "raw-data";
+  private static final String OBJECT =
+      "raw-data_1.json";
+
+  private static MinIOUploadStream upload(
+      MinIOMultipartClient client,
+      Integer partSize,
+      Integer maxParallelParts)
+  {
+    return new MinIOUploadStream(client,
+        BUCKET, OBJECT, "application/json",
+        null, partSize, maxParallelParts);
+  }
+
+  @Test
+  void objectThatFitsInAPartIsOnePutOfItsBytes()
+      throws Exception
+  {
+    MinIOMultipartClient client =
+        mock(MinIOMultipartClient.class);
+    // Two characters of two bytes each, a String's length() is short of
+    // the byte count.
+    byte[] json = "{\"name\": \"éé\"}"
+        .getBytes(StandardCharsets.UTF_8);
+
+    try (MinIOUploadStream upload =
+        upload(client, 64, 2))
+    {
+      upload.write(json);
+      upload.finish();
+      assertEquals(json.length,
+          upload.getTotalBytes());
+    }
+
+    verify(client).putBytes(eq(BUCKET),
+        eq(OBJECT), eq("application/json"),
+        isNull(), argThat(
+            (byte[] data) -> new String(data, 0,
+                json.length,
+                StandardCharsets.UTF_8)
+                .equals("{\"name\": \"éé\"}")),
+        eq(json.length));
+    verify(client, never()).createUpload(
+        anyString(), anyString(), anyString(),
+        any());
+
+    // Exactly a part is still a single PUT.
+    MinIOMultipartClient boundary =
+        mock(MinIOMultipartClient.class);
+    try (MinIOUploadStream upload =
+        upload(boundary, json.length, 2))
+    {
+      upload.write(json);
+      upload.finish();
+    }
+    verify(boundary).putBytes(eq(BUCKET),
+        eq(OBJECT), anyString(), isNull(),
+        any(), eq(json.length));
+    verify(boundary, never()).createUpload(
+        anyString(), anyString(), anyString(),
+        any());
+  }
+
+  @Test
+  void largerObjectIsSentAsPartsWithBoundedParallelism()
+      throws Exception
+  {
+    MinIOMultipartClient client =
+        mock(MinIOMultipartClient.class);
+    when(client.createUpload(BUCKET, OBJECT,
+        "application/json", null))
+            .thenReturn("upload-1");
+    Map<Integer, byte[]> sent =
+        new ConcurrentHashMap<>();
+    AtomicInteger inFlight =
+        new AtomicInteger(0);
+    AtomicInteger maxInFlight =
+        new AtomicInteger(0);
+    when(client.uploadPart(eq(BUCKET),
+        eq(OBJECT), eq("upload-1"), anyInt(),
+        any())).thenAnswer(invocation -> {
+          Integer partNumber =
+              invocation.getArgument(3);
+          byte[] data = invocation.getArgument(4);
+          sent.put(partNumber, data.clone());
+          maxInFlight.accumulateAndGet(
+              inFlight.incrementAndGet(),
+              Math::max);
+          // Every part takes a while to upload.
+          return CompletableFuture.supplyAsync(
+              () -> {
+                inFlight.decrementAndGet();
+                return new Part(partNumber,
+                    "etag-" + partNumber);
+              },
+              CompletableFuture.delayedExecutor(
+                  5, TimeUnit.MILLISECONDS));
+        });
+
+    // Ten parts of 4 bytes and a remainder of 2.
+    byte[] content = new byte[42];
+    for (Integer i = 0; i < content.length; i++)
+    {
+      content[i] = (byte) i.intValue();
+    }
+    try (MinIOUploadStream upload =
+        upload(client, 4, 2))
+    {
+      upload.write(content, 0, 20);
+      for (Integer i = 20; i < content.length; i++)
+      {
+        upload.write(content[i]);
+      }
+      upload.finish();
+      assertEquals(42L,
+          upload.getTotalBytes());
+    }
+
+    assertEquals(11, sent.size());
+    assertEquals(2, sent.get(11).length);
+    ByteArrayOutputStream uploaded =
+        new ByteArrayOutputStream();
+    for (Integer i = 1; i <= 11; i++)
+    {
+      uploaded.write(sent.get(i));
+    }
+    assertArrayEquals(content,
+        uploaded.toByteArray());
+    assertTrue(maxInFlight.get() <= 2);
+    verify(client).completeUpload(eq(BUCKET),
+        eq(OBJECT), eq("upload-1"),
+        argThat((Part[] parts) -> parts.length == 11
+            && parts[10].partNumber() == 11));
+    verify(client, never()).putBytes(
+        anyString(), anyString(), anyString(),
+        any(), any(), anyInt());
+  }
+
+  @Test
+  void closeWithoutFinishAbortsTheUpload()
+      throws Exception
+  {
+    MinIOMultipartClient client =
+        mock(MinIOMultipartClient.class);
+    when(client.createUpload(BUCKET, OBJECT,
+        "application/json", null))
+            .thenReturn("upload-1");
+    when(client.uploadPart(anyString(),
+        anyString(), anyString(), anyInt(),
+        any())).thenAnswer(
+            invocation -> CompletableFuture
+                .completedFuture(new Part(
+                    invocation.getArgument(3),
+                    "etag")));
+
+    // The serialization fails after two parts were sent.
+    assertThrows(IOException.class, () -> {
+      try (MinIOUploadStream upload =
+          upload(client, 4, 2))
+      {
+        upload.write(new byte[10]);
+        throw new IOException(
+            "Serialization failed");
+      }
+    });
+
+    verify(client).abortUpload(BUCKET,
+        OBJECT, "upload-1");
+    verify(client, never()).completeUpload(
+        anyString(), anyString(), anyString(),
+        any());
+
+    // An object that never outgrew a part isn't stored at all.
+    MinIOMultipartClient small =
+        mock(MinIOMultipartClient.class);
+    try (MinIOUploadStream upload =
+        upload(small, 64, 2))
+    {
+      upload.write(new byte[10]);
+    }
+    verify(small, never()).putBytes(
+        anyString(), anyString(), anyString(),
+        any(), any(), anyInt());
+    verify(small, never()).abortUpload(
+        anyString(), anyString(), anyString());
+  }
+}
@@ -0,0 +1,191 @@
+package org.webcat.ecommerce.datahandler.shared;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+import org.webcat.ecommerce.datahandler.domain.model.entities.RawData;
+import org.webcat.ecommerce.datahandler.shared.helpers.ByteArrayPool;
+import org.webcat.ecommerce.datahandler.shared.helpers.JsonRecordReader;
+import org.webcat.ecommerce.datahandler.shared.helpers.SnowflakeIDGenerator;
+
+import com.fasterxml.jackson.core.JsonFactory;
+
+class UtilsTest
+{
+
+  @Test
+  void snowflakeIdsAreIncreasingAndCarryTheNode()
+  {
+    SnowflakeIDGenerator generator =
+        new SnowflakeIDGenerator(3, 7);
+
+    long previous = -1L;
+    for (Integer i = 0; i < 20000; i++)
+    {
+      long id = generator.generateId();
+      assertTrue(id > previous);
+      // Datacenter and machine bits.
+      assertEquals(3L, (id >>> 17) & 31L);
+      assertEquals(7L, (id >>> 12) & 31L);
+      previous = id;
+    }
+  }
+
+  @Test
+  void snowflakeIdBlocksDontOverlap()
+  {
+    SnowflakeIDGenerator generator =
+        new SnowflakeIDGenerator(1, 1);
+
+    long[] first =
+        generator.generateIds(10000);
+    long[] second =
+        generator.generateIds(10000);
+
+    assertEquals(10000, first.length);
+    for (Integer i = 1; i < first.length; i++)
+    {
+      assertTrue(first[i] > first[i - 1]);
+    }
+    assertTrue(second[0] > first[first.length
+        - 1]);
+    assertEquals(0,
+        generator.generateIds(0).length);
+  }
+
+  @Test
+  void snowflakeIdsAreUniqueUnderContention()
+      throws InterruptedException
+  {
+    SnowflakeIDGenerator generator =
+        new SnowflakeIDGenerator(1, 1);
+    Set<Long> ids =
+        ConcurrentHashMap.newKeySet();
+
+    try (ExecutorService executor =
+        Executors.newFixedThreadPool(8))
+    {
+      for (Integer t = 0; t < 8; t++)
+      {
+        executor.submit(() -> {
+          for (Integer i = 0; i < 5000; i++)
+          {
+            ids.add(generator.generateId());
+          }
+          for (long id : generator
+              .generateIds(5000))
+          {
+            ids.add(id);
+          }
+        });
+      }
+    }
+
+    assertEquals(80000, ids.size());
+  }
+
+  @Test
+  void snowflakeRejectsOutOfRangeNodes()
+  {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new SnowflakeIDGenerator(32,
+            1));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new SnowflakeIDGenerator(1,
+            -1));
+  }
+
+  private static List<RawData> readRecords(
+      String json)
+      throws IOException, InterruptedException
+  {
+    List<RawData> records =
+        new ArrayList<>();
+    new JsonRecordReader(new JsonFactory())
+        .read(new ByteArrayInputStream(
+            json.getBytes(
+                StandardCharsets.UTF_8)),
+            7L, records::add);
+    return records;
+  }
+
+  @Test
+  void jsonRecordReaderReadsArraysAndNdjson()
+      throws IOException, InterruptedException
+  {
+    List<RawData> fromArray = readRecords(
+        "[{\"sku\": \"a\"}, {\"sku\": \"b\", \"tags\": [1, 2]}]");
+    List<RawData> fromNdjson =
+        readRecords(
+            "{\"sku\": \"a\"}\n{\"sku\": \"b\", \"tags\": [1, 2]}\n");
+
+    for (List<RawData> records : List
+        .of(fromArray, fromNdjson))
+    {
+      assertEquals(2, records.size());
+      assertEquals(7L,
+          records.get(1).getID());
+      assertEquals(1, records.get(1)
+          .getRecordIndex());
+      assertEquals(
+          "{\"sku\":\"b\",\"tags\":[1,2]}",
+          records.get(1).getRawContent());
+    }
+    assertEquals(0,
+        readRecords("[]").size());
+    assertThrows(IOException.class,
+        () -> readRecords(
+            "[{\"sku\": \"a\"}"));
+  }
+
+  @Test
+  void pooledRecordsAreBytesWithAStringView()
+      throws IOException, InterruptedException
+  {
+    ByteArrayPool pool = new ByteArrayPool(
+        1 << 20, 1L << 20);
+    List<RawData> records =
+        new ArrayList<>();
+    new JsonRecordReader(new JsonFactory(),
+        pool).read(
+            new ByteArrayInputStream(
+                "[{\"name\": \"Zoë\"}]".getBytes(
+                    StandardCharsets.UTF_8)),
+            7L, records::add);
+
+    RawData record = records.get(0);
+    assertTrue(record.hasBytes());
+    assertEquals(
+        "{\"name\":\"Zoë\"}".getBytes(
+            StandardCharsets.UTF_8).length,
+        record.getContentLength());
+    assertEquals("{\"name\":\"Zoë\"}",
+        record.getRawContent());
+
+    // The released array is handed out again.
+    byte[] array = record.getContentArray();
+    record.release();
+    record.release();
+    assertEquals(array.length,
+        pool.getRetainedBytes());
+    assertSame(array,
+        pool.acquire(array.length));
+    assertEquals(0L,
+        pool.getRetainedBytes());
+  }
+}